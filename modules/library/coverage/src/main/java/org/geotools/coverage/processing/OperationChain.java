@@ -0,0 +1,699 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.processing;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.media.jai.Interpolation;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.coverage.grid.GridGeometry;
+import org.opengis.geometry.Envelope;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A sequence of coverage operations which is simplified as a whole before being executed.
+ * <p>
+ * Applying the operations of a processing chain one by one through {@link Operations} builds
+ * an intermediate coverage, with its own image, for each of them. An {@code OperationChain}
+ * instead collects the operations first, and rewrites the sequence before running it:
+ * <ul>
+ *   <li>band selections are moved as close as possible to the source, so that the following
+ *       operations only process the bands that are actually needed, and consecutive band
+ *       selections are merged into a single one;</li>
+ *   <li>consecutive scales using the same interpolation are composed into a single scale,
+ *       consecutive crops are intersected, consecutive rescales on floating point data are
+ *       combined into a single linear transform, and a resample to a plain CRS followed by
+ *       another resample is folded into the latter;</li>
+ *   <li>operations which do not change the coverage (unit scales, identity rescales, crops
+ *       containing the whole coverage, band selections keeping all the bands in order) are
+ *       removed.</li>
+ * </ul>
+ * The remaining operations are executed through the {@link CoverageProcessor}, so they keep
+ * the JAI deferred execution: no pixel is computed until the result image is rendered.
+ * <p>
+ * Operations added with {@link #add(ParameterValueGroup)} are executed as they are and act as
+ * barriers, nothing gets moved or merged across them.
+ * <p>
+ * Note that fusing two interpolating scales or resamples interpolates the source once instead of
+ * twice, so the result is close to, but not necessarily the same as, the one of the unfused chain.
+ *
+ * @source $URL$
+ * @version $Id$
+ *
+ * @since 8.x
+ */
+public class OperationChain {
+
+    /**
+     * The processor executing the operations.
+     */
+    private final CoverageProcessor processor;
+
+    /**
+     * The operations, in the order they have been added.
+     */
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * Creates a new chain using the default processor.
+     */
+    public OperationChain() {
+        this(CoverageProcessor.getInstance());
+    }
+
+    /**
+     * Creates a new chain using the specified processor.
+     *
+     * @param processor The processor executing the operations.
+     */
+    public OperationChain(final CoverageProcessor processor) {
+        if (processor == null) {
+            throw new IllegalArgumentException("The processor cannot be null");
+        }
+        this.processor = processor;
+    }
+
+    /**
+     * Appends a crop to the specified envelope.
+     *
+     * @param envelope The rectangular area to keep.
+     * @return This chain.
+     *
+     * @see Operations#crop
+     */
+    public OperationChain crop(final Envelope envelope) {
+        steps.add(new CropStep(envelope));
+        return this;
+    }
+
+    /**
+     * Appends a scale, using a nearest neighbour interpolation.
+     *
+     * @return This chain.
+     *
+     * @see Operations#scale(org.opengis.coverage.grid.GridCoverage, double, double, double, double)
+     */
+    public OperationChain scale(final double xScale, final double yScale, final double xTrans,
+            final double yTrans) {
+        return scale(xScale, yScale, xTrans, yTrans,
+                Interpolation.getInstance(Interpolation.INTERP_NEAREST));
+    }
+
+    /**
+     * Appends a scale.
+     *
+     * @param interpolation The interpolation to use, or {@code null} for the default.
+     * @return This chain.
+     *
+     * @see Operations#scale(org.opengis.coverage.grid.GridCoverage, double, double, double, double,
+     *      Interpolation)
+     */
+    public OperationChain scale(final double xScale, final double yScale, final double xTrans,
+            final double yTrans, final Interpolation interpolation) {
+        steps.add(new ScaleStep(xScale, yScale, xTrans, yTrans, interpolation));
+        return this;
+    }
+
+    /**
+     * Appends a selection of sample dimensions.
+     *
+     * @param sampleDimensions The sample dimensions to select.
+     * @return This chain.
+     *
+     * @see Operations#selectSampleDimension
+     */
+    public OperationChain selectSampleDimension(final int[] sampleDimensions) {
+        steps.add(new BandSelectStep(sampleDimensions.clone()));
+        return this;
+    }
+
+    /**
+     * Appends a rescale, that is {@code dst[b] = src[b] * constants[b] + offsets[b]}.
+     *
+     * @param constants The per-band constants to multiply by.
+     * @param offsets The per-band offsets to be added.
+     * @return This chain.
+     *
+     * @see Operations#rescale
+     */
+    public OperationChain rescale(final double[] constants, final double[] offsets) {
+        steps.add(new RescaleStep(constants.clone(), offsets.clone()));
+        return this;
+    }
+
+    /**
+     * Appends a resample.
+     *
+     * @param crs The target coordinate reference system, or {@code null} for keeping it unchanged.
+     * @param gridGeometry The grid geometry, or {@code null} for a default one.
+     * @param interpolationType The interpolation type, or {@code null} for the default one.
+     * @return This chain.
+     *
+     * @see Operations#resample(org.opengis.coverage.grid.GridCoverage, CoordinateReferenceSystem,
+     *      GridGeometry, Interpolation)
+     */
+    public OperationChain resample(final CoordinateReferenceSystem crs,
+            final GridGeometry gridGeometry, final Interpolation interpolationType) {
+        steps.add(new ResampleStep(crs, gridGeometry, interpolationType, null));
+        return this;
+    }
+
+    /**
+     * Appends an arbitrary operation. The {@code "Source"} parameter is set when the chain is
+     * executed, the other parameters are used as they are. The operation is never moved nor
+     * merged with the ones around it.
+     *
+     * @param parameters The operation parameters, as returned by
+     *        {@code processor.getOperation(name).getParameters()}.
+     * @return This chain.
+     */
+    public OperationChain add(final ParameterValueGroup parameters) {
+        steps.add(new GenericStep(parameters.clone()));
+        return this;
+    }
+
+    /**
+     * Simplifies the chain and applies it to the specified coverage.
+     *
+     * @param source The source coverage.
+     * @return The result of the chain, or {@code source} if there is nothing to do.
+     * @throws CoverageProcessingException if an operation can't be applied.
+     */
+    public GridCoverage2D execute(final GridCoverage2D source) throws CoverageProcessingException {
+        GridCoverage2D coverage = source;
+        for (Step step : optimize(source)) {
+            if (step.isIdentity(coverage)) {
+                continue;
+            }
+            final ParameterValueGroup parameters = step.getParameters(processor);
+            parameters.parameter("Source").setValue(coverage);
+            coverage = (GridCoverage2D) processor.doOperation(parameters);
+        }
+        return coverage;
+    }
+
+    /**
+     * Returns the simplified sequence of operations for the specified source coverage.
+     */
+    List<Step> optimize(final GridCoverage2D source) {
+        final List<Step> result = new ArrayList<Step>(steps);
+        final int dataType = source.getRenderedImage().getSampleModel().getDataType();
+        final boolean floating = dataType == DataBuffer.TYPE_FLOAT
+                || dataType == DataBuffer.TYPE_DOUBLE;
+        removeIdentities(result);
+        pushBandSelections(result);
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < result.size() - 1; i++) {
+                final Step merged = result.get(i).merge(result.get(i + 1), floating);
+                if (merged != null) {
+                    result.remove(i + 1);
+                    if (merged.isIdentity()) {
+                        // the steps around may now be merged together
+                        result.remove(i);
+                        i = Math.max(i - 2, -1);
+                    } else {
+                        result.set(i, merged);
+                        i--;
+                    }
+                    changed = true;
+                }
+            }
+        } while (changed);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Removes the steps which are known not to change the coverage whatever the source.
+     */
+    private static void removeIdentities(final List<Step> steps) {
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            if (steps.get(i).isIdentity()) {
+                steps.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Moves the band selections before the steps processing all bands the same way.
+     */
+    private static void pushBandSelections(final List<Step> steps) {
+        for (int i = 1; i < steps.size(); i++) {
+            if (!(steps.get(i) instanceof BandSelectStep)) {
+                continue;
+            }
+            int j = i;
+            while (j > 0) {
+                final BandSelectStep select = (BandSelectStep) steps.get(j);
+                final Step previous = steps.get(j - 1);
+                final Step moved;
+                if (previous instanceof CropStep || previous instanceof ScaleStep) {
+                    moved = previous;
+                } else if (previous instanceof ResampleStep) {
+                    moved = ((ResampleStep) previous).select(select.bands);
+                    if (moved == null) {
+                        break;
+                    }
+                } else if (previous instanceof RescaleStep) {
+                    moved = ((RescaleStep) previous).select(select.bands);
+                    if (moved == null) {
+                        break;
+                    }
+                } else {
+                    break;
+                }
+                steps.set(j - 1, select);
+                steps.set(j, moved);
+                j--;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the two interpolations give the same results.
+     */
+    static boolean sameInterpolation(final Interpolation i1, final Interpolation i2) {
+        if (i1 == i2) {
+            return true;
+        }
+        if (i1 == null || i2 == null || i1.getClass() != i2.getClass()) {
+            return false;
+        }
+        return i1.getSubsampleBitsH() == i2.getSubsampleBitsH()
+                && i1.getSubsampleBitsV() == i2.getSubsampleBitsV()
+                && i1.getLeftPadding() == i2.getLeftPadding()
+                && i1.getTopPadding() == i2.getTopPadding()
+                && i1.getWidth() == i2.getWidth() && i1.getHeight() == i2.getHeight();
+    }
+
+    /**
+     * A single operation of the chain.
+     */
+    static abstract class Step {
+        /**
+         * The name of the operation in the {@link CoverageProcessor}.
+         */
+        abstract String getOperationName();
+
+        /**
+         * Returns the operation parameters, without the source.
+         */
+        ParameterValueGroup getParameters(final CoverageProcessor processor) {
+            final ParameterValueGroup parameters = processor.getOperation(getOperationName())
+                    .getParameters();
+            setParameters(parameters);
+            return parameters;
+        }
+
+        /**
+         * Sets the operation specific parameters.
+         */
+        abstract void setParameters(ParameterValueGroup parameters);
+
+        /**
+         * Returns {@code true} if this step does not change any coverage.
+         */
+        boolean isIdentity() {
+            return false;
+        }
+
+        /**
+         * Returns {@code true} if this step does not change the specified coverage.
+         */
+        boolean isIdentity(final GridCoverage2D coverage) {
+            return isIdentity();
+        }
+
+        /**
+         * Returns a single step equivalent to this step followed by the specified one, or
+         * {@code null} if they cannot be merged.
+         *
+         * @param next The step following this one.
+         * @param floating {@code true} if the source coverage holds floating point data.
+         */
+        Step merge(final Step next, final boolean floating) {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return getOperationName();
+        }
+    }
+
+    static final class CropStep extends Step {
+        final Envelope envelope;
+
+        CropStep(final Envelope envelope) {
+            this.envelope = envelope;
+        }
+
+        String getOperationName() {
+            return "CoverageCrop";
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+            parameters.parameter("Envelope").setValue(envelope);
+        }
+
+        @Override
+        boolean isIdentity(final GridCoverage2D coverage) {
+            final Envelope coverageEnvelope = coverage.getEnvelope();
+            final CoordinateReferenceSystem crs = envelope.getCoordinateReferenceSystem();
+            if (envelope.getDimension() != coverageEnvelope.getDimension() || (crs != null
+                    && !CRS.equalsIgnoreMetadata(crs, coverage.getCoordinateReferenceSystem()))) {
+                return false;
+            }
+            final GeneralEnvelope cropEnvelope = new GeneralEnvelope(envelope);
+            cropEnvelope.setCoordinateReferenceSystem(
+                    coverageEnvelope.getCoordinateReferenceSystem());
+            return cropEnvelope.contains(coverageEnvelope, true);
+        }
+
+        @Override
+        Step merge(final Step next, final boolean floating) {
+            if (!(next instanceof CropStep)) {
+                return null;
+            }
+            final Envelope other = ((CropStep) next).envelope;
+            final CoordinateReferenceSystem crs = envelope.getCoordinateReferenceSystem();
+            final CoordinateReferenceSystem otherCrs = other.getCoordinateReferenceSystem();
+            if (crs == null || otherCrs == null || !CRS.equalsIgnoreMetadata(crs, otherCrs)) {
+                return null;
+            }
+            final GeneralEnvelope intersection = new GeneralEnvelope(envelope);
+            intersection.intersect(other);
+            if (intersection.isEmpty()) {
+                // let the crop operation report the error
+                return null;
+            }
+            return new CropStep(intersection);
+        }
+    }
+
+    static final class ScaleStep extends Step {
+        final double xScale, yScale, xTrans, yTrans;
+
+        final Interpolation interpolation;
+
+        ScaleStep(final double xScale, final double yScale, final double xTrans,
+                final double yTrans, final Interpolation interpolation) {
+            this.xScale = xScale;
+            this.yScale = yScale;
+            this.xTrans = xTrans;
+            this.yTrans = yTrans;
+            this.interpolation = interpolation;
+        }
+
+        String getOperationName() {
+            return "Scale";
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+            parameters.parameter("xScale").setValue(Float.valueOf((float) xScale));
+            parameters.parameter("yScale").setValue(Float.valueOf((float) yScale));
+            parameters.parameter("xTrans").setValue(Float.valueOf((float) xTrans));
+            parameters.parameter("yTrans").setValue(Float.valueOf((float) yTrans));
+            if (interpolation != null) {
+                parameters.parameter("Interpolation").setValue(interpolation);
+            }
+        }
+
+        @Override
+        boolean isIdentity() {
+            return xScale == 1 && yScale == 1 && xTrans == 0 && yTrans == 0;
+        }
+
+        @Override
+        Step merge(final Step next, final boolean floating) {
+            if (!(next instanceof ScaleStep)) {
+                return null;
+            }
+            final ScaleStep other = (ScaleStep) next;
+            if (!sameInterpolation(interpolation, other.interpolation)) {
+                return null;
+            }
+            // x' = (x * s1 + t1) * s2 + t2
+            return new ScaleStep(xScale * other.xScale, yScale * other.yScale,
+                    xTrans * other.xScale + other.xTrans, yTrans * other.yScale + other.yTrans,
+                    interpolation);
+        }
+    }
+
+    static final class BandSelectStep extends Step {
+        final int[] bands;
+
+        BandSelectStep(final int[] bands) {
+            this.bands = bands;
+        }
+
+        String getOperationName() {
+            return "SelectSampleDimension";
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+            parameters.parameter("SampleDimensions").setValue(bands.clone());
+        }
+
+        @Override
+        boolean isIdentity(final GridCoverage2D coverage) {
+            if (bands.length != coverage.getNumSampleDimensions()) {
+                return false;
+            }
+            for (int i = 0; i < bands.length; i++) {
+                if (bands[i] != i) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Step merge(final Step next, final boolean floating) {
+            if (!(next instanceof BandSelectStep)) {
+                return null;
+            }
+            final int[] selected = ((BandSelectStep) next).bands;
+            final int[] combined = new int[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i] < 0 || selected[i] >= bands.length) {
+                    // let the band selection report the error
+                    return null;
+                }
+                combined[i] = bands[selected[i]];
+            }
+            return new BandSelectStep(combined);
+        }
+
+        @Override
+        public String toString() {
+            return getOperationName() + Arrays.toString(bands);
+        }
+    }
+
+    static final class RescaleStep extends Step {
+        final double[] constants;
+
+        final double[] offsets;
+
+        RescaleStep(final double[] constants, final double[] offsets) {
+            this.constants = constants;
+            this.offsets = offsets;
+        }
+
+        String getOperationName() {
+            return "Rescale";
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+            parameters.parameter("constants").setValue(constants.clone());
+            parameters.parameter("offsets").setValue(offsets.clone());
+        }
+
+        @Override
+        boolean isIdentity() {
+            for (double c : constants) {
+                if (c != 1) {
+                    return false;
+                }
+            }
+            for (double o : offsets) {
+                if (o != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the same rescale applied after the specified band selection, or {@code null}
+         * if the selected bands have no constant or offset.
+         */
+        RescaleStep select(final int[] bands) {
+            final double[] c = select(constants, bands);
+            final double[] o = select(offsets, bands);
+            return c == null || o == null ? null : new RescaleStep(c, o);
+        }
+
+        private static double[] select(final double[] values, final int[] bands) {
+            if (values.length == 1) {
+                return values;
+            }
+            final double[] selected = new double[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                if (bands[i] < 0 || bands[i] >= values.length) {
+                    return null;
+                }
+                selected[i] = values[bands[i]];
+            }
+            return selected;
+        }
+
+        @Override
+        Step merge(final Step next, final boolean floating) {
+            // on integral data each rescale rounds and clamps its result
+            if (!floating || !(next instanceof RescaleStep)) {
+                return null;
+            }
+            final RescaleStep other = (RescaleStep) next;
+            final int length = Math.max(Math.max(constants.length, offsets.length),
+                    Math.max(other.constants.length, other.offsets.length));
+            if (!broadcasts(constants, length) || !broadcasts(offsets, length)
+                    || !broadcasts(other.constants, length) || !broadcasts(other.offsets, length)) {
+                return null;
+            }
+            // (v * c1 + o1) * c2 + o2
+            final double[] c = new double[length];
+            final double[] o = new double[length];
+            for (int i = 0; i < length; i++) {
+                final double c2 = get(other.constants, i);
+                c[i] = get(constants, i) * c2;
+                o[i] = get(offsets, i) * c2 + get(other.offsets, i);
+            }
+            return new RescaleStep(c, o);
+        }
+
+        private static boolean broadcasts(final double[] values, final int length) {
+            return values.length == 1 || values.length == length;
+        }
+
+        private static double get(final double[] values, final int band) {
+            return values.length == 1 ? values[0] : values[band];
+        }
+    }
+
+    static final class ResampleStep extends Step {
+        final CoordinateReferenceSystem crs;
+
+        final GridGeometry gridGeometry;
+
+        final Interpolation interpolation;
+
+        final double[] backgroundValues;
+
+        ResampleStep(final CoordinateReferenceSystem crs, final GridGeometry gridGeometry,
+                final Interpolation interpolation, final double[] backgroundValues) {
+            this.crs = crs;
+            this.gridGeometry = gridGeometry;
+            this.interpolation = interpolation;
+            this.backgroundValues = backgroundValues;
+        }
+
+        String getOperationName() {
+            return "Resample";
+        }
+
+        /**
+         * Returns the same resample applied after the specified band selection, or {@code null}
+         * if the selected bands have no background value.
+         */
+        ResampleStep select(final int[] bands) {
+            if (backgroundValues == null || backgroundValues.length == 1) {
+                return this;
+            }
+            final double[] selected = new double[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                if (bands[i] < 0 || bands[i] >= backgroundValues.length) {
+                    return null;
+                }
+                selected[i] = backgroundValues[bands[i]];
+            }
+            return new ResampleStep(crs, gridGeometry, interpolation, selected);
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+            if (crs != null) {
+                parameters.parameter("CoordinateReferenceSystem").setValue(crs);
+            }
+            if (gridGeometry != null) {
+                parameters.parameter("GridGeometry").setValue(gridGeometry);
+            }
+            if (interpolation != null) {
+                parameters.parameter("InterpolationType").setValue(interpolation);
+            }
+            if (backgroundValues != null) {
+                parameters.parameter("BackgroundValues").setValue(backgroundValues);
+            }
+        }
+
+        @Override
+        Step merge(final Step next, final boolean floating) {
+            // the intermediate grid is computed by the resample operation itself, so
+            // the reprojection can go straight to the target of the next resample, as long
+            // as both interpolate the same way, the merged step using a single interpolation
+            if (gridGeometry != null || backgroundValues != null
+                    || !(next instanceof ResampleStep)) {
+                return null;
+            }
+            final ResampleStep other = (ResampleStep) next;
+            if (!sameInterpolation(interpolation, other.interpolation)) {
+                return null;
+            }
+            return new ResampleStep(other.crs != null ? other.crs : crs, other.gridGeometry,
+                    other.interpolation, other.backgroundValues);
+        }
+    }
+
+    static final class GenericStep extends Step {
+        final ParameterValueGroup parameters;
+
+        GenericStep(final ParameterValueGroup parameters) {
+            this.parameters = parameters;
+        }
+
+        String getOperationName() {
+            return parameters.getDescriptor().getName().getCode();
+        }
+
+        @Override
+        ParameterValueGroup getParameters(final CoverageProcessor processor) {
+            return parameters.clone();
+        }
+
+        void setParameters(final ParameterValueGroup parameters) {
+        }
+    }
+}
@@ -686,6 +686,19 @@ public class Operations {
 
 
 
+    /**
+     * Returns a new, empty, chain of operations executed by the same processor as this
+     * instance. The chain is simplified as a whole before being applied, so that consecutive
+     * operations on a coverage may be merged or skipped.
+     *
+     * @see OperationChain
+     *
+     * @since 8.x
+     */
+    public OperationChain chain() {
+        return new OperationChain(getProcessor());
+    }
+
     /////////////////////////////////////////////////////////////////////////////////
     ////////                                                                 ////////
     ////////                   H E L P E R   M E T H O D S                   ////////
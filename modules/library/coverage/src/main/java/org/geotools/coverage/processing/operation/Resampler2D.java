@@ -948,7 +948,7 @@ final class Resampler2D extends GridCoverage2D {
         if(tolerance == null) {
             tolerance = 0.333;
         }
-        WarpBuilder wb = new WarpBuilder(tolerance);
+        final WarpCache cache = WarpCache.getDefault();
         
         MathTransform2D transform = allSteps2D;
         Rectangle actualBB = null;
@@ -977,7 +977,7 @@ final class Resampler2D extends GridCoverage2D {
              * Otherwise we assume that the difference is caused by rounding error and we will try
              * progressive empirical adjustment in order to get the rectangles to fit.
              */
-            final Warp warp = wb.buildWarp(transform, targetBB);
+            final Warp warp = cache.getWarp(transform, targetBB, tolerance);
             if(true) {
                 return warp;
             }
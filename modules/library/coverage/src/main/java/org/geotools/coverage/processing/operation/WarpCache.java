@@ -0,0 +1,249 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.processing.operation;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.media.jai.Warp;
+
+import org.geotools.referencing.operation.transform.AbstractMathTransform;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.WarpBuilder;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.MathTransform2D;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * A bounded cache of the {@link Warp} objects built by the {@link Resample} operation.
+ * <p>
+ * Building the warp of a reprojection means transforming a grid of points, and possibly
+ * subdividing it several times to respect the resample tolerance. When the same target grid
+ * is requested again over the same source grid, as it happens when serving the tiles of a
+ * reprojected raster, the warp is the same, so it gets reused instead of being built again.
+ * <p>
+ * Warps are keyed by the transform from the target to the source grid, which accounts for the
+ * source grid to world transform, the CRS change and the target grid geometry, along with the
+ * target grid bounds and the tolerance. The transforms are compared by value, so transforms which
+ * don't provide a meaningful {@code equals} method are never cached. The cache is shared by all
+ * the threads and holds up to {@value #DEFAULT_MAX_SIZE} warps by default, this can be changed
+ * with the {@code org.geotools.coverage.warpCacheSize} system property, zero disables the cache.
+ *
+ * @source $URL$
+ * @version $Id$
+ *
+ * @since 8.x
+ */
+public final class WarpCache {
+
+    /**
+     * The default maximum number of cached warps.
+     */
+    public static final int DEFAULT_MAX_SIZE = 128;
+
+    /**
+     * The cache used by the {@link Resample} operation.
+     */
+    private static final WarpCache DEFAULT = new WarpCache(Integer.getInteger(
+            "org.geotools.coverage.warpCacheSize", DEFAULT_MAX_SIZE));
+
+    /**
+     * The cached warps, in least recently used order.
+     */
+    private final LinkedHashMap<Key, Warp> warps = new LinkedHashMap<Key, Warp>(16, 0.75f, true) {
+        private static final long serialVersionUID = 5473581768574829716L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Warp> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private int maxSize;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of warps to be kept.
+     */
+    public WarpCache(final int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Returns the cache used by the {@link Resample} operation.
+     */
+    public static WarpCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the warp approximating the specified transform over the specified domain, building
+     * it if it's not in the cache.
+     *
+     * @param transform The transform from target to source grid coordinates.
+     * @param domain The bounds of the target grid.
+     * @param tolerance The maximum distance, in source pixels, between the warp and the transform.
+     * @return The warp.
+     * @throws TransformException if the warp cannot be built.
+     */
+    public Warp getWarp(final MathTransform2D transform, final Rectangle domain,
+            final double tolerance) throws TransformException {
+        if (domain == null || !isCacheable(transform)) {
+            return new WarpBuilder(tolerance).buildWarp(transform, domain);
+        }
+        final Key key = new Key(transform, domain, tolerance);
+        synchronized (this) {
+            final Warp warp = warps.get(key);
+            if (warp != null) {
+                hits++;
+                return warp;
+            }
+            misses++;
+        }
+        // built out of the lock, two threads asking for the same warp may both build it
+        final Warp warp = new WarpBuilder(tolerance).buildWarp(transform, domain);
+        synchronized (this) {
+            if (maxSize > 0) {
+                warps.put(key, warp);
+            }
+        }
+        return warp;
+    }
+
+    /**
+     * Returns {@code true} if the specified transform, and all the transforms it's made of,
+     * are compared by value.
+     */
+    static boolean isCacheable(final MathTransform transform) {
+        if (transform instanceof ConcatenatedTransform) {
+            final ConcatenatedTransform ct = (ConcatenatedTransform) transform;
+            return isCacheable(ct.transform1) && isCacheable(ct.transform2);
+        }
+        try {
+            final Class<?> declaring = transform.getClass().getMethod("equals", Object.class)
+                    .getDeclaringClass();
+            return declaring != Object.class && declaring != AbstractMathTransform.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of lookups which found the warp in the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which had to build the warp.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the ratio of lookups which found the warp in the cache, or 0 if there was
+     * no lookup yet.
+     */
+    public synchronized double getHitRate() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of warps currently in the cache.
+     */
+    public synchronized int size() {
+        return warps.size();
+    }
+
+    /**
+     * Returns the maximum number of warps kept in the cache.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of warps kept in the cache, evicting the least recently used
+     * ones if needed. Zero disables the cache.
+     */
+    public synchronized void setMaxSize(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The cache size cannot be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        while (warps.size() > maxSize) {
+            warps.remove(warps.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Removes all the warps and resets the statistics.
+     */
+    public synchronized void clear() {
+        warps.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    private static final class Key {
+        final MathTransform2D transform;
+
+        final Rectangle domain;
+
+        final double tolerance;
+
+        final int hash;
+
+        Key(final MathTransform2D transform, final Rectangle domain, final double tolerance) {
+            this.transform = transform;
+            this.domain = new Rectangle(domain);
+            this.tolerance = tolerance;
+            final long bits = Double.doubleToLongBits(tolerance);
+            this.hash = (transform.hashCode() * 31 + domain.hashCode()) * 31
+                    + (int) (bits ^ (bits >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash && domain.equals(other.domain)
+                    && Double.doubleToLongBits(tolerance) == Double
+                            .doubleToLongBits(other.tolerance)
+                    && transform.equals(other.transform);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.coverage.processing;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.List;
+
+import javax.media.jai.Interpolation;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.ViewType;
+import org.geotools.coverage.processing.OperationChain.BandSelectStep;
+import org.geotools.coverage.processing.OperationChain.CropStep;
+import org.geotools.coverage.processing.OperationChain.ResampleStep;
+import org.geotools.coverage.processing.OperationChain.RescaleStep;
+import org.geotools.coverage.processing.OperationChain.Step;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.image.ImageWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.geometry.Envelope;
+
+/**
+ * Tests the simplification and the execution of {@link OperationChain}.
+ *
+ * @source $URL$
+ */
+public final class OperationChainTest extends GridProcessingTestBase {
+
+    /**
+     * A three bands RGB coverage.
+     */
+    private GridCoverage2D rgb;
+
+    @Before
+    public void setUp() {
+        final GridCoverage2D source = EXAMPLES.get(2).view(ViewType.NATIVE);
+        final RenderedImage image = new ImageWorker(source.getRenderedImage())
+                .forceComponentColorModel().getRenderedImage();
+        rgb = CoverageFactoryFinder.getGridCoverageFactory(null).create("rgb", image,
+                source.getEnvelope());
+        assertEquals(3, rgb.getNumSampleDimensions());
+    }
+
+    /**
+     * Returns the sub-envelope between the given fractions of the coverage envelope.
+     */
+    private static GeneralEnvelope subEnvelope(final GridCoverage2D coverage, final double from,
+            final double to) {
+        final Envelope envelope = coverage.getEnvelope();
+        final GeneralEnvelope result = new GeneralEnvelope(new double[] {
+                envelope.getMinimum(0) + envelope.getSpan(0) * from,
+                envelope.getMinimum(1) + envelope.getSpan(1) * from }, new double[] {
+                envelope.getMinimum(0) + envelope.getSpan(0) * to,
+                envelope.getMinimum(1) + envelope.getSpan(1) * to });
+        result.setCoordinateReferenceSystem(envelope.getCoordinateReferenceSystem());
+        return result;
+    }
+
+    @Test
+    public void testSimplify() {
+        final GeneralEnvelope first = subEnvelope(rgb, 0.1, 0.7);
+        final GeneralEnvelope second = subEnvelope(rgb, 0.3, 0.9);
+        final OperationChain chain = new OperationChain().crop(first).scale(2, 2, 0, 0)
+                .selectSampleDimension(new int[] { 2, 1, 0 }).scale(0.5, 0.5, 0, 0)
+                .selectSampleDimension(new int[] { 0 }).crop(second);
+        final List<Step> steps = chain.optimize(rgb);
+        // the band selections move to the source and merge, the scales cancel out,
+        // and the two crops are then intersected
+        assertEquals(steps.toString(), 2, steps.size());
+        assertArrayEquals(new int[] { 2 }, ((BandSelectStep) steps.get(0)).bands);
+        final GeneralEnvelope expected = new GeneralEnvelope(first);
+        expected.intersect(second);
+        assertTrue(expected.equals(((CropStep) steps.get(1)).envelope, 1e-9, false));
+    }
+
+    @Test
+    public void testSameResult() {
+        final GeneralEnvelope first = subEnvelope(rgb, 0.1, 0.7);
+        final GeneralEnvelope second = subEnvelope(rgb, 0.3, 0.9);
+        final GridCoverage2D fused = new OperationChain().crop(first)
+                .selectSampleDimension(new int[] { 2, 1, 0 }).crop(second)
+                .selectSampleDimension(new int[] { 0, 1 }).execute(rgb);
+
+        final Operations ops = Operations.DEFAULT;
+        GridCoverage2D unfused = (GridCoverage2D) ops.crop(rgb, first);
+        unfused = (GridCoverage2D) ops.selectSampleDimension(unfused, new int[] { 2, 1, 0 });
+        unfused = (GridCoverage2D) ops.crop(unfused, second);
+        unfused = (GridCoverage2D) ops.selectSampleDimension(unfused, new int[] { 0, 1 });
+
+        assertEquals(2, fused.getNumSampleDimensions());
+        final RenderedImage expected = unfused.getRenderedImage();
+        final RenderedImage actual = fused.getRenderedImage();
+        assertEquals(expected.getMinX(), actual.getMinX());
+        assertEquals(expected.getMinY(), actual.getMinY());
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        final Raster e = expected.getData();
+        final Raster a = actual.getData();
+        for (int y = e.getMinY(); y < e.getMinY() + e.getHeight(); y++) {
+            for (int x = e.getMinX(); x < e.getMinX() + e.getWidth(); x++) {
+                for (int b = 0; b < 2; b++) {
+                    assertEquals(e.getSample(x, y, b), a.getSample(x, y, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIdentities() {
+        // a crop containing the whole coverage and a band selection keeping all bands
+        final GeneralEnvelope all = subEnvelope(rgb, -0.5, 1.5);
+        assertSame(rgb, new OperationChain().crop(all).selectSampleDimension(new int[] { 0, 1, 2 })
+                .execute(rgb));
+
+        // rescales cancelling each other on floating point data
+        final GridCoverage2D floating = EXAMPLES.get(4);
+        final OperationChain chain = new OperationChain().rescale(new double[] { 2 },
+                new double[] { 1 }).rescale(new double[] { 0.5 }, new double[] { -0.5 });
+        assertTrue(chain.optimize(floating).isEmpty());
+        assertSame(floating, chain.execute(floating));
+        // but not on integral data, since each rescale rounds its result
+        assertEquals(2, chain.optimize(rgb).size());
+    }
+
+    @Test
+    public void testRescaleBeforeBandSelect() {
+        final OperationChain chain = new OperationChain().rescale(new double[] { 1, 2, 3 },
+                new double[] { 4, 5, 6 }).selectSampleDimension(new int[] { 2 });
+        final List<Step> steps = chain.optimize(rgb);
+        assertEquals(2, steps.size());
+        assertArrayEquals(new int[] { 2 }, ((BandSelectStep) steps.get(0)).bands);
+        final RescaleStep rescale = (RescaleStep) steps.get(1);
+        assertArrayEquals(new double[] { 3 }, rescale.constants, 0d);
+        assertArrayEquals(new double[] { 6 }, rescale.offsets, 0d);
+    }
+
+    @Test
+    public void testResampleBeforeBandSelect() {
+        // the background values follow the selected bands
+        final ResampleStep resample = new ResampleStep(null, null, null, new double[] { 1, 2,
+                3 });
+        assertArrayEquals(new double[] { 3, 1 }, resample.select(new int[] { 2, 0 })
+                .backgroundValues, 0d);
+        assertNull(resample.select(new int[] { 3 }));
+        final ResampleStep single = new ResampleStep(null, null, null, new double[] { 5 });
+        assertSame(single, single.select(new int[] { 2 }));
+    }
+
+    @Test
+    public void testResampleMerge() {
+        final Interpolation nearest = Interpolation.getInstance(Interpolation.INTERP_NEAREST);
+        final Interpolation bilinear = Interpolation.getInstance(Interpolation.INTERP_BILINEAR);
+        final ResampleStep first = new ResampleStep(null, null, nearest, null);
+        assertNotNull(first.merge(new ResampleStep(null, null, nearest, null), true));
+        // a single resample cannot honour both interpolations
+        assertNull(first.merge(new ResampleStep(null, null, bilinear, null), true));
+    }
+
+    @Test
+    public void testBarrier() {
+        final CoverageProcessor processor = CoverageProcessor.getInstance();
+        final OperationChain chain = new OperationChain(processor)
+                .crop(subEnvelope(rgb, 0.1, 0.7))
+                .add(processor.getOperation("Interpolate").getParameters())
+                .crop(subEnvelope(rgb, 0.3, 0.9));
+        assertEquals(3, chain.optimize(rgb).size());
+    }
+}
@@ -48,6 +48,7 @@ import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.ViewType;
 import org.geotools.coverage.processing.operation.Extrema;
+import org.geotools.coverage.processing.operation.WarpCache;
 import org.geotools.factory.Hints;
 import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.Envelope2D;
@@ -457,4 +458,29 @@ public final class ResampleTest extends GridProcessingTestBase {
     }
     
     
+    /**
+     * Tests that the warp built by a "Resample" operation is reused by the same request.
+     */
+    @Test
+    public void testWarpCache() {
+        final WarpCache cache = WarpCache.getDefault();
+        cache.clear();
+        final CoordinateReferenceSystem crs = getProjectedCRS(coverage);
+        final GridCoverage2D first = project(coverage, crs, null, "nearest", null, false);
+        assertEquals(0, cache.getHits());
+        assertTrue(cache.getMisses() > 0);
+        assertTrue(cache.size() > 0);
+
+        final long misses = cache.getMisses();
+        final GridCoverage2D second = project(coverage, crs, null, "nearest", null, false);
+        assertEquals(misses, cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getHitRate() > 0);
+        assertEquals(first.getGridGeometry(), second.getGridGeometry());
+
+        cache.setMaxSize(0);
+        assertEquals(0, cache.size());
+        cache.setMaxSize(WarpCache.DEFAULT_MAX_SIZE);
+        cache.clear();
+    }
 }
@@ -0,0 +1,749 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.Hints;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.function.EnvFunction;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.geotools.filter.visitor.AbstractFinderFilterVisitor;
+import org.geotools.filter.visitor.NativeBoundsFilterVisitor;
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.MultiValuedFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.VolatileFunction;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * A feature source caching the results of the queries run against a slow source, so that the
+ * same query, such as the one of a map tile requested over and over, is answered from memory.
+ * <p>
+ * Queries are looked up after simplifying their filter with {@link SimplifyingFilterVisitor}, and
+ * match when the type name, filter, properties, sorting, paging, coordinate systems, version
+ * and hints are the same, the geometry and coordinate sequence factory hints being compared by
+ * their classes rather than by identity. The results are recorded while the caller reads them, and cached only
+ * if read to the end; they are stored as attribute arrays, the features being built again, with
+ * the same identifiers and attribute values, each time the results are read. The geometries are
+ * cloned on each read, so that callers modifying them in place do not alter the cache: a hit
+ * costs a copy of the coordinates, still much cheaper than querying a slow source.
+ * <p>
+ * The cache is bounded by the number of queries and by the total number of features, the least
+ * recently used results being evicted first, and results older than the time to live are
+ * dropped. The {@link FeatureEvent}s of the wrapped source invalidate the cache: the addition or
+ * removal of features with known bounds invalidates the queries whose area of interest, in the
+ * native coordinate reference system, intersects them, any other event the whole cache. Sources
+ * which do not notify their changes, such as remote ones, rely on the time to live alone.
+ * <p>
+ * Queries using volatile or environment functions, joins, a {@link Hints#SCREENMAP} hint, which
+ * is not advertised as the cached results would depend on the pixels already painted, or run
+ * against a feature store in a transaction other than {@link Transaction#AUTO_COMMIT} are not
+ * cached. Call {@link #dispose()}
+ * to stop listening to the wrapped source.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public class QueryCachingFeatureSource implements SimpleFeatureSource {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.data");
+
+    /**
+     * The default maximum number of cached queries.
+     */
+    public static final int DEFAULT_MAX_QUERIES = 100;
+
+    /**
+     * The default maximum number of cached features, all queries included.
+     */
+    public static final int DEFAULT_MAX_FEATURES = 100000;
+
+    /**
+     * The default time to live of the cached results, five minutes.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    final SimpleFeatureSource wrapped;
+
+    final int maxQueries;
+
+    final int maxFeatures;
+
+    final long timeToLive;
+
+    /**
+     * The cached results, in access order.
+     */
+    private final LinkedHashMap<QueryKey, CachedResult> cache;
+
+    /**
+     * The number of cached features.
+     */
+    private int features;
+
+    /**
+     * Incremented by every invalidation, so that the results read meanwhile are not cached.
+     */
+    private long generation;
+
+    private final FeatureListener listener = new FeatureListener() {
+        public void changed(FeatureEvent event) {
+            ReferencedEnvelope bounds = event.getBounds();
+            FeatureEvent.Type type = event.getType();
+            if ((type == FeatureEvent.Type.ADDED || type == FeatureEvent.Type.REMOVED)
+                    && bounds != null && !bounds.isNull()) {
+                invalidate(bounds);
+            } else {
+                // changed features may have moved, and commits do not tell where
+                clear();
+            }
+        }
+    };
+
+    /**
+     * Caches the results of the queries against a feature source, with the default limits.
+     *
+     * @param wrapped The feature source to cache.
+     */
+    public QueryCachingFeatureSource(SimpleFeatureSource wrapped) {
+        this(wrapped, DEFAULT_MAX_QUERIES, DEFAULT_MAX_FEATURES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Caches the results of the queries against a feature source.
+     *
+     * @param wrapped The feature source to cache.
+     * @param maxQueries The maximum number of cached queries.
+     * @param maxFeatures The maximum number of cached features, all queries included; larger
+     *        results are not cached.
+     * @param timeToLive The time in milliseconds after which a result is dropped, or zero for no
+     *        limit.
+     */
+    public QueryCachingFeatureSource(SimpleFeatureSource wrapped, int maxQueries,
+            int maxFeatures, long timeToLive) {
+        if (maxQueries <= 0 || maxFeatures < 0 || timeToLive < 0) {
+            throw new IllegalArgumentException("Invalid cache limits: " + maxQueries + " queries, "
+                    + maxFeatures + " features, " + timeToLive + "ms");
+        }
+        this.wrapped = wrapped;
+        this.maxQueries = maxQueries;
+        this.maxFeatures = maxFeatures;
+        this.timeToLive = timeToLive;
+        this.cache = new LinkedHashMap<QueryKey, CachedResult>(16, 0.75f, true);
+        wrapped.addFeatureListener(listener);
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            features = 0;
+            generation++;
+        }
+    }
+
+    /**
+     * Empties the cache and stops listening to the changes of the wrapped source.
+     */
+    public void dispose() {
+        wrapped.removeFeatureListener(listener);
+        clear();
+    }
+
+    /**
+     * Drops the results of the queries whose area of interest intersects the bounds.
+     */
+    void invalidate(ReferencedEnvelope bounds) {
+        CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+        CoordinateReferenceSystem nativeCRS = getSchema().getCoordinateReferenceSystem();
+        if (crs != null && nativeCRS != null && !CRS.equalsIgnoreMetadata(crs, nativeCRS)) {
+            clear();
+            return;
+        }
+        synchronized (cache) {
+            generation++;
+            for (Iterator<CachedResult> it = cache.values().iterator(); it.hasNext();) {
+                CachedResult result = it.next();
+                if (result.area == null || result.area.intersects(bounds)) {
+                    it.remove();
+                    features -= result.size();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached queries.
+     */
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Returns the cached result of a query, or {@code null}.
+     */
+    CachedResult lookup(QueryKey key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (cache) {
+            CachedResult result = cache.get(key);
+            if (result != null && isExpired(result, System.currentTimeMillis())) {
+                cache.remove(key);
+                features -= result.size();
+                return null;
+            }
+            return result;
+        }
+    }
+
+    long getGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    void put(QueryKey key, CachedResult result, long expectedGeneration) {
+        synchronized (cache) {
+            if (generation != expectedGeneration || result.size() > maxFeatures) {
+                return;
+            }
+            CachedResult previous = cache.put(key, result);
+            if (previous != null) {
+                features -= previous.size();
+            }
+            features += result.size();
+            long now = System.currentTimeMillis();
+            for (Iterator<CachedResult> it = cache.values().iterator(); it.hasNext();) {
+                CachedResult eldest = it.next();
+                if (eldest != result
+                        && (cache.size() > maxQueries || features > maxFeatures || isExpired(
+                                eldest, now))) {
+                    it.remove();
+                    features -= eldest.size();
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(CachedResult result, long now) {
+        return timeToLive > 0 && now - result.created > timeToLive;
+    }
+
+    /**
+     * Builds the cache key of a query, or returns {@code null} if it cannot be cached.
+     */
+    QueryKey key(Query query) throws IOException {
+        String typeName = getSchema().getTypeName();
+        if (query.getTypeName() != null && !typeName.equals(query.getTypeName())) {
+            throw new DataSourceException("Typename mismatch, query asks for '"
+                    + query.getTypeName() + "' but this feature source provides '" + typeName
+                    + "'");
+        }
+        if (wrapped instanceof FeatureStore
+                && ((FeatureStore<?, ?>) wrapped).getTransaction() != Transaction.AUTO_COMMIT) {
+            return null;
+        }
+        if (query.getJoins() != null && !query.getJoins().isEmpty()) {
+            return null;
+        }
+        if (query.getHints().get(Hints.SCREENMAP) != null) {
+            return null;
+        }
+        Filter filter = query.getFilter() != null ? query.getFilter() : Filter.INCLUDE;
+        VolatileFinder finder = new VolatileFinder();
+        filter.accept(finder, null);
+        if (finder.isFound()) {
+            return null;
+        }
+        filter = (Filter) filter.accept(new SimplifyingFilterVisitor(), null);
+
+        List<Object> sort = null;
+        if (query.getSortBy() != null && query.getSortBy().length > 0) {
+            sort = new ArrayList<Object>();
+            for (SortBy sortBy : query.getSortBy()) {
+                if (sortBy == SortBy.NATURAL_ORDER || sortBy == SortBy.REVERSE_ORDER) {
+                    sort.add(sortBy);
+                } else {
+                    sort.add(Arrays.asList(sortBy.getPropertyName().getPropertyName(), sortBy
+                            .getSortOrder()));
+                }
+            }
+        }
+        String[] names = query.getPropertyNames();
+        int startIndex = query.getStartIndex() != null ? query.getStartIndex() : 0;
+        // copies, as the caller may reuse the query
+        List<Object> parts = Arrays.<Object> asList(names != null ? new ArrayList<String>(Arrays
+                .asList(names)) : null, sort, query.getMaxFeatures(), startIndex, query
+                .getCoordinateSystem(), query.getCoordinateSystemReproject(), query.getVersion(),
+                getKeyHints(query.getHints()), getFlags(filter,
+                        new ArrayList<Object>()));
+        return new QueryKey(filter, parts, query.getCoordinateSystem() == null);
+    }
+
+    /**
+     * Copies the hints for the cache key. The factories are created anew by callers such as the
+     * renderer and do not implement value equality, so they are replaced by what determines the
+     * geometries they build.
+     */
+    static Map<Object, Object> getKeyHints(Hints hints) {
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        for (Map.Entry<Object, Object> entry : hints.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof GeometryFactory) {
+                GeometryFactory gf = (GeometryFactory) value;
+                value = Arrays.<Object> asList(gf.getClass(), gf.getCoordinateSequenceFactory()
+                        .getClass(), gf.getPrecisionModel(), gf.getSRID());
+            } else if (value instanceof CoordinateSequenceFactory) {
+                value = value.getClass();
+            }
+            result.put(entry.getKey(), value);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the matching flags of the filter, in traversal order. The filter implementations
+     * leave them out of {@link Filter#equals(Object)}, yet they change the features matched.
+     */
+    static List<Object> getFlags(Filter filter, List<Object> flags) {
+        if (filter instanceof BinaryLogicOperator) {
+            for (Filter child : ((BinaryLogicOperator) filter).getChildren()) {
+                getFlags(child, flags);
+            }
+        } else if (filter instanceof Not) {
+            getFlags(((Not) filter).getFilter(), flags);
+        }
+        if (filter instanceof MultiValuedFilter) {
+            flags.add(((MultiValuedFilter) filter).getMatchAction());
+        }
+        if (filter instanceof BinaryComparisonOperator) {
+            flags.add(((BinaryComparisonOperator) filter).isMatchingCase());
+        }
+        if (filter instanceof PropertyIsLike) {
+            PropertyIsLike like = (PropertyIsLike) filter;
+            flags.add(like.isMatchingCase());
+            flags.add(like.getWildCard());
+            flags.add(like.getSingleChar());
+            flags.add(like.getEscape());
+        }
+        return flags;
+    }
+
+    /**
+     * Returns the area, in the native coordinate reference system, where the features matching
+     * the filter lie, or {@code null} if unknown.
+     */
+    Envelope getArea(Filter filter) {
+        CoordinateReferenceSystem crs = getSchema().getCoordinateReferenceSystem();
+        Envelope area = (Envelope) filter.accept(new NativeBoundsFilterVisitor(crs), null);
+        if (area == null || Double.isInfinite(area.getWidth())
+                || Double.isInfinite(area.getHeight()) || Double.isNaN(area.getWidth())
+                || Double.isNaN(area.getHeight())) {
+            return null;
+        }
+        return new Envelope(area);
+    }
+
+    public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+        QueryKey key = key(query);
+        CachedResult result = lookup(key);
+        if (result != null) {
+            return new CachedFeatureCollection(result);
+        }
+        SimpleFeatureCollection features = wrapped.getFeatures(query);
+        if (key == null) {
+            return features;
+        }
+        return new CachingFeatureCollection(features, key);
+    }
+
+    public SimpleFeatureCollection getFeatures(Filter filter) throws IOException {
+        return getFeatures(new Query(getSchema().getTypeName(), filter));
+    }
+
+    public SimpleFeatureCollection getFeatures() throws IOException {
+        return getFeatures(Filter.INCLUDE);
+    }
+
+    public int getCount(Query query) throws IOException {
+        CachedResult result = lookup(key(query));
+        if (result != null) {
+            return result.size();
+        }
+        return wrapped.getCount(query);
+    }
+
+    public ReferencedEnvelope getBounds(Query query) throws IOException {
+        CachedResult result = lookup(key(query));
+        if (result != null) {
+            return new ReferencedEnvelope(result.bounds);
+        }
+        return wrapped.getBounds(query);
+    }
+
+    public ReferencedEnvelope getBounds() throws IOException {
+        return wrapped.getBounds();
+    }
+
+    public SimpleFeatureType getSchema() {
+        return wrapped.getSchema();
+    }
+
+    public Name getName() {
+        return wrapped.getName();
+    }
+
+    public ResourceInfo getInfo() {
+        return wrapped.getInfo();
+    }
+
+    public DataAccess<SimpleFeatureType, SimpleFeature> getDataStore() {
+        return wrapped.getDataStore();
+    }
+
+    public QueryCapabilities getQueryCapabilities() {
+        return wrapped.getQueryCapabilities();
+    }
+
+    public Set getSupportedHints() {
+        // the cached features are always copies, detaching them would gain nothing, and
+        // queries with a screen map are not cached
+        Set hints = new HashSet(wrapped.getSupportedHints());
+        hints.remove(Hints.FEATURE_DETACHED);
+        hints.remove(Hints.SCREENMAP);
+        return Collections.unmodifiableSet(hints);
+    }
+
+    public void addFeatureListener(FeatureListener listener) {
+        wrapped.addFeatureListener(listener);
+    }
+
+    public void removeFeatureListener(FeatureListener listener) {
+        wrapped.removeFeatureListener(listener);
+    }
+
+    /**
+     * A normalized query. The filter is compared with {@link Filter#equals(Object)}, and hashed
+     * through its string representation, as not all filters implement {@link Object#hashCode()}.
+     * The parts include the matching flags of the filter, which its equality ignores.
+     */
+    static final class QueryKey {
+        final Filter filter;
+
+        final List<Object> parts;
+
+        /**
+         * Whether the area of the filter is in the native coordinate reference system.
+         */
+        final boolean nativeArea;
+
+        final int hash;
+
+        QueryKey(Filter filter, List<Object> parts, boolean nativeArea) {
+            this.filter = filter;
+            this.parts = parts;
+            this.nativeArea = nativeArea;
+            this.hash = 31 * parts.hashCode() + String.valueOf(filter).hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) obj;
+            return hash == other.hash && parts.equals(other.parts) && filter.equals(other.filter);
+        }
+    }
+
+    /**
+     * The features of a query result, stored as their identifiers and attribute arrays.
+     */
+    static final class CachedResult {
+        final SimpleFeatureType schema;
+
+        final String[] ids;
+
+        final Object[][] values;
+
+        final ReferencedEnvelope bounds;
+
+        /**
+         * The area of interest of the query, {@code null} if unknown.
+         */
+        final Envelope area;
+
+        final long created = System.currentTimeMillis();
+
+        CachedResult(SimpleFeatureType schema, List<String> ids, List<Object[]> values,
+                ReferencedEnvelope bounds, Envelope area) {
+            this.schema = schema;
+            this.ids = ids.toArray(new String[ids.size()]);
+            this.values = values.toArray(new Object[values.size()][]);
+            this.bounds = bounds;
+            this.area = area;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        SimpleFeature feature(int index) {
+            return new SimpleFeatureImpl(copy(values[index]), schema, new FeatureIdImpl(
+                    ids[index]), false);
+        }
+    }
+
+    /**
+     * Copies an attribute array, geometries included, so that the cached values are not shared
+     * with the features handed out, which their users may modify in place.
+     */
+    static Object[] copy(Object[] values) {
+        Object[] copy = values.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] instanceof Geometry) {
+                copy[i] = ((Geometry) copy[i]).clone();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * The features of a cached result.
+     */
+    static final class CachedFeatureCollection extends AbstractFeatureCollection {
+        final CachedResult result;
+
+        CachedFeatureCollection(CachedResult result) {
+            super(result.schema);
+            this.result = result;
+        }
+
+        @Override
+        public int size() {
+            return result.size();
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            return new ReferencedEnvelope(result.bounds);
+        }
+
+        @Override
+        protected Iterator<SimpleFeature> openIterator() {
+            return new Iterator<SimpleFeature>() {
+                int index;
+
+                public boolean hasNext() {
+                    return index < result.size();
+                }
+
+                public SimpleFeature next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return result.feature(index++);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        protected void closeIterator(Iterator<SimpleFeature> close) {
+            // nothing to release
+        }
+    }
+
+    /**
+     * The features of a query not cached yet, recording them as they are read.
+     */
+    final class CachingFeatureCollection extends DecoratingSimpleFeatureCollection {
+        final QueryKey key;
+
+        CachingFeatureCollection(SimpleFeatureCollection delegate, QueryKey key) {
+            super(delegate);
+            this.key = key;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            CachedResult result = lookup(key);
+            if (result != null) {
+                return new CachedFeatureCollection(result).features();
+            }
+            return new RecordingIterator(delegate.features(), delegate.getSchema(), key,
+                    getGeneration());
+        }
+
+        @Override
+        public int size() {
+            CachedResult result = lookup(key);
+            return result != null ? result.size() : delegate.size();
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            CachedResult result = lookup(key);
+            return result != null ? new ReferencedEnvelope(result.bounds) : delegate.getBounds();
+        }
+    }
+
+    /**
+     * Returns the features of the wrapped source, recording them, and caches them once read to
+     * the end, unless too many or invalidated meanwhile.
+     */
+    final class RecordingIterator implements SimpleFeatureIterator {
+        final SimpleFeatureIterator delegate;
+
+        /**
+         * The schema of the results, used if there are no features.
+         */
+        final SimpleFeatureType resultSchema;
+
+        final QueryKey key;
+
+        final long generation;
+
+        SimpleFeatureType schema;
+
+        List<String> ids = new ArrayList<String>();
+
+        List<Object[]> values = new ArrayList<Object[]>();
+
+        ReferencedEnvelope bounds;
+
+        RecordingIterator(SimpleFeatureIterator delegate, SimpleFeatureType resultSchema,
+                QueryKey key, long generation) {
+            this.delegate = delegate;
+            this.resultSchema = resultSchema;
+            this.key = key;
+            this.generation = generation;
+        }
+
+        public boolean hasNext() {
+            boolean hasNext = delegate.hasNext();
+            if (!hasNext && ids != null) {
+                if (schema == null) {
+                    schema = resultSchema;
+                    bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+                }
+                Envelope area = key.nativeArea ? getArea(key.filter) : null;
+                put(key, new CachedResult(schema, ids, values, bounds, area), generation);
+                ids = null;
+                values = null;
+            }
+            return hasNext;
+        }
+
+        public SimpleFeature next() throws NoSuchElementException {
+            SimpleFeature feature = delegate.next();
+            if (ids != null) {
+                record(feature);
+            }
+            return feature;
+        }
+
+        private void record(SimpleFeature feature) {
+            if (schema == null) {
+                schema = feature.getFeatureType();
+                bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+            }
+            if (feature.getFeatureType() != schema || ids.size() >= maxFeatures) {
+                // heterogeneous or too large, do not cache
+                ids = null;
+                values = null;
+                return;
+            }
+            ids.add(feature.getID());
+            values.add(copy(feature.getAttributes().toArray()));
+            Object geometry = feature.getDefaultGeometry();
+            if (geometry instanceof Geometry) {
+                bounds.expandToInclude(((Geometry) geometry).getEnvelopeInternal());
+            }
+        }
+
+        public void close() {
+            // not read to the end, do not cache
+            ids = null;
+            values = null;
+            delegate.close();
+        }
+    }
+
+    /**
+     * Finds the functions whose value may change between two evaluations.
+     */
+    static final class VolatileFinder extends AbstractFinderFilterVisitor {
+        @Override
+        public Object visit(Function expression, Object data) {
+            if (expression instanceof VolatileFunction || expression instanceof EnvFunction) {
+                found = true;
+                return found;
+            }
+            return super.visit(expression, data);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +54,8 @@ import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.MergeableFeatureCalc;
+import org.geotools.feature.visitor.VisitorExecutor;
 import org.geotools.filter.function.Collection_AverageFunction;
 import org.geotools.filter.function.Collection_BoundsFunction;
 import org.geotools.filter.function.Collection_MaxFunction;
@@ -559,6 +562,15 @@ public abstract class ContentFeatureSource implements SimpleFeatureSource {
             throw new IOException("Feature source does not support joins");
         }
 
+        // the features sorted in memory are kept, they cannot be reused
+        if (query.getSortBy() != null && query.getSortBy().length != 0 && !canSort()
+                && query.getHints().containsKey(Hints.FEATURE_REUSE)) {
+            Hints hints = new Hints(query.getHints());
+            hints.remove(Hints.FEATURE_REUSE);
+            query = new Query(query);
+            query.setHints(hints);
+        }
+
         FeatureReader<SimpleFeatureType, SimpleFeature> reader = getReaderInternal( query );
         
         //
@@ -570,27 +582,8 @@ public abstract class ContentFeatureSource implements SimpleFeatureSource {
             reader = new DiffFeatureReader<SimpleFeatureType, SimpleFeature>(reader, state.getDiff());
         }
         
-        //filtering
-        if ( !canFilter() ) {
-            if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE ) {
-                reader = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>( reader, query.getFilter() );
-            }    
-        }
-        
-        //retyping
-        if ( !canRetype() ) {
-            if ( query.getPropertyNames() != Query.ALL_NAMES ) {
-                //rebuild the type and wrap the reader
-                SimpleFeatureType target = 
-                    SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
-                
-                // do an equals check because we may have needlessly retyped (that is,
-                // the subclass might be able to only partially retype)
-                if ( !target.equals( reader.getFeatureType() ) ) {
-                    reader = new ReTypeFeatureReader( reader, target, false );    
-                }
-            }
-        }
+        //filtering and retyping
+        reader = filterAndRetype(reader, query);
         
         // sorting
         if ( query.getSortBy() != null && query.getSortBy().length != 0 ) {
@@ -617,6 +610,53 @@ public abstract class ContentFeatureSource implements SimpleFeatureSource {
         }
         
         // reprojection
+        reader = reproject(reader, query);
+        
+        // TODO: Use InProcessLockingManager to assert read locks?
+        if(!canLock()) {
+//            LockingManager lockingManager = getDataStore().getLockingManager();
+//            return ((InProcessLockingManager)lockingManager).checkedReader(reader, transaction);
+        }
+        
+        
+        return reader;
+    }
+
+    /**
+     * Wraps the reader to filter and retype the features, if the subclass cannot do it natively.
+     */
+    private FeatureReader<SimpleFeatureType, SimpleFeature> filterAndRetype(
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader, Query query) {
+        //filtering
+        if ( !canFilter() ) {
+            if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE ) {
+                reader = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>( reader, query.getFilter() );
+            }    
+        }
+        
+        //retyping
+        if ( !canRetype() ) {
+            if ( query.getPropertyNames() != Query.ALL_NAMES ) {
+                //rebuild the type and wrap the reader
+                SimpleFeatureType target = 
+                    SimpleFeatureTypeBuilder.retype(getSchema(), query.getPropertyNames());
+                
+                // do an equals check because we may have needlessly retyped (that is,
+                // the subclass might be able to only partially retype)
+                if ( !target.equals( reader.getFeatureType() ) ) {
+                    reader = new ReTypeFeatureReader( reader, target, false );    
+                }
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Wraps the reader to reproject the features, if the subclass cannot do it natively.
+     */
+    private FeatureReader<SimpleFeatureType, SimpleFeature> reproject(
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader, Query query)
+            throws IOException {
         if ( !canReproject() ) {
             if (query.getCoordinateSystemReproject() != null) {
                 try {
@@ -629,16 +669,65 @@ public abstract class ContentFeatureSource implements SimpleFeatureSource {
                 }
             }    
         }
-        
-        // TODO: Use InProcessLockingManager to assert read locks?
-        if(!canLock()) {
-//            LockingManager lockingManager = getDataStore().getLockingManager();
-//            return ((InProcessLockingManager)lockingManager).checkedReader(reader, transaction);
-        }
-        
-        
         return reader;
     }
+
+    /**
+     * Returns readers over disjoint parts of the features specified by a query, to be visited
+     * in parallel, or <code>null</code> if the query cannot be split.
+     * <p>
+     * Queries which sort, page or join, and reads done inside a transaction the subclass cannot
+     * handle natively, are never split.
+     * </p>
+     */
+    private List<FeatureReader<SimpleFeatureType, SimpleFeature>> getPartitionReaders(
+            Query query, int partitions) throws IOException {
+        if ((query.getSortBy() != null && query.getSortBy().length != 0)
+                || (query.getStartIndex() != null && query.getStartIndex() > 0)
+                || (query.getMaxFeatures() != -1 && query.getMaxFeatures() < Integer.MAX_VALUE)
+                || !query.getJoins().isEmpty()) {
+            return null;
+        }
+        if (!canTransact() && transaction != null && transaction != Transaction.AUTO_COMMIT) {
+            return null;
+        }
+        query = joinQuery(query);
+        query = resolvePropertyNames(query);
+
+        List<FeatureReader<SimpleFeatureType, SimpleFeature>> readers;
+        readers = getPartitionReadersInternal(query, partitions);
+        if (readers == null) {
+            return null;
+        }
+        for (int i = 0; i < readers.size(); i++) {
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader = readers.get(i);
+            reader = filterAndRetype(reader, query);
+            readers.set(i, reproject(reader, query));
+        }
+        return readers;
+    }
+
+    /**
+     * Subclass method returning native readers over disjoint parts of the features specified
+     * by a query, whose union is what {@link #getReaderInternal(Query)} would return.
+     * <p>
+     * When parallel visits are enabled, see {@link VisitorExecutor}, {@link #accepts} uses the
+     * readers to visit the parts concurrently with visitors implementing
+     * {@link MergeableFeatureCalc}. The query never sorts, pages or joins, and the returned
+     * list must be modifiable. The same capabilities apply as for
+     * {@link #getReaderInternal(Query)}.
+     * </p>
+     * <p>
+     * This implementation returns <code>null</code>, meaning the features cannot be split and
+     * are visited sequentially.
+     * </p>
+     * @param query The query, which does not sort, page or join.
+     * @param partitions The desired number of parts, as a hint.
+     */
+    protected List<FeatureReader<SimpleFeatureType, SimpleFeature>> getPartitionReadersInternal(
+            Query query, int partitions) throws IOException {
+        return null;
+    }
     
     /**
      * Visit the features matching the provided query.
@@ -675,6 +764,17 @@ public abstract class ContentFeatureSource implements SimpleFeatureSource {
             return;
         }
 
+        // visit the parts the subclass can split the features in concurrently
+        if ( VisitorExecutor.isParallel(visitor) ) {
+            List<FeatureReader<SimpleFeatureType, SimpleFeature>> readers =
+                getPartitionReaders(query, VisitorExecutor.getParallelism());
+            if ( readers != null ) {
+                float size = progress instanceof NullProgressListener ? 0.0f : (float) getCount( query );
+                VisitorExecutor.visit((MergeableFeatureCalc) visitor, readers, progress, size);
+                return;
+            }
+        }
+
         //subclass could not handle, resort to manually walkign through
         FeatureReader<SimpleFeatureType, SimpleFeature> reader = getReader(query);
         try{
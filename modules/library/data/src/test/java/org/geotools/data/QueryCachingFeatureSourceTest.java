@@ -0,0 +1,366 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.feature.FeatureCollections;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.LiteCoordinateSequenceFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.renderer.ScreenMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Tests {@link QueryCachingFeatureSource}.
+ *
+ * @source $URL$
+ */
+public class QueryCachingFeatureSourceTest {
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    private SimpleFeatureType type;
+
+    private MemoryDataStore store;
+
+    private CountingFeatureSource counting;
+
+    private QueryCachingFeatureSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("points");
+        tb.add("geom", com.vividsolutions.jts.geom.Point.class);
+        tb.add("name", String.class);
+        type = tb.buildFeatureType();
+
+        store = new MemoryDataStore(type);
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < 10; i++) {
+            features.add(point(i, "p" + i));
+        }
+        store.addFeatures(features);
+
+        counting = new CountingFeatureSource(store.getFeatureSource("points"));
+        source = new QueryCachingFeatureSource(counting);
+    }
+
+    SimpleFeature point(int x, String name) {
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        fb.add(GF.createPoint(new Coordinate(x, 0)));
+        fb.add(name);
+        return fb.buildFeature("points." + name);
+    }
+
+    Query bboxQuery(double minX, double maxX) {
+        return new Query("points", FF.bbox("geom", minX, -1, maxX, 1, null));
+    }
+
+    List<SimpleFeature> read(SimpleFeatureCollection collection) {
+        List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = collection.features();
+        try {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void cached() throws IOException {
+        List<SimpleFeature> first = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(1, counting.queries);
+        Assert.assertEquals(3, first.size());
+
+        List<SimpleFeature> second = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(1, counting.queries);
+        Assert.assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            Assert.assertEquals(first.get(i).getID(), second.get(i).getID());
+            Assert.assertEquals(first.get(i).getAttributes(), second.get(i).getAttributes());
+        }
+        Assert.assertEquals(3, source.getCount(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(new ReferencedEnvelope(1, 3, 0, 0, null), source
+                .getBounds(bboxQuery(0.5, 3.5)));
+
+        // the cached features are copies
+        second.get(0).setAttribute("name", "changed");
+        List<SimpleFeature> third = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(first.get(0).getAttribute("name"), third.get(0).getAttribute("name"));
+    }
+
+    @Test
+    public void geometryCopies() throws IOException {
+        // modify the geometries in place, as a renderer transforming them would
+        List<SimpleFeature> first = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        move((Point) first.get(0).getDefaultGeometry());
+        List<SimpleFeature> second = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(1, counting.queries);
+        Assert.assertEquals(1, ((Point) second.get(0).getDefaultGeometry()).getX(), 0d);
+        move((Point) second.get(0).getDefaultGeometry());
+        List<SimpleFeature> third = read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(1, ((Point) third.get(0).getDefaultGeometry()).getX(), 0d);
+        Assert.assertEquals(new ReferencedEnvelope(1, 3, 0, 0, null), source
+                .getBounds(bboxQuery(0.5, 3.5)));
+
+        // the features are copies whatever the wrapped source supports
+        Assert.assertFalse(source.getSupportedHints().contains(Hints.FEATURE_DETACHED));
+    }
+
+    @Test
+    public void perRequestHints() throws IOException {
+        // the renderer creates new factories for each paint
+        for (int i = 0; i < 2; i++) {
+            LiteCoordinateSequenceFactory csFactory = new LiteCoordinateSequenceFactory();
+            Query query = bboxQuery(0.5, 3.5);
+            query.setHints(new Hints(Hints.JTS_COORDINATE_SEQUENCE_FACTORY, csFactory));
+            query.getHints().put(Hints.JTS_GEOMETRY_FACTORY, new GeometryFactory(csFactory));
+            Assert.assertEquals(3, read(source.getFeatures(query)).size());
+        }
+        Assert.assertEquals(1, counting.queries);
+
+        // the features returned depend on the screen map state, never cached
+        Assert.assertFalse(source.getSupportedHints().contains(Hints.SCREENMAP));
+        for (int i = 0; i < 2; i++) {
+            Query query = bboxQuery(0.5, 3.5);
+            query.setHints(new Hints(Hints.SCREENMAP, new ScreenMap(0, 0, 10, 10)));
+            read(source.getFeatures(query));
+        }
+        Assert.assertEquals(3, counting.queries);
+    }
+
+    void move(Point point) {
+        point.getCoordinate().x += 100;
+        point.geometryChanged();
+    }
+
+    @Test
+    public void matchingFlags() throws IOException {
+        Query query = new Query("points", FF.equal(FF.property("name"), FF.literal("P1"), true));
+        Assert.assertEquals(0, read(source.getFeatures(query)).size());
+        query = new Query("points", FF.equal(FF.property("name"), FF.literal("P1"), false));
+        Assert.assertEquals(1, read(source.getFeatures(query)).size());
+        Assert.assertEquals(2, counting.queries);
+
+        query = new Query("points", FF.like(FF.property("name"), "P*", "*", "?", "\\", true));
+        Assert.assertEquals(0, read(source.getFeatures(query)).size());
+        query = new Query("points", FF.like(FF.property("name"), "P*", "*", "?", "\\", false));
+        Assert.assertEquals(10, read(source.getFeatures(query)).size());
+        Assert.assertEquals(4, counting.queries);
+        Assert.assertEquals(4, source.size());
+    }
+
+    @Test
+    public void normalized() throws IOException {
+        read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Query query = new Query("points", FF.and(Filter.INCLUDE, FF.bbox("geom", 0.5, -1, 3.5,
+                1, null)));
+        Assert.assertEquals(3, read(source.getFeatures(query)).size());
+        Assert.assertEquals(1, counting.queries);
+
+        // different properties are a different query
+        query = bboxQuery(0.5, 3.5);
+        query.setPropertyNames(new String[] { "name" });
+        read(source.getFeatures(query));
+        Assert.assertEquals(2, counting.queries);
+    }
+
+    @Test
+    public void notReadToTheEnd() throws IOException {
+        SimpleFeatureIterator it = source.getFeatures(bboxQuery(0.5, 3.5)).features();
+        it.next();
+        it.close();
+        read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(2, counting.queries);
+    }
+
+    @Test
+    public void volatileFunctions() throws IOException {
+        Query query = new Query("points", FF.equals(FF.property("name"), FF.function("env", FF
+                .literal("name"))));
+        read(source.getFeatures(query));
+        read(source.getFeatures(query));
+        Assert.assertEquals(2, counting.queries);
+        Assert.assertEquals(0, source.size());
+    }
+
+    @Test
+    public void invalidatedByArea() throws IOException {
+        read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        read(source.getFeatures(bboxQuery(5.5, 8.5)));
+        read(source.getFeatures(Filter.INCLUDE));
+        Assert.assertEquals(3, source.size());
+
+        // only the queries covering the new feature are dropped
+        store.listenerManager.fireFeaturesAdded("points", Transaction.AUTO_COMMIT,
+                new ReferencedEnvelope(2, 2, 0, 0, null), false);
+        Assert.assertEquals(1, source.size());
+        read(source.getFeatures(bboxQuery(5.5, 8.5)));
+        Assert.assertEquals(3, counting.queries);
+
+        // changes may move features anywhere
+        store.listenerManager.fireFeaturesChanged("points", Transaction.AUTO_COMMIT,
+                new ReferencedEnvelope(20, 20, 0, 0, null), false);
+        Assert.assertEquals(0, source.size());
+    }
+
+    @Test
+    public void invalidatedByCommit() throws IOException {
+        Assert.assertEquals(3, read(source.getFeatures(bboxQuery(0.5, 3.5))).size());
+
+        Transaction transaction = new DefaultTransaction();
+        try {
+            SimpleFeatureStore featureStore = (SimpleFeatureStore) store
+                    .getFeatureSource("points");
+            featureStore.setTransaction(transaction);
+            SimpleFeatureCollection added = FeatureCollections.newCollection();
+            added.add(point(2, "new"));
+            featureStore.addFeatures(added);
+            transaction.commit();
+        } finally {
+            transaction.close();
+        }
+        Assert.assertEquals(4, read(source.getFeatures(bboxQuery(0.5, 3.5))).size());
+    }
+
+    @Test
+    public void limits() throws IOException {
+        source = new QueryCachingFeatureSource(counting, 2, 5, 0);
+        read(source.getFeatures(bboxQuery(0.5, 1.5)));
+        read(source.getFeatures(bboxQuery(1.5, 2.5)));
+        read(source.getFeatures(bboxQuery(0.5, 1.5)));
+        read(source.getFeatures(bboxQuery(2.5, 3.5)));
+        Assert.assertEquals(3, counting.queries);
+        Assert.assertEquals(2, source.size());
+        // the least recently used is gone
+        read(source.getFeatures(bboxQuery(1.5, 2.5)));
+        Assert.assertEquals(4, counting.queries);
+
+        // too large
+        read(source.getFeatures(Filter.INCLUDE));
+        read(source.getFeatures(Filter.INCLUDE));
+        Assert.assertEquals(6, counting.queries);
+    }
+
+    @Test
+    public void expired() throws Exception {
+        source = new QueryCachingFeatureSource(counting, 10, 100, 1);
+        read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Thread.sleep(20);
+        read(source.getFeatures(bboxQuery(0.5, 3.5)));
+        Assert.assertEquals(2, counting.queries);
+    }
+
+    /**
+     * Counts the queries run against a feature source.
+     */
+    static class CountingFeatureSource implements SimpleFeatureSource {
+        final SimpleFeatureSource delegate;
+
+        int queries;
+
+        CountingFeatureSource(SimpleFeatureSource delegate) {
+            this.delegate = delegate;
+        }
+
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            queries++;
+            return delegate.getFeatures(query);
+        }
+
+        public SimpleFeatureCollection getFeatures(Filter filter) throws IOException {
+            return getFeatures(new Query("points", filter));
+        }
+
+        public SimpleFeatureCollection getFeatures() throws IOException {
+            return getFeatures(Filter.INCLUDE);
+        }
+
+        public Name getName() {
+            return delegate.getName();
+        }
+
+        public ResourceInfo getInfo() {
+            return delegate.getInfo();
+        }
+
+        public DataAccess<SimpleFeatureType, SimpleFeature> getDataStore() {
+            return delegate.getDataStore();
+        }
+
+        public QueryCapabilities getQueryCapabilities() {
+            return delegate.getQueryCapabilities();
+        }
+
+        public void addFeatureListener(FeatureListener listener) {
+            delegate.addFeatureListener(listener);
+        }
+
+        public void removeFeatureListener(FeatureListener listener) {
+            delegate.removeFeatureListener(listener);
+        }
+
+        public SimpleFeatureType getSchema() {
+            return delegate.getSchema();
+        }
+
+        public ReferencedEnvelope getBounds() throws IOException {
+            return delegate.getBounds();
+        }
+
+        public ReferencedEnvelope getBounds(Query query) throws IOException {
+            return delegate.getBounds(query);
+        }
+
+        public int getCount(Query query) throws IOException {
+            return delegate.getCount(query);
+        }
+
+        public Set getSupportedHints() {
+            return delegate.getSupportedHints();
+        }
+    }
+}
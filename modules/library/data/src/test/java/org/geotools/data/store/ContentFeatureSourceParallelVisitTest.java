@@ -0,0 +1,288 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.data.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureReader;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.feature.visitor.VisitorExecutor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * Test the parallel visits of {@link ContentFeatureSource}, run over the readers returned by
+ * {@link ContentFeatureSource#getPartitionReadersInternal(Query, int)}.
+ */
+public class ContentFeatureSourceParallelVisitTest {
+
+    /**
+     * Mock feature type name.
+     */
+    private static final Name TYPENAME = new NameImpl("Mock");
+
+    /**
+     * Mock feature type.
+     */
+    private static final SimpleFeatureType TYPE = buildType();
+
+    /**
+     * The number of test features.
+     */
+    private static final int COUNT = 10000;
+
+    /**
+     * The test features, whose values go from 1 to {@link #COUNT}.
+     */
+    private static final List<SimpleFeature> FEATURES = buildFeatures();
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    private MockContentFeatureSource source;
+
+    @Before
+    public void setUp() throws IOException {
+        VisitorExecutor.setParallelism(4);
+        source = (MockContentFeatureSource) new MockContentDataStore().getFeatureSource(TYPENAME);
+    }
+
+    @After
+    public void tearDown() {
+        VisitorExecutor.setParallelism(1);
+    }
+
+    /**
+     * Test that the partial results are merged.
+     */
+    @Test
+    public void aggregates() throws IOException {
+        CountVisitor count = new CountVisitor();
+        source.accepts(Query.ALL, count, null);
+        Assert.assertEquals(4, source.partitions);
+        Assert.assertEquals(COUNT, count.getCount());
+
+        SumVisitor sum = new SumVisitor(FF.property("value"));
+        source.accepts(Query.ALL, sum, null);
+        Assert.assertEquals((long) COUNT * (COUNT + 1) / 2, sum.getResult().toLong());
+
+        MinVisitor min = new MinVisitor(FF.property("value"));
+        source.accepts(Query.ALL, min, null);
+        Assert.assertEquals(1, min.getResult().toInt());
+
+        MaxVisitor max = new MaxVisitor(FF.property("value"));
+        source.accepts(Query.ALL, max, null);
+        Assert.assertEquals(COUNT, max.getResult().toInt());
+    }
+
+    /**
+     * Test that the filter is applied to every part.
+     */
+    @Test
+    public void filtered() throws IOException {
+        Query query = new Query(TYPENAME.getLocalPart(), FF.lessOrEqual(FF.property("value"),
+                FF.literal(100)));
+        CountVisitor count = new CountVisitor();
+        source.accepts(query, count, null);
+        Assert.assertEquals(4, source.partitions);
+        Assert.assertEquals(100, count.getCount());
+    }
+
+    /**
+     * Test that sorted queries are visited sequentially.
+     */
+    @Test
+    public void sorted() throws IOException {
+        Query query = new Query(TYPENAME.getLocalPart());
+        query.setSortBy(new SortBy[] { SortBy.NATURAL_ORDER });
+        CountVisitor count = new CountVisitor();
+        source.accepts(query, count, null);
+        Assert.assertEquals(0, source.partitions);
+        Assert.assertEquals(COUNT, count.getCount());
+    }
+
+    /**
+     * Test that visits are sequential unless enabled.
+     */
+    @Test
+    public void disabled() throws IOException {
+        VisitorExecutor.setParallelism(1);
+        CountVisitor count = new CountVisitor();
+        source.accepts(Query.ALL, count, null);
+        Assert.assertEquals(0, source.partitions);
+        Assert.assertEquals(COUNT, count.getCount());
+    }
+
+    /**
+     * Build the test type.
+     */
+    private static SimpleFeatureType buildType() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName(TYPENAME);
+        builder.add("value", Integer.class);
+        return builder.buildFeatureType();
+    }
+
+    /**
+     * Build the test features.
+     */
+    private static List<SimpleFeature> buildFeatures() {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(TYPE);
+        for (int i = 1; i <= COUNT; i++) {
+            builder.add(i);
+            features.add(builder.buildFeature("mock." + i));
+        }
+        return features;
+    }
+
+    /**
+     * {@link ContentDataStore} for the test features.
+     */
+    private static class MockContentDataStore extends ContentDataStore {
+
+        @Override
+        protected List<Name> createTypeNames() throws IOException {
+            List<Name> names = new ArrayList<Name>();
+            names.add(TYPENAME);
+            return names;
+        }
+
+        @Override
+        protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+            return new MockContentFeatureSource(entry, null);
+        }
+
+    }
+
+    /**
+     * {@link ContentFeatureSource} returning the test features, split in slices of the list.
+     */
+    private static class MockContentFeatureSource extends ContentFeatureSource {
+
+        /**
+         * The number of parts of the last parallel visit.
+         */
+        int partitions;
+
+        public MockContentFeatureSource(ContentEntry entry, Query query) {
+            super(entry, query);
+        }
+
+        /**
+         * Not implemented.
+         */
+        @Override
+        protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not implemented.
+         */
+        @Override
+        protected int getCountInternal(Query query) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+                throws IOException {
+            partitions = 0;
+            return new MockSimpleFeatureReader(FEATURES);
+        }
+
+        @Override
+        protected List<FeatureReader<SimpleFeatureType, SimpleFeature>> getPartitionReadersInternal(
+                Query query, int partitions) throws IOException {
+            this.partitions = partitions;
+            List<FeatureReader<SimpleFeatureType, SimpleFeature>> readers;
+            readers = new ArrayList<FeatureReader<SimpleFeatureType, SimpleFeature>>();
+            for (int i = 0; i < partitions; i++) {
+                readers.add(new MockSimpleFeatureReader(FEATURES.subList(COUNT * i / partitions,
+                        COUNT * (i + 1) / partitions)));
+            }
+            return readers;
+        }
+
+        @Override
+        protected SimpleFeatureType buildFeatureType() throws IOException {
+            return TYPE;
+        }
+
+    }
+
+    /**
+     * Decorate a list of test features as a {@link SimpleFeatureReader}.
+     */
+    private static class MockSimpleFeatureReader implements SimpleFeatureReader {
+
+        private final List<SimpleFeature> features;
+
+        /**
+         * Index of the next test feature to be returned.
+         */
+        private int index = 0;
+
+        MockSimpleFeatureReader(List<SimpleFeature> features) {
+            this.features = features;
+        }
+
+        @Override
+        public SimpleFeatureType getFeatureType() {
+            return TYPE;
+        }
+
+        @Override
+        public SimpleFeature next() throws IOException, IllegalArgumentException,
+                NoSuchElementException {
+            return features.get(index++);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return index < features.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // ignored
+        }
+
+    }
+
+}
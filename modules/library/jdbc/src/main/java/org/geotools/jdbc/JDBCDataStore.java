@@ -70,6 +70,10 @@ import org.geotools.factory.Hints;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.GroupByVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
 import org.geotools.filter.FilterCapabilities;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.jdbc.JoinInfo.JoinPart;
@@ -1257,6 +1261,10 @@ public final class JDBCDataStore extends ContentDataStore
     protected Object getAggregateValue(FeatureVisitor visitor, SimpleFeatureType featureType, Query query, Connection cx ) 
         throws IOException {
         
+        if ( visitor instanceof GroupByVisitor ) {
+            return getGroupByValue((GroupByVisitor) visitor, featureType, query, cx);
+        }
+        
         //get the name of the function
         String function = getAggregateFunctions().get( visitor.getClass() );
         if ( function == null ) {
@@ -1321,6 +1329,136 @@ public final class JDBCDataStore extends ContentDataStore
         }
     }
 
+    /**
+     * Computes the aggregates of a {@link GroupByVisitor} with a single GROUP BY query. Returns
+     * <code>null</code> when the query cannot be encoded, that is when it has joins, groups on or
+     * aggregates something else than a non geometric attribute, or uses a function the dialect
+     * does not support, so that the features get visited instead.
+     */
+    Object getGroupByValue(GroupByVisitor visitor, SimpleFeatureType featureType, Query query,
+            Connection cx) throws IOException {
+        if ( !query.getJoins().isEmpty() ) {
+            return null;
+        }
+        if ( !dialect.isLimitOffsetSupported() && ( query.getMaxFeatures() != Integer.MAX_VALUE
+                || ( query.getStartIndex() != null && query.getStartIndex() > 0 ) ) ) {
+            return null;
+        }
+        
+        List<AttributeDescriptor> keys = new ArrayList<AttributeDescriptor>();
+        for ( Expression expression : visitor.getGroupByExpressions() ) {
+            AttributeDescriptor att = getGroupByAttribute(expression, featureType);
+            if ( att == null ) {
+                return null;
+            }
+            keys.add(att);
+        }
+        
+        //the aggregate columns, an average being computed from a sum and a count
+        Map<Class<? extends FeatureVisitor>,String> aggregates = getAggregateFunctions();
+        List<String> functions = new ArrayList<String>();
+        List<AttributeDescriptor> atts = new ArrayList<AttributeDescriptor>();
+        for ( GroupByVisitor.Aggregate aggregate : visitor.getAggregates() ) {
+            AttributeDescriptor att = null;
+            if ( aggregate.getExpression() != null ) {
+                att = getGroupByAttribute(aggregate.getExpression(), featureType);
+                if ( att == null ) {
+                    return null;
+                }
+            }
+            switch ( aggregate.getFunction() ) {
+            case COUNT:
+                functions.add(aggregates.get(CountVisitor.class));
+                break;
+            case SUM:
+                functions.add(aggregates.get(SumVisitor.class));
+                break;
+            case MIN:
+                functions.add(aggregates.get(MinVisitor.class));
+                break;
+            case MAX:
+                functions.add(aggregates.get(MaxVisitor.class));
+                break;
+            case AVERAGE:
+                functions.add(aggregates.get(SumVisitor.class));
+                functions.add(aggregates.get(CountVisitor.class));
+                atts.add(att);
+                break;
+            }
+            atts.add(att);
+        }
+        if ( functions.contains(null) ) {
+            LOGGER.info( "Unable to find the aggregate functions needed by " + visitor.getAggregates());
+            return null;
+        }
+        
+        try {
+            Statement st = null;
+            ResultSet rs = null;
+            try {
+                StringBuffer sql = new StringBuffer();
+                List<FilterToSQL> toSQL = doSelectGroupBySQL(keys, functions, atts, featureType, query, sql);
+                LOGGER.fine( sql.toString() );
+                
+                if ( dialect instanceof PreparedStatementSQLDialect ) {
+                    st = cx.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    st.setFetchSize(fetchSize);
+                    setPreparedFilterValues((PreparedStatement) st, toSQL, cx);
+                    rs = ((PreparedStatement)st).executeQuery();
+                } 
+                else {
+                    st = cx.createStatement();
+                    st.setFetchSize(fetchSize);
+                    rs = st.executeQuery( sql.toString() );
+                }
+                
+                visitor.reset();
+                while ( rs.next() ) {
+                    Object[] key = new Object[keys.size()];
+                    for ( int i = 0; i < key.length; i++ ) {
+                        Object value = rs.getObject(i + 1);
+                        Class binding = keys.get(i).getType().getBinding();
+                        if ( value != null && !binding.isInstance(value) ) {
+                            Object converted = Converters.convert( value, binding );
+                            if ( converted != null ) {
+                                value = converted;
+                            }
+                        }
+                        key[i] = value;
+                    }
+                    Object[] values = new Object[functions.size()];
+                    for ( int i = 0; i < values.length; i++ ) {
+                        values[i] = rs.getObject(key.length + i + 1);
+                    }
+                    visitor.addGroupValues(key, values);
+                }
+            } finally {
+                closeSafe( rs );
+                closeSafe( st );
+            }
+            
+            return visitor.getResult();
+        }
+        catch( SQLException e ) {
+            throw (IOException) new IOException().initCause(e);
+        }
+    }
+    
+    /**
+     * Returns the non geometric attribute an expression of a group by refers to, or
+     * <code>null</code> if it's not a plain property name.
+     */
+    AttributeDescriptor getGroupByAttribute(Expression expression, SimpleFeatureType featureType) {
+        if ( !(expression instanceof PropertyName) ) {
+            return null;
+        }
+        Object att = expression.evaluate( featureType );
+        if ( !(att instanceof AttributeDescriptor) || att instanceof GeometryDescriptor ) {
+            return null;
+        }
+        return (AttributeDescriptor) att;
+    }
+
     /**
      * Helper method for getting the expression from a visitor
      * TODO: Remove this method when there is an interface for aggregate visitors.
@@ -3433,6 +3571,64 @@ public final class JDBCDataStore extends ContentDataStore
         return toSQL;
     }
 
+    /**
+     * Generates a 'SELECT <keys>, <functions> FROM ... GROUP BY <keys>' statement. As for the
+     * other aggregates, limit and offset are applied in a sub query.
+     */
+    List<FilterToSQL> doSelectGroupBySQL(List<AttributeDescriptor> keys, List<String> functions,
+            List<AttributeDescriptor> atts, SimpleFeatureType featureType, Query query,
+            StringBuffer sql) throws SQLException, IOException {
+        
+        boolean limitOffset = checkLimitOffset(query);
+        if(limitOffset) {
+            sql.append("SELECT * FROM ");
+        } else {
+            encodeGroupBySelect(keys, functions, atts, query, sql);
+            sql.append(" FROM ");
+        }
+        encodeTableName(featureType.getTypeName(), sql, query.getHints());
+        
+        List<FilterToSQL> toSQL = new ArrayList();
+        Filter filter = query.getFilter();
+        if (filter != null && !Filter.INCLUDE.equals(filter)) {
+            sql.append(" WHERE ");
+            toSQL.add(filter(featureType, filter, sql));
+        }
+        
+        if(limitOffset) {
+            applyLimitOffset(sql, query);
+            
+            StringBuffer sql2 = new StringBuffer();
+            encodeGroupBySelect(keys, functions, atts, query, sql2);
+            sql2.append(" FROM (");
+            sql.insert(0,sql2.toString());
+            sql.append(") gt_limited_");
+        }
+        
+        List<String> columns = new ArrayList<String>();
+        for ( AttributeDescriptor key : keys ) {
+            columns.add(key.getLocalName());
+        }
+        dialect.encodeGroupBy(columns, sql);
+        
+        return toSQL;
+    }
+    
+    void encodeGroupBySelect(List<AttributeDescriptor> keys, List<String> functions,
+            List<AttributeDescriptor> atts, Query query, StringBuffer sql) {
+        sql.append("SELECT ");
+        for ( AttributeDescriptor key : keys ) {
+            dialect.encodeColumnName(null, key.getLocalName(), sql);
+            sql.append(", ");
+        }
+        for ( int i = 0; i < functions.size(); i++ ) {
+            if ( i > 0 ) {
+                sql.append(", ");
+            }
+            encodeFunction(functions.get(i), atts.get(i), query, sql);
+        }
+    }
+
     protected void encodeFunction( String function, AttributeDescriptor att, Query query, StringBuffer sql ) {
         sql.append(function).append("(");
         if ( att == null ) {
@@ -37,6 +37,7 @@ import org.geotools.data.FeatureReader;
 import org.geotools.data.Transaction;
 import org.geotools.factory.Hints;
 import org.geotools.feature.IllegalAttributeException;
+import org.geotools.feature.simple.ReusableSimpleFeature;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.filter.identity.FeatureIdImpl;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -108,6 +109,11 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
      * feature builder
      */
     protected SimpleFeatureBuilder builder;
+    /**
+     * the feature returned for all rows when {@link Hints#FEATURE_REUSE} is set, valid until
+     * {@link #hasNext()} moves the result set to the next row
+     */
+    protected ReusableSimpleFeature reusable;
     /**
      * The primary key    
      */
@@ -121,6 +127,10 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
     protected Connection cx;
     protected Exception tracer;
     protected String[] columnNames;
+    /**
+     * position in the result set of each attribute
+     */
+    protected int[] attributeRsIndex;
     
     /**
      * offset/column index to start reading from result set
@@ -199,6 +209,18 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
         if(ff == null)
             ff = featureSource.getDataStore().getFeatureFactory();
         builder = new SimpleFeatureBuilder(featureType, ff);
+        if (Boolean.TRUE.equals(hints.get(Hints.FEATURE_REUSE))) {
+            reusable = new ReusableSimpleFeature(featureType) {
+                @Override
+                protected Object load(int index) {
+                    try {
+                        return readAttribute(index, st.getConnection());
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
         
         // find the primary key
         try {
@@ -292,59 +314,17 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
                 throw new RuntimeException("Could not determine fid from primary key", e);
             }
     
+            // reuse the feature if asked to, its attributes being read when needed
+            if (reusable != null) {
+                reusable.reset(fid);
+                return reusable;
+            }
+
             // round up attributes
             final int attributeCount = featureType.getAttributeCount();
-            int[] attributeRsIndex = buildAttributeRsIndex();
             for(int i = 0; i < attributeCount; i++) {
-                AttributeDescriptor type = featureType.getDescriptor(i);
-                
                 try {
-                    Object value = null;
-    
-                    // is this a geometry?
-                    if (type instanceof GeometryDescriptor) {
-                        GeometryDescriptor gatt = (GeometryDescriptor) type;
-                        
-                        //read the geometry
-                        try {
-                            value = dataStore.getSQLDialect()
-                                             .decodeGeometryValue(gatt, rs, offset+attributeRsIndex[i],
-                                    geometryFactory, cx);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                        
-                        if (value != null) {
-                            //check to see if a crs was set
-                            Geometry geometry = (Geometry) value;
-                            if ( geometry.getUserData() == null ) {
-                                //if not set, set from descriptor
-                                geometry.setUserData( gatt.getCoordinateReferenceSystem() );
-                            }
-                        }
-                    } else {
-                        value = rs.getObject(offset+attributeRsIndex[i]);
-                    }
-    
-                    // they value may need conversion. We let converters chew the initial
-                    // value towards the target type, if the result is not the same as the
-                    // original, then a conversion happened and we may want to report it to the
-                    // user (being the feature type reverse engineerd, it's unlikely a true
-                    // conversion will be needed)
-                    if(value != null) {
-                        Class binding = type.getType().getBinding();
-                        Object converted = Converters.convert(value, binding);
-                        if(converted != null && converted != value) {
-                            value = converted;
-                            if (dataStore.getLogger().isLoggable(Level.FINER)) {
-                                String msg = value + " is not of type " + binding.getName()
-                                    + ", attempting conversion";
-                                dataStore.getLogger().finer(msg);
-                            }
-                        }
-                    }
-    
-                    builder.add(value);
+                    builder.add(readAttribute(i, cx));
                 } catch (SQLException e) {
                     throw new RuntimeException(e);
                 }
@@ -364,6 +344,61 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
         }
     }
 
+    /**
+     * Reads an attribute of the current row.
+     */
+    protected Object readAttribute(int i, Connection cx) throws SQLException {
+        if (attributeRsIndex == null) {
+            attributeRsIndex = buildAttributeRsIndex();
+        }
+        AttributeDescriptor type = featureType.getDescriptor(i);
+        Object value = null;
+
+        // is this a geometry?
+        if (type instanceof GeometryDescriptor) {
+            GeometryDescriptor gatt = (GeometryDescriptor) type;
+            
+            //read the geometry
+            try {
+                value = dataStore.getSQLDialect()
+                                 .decodeGeometryValue(gatt, rs, offset+attributeRsIndex[i],
+                        geometryFactory, cx);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            
+            if (value != null) {
+                //check to see if a crs was set
+                Geometry geometry = (Geometry) value;
+                if ( geometry.getUserData() == null ) {
+                    //if not set, set from descriptor
+                    geometry.setUserData( gatt.getCoordinateReferenceSystem() );
+                }
+            }
+        } else {
+            value = rs.getObject(offset+attributeRsIndex[i]);
+        }
+
+        // they value may need conversion. We let converters chew the initial
+        // value towards the target type, if the result is not the same as the
+        // original, then a conversion happened and we may want to report it to the
+        // user (being the feature type reverse engineerd, it's unlikely a true
+        // conversion will be needed)
+        if(value != null) {
+            Class binding = type.getType().getBinding();
+            Object converted = Converters.convert(value, binding);
+            if(converted != null && converted != value) {
+                value = converted;
+                if (dataStore.getLogger().isLoggable(Level.FINER)) {
+                    String msg = value + " is not of type " + binding.getName()
+                        + ", attempting conversion";
+                    dataStore.getLogger().finer(msg);
+                }
+            }
+        }
+        return value;
+    }
+
     /**
      * Builds an array containing the position in the result set for each attribute.
      * It takes into account that rs positions start by one, about the exposed primary keys,
@@ -418,6 +453,8 @@ public class JDBCFeatureReader implements  FeatureReader<SimpleFeatureType, Simp
         hints = null;
         next = null;
         builder = null;
+        reusable = null;
+        attributeRsIndex = null;
         tracer = null;
     }
     
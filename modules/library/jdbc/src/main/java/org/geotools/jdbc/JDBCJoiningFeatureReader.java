@@ -64,6 +64,12 @@ public class JDBCJoiningFeatureReader extends JDBCFeatureReader {
 
     void init(Connection cx, JDBCFeatureSource featureSource, SimpleFeatureType featureType, 
         JoinInfo join, Hints hints) throws SQLException, IOException {
+        // the joined features are kept as attributes, they cannot be reused
+        reusable = null;
+        if (hints.containsKey(Hints.FEATURE_REUSE)) {
+            hints = new Hints(hints);
+            hints.remove(Hints.FEATURE_REUSE);
+        }
         joinReaders = new ArrayList<JDBCFeatureReader>();
         int offset = featureType.getAttributeCount() + getPrimaryKey().getColumns().size();
 
@@ -378,6 +378,26 @@ public abstract class SQLDialect {
         aggregates.put( SumVisitor.class, "sum");
     }
     
+    /**
+     * Encodes the GROUP BY clause of an aggregate query.
+     * <p>
+     * The default implementation outputs a standard <tt>GROUP BY</tt> clause listing the
+     * columns. Subclasses may override to handle databases with a different syntax.
+     * </p>
+     * 
+     * @param columns The raw names of the columns to group on.
+     * @param sql The buffer to append to.
+     */
+    public void encodeGroupBy(List<String> columns, StringBuffer sql) {
+        sql.append(" GROUP BY ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            encodeColumnName(null, columns.get(i), sql);
+        }
+    }
+    
     /**
      * Returns the java class mapping for a particular column.
      * <p>
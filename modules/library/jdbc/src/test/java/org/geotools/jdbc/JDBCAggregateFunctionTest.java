@@ -16,10 +16,16 @@
  */
 package org.geotools.jdbc;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.geotools.data.DefaultQuery;
 import org.geotools.data.Query;
+import org.geotools.feature.visitor.GroupByVisitor;
+import org.geotools.feature.visitor.GroupByVisitor.Aggregate;
+import org.geotools.feature.visitor.GroupByVisitor.AggregateFunction;
 import org.geotools.feature.visitor.MaxVisitor;
 import org.geotools.feature.visitor.MinVisitor;
 import org.geotools.feature.visitor.SumVisitor;
@@ -286,4 +292,43 @@ public abstract class JDBCAggregateFunctionTest extends JDBCTestSupport {
         Set result = v.getResult().toSet();
         assertEquals(2, result.size());
     }
+    
+    class MyGroupByVisitor extends GroupByVisitor {
+
+        public MyGroupByVisitor(Expression groupBy, Aggregate... aggregates) {
+            super(groupBy, aggregates);
+        }
+        
+        public void visit(Feature feature) {
+            super.visit(feature);
+            visited = true;
+        }
+        
+        public void visit(SimpleFeature feature) {
+            super.visit(feature);
+            visited = true;
+        }
+        
+    }
+    
+    public void testGroupBy() throws Exception {
+        FilterFactory ff = dataStore.getFilterFactory();
+        
+        GroupByVisitor v = new MyGroupByVisitor(ff.property( aname("stringProperty") ),
+            new Aggregate(AggregateFunction.COUNT, null),
+            new Aggregate(AggregateFunction.MAX, ff.property( aname("doubleProperty") )),
+            new Aggregate(AggregateFunction.AVERAGE, ff.property( aname("intProperty") )));
+        Filter f = ff.greater( ff.property( aname("doubleProperty") ), ff.literal(1) );
+        Query q = new Query( tname("ft1"), f);
+        dataStore.getFeatureSource(tname("ft1")).accepts(q, v, null);
+        assertFalse(visited);
+        
+        Map<List<Object>, Object[]> groups = v.getResult().toMap();
+        assertEquals(2, groups.size());
+        Object[] two = groups.get(Arrays.asList("two"));
+        assertEquals(1, ((Number) two[0]).intValue());
+        assertEquals(2.2, ((Number) two[1]).doubleValue(), 0.01);
+        assertEquals(2.0, ((Number) two[2]).doubleValue(), 0.01);
+        assertNotNull(groups.get(Arrays.asList("one")));
+    }
 }
@@ -26,6 +26,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureTypes;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.SchemaException;
@@ -367,6 +368,11 @@ public abstract class AbstractDataStore implements DataStore {
         // this class
         //
          FeatureReader<SimpleFeatureType, SimpleFeature> reader = getFeatureReader(typeName, query);
+        if (reader instanceof FIDFeatureReader
+                && Boolean.TRUE.equals(query.getHints().get(Hints.FEATURE_REUSE))) {
+            // the features are only valid until the next call to hasNext() or next()
+            ((FIDFeatureReader) reader).setReuseFeatures(true);
+        }
 
         if( diff!=null )
             reader = new DiffFeatureReader<SimpleFeatureType, SimpleFeature>(reader, diff, query.getFilter());
@@ -16,6 +16,7 @@
  */
 package org.geotools.data;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,7 +25,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.GeometryAttribute;
@@ -115,9 +115,15 @@ public class Diff{
     /** counter used to genreate the "next" new feature id */
     public int nextFID = 0;
     
-    /** Spatial index; allowing quick qccess to features */
+    /**
+     * Spatial index of the added and modified features, by feature id, allowing quick access to
+     * the features of a bounding box query without going through the whole diff.
+     */
     private SpatialIndex spatialIndex;
 
+    /** Bounds each feature id is indexed with, needed to remove it from the index */
+    private final Map<String, Envelope> indexedBounds;
+
     /** Simple object used for locking */
     Object mutex;
 
@@ -126,7 +132,7 @@ public class Diff{
         // private fields
         modifiedFeatures = new ConcurrentHashMap<String, SimpleFeature>();
         addedFeatures =new ConcurrentHashMap<String, SimpleFeature>();
-        addedFidList = new CopyOnWriteArrayList<String>();
+        addedFidList = new ArrayList<String>();
         
         // public "views" requiring synchronised( mutex )
         modified2 = Collections.unmodifiableMap(modifiedFeatures);
@@ -134,6 +140,7 @@ public class Diff{
         order = Collections.unmodifiableList(addedFidList);
 
         spatialIndex = new Quadtree();
+        indexedBounds = new HashMap<String, Envelope>();
         mutex = this;
     }
     
@@ -143,9 +150,13 @@ public class Diff{
      */
     public Diff(Diff other){
         // copy data
-        modifiedFeatures=new ConcurrentHashMap<String, SimpleFeature>(other.modifiedFeatures);
-        addedFeatures=new ConcurrentHashMap<String, SimpleFeature>(other.addedFeatures);
-        addedFidList=new CopyOnWriteArrayList<String>(other.addedFidList);
+        synchronized (other.mutex) {
+            modifiedFeatures=new ConcurrentHashMap<String, SimpleFeature>(other.modifiedFeatures);
+            addedFeatures=new ConcurrentHashMap<String, SimpleFeature>(other.addedFeatures);
+            addedFidList=new ArrayList<String>(other.addedFidList);
+            indexedBounds=new HashMap<String, Envelope>(other.indexedBounds);
+            nextFID=other.nextFID;
+        }
         
         // create public "views"
         modified2=Collections.unmodifiableMap(modifiedFeatures);
@@ -153,7 +164,6 @@ public class Diff{
         order = Collections.unmodifiableList(addedFidList);
 
         spatialIndex=copySTRtreeFrom(other);
-        nextFID=other.nextFID;
         mutex=this;
     }
     
@@ -177,6 +187,7 @@ public class Diff{
             addedFidList.clear();
             modifiedFeatures.clear();
             spatialIndex = new Quadtree();
+            indexedBounds.clear();
         }
     }
 
@@ -188,9 +199,7 @@ public class Diff{
      */
 	public void modify(String fid, SimpleFeature f) {
 		synchronized (mutex) {
-			SimpleFeature old;
             if( addedFeatures.containsKey(fid) ){
-                old = addedFeatures.get(fid);
                 if( f == null ){
                     addedFeatures.remove(fid);
                     addedFidList.remove(fid);
@@ -200,13 +209,12 @@ public class Diff{
                 }
             }
             else{
-                old = modifiedFeatures.get(fid);
                 modifiedFeatures.put(fid, f);
             }
-            if(old != null) {
-            	spatialIndex.remove(ReferencedEnvelope.reference(old.getBounds()), old);
+            removeFromSpatialIndex(fid);
+            if( f != null ){
+                addToSpatialIndex(fid, f);
             }
-            addToSpatialIndex(f);
 		}
 	}
 	
@@ -214,46 +222,84 @@ public class Diff{
 		synchronized (mutex) {
 			addedFeatures.put(fid, f);
 			addedFidList.add(fid); // preserve order features are added in
-			addToSpatialIndex(f);
+			removeFromSpatialIndex(fid);
+			addToSpatialIndex(fid, f);
 		}
 	}
 	
+	/**
+	 * Indexes the feature under its id, the feature being looked up again on queries so that the
+	 * index never returns a stale version.
+	 */
 	protected void addToSpatialIndex(SimpleFeature f) {
+	    addToSpatialIndex(f.getID(), f);
+	}
+	
+	private void addToSpatialIndex(String fid, SimpleFeature f) {
 		if (f.getDefaultGeometry() != null) {
 			BoundingBox bounds = f.getBounds();
-			if( !bounds.isEmpty() )
-				spatialIndex.insert(ReferencedEnvelope.reference(bounds), f);
+			if( !bounds.isEmpty() ) {
+			    Envelope env = new Envelope(ReferencedEnvelope.reference(bounds));
+			    spatialIndex.insert(env, fid);
+			    indexedBounds.put(fid, env);
+			}
 		}
 	}
 	
+	private void removeFromSpatialIndex(String fid) {
+	    Envelope env = indexedBounds.remove(fid);
+	    if( env != null ){
+	        spatialIndex.remove(env, fid);
+	    }
+	}
+	
 	public void remove(String fid) {
 		synchronized (mutex) {
-			SimpleFeature old = null;
-			
 			if( addedFeatures.containsKey(fid) ){
-				old = (SimpleFeature) addedFeatures.get(fid);
 				addedFeatures.remove(fid);
 				addedFidList.remove(fid);
 			} else {
-				old = (SimpleFeature) modifiedFeatures.get(fid);
 				modifiedFeatures.put(fid, TransactionStateDiff.NULL);
 			}
-			if( old != null ) {
-				spatialIndex.remove(ReferencedEnvelope.reference(old.getBounds()), old);
-			}			
+			removeFromSpatialIndex(fid);
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
+	/**
+	 * Returns the added and modified features whose bounds intersect the envelope, in time
+	 * proportional to the number of features returned rather than to the size of the diff.
+	 * 
+	 * @param env The query envelope
+	 * @return The features, which may not intersect the envelope themselves
+	 */
     public List<SimpleFeature> queryIndex(Envelope env) {
 		synchronized (mutex) {
-			return spatialIndex.query(env);
+		    List<?> fids = spatialIndex.query(env);
+		    List<SimpleFeature> features = new ArrayList<SimpleFeature>(fids.size());
+		    for (Object fid : fids) {
+		        // the quadtree may return items outside the envelope
+		        Envelope bounds = indexedBounds.get(fid);
+		        if( bounds == null || !bounds.intersects(env) ){
+		            continue;
+		        }
+		        SimpleFeature f = modifiedFeatures.get(fid);
+		        if( f == null ){
+		            f = addedFeatures.get(fid);
+		        }
+		        if( f != null && f != TransactionStateDiff.NULL ){
+		            features.add(f);
+		        }
+		    }
+			return features;
 		}
 	}
 
-    /** Unmodifieable list indicating the order features were added */
+    /**
+     * Unmodifieable list indicating the order features were added. It is imperative that the user
+     * manually synchronize on the diff when iterating over it.
+     */
     public List<String> getAddedOrder() {
-        return addedFidList;
+        return order;
     }
 
     /**
@@ -309,19 +355,10 @@ public class Diff{
 		Quadtree tree = new Quadtree();
 		
 		synchronized (diff) {
-			Iterator<Entry<String,SimpleFeature>> i = diff.added.entrySet().iterator();
+			Iterator<Entry<String,Envelope>> i = diff.indexedBounds.entrySet().iterator();
 			while (i.hasNext()) {
-				Entry<String,SimpleFeature> e = i.next();
-				SimpleFeature f = (SimpleFeature) e.getValue();
-				if (!diff.modifiedFeatures.containsKey(f.getID())) {
-					tree.insert(ReferencedEnvelope.reference(f.getBounds()), f);
-				}
-			}
-			Iterator<Entry<String,SimpleFeature>> j = diff.getModified().entrySet().iterator();
-			while( j.hasNext() ){
-				Entry<String,SimpleFeature> e = j.next();
-				SimpleFeature f = (SimpleFeature) e.getValue();
-				tree.insert(ReferencedEnvelope.reference(f.getBounds()), f);
+				Entry<String,Envelope> e = i.next();
+				tree.insert(e.getValue(), e.getKey());
 			}
 		}
 		
@@ -29,13 +29,17 @@ import org.geotools.filter.AttributeExpression;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.And;
 import org.opengis.filter.Filter;
 import org.opengis.filter.Id;
+import org.opengis.filter.expression.Literal;
 import org.opengis.filter.identity.Identifier;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.filter.spatial.BinarySpatialOperator;
 import org.opengis.filter.spatial.Contains;
 import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
 import org.opengis.filter.spatial.Overlaps;
 import org.opengis.filter.spatial.Touches;
 import org.opengis.filter.spatial.Within;
@@ -102,15 +106,17 @@ public class DiffFeatureReader<T extends FeatureType, F extends Feature> impleme
         this.filter = filter;
         encounteredFids=new HashSet();
 
+        Envelope bounds = null;
         if( filter instanceof Id){
         	fidFilter=true;
-        }else if( isSubsetOfBboxFilter(filter) ){
-        	indexedGeometryFilter=true;
+        }else{
+            bounds = extractIndexBounds(filter);
+            indexedGeometryFilter = bounds != null;
         }
         
         synchronized (diff) {
         	if( indexedGeometryFilter ){
-        		spatialIndexIterator=getIndexedFeatures().iterator();
+        		spatialIndexIterator=(Iterator<F>) diff.queryIndex(bounds).iterator();
         	}
         	addedIterator=(Iterator<F>)diff.getAdded().values().iterator();
         	modifiedIterator=(Iterator<F>)diff.getModified().values().iterator();
@@ -162,11 +168,14 @@ public class DiffFeatureReader<T extends FeatureType, F extends Feature> impleme
             }
 
             String fid = peek.getIdentifier().getID();
-            encounteredFids.add(fid);
 
+            // only the features of the diff need remembering, to skip them when querying it
             Map<String, SimpleFeature> modified = diff.getModified();
-            if (modified.containsKey(fid)) {
-                F changed = (F) modified.get(fid);
+            F changed = (F) modified.get(fid);
+            if (changed != null || diff.getAdded().containsKey(fid)) {
+                encounteredFids.add(fid);
+            }
+            if (changed != null) {
                 if (changed == TransactionStateDiff.NULL || !filter.evaluate(changed) ) {
                     continue;
                 } else {
@@ -256,10 +265,46 @@ public class DiffFeatureReader<T extends FeatureType, F extends Feature> impleme
     
     protected List getIndexedFeatures() {
         // TODO: check geom is default geom.
-    	Envelope env = null;
-    	env = extractBboxForSpatialIndexQuery((BinarySpatialOperator)filter);
+    	Envelope env = extractIndexBounds(filter);
         return diff.queryIndex(env);
     }
+
+    /**
+     * Returns an envelope intersecting the bounds of all the features the filter can accept, or
+     * null if the filter does not limit them. Spatial operators against a literal geometry are
+     * considered, alone or as part of an And. In the latter case the smallest envelope is used:
+     * the children envelopes cannot be intersected, as a feature can intersect two disjoint
+     * envelopes without intersecting their (empty) intersection.
+     */
+    private Envelope extractIndexBounds(Filter filter) {
+        if (filter instanceof And) {
+            Envelope bounds = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Envelope childBounds = extractIndexBounds(child);
+                if (childBounds != null
+                        && (bounds == null || childBounds.getArea() < bounds.getArea())) {
+                    bounds = childBounds;
+                }
+            }
+            return bounds;
+        } else if (filter instanceof BBOX) {
+            BBOX bbox = (BBOX) filter;
+            return new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), bbox.getMaxY());
+        } else if (isSubsetOfBboxFilter(filter) || filter instanceof Intersects
+                || filter instanceof Equals) {
+            BinarySpatialOperator operator = (BinarySpatialOperator) filter;
+            if (operator.getExpression1() instanceof Literal
+                    || operator.getExpression2() instanceof Literal) {
+                Object value = operator.getExpression1() instanceof Literal
+                        ? ((Literal) operator.getExpression1()).getValue()
+                        : ((Literal) operator.getExpression2()).getValue();
+                if (value instanceof Geometry) {
+                    return ((Geometry) value).getEnvelopeInternal();
+                }
+            }
+        }
+        return null;
+    }
     
     protected Envelope extractBboxForSpatialIndexQuery(BinarySpatialOperator filter){
     	org.opengis.filter.expression.Expression leftGeom = filter.getExpression1();
@@ -279,11 +324,11 @@ public class DiffFeatureReader<T extends FeatureType, F extends Feature> impleme
     }
     
     protected boolean isSubsetOfBboxFilter(Filter f) {
-       return filter instanceof Contains ||
-            filter instanceof Crosses ||
-            filter instanceof Overlaps ||
-            filter instanceof Touches ||
-            filter instanceof Within ||
-            filter instanceof BBOX;
+       return f instanceof Contains ||
+            f instanceof Crosses ||
+            f instanceof Overlaps ||
+            f instanceof Touches ||
+            f instanceof Within ||
+            f instanceof BBOX;
     }
 }
@@ -22,6 +22,7 @@ import java.util.logging.Logger;
 
 import org.geotools.feature.IllegalAttributeException;
 import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.ReusableSimpleFeature;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengis.feature.simple.SimpleFeature;
@@ -63,6 +64,8 @@ public class FIDFeatureReader implements  FeatureReader<SimpleFeatureType, Simpl
     protected final Object[] attributes;
     private SimpleFeatureBuilder builder;
     private Boolean hasNextFlag;
+    /** The feature returned for all records, when reused */
+    private ReusableSimpleFeature reusable;
 
     /**
      * Creates a new instance of AbstractFeatureReader
@@ -93,6 +96,31 @@ public class FIDFeatureReader implements  FeatureReader<SimpleFeatureType, Simpl
         this(attributeReader, fidReader, null);
     }
 
+    /**
+     * Sets whether the same feature is returned for all the records, its attributes being read
+     * when asked for. The feature is valid until the next call to {@link #hasNext()} or
+     * {@link #next()}, the attribute reader moving to the next record in {@code hasNext()}.
+     *
+     * @see org.geotools.factory.Hints#FEATURE_REUSE
+     * @since 8.x
+     */
+    public void setReuseFeatures(boolean reuse) {
+        if (!reuse) {
+            reusable = null;
+        } else if (reusable == null) {
+            reusable = new ReusableSimpleFeature(schema) {
+                @Override
+                protected Object load(int index) {
+                    try {
+                        return attributeReader.read(index);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+    }
+
     public SimpleFeature next()
         throws IOException, IllegalAttributeException, NoSuchElementException {
         if (hasNext()) {
@@ -127,6 +155,10 @@ public class FIDFeatureReader implements  FeatureReader<SimpleFeatureType, Simpl
         //have default FIDAttributeReader.
         String fid = fidReader.next();
 
+        if (reusable != null) {
+            reusable.reset(fid);
+            return reusable;
+        }
         for (int i = 0, ii = atts.getAttributeCount(); i < ii; i++) {
             builder.add(atts.read(i));
         }
@@ -189,7 +189,12 @@ public class CollectionFeatureSource implements SimpleFeatureSource {
             return new EmptyFeatureCollection( getSchema() );
         }
         if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE) {
-            features = new FilteringSimpleFeatureCollection(features, query.getFilter());
+            if (features instanceof ColumnarFeatureCollection) {
+                // uses its spatial index
+                features = features.subCollection(query.getFilter());
+            } else {
+                features = new FilteringSimpleFeatureCollection(features, query.getFilter());
+            }
         }
         // step two: reproject
         if (query.getCoordinateSystemReproject() != null) {
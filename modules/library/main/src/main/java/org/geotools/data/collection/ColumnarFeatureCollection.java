@@ -0,0 +1,417 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MergeableFeatureCalc;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.filter.visitor.NativeBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.util.ProgressListener;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A feature collection keeping its features in memory one attribute at a time, using much
+ * less memory than a list of features.
+ * <p>
+ * Numbers and booleans are stored in primitive arrays, strings once per distinct value, and
+ * geometries as packed coordinate arrays along with their envelopes. The features are built
+ * again each time they are read, so changes to them are not kept, and their user data is
+ * lost. Attributes whose values cannot be stored this way, such as a
+ * {@link com.vividsolutions.jts.geom.Geometry} with user data, are kept as they are.
+ * <p>
+ * The collection uses a spatial index over the envelopes of its geometries for the
+ * {@link #subCollection(Filter)} of a single geometry type, and computes counts, sums, minimums
+ * and maximums of numbers directly on the arrays.
+ * <p>
+ * Like {@link ListFeatureCollection}, this collection is not thread safe while features are
+ * added.
+ *
+ * @source $URL$
+ * @since 8.x
+ */
+public class ColumnarFeatureCollection extends AbstractFeatureCollection {
+
+    private static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    private final FeatureColumn[] columns;
+
+    private FeatureColumn.IdColumn ids;
+
+    private int size;
+
+    /**
+     * The index of the geometries, built when first needed.
+     */
+    private PackedEnvelopeIndex index;
+
+    /**
+     * Creates an empty collection for the provided schema.
+     */
+    public ColumnarFeatureCollection(SimpleFeatureType schema) {
+        super(schema);
+        columns = new FeatureColumn[schema.getAttributeCount()];
+        createColumns();
+    }
+
+    /**
+     * Creates a collection holding a copy of the provided features.
+     */
+    public ColumnarFeatureCollection(SimpleFeatureCollection copy) {
+        this(copy.getSchema());
+        addAll(copy);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(SimpleFeature feature) {
+        if (feature.getAttributeCount() != columns.length) {
+            throw new IllegalArgumentException("Feature " + feature.getID()
+                    + " does not match the schema " + schema.getTypeName());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            Object value = feature.getAttribute(i);
+            if (!columns[i].add(value)) {
+                columns[i] = new FeatureColumn.ObjectColumn(columns[i]);
+                columns[i].add(value);
+            }
+        }
+        ids.add(feature.getID());
+        size++;
+        index = null;
+        return true;
+    }
+
+    /**
+     * Creates the empty columns of the schema.
+     */
+    private void createColumns() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = FeatureColumn.create(schema.getDescriptor(i).getType().getBinding());
+        }
+        ids = new FeatureColumn.IdColumn();
+    }
+
+    @Override
+    public void clear() {
+        createColumns();
+        size = 0;
+        index = null;
+    }
+
+    /**
+     * Builds the feature of a row.
+     */
+    SimpleFeature feature(int row) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].get(row);
+        }
+        FeatureId id = FF.featureId((String) ids.get(row));
+        return new SimpleFeatureImpl(values, schema, id, false);
+    }
+
+    @Override
+    protected Iterator<SimpleFeature> openIterator() {
+        return new RowIterator(null, null);
+    }
+
+    @Override
+    protected void closeIterator(Iterator<SimpleFeature> close) {
+        // nothing to do there
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new RowIterator(null, null);
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        for (int i = 0; i < columns.length; i++) {
+            if (!(schema.getDescriptor(i) instanceof GeometryDescriptor)) {
+                continue;
+            }
+            if (columns[i] instanceof FeatureColumn.GeometryColumn) {
+                double[] envelopes = ((FeatureColumn.GeometryColumn) columns[i]).envelopes;
+                for (int row = 0; row < size; row++) {
+                    if (!Double.isNaN(envelopes[row * 4])) {
+                        bounds.expandToInclude(new Envelope(envelopes[row * 4],
+                                envelopes[row * 4 + 1], envelopes[row * 4 + 2],
+                                envelopes[row * 4 + 3]));
+                    }
+                }
+            } else {
+                for (int row = 0; row < size; row++) {
+                    Object value = columns[i].get(row);
+                    if (value instanceof Geometry) {
+                        bounds.expandToInclude(((Geometry) value).getEnvelopeInternal());
+                    }
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the features matching the filter, using the spatial index when the schema has a
+     * single geometry.
+     */
+    @Override
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        if (filter == Filter.INCLUDE) {
+            return this;
+        }
+        int[] rows = candidates(filter);
+        if (rows == null) {
+            return super.subCollection(filter);
+        }
+        return new FilteredCollection(rows, filter);
+    }
+
+    /**
+     * Returns the rows whose geometry may match the filter, {@code null} if the index cannot
+     * tell.
+     */
+    private int[] candidates(Filter filter) {
+        int geometries = 0;
+        FeatureColumn.GeometryColumn column = null;
+        for (int i = 0; i < columns.length; i++) {
+            if (schema.getDescriptor(i) instanceof GeometryDescriptor) {
+                geometries++;
+                if (columns[i] instanceof FeatureColumn.GeometryColumn) {
+                    column = (FeatureColumn.GeometryColumn) columns[i];
+                }
+            }
+        }
+        if (geometries != 1 || column == null) {
+            return null;
+        }
+        Envelope area = (Envelope) filter.accept(new NativeBoundsFilterVisitor(schema
+                .getCoordinateReferenceSystem()), null);
+        if (area == null || Double.isInfinite(area.getWidth())
+                || Double.isInfinite(area.getHeight())) {
+            return null;
+        }
+        synchronized (this) {
+            if (index == null) {
+                index = new PackedEnvelopeIndex(column.envelopes, size);
+            }
+            return index.query(area);
+        }
+    }
+
+    /**
+     * Computes the counts, and the sums, minimums and maximums of the numbers without nulls on
+     * the arrays, and visits the features for any other visitor.
+     */
+    @Override
+    public void accepts(FeatureVisitor visitor, ProgressListener progress) {
+        if (!visitColumns(visitor)) {
+            super.accepts(visitor, progress);
+        }
+    }
+
+    private boolean visitColumns(FeatureVisitor visitor) {
+        if (visitor instanceof CountVisitor) {
+            CountVisitor partial = (CountVisitor) ((CountVisitor) visitor).createPartial();
+            partial.setValue(size);
+            ((CountVisitor) visitor).mergePartial(partial);
+            return true;
+        }
+        Expression expression = null;
+        if (visitor instanceof SumVisitor) {
+            expression = ((SumVisitor) visitor).getExpression();
+        } else if (visitor instanceof MinVisitor) {
+            expression = ((MinVisitor) visitor).getExpression();
+        } else if (visitor instanceof MaxVisitor) {
+            expression = ((MaxVisitor) visitor).getExpression();
+        }
+        if (!(expression instanceof PropertyName)) {
+            return false;
+        }
+        AttributeDescriptor descriptor = schema.getDescriptor(((PropertyName) expression)
+                .getPropertyName());
+        if (descriptor == null) {
+            return false;
+        }
+        FeatureColumn column = columns[schema.indexOf(descriptor.getName())];
+        if (!(column instanceof FeatureColumn.NumberColumn)) {
+            return false;
+        }
+        FeatureColumn.NumberColumn numbers = (FeatureColumn.NumberColumn) column;
+        MergeableFeatureCalc calc = (MergeableFeatureCalc) visitor;
+        MergeableFeatureCalc partial = calc.createPartial();
+        if (visitor instanceof SumVisitor) {
+            Number sum = numbers.sum();
+            if (sum == null) {
+                return false;
+            }
+            ((SumVisitor) partial).setValue(sum);
+        } else if (visitor instanceof MinVisitor) {
+            Number min = numbers.min();
+            if (min == null) {
+                return false;
+            }
+            ((MinVisitor) partial).setValue(min);
+        } else {
+            Number max = numbers.max();
+            if (max == null) {
+                return false;
+            }
+            ((MaxVisitor) partial).setValue(max);
+        }
+        calc.mergePartial(partial);
+        return true;
+    }
+
+    /**
+     * Iterates over all the rows, or the rows of a filtered collection.
+     */
+    private class RowIterator implements SimpleFeatureIterator, Iterator<SimpleFeature> {
+        private final int[] rows;
+
+        private final Filter filter;
+
+        private final int count;
+
+        private int position;
+
+        private SimpleFeature next;
+
+        RowIterator(int[] rows, Filter filter) {
+            this.rows = rows;
+            this.filter = filter;
+            this.count = rows != null ? rows.length : size;
+        }
+
+        public boolean hasNext() {
+            while (next == null && position < count) {
+                SimpleFeature feature = feature(rows != null ? rows[position] : position);
+                position++;
+                if (filter == null || filter.evaluate(feature)) {
+                    next = feature;
+                }
+            }
+            return next != null;
+        }
+
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature feature = next;
+            next = null;
+            return feature;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            // nothing to do there
+        }
+    }
+
+    /**
+     * The features of some candidate rows matching a filter.
+     */
+    private class FilteredCollection extends AbstractFeatureCollection {
+        private final int[] rows;
+
+        private final Filter filter;
+
+        FilteredCollection(int[] rows, Filter filter) {
+            super(ColumnarFeatureCollection.this.schema);
+            this.rows = rows;
+            this.filter = filter;
+        }
+
+        @Override
+        protected Iterator<SimpleFeature> openIterator() {
+            return new RowIterator(rows, filter);
+        }
+
+        @Override
+        protected void closeIterator(Iterator<SimpleFeature> close) {
+            // nothing to do there
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new RowIterator(rows, filter);
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            for (RowIterator it = new RowIterator(rows, filter); it.hasNext(); it.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            ReferencedEnvelope bounds = new ReferencedEnvelope(schema
+                    .getCoordinateReferenceSystem());
+            for (RowIterator it = new RowIterator(rows, filter); it.hasNext();) {
+                ReferencedEnvelope bbox = ReferencedEnvelope.reference(it.next().getBounds());
+                if (bbox != null && !bbox.isEmpty() && !bbox.isNull()) {
+                    bounds.expandToInclude((Envelope) bbox);
+                }
+            }
+            return bounds;
+        }
+
+        @Override
+        public SimpleFeatureCollection subCollection(Filter filter) {
+            if (filter == Filter.INCLUDE) {
+                return this;
+            }
+            return new FilteredCollection(rows, FF.and(this.filter, filter));
+        }
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * The values of one attribute of a {@link ColumnarFeatureCollection}, stored in arrays.
+ * <p>
+ * A column only accepts the values it can give back unchanged: {@link #add(Object)} returns
+ * {@code false} for any other value, and the collection then moves the attribute to an
+ * {@link ObjectColumn}.
+ *
+ * @source $URL$
+ */
+abstract class FeatureColumn {
+
+    /**
+     * The number of values.
+     */
+    int size;
+
+    /**
+     * Returns the value of a row.
+     */
+    abstract Object get(int row);
+
+    /**
+     * Appends a value, returning {@code false} if this column cannot store it.
+     */
+    abstract boolean add(Object value);
+
+    /**
+     * Creates the column best suited to the values of a type.
+     */
+    static FeatureColumn create(Class<?> binding) {
+        if (binding == Integer.class) {
+            return new IntColumn();
+        } else if (binding == Long.class) {
+            return new LongColumn();
+        } else if (binding == Double.class) {
+            return new DoubleColumn();
+        } else if (binding == Float.class) {
+            return new FloatColumn();
+        } else if (binding == Boolean.class) {
+            return new BooleanColumn();
+        } else if (binding == String.class) {
+            return new StringColumn();
+        } else if (binding != null && Geometry.class.isAssignableFrom(binding)) {
+            return new GeometryColumn();
+        }
+        return new ObjectColumn();
+    }
+
+    /**
+     * Returns the capacity an array should grow to in order to hold a value at an index.
+     */
+    static int capacity(int length, int index) {
+        if (index < length) {
+            return length;
+        }
+        return Math.max(index + 1, length + (length >> 1) + 16);
+    }
+
+    /**
+     * Returns the array, or a larger copy if it cannot hold a value at an index.
+     */
+    static int[] grow(int[] values, int index) {
+        return index < values.length ? values : Arrays.copyOf(values, capacity(values.length,
+                index));
+    }
+
+    static long[] grow(long[] values, int index) {
+        return index < values.length ? values : Arrays.copyOf(values, capacity(values.length,
+                index));
+    }
+
+    static float[] grow(float[] values, int index) {
+        return index < values.length ? values : Arrays.copyOf(values, capacity(values.length,
+                index));
+    }
+
+    static double[] grow(double[] values, int index) {
+        return index < values.length ? values : Arrays.copyOf(values, capacity(values.length,
+                index));
+    }
+
+    static <T> T[] grow(T[] values, int index) {
+        return index < values.length ? values : Arrays.copyOf(values, capacity(values.length,
+                index));
+    }
+
+    /**
+     * Base class of the columns of numbers, which can be aggregated without building the
+     * values. The aggregates return {@code null} when the visitors must see the values one by
+     * one, such as when some are null.
+     */
+    abstract static class NumberColumn extends FeatureColumn {
+        final BitSet nulls = new BitSet();
+
+        boolean add(Object value) {
+            if (value == null) {
+                nulls.set(size);
+                set(size++, null);
+                return true;
+            } else if (value.getClass() != type()) {
+                return false;
+            }
+            set(size++, (Number) value);
+            return true;
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : number(row);
+        }
+
+        boolean isAggregable() {
+            return size > 0 && nulls.isEmpty();
+        }
+
+        abstract Class<?> type();
+
+        abstract void set(int row, Number value);
+
+        abstract Number number(int row);
+
+        abstract Number sum();
+
+        abstract Number min();
+
+        /**
+         * The maximum, {@code null} if some values are skipped by the max visitor.
+         */
+        abstract Number max();
+    }
+
+    static final class IntColumn extends NumberColumn {
+        int[] values = new int[0];
+
+        Class<?> type() {
+            return Integer.class;
+        }
+
+        void set(int row, Number value) {
+            values = grow(values, row);
+            values[row] = value != null ? value.intValue() : 0;
+        }
+
+        Number number(int row) {
+            return values[row];
+        }
+
+        Number sum() {
+            if (!isAggregable()) {
+                return null;
+            }
+            int sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        Number min() {
+            if (!isAggregable()) {
+                return null;
+            }
+            int min = values[0];
+            for (int i = 1; i < size; i++) {
+                min = Math.min(min, values[i]);
+            }
+            return min;
+        }
+
+        Number max() {
+            if (!isAggregable()) {
+                return null;
+            }
+            int max = values[0];
+            for (int i = 1; i < size; i++) {
+                max = Math.max(max, values[i]);
+            }
+            return max;
+        }
+    }
+
+    static final class LongColumn extends NumberColumn {
+        long[] values = new long[0];
+
+        Class<?> type() {
+            return Long.class;
+        }
+
+        void set(int row, Number value) {
+            values = grow(values, row);
+            values[row] = value != null ? value.longValue() : 0;
+        }
+
+        Number number(int row) {
+            return values[row];
+        }
+
+        Number sum() {
+            if (!isAggregable()) {
+                return null;
+            }
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        Number min() {
+            if (!isAggregable()) {
+                return null;
+            }
+            long min = values[0];
+            for (int i = 1; i < size; i++) {
+                min = Math.min(min, values[i]);
+            }
+            return min;
+        }
+
+        Number max() {
+            if (!isAggregable()) {
+                return null;
+            }
+            long max = values[0];
+            for (int i = 1; i < size; i++) {
+                max = Math.max(max, values[i]);
+            }
+            return max;
+        }
+    }
+
+    static final class DoubleColumn extends NumberColumn {
+        double[] values = new double[0];
+
+        Class<?> type() {
+            return Double.class;
+        }
+
+        void set(int row, Number value) {
+            values = grow(values, row);
+            values[row] = value != null ? value.doubleValue() : 0;
+        }
+
+        Number number(int row) {
+            return values[row];
+        }
+
+        Number sum() {
+            if (!isAggregable()) {
+                return null;
+            }
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        Number min() {
+            if (!isAggregable()) {
+                return null;
+            }
+            // same order as Double.compareTo
+            double min = values[0];
+            for (int i = 1; i < size; i++) {
+                if (Double.compare(values[i], min) < 0) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }
+
+        Number max() {
+            if (!isAggregable()) {
+                return null;
+            }
+            double max = values[0];
+            for (int i = 0; i < size; i++) {
+                // skipped and counted by the max visitor
+                if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+                    return null;
+                }
+                if (Double.compare(values[i], max) > 0) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }
+    }
+
+    static final class FloatColumn extends NumberColumn {
+        float[] values = new float[0];
+
+        Class<?> type() {
+            return Float.class;
+        }
+
+        void set(int row, Number value) {
+            values = grow(values, row);
+            values[row] = value != null ? value.floatValue() : 0;
+        }
+
+        Number number(int row) {
+            return values[row];
+        }
+
+        Number sum() {
+            if (!isAggregable()) {
+                return null;
+            }
+            float sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        Number min() {
+            if (!isAggregable()) {
+                return null;
+            }
+            float min = values[0];
+            for (int i = 1; i < size; i++) {
+                if (Float.compare(values[i], min) < 0) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }
+
+        Number max() {
+            if (!isAggregable()) {
+                return null;
+            }
+            float max = values[0];
+            for (int i = 1; i < size; i++) {
+                if (Float.compare(values[i], max) > 0) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }
+    }
+
+    static final class BooleanColumn extends FeatureColumn {
+        final BitSet values = new BitSet();
+
+        final BitSet nulls = new BitSet();
+
+        boolean add(Object value) {
+            if (value == null) {
+                nulls.set(size);
+            } else if (value.getClass() == Boolean.class) {
+                values.set(size, (Boolean) value);
+            } else {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        Object get(int row) {
+            return nulls.get(row) ? null : Boolean.valueOf(values.get(row));
+        }
+    }
+
+    /**
+     * Stores each distinct string once, the rows holding the index of their value.
+     */
+    static final class StringColumn extends FeatureColumn {
+        int[] codes = new int[0];
+
+        final List<String> words = new ArrayList<String>();
+
+        final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        boolean add(Object value) {
+            if (value != null && value.getClass() != String.class) {
+                return false;
+            }
+            int code = -1;
+            if (value != null) {
+                Integer known = dictionary.get(value);
+                if (known == null) {
+                    known = words.size();
+                    words.add((String) value);
+                    dictionary.put((String) value, known);
+                }
+                code = known;
+            }
+            codes = grow(codes, size);
+            codes[size++] = code;
+            return true;
+        }
+
+        Object get(int row) {
+            int code = codes[row];
+            return code < 0 ? null : words.get(code);
+        }
+    }
+
+    /**
+     * Holds any value, used when no other column fits.
+     */
+    static final class ObjectColumn extends FeatureColumn {
+        Object[] values = new Object[0];
+
+        ObjectColumn() {
+        }
+
+        /**
+         * Copies the values of another column.
+         */
+        ObjectColumn(FeatureColumn column) {
+            values = new Object[capacity(0, column.size)];
+            for (int i = 0; i < column.size; i++) {
+                values[i] = column.get(i);
+            }
+            size = column.size;
+        }
+
+        boolean add(Object value) {
+            values = grow(values, size);
+            values[size++] = value;
+            return true;
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * Stores the geometries as a sequence of integers describing their structure, and a packed
+     * array of coordinates, along with their envelopes. The geometries are rebuilt with the
+     * factory of the first one, and must have the same precision model and SRID, and no user
+     * data.
+     */
+    static final class GeometryColumn extends FeatureColumn {
+        static final int POINT = 0;
+
+        static final int LINESTRING = 1;
+
+        static final int LINEARRING = 2;
+
+        static final int POLYGON = 3;
+
+        static final int MULTIPOINT = 4;
+
+        static final int MULTILINESTRING = 5;
+
+        static final int MULTIPOLYGON = 6;
+
+        static final int COLLECTION = 7;
+
+        GeometryFactory factory;
+
+        /**
+         * The start of each geometry in {@link #structure}, -1 for null.
+         */
+        int[] structureStart = new int[0];
+
+        /**
+         * The start of the coordinates of each geometry in {@link #coordinates}.
+         */
+        int[] coordinateStart = new int[0];
+
+        int[] structure = new int[0];
+
+        int structureSize;
+
+        double[] coordinates = new double[0];
+
+        int coordinateSize;
+
+        /**
+         * The envelope of each geometry, as minx, maxx, miny, maxy, NaN for null or empty
+         * geometries.
+         */
+        double[] envelopes = new double[0];
+
+        boolean add(Object value) {
+            if (value != null && !accepts(value)) {
+                return false;
+            }
+            final int structureMark = structureSize;
+            final int coordinateMark = coordinateSize;
+            if (value != null && !encode((Geometry) value)) {
+                structureSize = structureMark;
+                coordinateSize = coordinateMark;
+                return false;
+            }
+            structureStart = grow(structureStart, size);
+            coordinateStart = grow(coordinateStart, size);
+            envelopes = grow(envelopes, size * 4 + 3);
+            structureStart[size] = value != null ? structureMark : -1;
+            coordinateStart[size] = coordinateMark;
+            Envelope envelope = value != null ? ((Geometry) value).getEnvelopeInternal() : null;
+            if (envelope == null || envelope.isNull()) {
+                Arrays.fill(envelopes, size * 4, size * 4 + 4, Double.NaN);
+            } else {
+                envelopes[size * 4] = envelope.getMinX();
+                envelopes[size * 4 + 1] = envelope.getMaxX();
+                envelopes[size * 4 + 2] = envelope.getMinY();
+                envelopes[size * 4 + 3] = envelope.getMaxY();
+            }
+            size++;
+            return true;
+        }
+
+        private boolean accepts(Object value) {
+            if (!(value instanceof Geometry)) {
+                return false;
+            }
+            Geometry geometry = (Geometry) value;
+            GeometryFactory other = geometry.getFactory();
+            if (geometry.getUserData() != null || other == null) {
+                return false;
+            }
+            if (factory == null) {
+                factory = other;
+            }
+            if (geometry.getSRID() != factory.getSRID()) {
+                return false;
+            }
+            return other == factory
+                    || (other.getSRID() == factory.getSRID()
+                            && other.getPrecisionModel().equals(factory.getPrecisionModel())
+                            && other.getCoordinateSequenceFactory().getClass() == factory
+                                    .getCoordinateSequenceFactory().getClass());
+        }
+
+        private boolean encode(Geometry geometry) {
+            Class<?> type = geometry.getClass();
+            if (type == Point.class) {
+                write(POINT);
+                write(((Point) geometry).getCoordinateSequence());
+            } else if (type == LinearRing.class) {
+                write(LINEARRING);
+                write(((LineString) geometry).getCoordinateSequence());
+            } else if (type == LineString.class) {
+                write(LINESTRING);
+                write(((LineString) geometry).getCoordinateSequence());
+            } else if (type == Polygon.class) {
+                Polygon polygon = (Polygon) geometry;
+                write(POLYGON);
+                write(polygon.getNumInteriorRing());
+                if (!encode(polygon.getExteriorRing())) {
+                    return false;
+                }
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    if (!encode(polygon.getInteriorRingN(i))) {
+                        return false;
+                    }
+                }
+            } else if (type == MultiPoint.class || type == MultiLineString.class
+                    || type == MultiPolygon.class || type == GeometryCollection.class) {
+                write(type == MultiPoint.class ? MULTIPOINT
+                        : type == MultiLineString.class ? MULTILINESTRING
+                                : type == MultiPolygon.class ? MULTIPOLYGON : COLLECTION);
+                write(geometry.getNumGeometries());
+                for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                    if (!encode(geometry.getGeometryN(i))) {
+                        return false;
+                    }
+                }
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private void write(int value) {
+            structure = grow(structure, structureSize);
+            structure[structureSize++] = value;
+        }
+
+        private void write(CoordinateSequence sequence) {
+            final int count = sequence.size();
+            boolean hasZ = false;
+            if (sequence.getDimension() > 2) {
+                for (int i = 0; i < count && !hasZ; i++) {
+                    hasZ = !Double.isNaN(sequence.getOrdinate(i, CoordinateSequence.Z));
+                }
+            }
+            final int dimension = hasZ ? 3 : 2;
+            write(dimension);
+            write(count);
+            coordinates = grow(coordinates, coordinateSize + count * dimension - 1);
+            for (int i = 0; i < count; i++) {
+                coordinates[coordinateSize++] = sequence.getX(i);
+                coordinates[coordinateSize++] = sequence.getY(i);
+                if (hasZ) {
+                    coordinates[coordinateSize++] = sequence.getOrdinate(i, CoordinateSequence.Z);
+                }
+            }
+        }
+
+        Object get(int row) {
+            final int start = structureStart[row];
+            if (start < 0) {
+                return null;
+            }
+            // the positions in the structure and coordinates
+            int[] position = new int[] { start, coordinateStart[row] };
+            return decode(position);
+        }
+
+        private Geometry decode(int[] position) {
+            final int type = structure[position[0]++];
+            switch (type) {
+            case POINT:
+                return factory.createPoint(readSequence(position));
+            case LINESTRING:
+                return factory.createLineString(readSequence(position));
+            case LINEARRING:
+                return factory.createLinearRing(readSequence(position));
+            case POLYGON: {
+                LinearRing[] holes = new LinearRing[structure[position[0]++]];
+                LinearRing shell = (LinearRing) decode(position);
+                for (int i = 0; i < holes.length; i++) {
+                    holes[i] = (LinearRing) decode(position);
+                }
+                return factory.createPolygon(shell, holes);
+            }
+            default: {
+                final int count = structure[position[0]++];
+                Geometry[] parts = type == MULTIPOINT ? new Point[count]
+                        : type == MULTILINESTRING ? new LineString[count]
+                                : type == MULTIPOLYGON ? new Polygon[count] : new Geometry[count];
+                for (int i = 0; i < count; i++) {
+                    parts[i] = decode(position);
+                }
+                switch (type) {
+                case MULTIPOINT:
+                    return factory.createMultiPoint((Point[]) parts);
+                case MULTILINESTRING:
+                    return factory.createMultiLineString((LineString[]) parts);
+                case MULTIPOLYGON:
+                    return factory.createMultiPolygon((Polygon[]) parts);
+                default:
+                    return factory.createGeometryCollection(parts);
+                }
+            }
+            }
+        }
+
+        private CoordinateSequence readSequence(int[] position) {
+            final int dimension = structure[position[0]++];
+            final int count = structure[position[0]++];
+            Coordinate[] sequence = new Coordinate[count];
+            int offset = position[1];
+            for (int i = 0; i < count; i++) {
+                double x = coordinates[offset++];
+                double y = coordinates[offset++];
+                double z = dimension == 3 ? coordinates[offset++] : Double.NaN;
+                sequence[i] = new Coordinate(x, y, z);
+            }
+            position[1] = offset;
+            return factory.getCoordinateSequenceFactory().create(sequence);
+        }
+    }
+
+    /**
+     * Stores the feature identifiers, as numbers when they share a prefix such as
+     * {@code roads.}, as strings otherwise.
+     */
+    static final class IdColumn extends FeatureColumn {
+        String prefix;
+
+        long[] numbers = new long[0];
+
+        /**
+         * The identifiers, once some do not follow the prefix pattern.
+         */
+        String[] strings;
+
+        boolean add(Object value) {
+            String id = (String) value;
+            if (strings == null) {
+                long number = parse(id);
+                if (number >= 0) {
+                    numbers = grow(numbers, size);
+                    numbers[size++] = number;
+                    return true;
+                }
+                strings = new String[capacity(0, size)];
+                for (int i = 0; i < size; i++) {
+                    strings[i] = (String) get(i);
+                }
+                numbers = null;
+            }
+            strings = grow(strings, size);
+            strings[size++] = id;
+            return true;
+        }
+
+        /**
+         * Returns the number following the prefix, or -1 if the identifier does not match.
+         */
+        private long parse(String id) {
+            if (id == null) {
+                return -1;
+            }
+            int start = id.length();
+            while (start > 0 && Character.isDigit(id.charAt(start - 1))
+                    && id.charAt(start - 1) < 128) {
+                start--;
+            }
+            int digits = id.length() - start;
+            // numbers must print back the same, and fit a long
+            if (digits == 0 || digits > 18 || (digits > 1 && id.charAt(start) == '0')) {
+                return -1;
+            }
+            String idPrefix = id.substring(0, start);
+            if (prefix == null && size == 0) {
+                prefix = idPrefix;
+            } else if (!idPrefix.equals(prefix)) {
+                return -1;
+            }
+            return Long.parseLong(id.substring(start));
+        }
+
+        Object get(int row) {
+            return strings != null ? strings[row] : prefix + numbers[row];
+        }
+    }
+}
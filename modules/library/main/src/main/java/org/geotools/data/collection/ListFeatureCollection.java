@@ -21,18 +21,25 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
+import org.geotools.data.FeatureReader;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.visitor.MergeableFeatureCalc;
+import org.geotools.feature.visitor.VisitorExecutor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.NullProgressListener;
+import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.geometry.BoundingBox;
+import org.opengis.util.ProgressListener;
 
 /**
  * FeatureCollection implementation wrapping around a java.util.List.
@@ -61,6 +68,9 @@ public class ListFeatureCollection extends AbstractFeatureCollection {
     /** wrapped list of features containing the contents */
      private List<SimpleFeature> list;
      
+     /** Minimum number of features of a slice visited in parallel */
+     private static final int MIN_PARTITION_SIZE = 1000;
+
      /** Cached bounds */
      private ReferencedEnvelope bounds = null;
     
@@ -208,6 +218,70 @@ public class ListFeatureCollection extends AbstractFeatureCollection {
         }
     }
     
+    /**
+     * Visits the features, splitting the list in slices visited concurrently when parallel
+     * visits are enabled, see {@link VisitorExecutor}, and the list is large enough.
+     */
+    @Override
+    public void accepts(FeatureVisitor visitor, ProgressListener progress) {
+        int partitions = Math.min(VisitorExecutor.getParallelism(), list.size()
+                / MIN_PARTITION_SIZE);
+        if (partitions < 2 || !(list instanceof RandomAccess)
+                || !VisitorExecutor.isParallel(visitor)) {
+            super.accepts(visitor, progress);
+            return;
+        }
+        if (progress == null) {
+            progress = new NullProgressListener();
+        }
+        List<FeatureReader<SimpleFeatureType, SimpleFeature>> readers;
+        readers = new ArrayList<FeatureReader<SimpleFeatureType, SimpleFeature>>();
+        int size = list.size();
+        for (int i = 0; i < partitions; i++) {
+            int from = (int) ((long) size * i / partitions);
+            int to = (int) ((long) size * (i + 1) / partitions);
+            readers.add(new ListFeatureReader(schema, list.subList(from, to)));
+        }
+        // no progress reports if nobody is listening
+        float progressSize = progress instanceof NullProgressListener ? 0.0f : size;
+        try {
+            VisitorExecutor.visit((MergeableFeatureCalc) visitor, readers, progress, progressSize);
+        } catch (IOException e) {
+            progress.exceptionOccurred(e);
+        }
+    }
+
+    /**
+     * FeatureReader over a slice of the list, used for parallel visits.
+     */
+    private static class ListFeatureReader implements
+            FeatureReader<SimpleFeatureType, SimpleFeature> {
+        private final SimpleFeatureType schema;
+
+        private final Iterator<SimpleFeature> iter;
+
+        ListFeatureReader(SimpleFeatureType schema, List<SimpleFeature> features) {
+            this.schema = schema;
+            this.iter = features.iterator();
+        }
+
+        public SimpleFeatureType getFeatureType() {
+            return schema;
+        }
+
+        public SimpleFeature next() throws NoSuchElementException {
+            return iter.next();
+        }
+
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        public void close() {
+            // nothing to do there
+        }
+    }
+
     @Override
     public SimpleFeatureCollection subCollection(Filter filter) {
         CollectionFeatureSource temp = new CollectionFeatureSource( this );
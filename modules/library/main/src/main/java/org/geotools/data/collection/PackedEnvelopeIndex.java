@@ -0,0 +1,225 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A read only Sort-Tile-Recursive tree over envelopes packed in a {@code double} array, as
+ * minx, maxx, miny, maxy, built without creating an object per item.
+ * <p>
+ * Each level of the tree is stored as the packed bounds of its nodes, and the index of the
+ * first child of each node in the level below, the items being the lowest level.
+ *
+ * @source $URL$
+ */
+final class PackedEnvelopeIndex {
+
+    /**
+     * The maximum number of children of a node.
+     */
+    static final int NODE_CAPACITY = 16;
+
+    /**
+     * The items, sorted in the order of the leaves.
+     */
+    private final int[] items;
+
+    private final double[] envelopes;
+
+    /**
+     * The bounds of the nodes of each level, the leaves first.
+     */
+    private final double[][] bounds;
+
+    /**
+     * The start of the children of each node, with one more entry closing the last node.
+     */
+    private final int[][] children;
+
+    /**
+     * Builds the index of the first items of the envelopes, skipping the NaN ones.
+     */
+    PackedEnvelopeIndex(double[] envelopes, int count) {
+        this.envelopes = envelopes;
+        int size = 0;
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (!Double.isNaN(envelopes[i * 4])) {
+                sorted[size++] = i;
+            }
+        }
+        items = Arrays.copyOf(sorted, size);
+
+        // sort the items in vertical slices of about sqrt(leaves) leaves each
+        int leaves = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(leaves));
+        int sliceSize = slices == 0 ? 0 : NODE_CAPACITY * ((leaves + slices - 1) / slices);
+        sort(items, envelopes, 0, size - 1, 0);
+        for (int start = 0; start < size; start += sliceSize) {
+            sort(items, envelopes, start, Math.min(start + sliceSize, size) - 1, 2);
+        }
+
+        // the levels, grouping NODE_CAPACITY consecutive nodes of the level below
+        int levels = 0;
+        for (int n = size; n > 1 || levels == 0; n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            levels++;
+        }
+        bounds = new double[levels][];
+        children = new int[levels][];
+        double[] below = new double[size * 4];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(envelopes, items[i] * 4, below, i * 4, 4);
+        }
+        int belowCount = size;
+        for (int level = 0; level < levels; level++) {
+            int count = (belowCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            double[] nodes = new double[count * 4];
+            int[] starts = new int[count + 1];
+            for (int node = 0; node < count; node++) {
+                int start = node * NODE_CAPACITY;
+                int end = Math.min(start + NODE_CAPACITY, belowCount);
+                starts[node] = start;
+                nodes[node * 4] = Double.POSITIVE_INFINITY;
+                nodes[node * 4 + 1] = Double.NEGATIVE_INFINITY;
+                nodes[node * 4 + 2] = Double.POSITIVE_INFINITY;
+                nodes[node * 4 + 3] = Double.NEGATIVE_INFINITY;
+                for (int i = start; i < end; i++) {
+                    nodes[node * 4] = Math.min(nodes[node * 4], below[i * 4]);
+                    nodes[node * 4 + 1] = Math.max(nodes[node * 4 + 1], below[i * 4 + 1]);
+                    nodes[node * 4 + 2] = Math.min(nodes[node * 4 + 2], below[i * 4 + 2]);
+                    nodes[node * 4 + 3] = Math.max(nodes[node * 4 + 3], below[i * 4 + 3]);
+                }
+            }
+            starts[count] = belowCount;
+            bounds[level] = nodes;
+            children[level] = starts;
+            below = nodes;
+            belowCount = count;
+        }
+    }
+
+    /**
+     * Returns the items whose envelope intersects the search envelope, in increasing order.
+     */
+    int[] query(Envelope search) {
+        if (search.isNull() || items.length == 0) {
+            return new int[0];
+        }
+        Result result = new Result();
+        int top = bounds.length - 1;
+        for (int node = 0; node < bounds[top].length / 4; node++) {
+            query(search, top, node, result);
+        }
+        int[] found = Arrays.copyOf(result.items, result.size);
+        Arrays.sort(found);
+        return found;
+    }
+
+    private void query(Envelope search, int level, int node, Result result) {
+        if (!intersects(bounds[level], node, search)) {
+            return;
+        }
+        int start = children[level][node];
+        int end = children[level][node + 1];
+        if (level == 0) {
+            for (int i = start; i < end; i++) {
+                if (intersects(envelopes, items[i], search)) {
+                    result.add(items[i]);
+                }
+            }
+        } else {
+            for (int child = start; child < end; child++) {
+                query(search, level - 1, child, result);
+            }
+        }
+    }
+
+    private static boolean intersects(double[] packed, int index, Envelope search) {
+        return packed[index * 4] <= search.getMaxX() && packed[index * 4 + 1] >= search.getMinX()
+                && packed[index * 4 + 2] <= search.getMaxY()
+                && packed[index * 4 + 3] >= search.getMinY();
+    }
+
+    /**
+     * Sorts a range of items on the center of their envelopes, along x for offset 0 or y for
+     * offset 2.
+     */
+    private static void sort(int[] items, double[] envelopes, int low, int high, int offset) {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            // median of three as the pivot
+            if (center(envelopes, items[middle], offset) < center(envelopes, items[low], offset)) {
+                swap(items, low, middle);
+            }
+            if (center(envelopes, items[high], offset) < center(envelopes, items[low], offset)) {
+                swap(items, low, high);
+            }
+            if (center(envelopes, items[high], offset) < center(envelopes, items[middle], offset)) {
+                swap(items, middle, high);
+            }
+            double pivot = center(envelopes, items[middle], offset);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (center(envelopes, items[i], offset) < pivot) {
+                    i++;
+                }
+                while (center(envelopes, items[j], offset) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(items, i++, j--);
+                }
+            }
+            // recurse on the smaller part to bound the stack depth
+            if (j - low < high - i) {
+                sort(items, envelopes, low, j, offset);
+                low = i;
+            } else {
+                sort(items, envelopes, i, high, offset);
+                high = j;
+            }
+        }
+    }
+
+    private static double center(double[] envelopes, int item, int offset) {
+        return envelopes[item * 4 + offset] + envelopes[item * 4 + offset + 1];
+    }
+
+    private static void swap(int[] items, int i, int j) {
+        int item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+    }
+
+    /**
+     * A growable list of items.
+     */
+    private static final class Result {
+        int[] items = new int[16];
+
+        int size;
+
+        void add(int item) {
+            items = FeatureColumn.grow(items, size);
+            items[size++] = item;
+        }
+    }
+}
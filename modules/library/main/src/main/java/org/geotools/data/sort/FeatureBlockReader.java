@@ -16,45 +16,38 @@
  */
 package org.geotools.data.sort;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
-
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKBReader;
 
 /**
- * Reads the features stored in the specified block of a {@link RandomAccessFile}
+ * Reads the features stored in the specified block of a {@link FileChannel}. The block is read
+ * sequentially through a buffer, using positional reads so that many blocks can share the same
+ * channel
  * 
  * @author Andrea Aime - GeoSolutions
  */
 class FeatureBlockReader {
 
-    RandomAccessFile raf;
-
-    SimpleFeatureType schema;
+    DataInputStream input;
 
-    SimpleFeatureBuilder builder;
+    FeatureRowCodec codec;
 
     SimpleFeature curr;
 
-    long offset;
-
     int count;
 
-    public FeatureBlockReader(RandomAccessFile raf, long start, int count, SimpleFeatureType schema) {
-        this.raf = raf;
-        this.offset = start;
+    public FeatureBlockReader(FileChannel channel, long start, long end, int count,
+            FeatureRowCodec codec, int bufferSize) {
+        this.input = new DataInputStream(new BufferedInputStream(new BlockInputStream(channel,
+                start, end), bufferSize));
         this.count = count;
-        this.schema = schema;
-        this.builder = new SimpleFeatureBuilder(schema);
+        this.codec = codec;
     }
 
     public SimpleFeature feature() throws IOException {
@@ -74,85 +67,53 @@ class FeatureBlockReader {
             return null;
         }
 
-        // move to the next feature offset
-        raf.seek(offset);
-
-        // read the fid, check for file end
-        String fid = raf.readUTF();
-        // read the other attributes, build the feature
-        for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
-            Object att = readAttribute(ad);
-            builder.add(att);
-        }
-        // update the offset for the next feature
-        offset = raf.getFilePointer();
         count--;
-
-        // return the feature
-        return builder.buildFeature(fid);
+        return codec.read(input);
     }
 
     /**
-     * Reads the attributes.
-     * 
-     * @param ad
-     * @return
-     * @throws IOException
+     * An input stream reading a section of a channel with positional reads, which do not alter the
+     * channel position
      */
-    Object readAttribute(AttributeDescriptor ad) throws IOException {
-        // See the comments in {@link MergeSortDumper#writeAttribute(RandomAccessFile,
-        // AttributeDescriptor, Object)} to get an insight on why the method is built like this
-        boolean isNull = raf.readBoolean();
-        if (isNull) {
-            return null;
-        } else {
-            Class<?> binding = ad.getType().getBinding();
-            if (binding == Boolean.class) {
-                return raf.readBoolean();
-            } else if (binding == Byte.class || binding == byte.class) {
-                return raf.readByte();
-            } else if (binding == Short.class || binding == short.class) {
-                return raf.readShort();
-            } else if (binding == Integer.class || binding == int.class) {
-                return raf.readInt();
-            } else if (binding == Long.class || binding == long.class) {
-                return raf.readLong();
-            } else if (binding == Float.class || binding == float.class) {
-                return raf.readFloat();
-            } else if (binding == Double.class || binding == double.class) {
-                return raf.readDouble();
-            } else if (binding == String.class) {
-                return raf.readUTF();
-            } else if (binding == java.sql.Date.class) {
-                return new java.sql.Date(raf.readLong());
-            } else if (binding == java.sql.Time.class) {
-                return new java.sql.Time(raf.readLong());
-            } else if (binding == java.sql.Timestamp.class) {
-                return new java.sql.Timestamp(raf.readLong());
-            } else if (binding == java.util.Date.class) {
-                return new java.util.Date(raf.readLong());
-            } else if (Geometry.class.isAssignableFrom(binding)) {
-                WKBReader reader = new WKBReader();
-                int length = raf.readInt();
-                byte[] buffer = new byte[length];
-                raf.read(buffer);
-                try {
-                    return reader.read(buffer);
-                } catch (ParseException e) {
-                    throw new IOException("Failed to parse the geometry WKB", e);
-                }
-            } else {
-                int length = raf.readInt();
-                byte[] buffer = new byte[length];
-                raf.read(buffer);
-                ByteArrayInputStream bis = new ByteArrayInputStream(buffer);
-                ObjectInputStream ois = new ObjectInputStream(bis);
-                try {
-                    return ois.readObject();
-                } catch (ClassNotFoundException e) {
-                    throw new IOException("Could not read back object", e);
-                }
+    static class BlockInputStream extends InputStream {
+        FileChannel channel;
+
+        long position;
+
+        long end;
+
+        public BlockInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read <= 0 ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long remaining = end - position;
+            if (remaining <= 0) {
+                return -1;
             }
+            if (len > remaining) {
+                len = (int) remaining;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
         }
     }
 
@@ -0,0 +1,369 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Encodes and decodes features as compact binary rows. The attribute types are resolved once
+ * against the schema, so that no type metadata has to be written in the rows for the types we can
+ * optimize (primitives, numbers, strings, dates and geometries). Only the other attribute types are
+ * written with an {@link ObjectOutputStream}, and thus need to be {@link Serializable}.
+ * <p>
+ * Instances are not thread safe, each thread should use its own codec.
+ *
+ * @source $URL$
+ */
+class FeatureRowCodec {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final byte BOOLEAN = 0;
+
+    static final byte BYTE = 1;
+
+    static final byte SHORT = 2;
+
+    static final byte INTEGER = 3;
+
+    static final byte LONG = 4;
+
+    static final byte FLOAT = 5;
+
+    static final byte DOUBLE = 6;
+
+    static final byte STRING = 7;
+
+    static final byte DATE = 8;
+
+    static final byte SQL_DATE = 9;
+
+    static final byte SQL_TIME = 10;
+
+    static final byte TIMESTAMP = 11;
+
+    static final byte GEOMETRY = 12;
+
+    static final byte BIG_INTEGER = 13;
+
+    static final byte BIG_DECIMAL = 14;
+
+    static final byte SERIALIZED = 15;
+
+    /** Not encodable */
+    static final byte UNSUPPORTED = -1;
+
+    SimpleFeatureType schema;
+
+    byte[] types;
+
+    SimpleFeatureBuilder builder;
+
+    WKBWriter wkbWriter;
+
+    WKBReader wkbReader;
+
+    /**
+     * Buffer for the serialized values, which have to be length prefixed, reused across values
+     * so that only the current one is held in memory
+     */
+    ByteArrayOutputStream serialized;
+
+    public FeatureRowCodec(SimpleFeatureType schema) {
+        this.schema = schema;
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        this.types = new byte[descriptors.size()];
+        for (int i = 0; i < types.length; i++) {
+            Class<?> binding = descriptors.get(i).getType().getBinding();
+            types[i] = getType(binding);
+            if (types[i] == UNSUPPORTED) {
+                throw new IllegalArgumentException("Attribute "
+                        + descriptors.get(i).getLocalName() + " of type " + binding
+                        + " cannot be encoded");
+            }
+        }
+    }
+
+    /**
+     * Returns true if the attributes of the specified type can be encoded
+     */
+    static boolean canEncode(Class<?> binding) {
+        return getType(binding) != UNSUPPORTED;
+    }
+
+    /**
+     * Maps the binding to the type code used in the rows. We are not writing any type metadata in
+     * the stream for the types we can optimize, this means we have to be 100% sure the class we're
+     * writing is actually the one we can optimize for, and not some subclass. Thus, we are using
+     * identity comparison instead of isAssignableFrom or equality, so that when we read back it is
+     * as if we did not serialize stuff at all
+     */
+    static byte getType(Class<?> binding) {
+        if (binding == Boolean.class || binding == boolean.class) {
+            return BOOLEAN;
+        } else if (binding == Byte.class || binding == byte.class) {
+            return BYTE;
+        } else if (binding == Short.class || binding == short.class) {
+            return SHORT;
+        } else if (binding == Integer.class || binding == int.class) {
+            return INTEGER;
+        } else if (binding == Long.class || binding == long.class) {
+            return LONG;
+        } else if (binding == Float.class || binding == float.class) {
+            return FLOAT;
+        } else if (binding == Double.class || binding == double.class) {
+            return DOUBLE;
+        } else if (binding == String.class) {
+            return STRING;
+        } else if (binding == java.util.Date.class) {
+            return DATE;
+        } else if (binding == java.sql.Date.class) {
+            return SQL_DATE;
+        } else if (binding == java.sql.Time.class) {
+            return SQL_TIME;
+        } else if (binding == java.sql.Timestamp.class) {
+            return TIMESTAMP;
+        } else if (Geometry.class.isAssignableFrom(binding)) {
+            return GEOMETRY;
+        } else if (binding == BigInteger.class) {
+            return BIG_INTEGER;
+        } else if (binding == BigDecimal.class) {
+            return BIG_DECIMAL;
+        } else if (Serializable.class.isAssignableFrom(binding)) {
+            return SERIALIZED;
+        } else {
+            return UNSUPPORTED;
+        }
+    }
+
+    /**
+     * Writes the feature id and attributes into the output
+     *
+     * @param feature
+     * @param out
+     * @throws IOException
+     */
+    public void write(SimpleFeature feature, DataOutput out) throws IOException {
+        writeString(out, feature.getID());
+        for (int i = 0; i < types.length; i++) {
+            writeAttribute(out, types[i], feature.getAttribute(i));
+        }
+    }
+
+    /**
+     * Reads back a feature written by {@link #write(SimpleFeature, DataOutput)}
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public SimpleFeature read(DataInput in) throws IOException {
+        String fid = readString(in);
+        for (int i = 0; i < types.length; i++) {
+            builder().add(readAttribute(in, types[i]));
+        }
+        return builder.buildFeature(fid);
+    }
+
+    SimpleFeatureBuilder builder() {
+        if (builder == null) {
+            builder = new SimpleFeatureBuilder(schema);
+        }
+        return builder;
+    }
+
+    void writeAttribute(DataOutput out, byte type, Object value) throws IOException {
+        if (value == null) {
+            // null marker
+            out.writeBoolean(true);
+            return;
+        }
+
+        out.writeBoolean(false);
+        switch (type) {
+        case BOOLEAN:
+            out.writeBoolean((Boolean) value);
+            break;
+        case BYTE:
+            out.writeByte((Byte) value);
+            break;
+        case SHORT:
+            out.writeShort((Short) value);
+            break;
+        case INTEGER:
+            out.writeInt((Integer) value);
+            break;
+        case LONG:
+            out.writeLong((Long) value);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case STRING:
+            writeString(out, (String) value);
+            break;
+        case DATE:
+        case SQL_DATE:
+        case SQL_TIME:
+            out.writeLong(((java.util.Date) value).getTime());
+            break;
+        case TIMESTAMP:
+            java.sql.Timestamp ts = (java.sql.Timestamp) value;
+            out.writeLong(ts.getTime());
+            out.writeInt(ts.getNanos());
+            break;
+        case GEOMETRY:
+            if (wkbWriter == null) {
+                wkbWriter = new WKBWriter();
+            }
+            writeBytes(out, wkbWriter.write((Geometry) value));
+            break;
+        case BIG_INTEGER:
+            writeBytes(out, ((BigInteger) value).toByteArray());
+            break;
+        case BIG_DECIMAL:
+            BigDecimal bd = (BigDecimal) value;
+            out.writeInt(bd.scale());
+            writeBytes(out, bd.unscaledValue().toByteArray());
+            break;
+        default:
+            // can't optimize, in this case we use an ObjectOutputStream to write out
+            // full metadata
+            if (serialized == null) {
+                serialized = new ByteArrayOutputStream();
+            } else {
+                serialized.reset();
+            }
+            ObjectOutputStream oos = new ObjectOutputStream(serialized);
+            oos.writeObject(value);
+            oos.flush();
+            out.writeInt(serialized.size());
+            if (out instanceof OutputStream) {
+                serialized.writeTo((OutputStream) out);
+            } else {
+                out.write(serialized.toByteArray());
+            }
+        }
+    }
+
+    Object readAttribute(DataInput in, byte type) throws IOException {
+        boolean isNull = in.readBoolean();
+        if (isNull) {
+            return null;
+        }
+
+        switch (type) {
+        case BOOLEAN:
+            return in.readBoolean();
+        case BYTE:
+            return in.readByte();
+        case SHORT:
+            return in.readShort();
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case STRING:
+            return readString(in);
+        case DATE:
+            return new java.util.Date(in.readLong());
+        case SQL_DATE:
+            return new java.sql.Date(in.readLong());
+        case SQL_TIME:
+            return new java.sql.Time(in.readLong());
+        case TIMESTAMP:
+            java.sql.Timestamp ts = new java.sql.Timestamp(in.readLong());
+            ts.setNanos(in.readInt());
+            return ts;
+        case GEOMETRY:
+            if (wkbReader == null) {
+                wkbReader = new WKBReader();
+            }
+            try {
+                return wkbReader.read(readBytes(in));
+            } catch (ParseException e) {
+                throw new IOException("Failed to parse the geometry WKB", e);
+            }
+        case BIG_INTEGER:
+            return new BigInteger(readBytes(in));
+        case BIG_DECIMAL:
+            int scale = in.readInt();
+            return new BigDecimal(new BigInteger(readBytes(in)), scale);
+        default:
+            ByteArrayInputStream bis = new ByteArrayInputStream(readBytes(in));
+            ObjectInputStream ois = new ObjectInputStream(bis);
+            try {
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Could not read back object", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the string as length prefixed UTF-8, unlike {@link DataOutput#writeUTF(String)} this
+     * has no 64KB limit
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value.getBytes(UTF8));
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return new String(readBytes(in), UTF8);
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+}
@@ -16,17 +16,19 @@
  */
 package org.geotools.data.sort;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
-import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.geotools.data.Query;
 import org.geotools.data.collection.ListFeatureCollection;
@@ -34,6 +36,7 @@ import org.geotools.data.simple.DelegateSimpleFeatureReader;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureReader;
 import org.geotools.factory.Hints;
+import org.geotools.util.ComputationExecutor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -41,19 +44,40 @@ import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.WKBWriter;
 
+/**
+ * Sorts the features of a reader, in memory if they are less than the max memory sort limit,
+ * otherwise by splitting them into sorted runs stored in a temporary file, and merging them back
+ * with a {@link MergeSortReader}.
+ * <p>
+ * The runs are encoded with a {@link FeatureRowCodec} and streamed to the file row by row. When
+ * there are multiple processors available each block of features read in memory is split in
+ * several runs, sorted in parallel on the {@link ComputationExecutor}.
+ */
 class MergeSortDumper {
 
+    /** Runs smaller than this are not worth sorting in a separate thread */
+    static final int MIN_PARALLEL_RUN_SIZE = 1000;
+
+    /** The total size of the read buffers used during the merge */
+    static final int MERGE_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    static final int MIN_BLOCK_BUFFER_SIZE = 4 * 1024;
+
+    static final int MAX_BLOCK_BUFFER_SIZE = 64 * 1024;
+
+    /** The size of the buffer used to stream the encoded rows to the file */
+    static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     static final boolean canSort(SimpleFeatureType schema, SortBy[] sortBy) {
         if (sortBy == SortBy.UNSORTED) {
             return true;
         }
 
-        // check all attributes are serializable
+        // check all attributes can be encoded
         for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
             Class<?> binding = ad.getType().getBinding();
-            if (!Serializable.class.isAssignableFrom(binding)) {
+            if (!FeatureRowCodec.canEncode(binding)) {
                 return false;
             }
         }
@@ -89,6 +113,15 @@ class MergeSortDumper {
 
     static SimpleFeatureReader getDelegateReader(SimpleFeatureReader reader, SortBy[] sortBy,
             int maxFeatures) throws IOException {
+        return getDelegateReader(reader, sortBy, maxFeatures, MIN_PARALLEL_RUN_SIZE);
+    }
+
+    /**
+     * Sorts the reader, splitting each block of features in runs sorted in parallel as long as
+     * they hold at least minParallelRunSize features
+     */
+    static SimpleFeatureReader getDelegateReader(SimpleFeatureReader reader, SortBy[] sortBy,
+            int maxFeatures, int minParallelRunSize) throws IOException {
         Comparator<SimpleFeature> comparator = getComparator(sortBy);
 
         // easy case, no sorting needed
@@ -108,7 +141,7 @@ class MergeSortDumper {
         File file = null;
         RandomAccessFile raf = null;
         List<SimpleFeature> features = new ArrayList<SimpleFeature>();
-        List<FeatureBlockReader> readers = new ArrayList<FeatureBlockReader>();
+        List<SortedRun> runs = new ArrayList<SortedRun>();
         boolean cleanFile = true;
         try {
             // read and store into files as necessary
@@ -118,16 +151,15 @@ class MergeSortDumper {
                 count++;
 
                 if (count > maxFeatures) {
-                    Collections.sort(features, comparator);
                     if (raf == null) {
                         file = File.createTempFile("sorted", ".features");
                         file.delete();
                         raf = new RandomAccessFile(file, "rw");
                     }
-                    FeatureBlockReader fbr = storeToFile(raf, features, schema);
-                    readers.add(fbr);
+                    storeToFile(raf.getChannel(), features, schema, comparator, runs,
+                            minParallelRunSize);
                     count = 0;
-                    features.clear();
+                    features = new ArrayList<SimpleFeature>();
                 }
             }
 
@@ -140,9 +172,27 @@ class MergeSortDumper {
                 SimpleFeatureIterator fi = new ListFeatureCollection(schema, features).features();
                 return new DelegateSimpleFeatureReader(schema, fi);
             } else {
-                // go merge-sort
+                // store the last block too
+                if (!features.isEmpty()) {
+                    storeToFile(raf.getChannel(), features, schema, comparator, runs,
+                            minParallelRunSize);
+                    features = null;
+                }
+
+                // go merge-sort, sharing the memory available for buffers among the runs
+                int bufferSize = MERGE_BUFFER_SIZE / runs.size();
+                bufferSize = Math.max(MIN_BLOCK_BUFFER_SIZE,
+                        Math.min(MAX_BLOCK_BUFFER_SIZE, bufferSize));
+                FeatureRowCodec codec = new FeatureRowCodec(schema);
+                List<FeatureBlockReader> readers = new ArrayList<FeatureBlockReader>();
+                for (SortedRun run : runs) {
+                    readers.add(new FeatureBlockReader(raf.getChannel(), run.start, run.end,
+                            run.count, codec, bufferSize));
+                }
+                MergeSortReader result = new MergeSortReader(schema, raf, file, readers,
+                        comparator);
                 cleanFile = false;
-                return new MergeSortReader(schema, raf, file, readers, comparator);
+                return result;
             }
 
         } finally {
@@ -156,82 +206,108 @@ class MergeSortDumper {
     }
 
     /**
-     * Writes the feature attributes to a binary file
+     * Sorts the features and writes them at the end of the channel as one or more sorted runs,
+     * which are added to the runs list
      * 
+     * @param channel
      * @param features
-     * @return
+     * @param schema
+     * @param comparator
+     * @param runs
+     * @param minParallelRunSize the minimum number of features of a run sorted in parallel
      * @throws IOException
      */
-    static FeatureBlockReader storeToFile(RandomAccessFile raf, List<SimpleFeature> features,
-            SimpleFeatureType schema) throws IOException {
-        long start = raf.getFilePointer();
-
-        // write each attribute in the random access file
-        List<AttributeDescriptor> attributes = schema.getAttributeDescriptors();
-        for (SimpleFeature sf : features) {
-            // write feature id
-            raf.writeUTF(sf.getID());
-            // write the attributes
-            for (AttributeDescriptor ad : attributes) {
-                Object value = sf.getAttribute(ad.getLocalName());
-                writeAttribute(raf, ad, value);
+    static void storeToFile(FileChannel channel, List<SimpleFeature> features,
+            SimpleFeatureType schema, Comparator<SimpleFeature> comparator, List<SortedRun> runs,
+            int minParallelRunSize) throws IOException {
+        int size = features.size();
+        int slices = Math.min(ComputationExecutor.getThreadCount(),
+                size / Math.max(1, minParallelRunSize));
+        List<List<SimpleFeature>> sorted = new ArrayList<List<SimpleFeature>>();
+        if (slices <= 1) {
+            Collections.sort(features, comparator);
+            sorted.add(features);
+        } else {
+            // sort the slices in parallel, each one becomes a separate run
+            List<RunSorter> sorters = new ArrayList<RunSorter>();
+            for (int i = 0; i < slices; i++) {
+                int from = (int) ((long) size * i / slices);
+                int to = (int) ((long) size * (i + 1) / slices);
+                List<SimpleFeature> slice = features.subList(from, to);
+                sorters.add(new RunSorter(slice, comparator));
+                sorted.add(slice);
             }
+            sort(sorters);
         }
 
-        return new FeatureBlockReader(raf, start, features.size(), schema);
+        // stream the runs at the end of the file, the data output is not closed as that
+        // would close the channel as well
+        long position = channel.size();
+        channel.position(position);
+        FeatureRowCodec codec = new FeatureRowCodec(schema);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), WRITE_BUFFER_SIZE));
+        for (List<SimpleFeature> run : sorted) {
+            long start = position;
+            for (SimpleFeature sf : run) {
+                codec.write(sf, dos);
+            }
+            dos.flush();
+            position = channel.position();
+            runs.add(new SortedRun(start, position, run.size()));
+        }
     }
 
-    static void writeAttribute(RandomAccessFile raf, AttributeDescriptor ad, Object value)
-            throws IOException {
-        if (value == null) {
-            // null marker
-            raf.writeBoolean(true);
-        } else {
-            // not null, write the contents. This one requires some explanation. We are not
-            // writing any type metadata in the stream for the types we can optimize (primitives,
-            // numbers,
-            // strings and the like). This means we have to be 100% sure the class we're writing is
-            // actually the one we can optimize for, and not some subclass. Thus, we are authorized
-            // to use identity comparison instead of isAssignableFrom or equality, when we read back
-            // it must be as if we did not serialize stuff at all
-            raf.writeBoolean(false);
-            Class<?> binding = ad.getType().getBinding();
-            if (binding == Boolean.class) {
-                raf.writeBoolean((Boolean) value);
-            } else if (binding == Byte.class || binding == byte.class) {
-                raf.writeByte((Byte) value);
-            } else if (binding == Short.class || binding == short.class) {
-                raf.writeShort((Short) value);
-            } else if (binding == Integer.class || binding == int.class) {
-                raf.writeInt((Integer) value);
-            } else if (binding == Long.class || binding == long.class) {
-                raf.writeLong((Long) value);
-            } else if (binding == Float.class || binding == float.class) {
-                raf.writeFloat((Float) value);
-            } else if (binding == Double.class || binding == double.class) {
-                raf.writeDouble((Double) value);
-            } else if (binding == String.class) {
-                raf.writeUTF((String) value);
-            } else if (binding == java.sql.Date.class || binding == java.sql.Time.class
-                    || binding == java.sql.Timestamp.class || binding == java.util.Date.class) {
-                raf.writeLong(((Date) value).getTime());
-            } else if (Geometry.class.isAssignableFrom(binding)) {
-                WKBWriter writer = new WKBWriter();
-                byte[] buffer = writer.write((Geometry) value);
-                int length = buffer.length;
-                raf.writeInt(length);
-                raf.write(buffer);
-            } else {
-                // can't optimize, in this case we use an ObjectOutputStream to write out
-                // full metadata
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                oos.writeObject(value);
-                oos.flush();
-                byte[] bytes = bos.toByteArray();
-                raf.writeInt(bytes.length);
-                raf.write(bytes);
+    /**
+     * Sorts the runs in parallel
+     */
+    static void sort(List<RunSorter> sorters) throws IOException {
+        try {
+            ComputationExecutor.invokeAll(sorters);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while sorting the features", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new IOException("Failed to sort the features", cause);
+        }
+    }
+
+    /**
+     * Sorts a list of features in place
+     */
+    static class RunSorter implements Callable<Void> {
+        List<SimpleFeature> features;
+
+        Comparator<SimpleFeature> comparator;
+
+        public RunSorter(List<SimpleFeature> features, Comparator<SimpleFeature> comparator) {
+            this.features = features;
+            this.comparator = comparator;
+        }
+
+        public Void call() {
+            Collections.sort(features, comparator);
+            return null;
+        }
+    }
+
+    /**
+     * The position of a sorted run in the file
+     */
+    static class SortedRun {
+        long start;
+
+        long end;
+
+        int count;
+
+        public SortedRun(long start, long end, int count) {
+            this.start = start;
+            this.end = end;
+            this.count = count;
         }
     }
 
@@ -29,14 +29,20 @@ import org.opengis.feature.simple.SimpleFeatureType;
 
 /**
  * Reads from a list of {@link FeatureBlockReader} backed by a {@link RandomAccessFile} and performs
- * the classic merge-sort algorithm
+ * the classic k-way merge-sort algorithm, keeping the block readers in a binary heap ordered by
+ * their current feature. Ties are resolved by block order, which makes the merge stable
  * 
  * @author Andrea Aime - GeoSolutions
  * 
  */
 class MergeSortReader implements SimpleFeatureReader {
 
-    List<FeatureBlockReader> readers;
+    FeatureBlockReader[] readers;
+
+    /** The heap, holding indexes into the readers array */
+    int[] heap;
+
+    int size;
 
     RandomAccessFile raf;
 
@@ -47,12 +53,25 @@ class MergeSortReader implements SimpleFeatureReader {
     Comparator<SimpleFeature> comparator;
 
     public MergeSortReader(SimpleFeatureType schema, RandomAccessFile raf, File file,
-            List<FeatureBlockReader> readers, Comparator<SimpleFeature> comparator) {
+            List<FeatureBlockReader> readers, Comparator<SimpleFeature> comparator)
+            throws IOException {
         this.schema = schema;
         this.comparator = comparator;
-        this.readers = readers;
+        this.readers = (FeatureBlockReader[]) readers.toArray(new FeatureBlockReader[readers
+                .size()]);
         this.raf = raf;
         this.file = file;
+
+        // build the heap out of the non empty blocks
+        this.heap = new int[this.readers.length];
+        for (int i = 0; i < this.readers.length; i++) {
+            if (this.readers[i].feature() != null) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
     }
 
     public SimpleFeatureType getFeatureType() {
@@ -61,33 +80,60 @@ class MergeSortReader implements SimpleFeatureReader {
 
     public SimpleFeature next() throws IOException, IllegalArgumentException,
             NoSuchElementException {
-        if (readers.size() == 0) {
+        if (size == 0) {
             throw new NoSuchElementException();
         }
 
-        // find the smallest feature
-        int selected = 0;
-        for (int i = 1; i < readers.size(); i++) {
-            SimpleFeature sf = readers.get(selected).feature();
-            SimpleFeature cf = readers.get(i).feature();
-            if (comparator.compare(sf, cf) > 0) {
-                selected = i;
-            }
-        }
+        // the smallest feature is at the top of the heap
+        FeatureBlockReader reader = readers[heap[0]];
+        SimpleFeature sf = reader.feature();
 
         // move on the reader of the selected feature
-        FeatureBlockReader reader = readers.get(selected);
-        SimpleFeature sf = reader.feature();
         if (reader.next() == null) {
-            readers.remove(selected);
+            size--;
+            heap[0] = heap[size];
+        }
+        if (size > 0) {
+            siftDown(0);
         }
 
         // return the selected feature
         return sf;
     }
 
+    /**
+     * Returns true if the reader at heap position i should stay above the one at position j
+     */
+    private boolean lessThan(int i, int j) throws IOException {
+        int r1 = heap[i];
+        int r2 = heap[j];
+        int result = comparator.compare(readers[r1].feature(), readers[r2].feature());
+        return result < 0 || (result == 0 && r1 < r2);
+    }
+
+    private void siftDown(int i) throws IOException {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && lessThan(right, left)) {
+                smallest = right;
+            }
+            if (!lessThan(smallest, i)) {
+                return;
+            }
+            int tmp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
     public boolean hasNext() throws IOException {
-        return readers.size() > 0;
+        return size > 0;
     }
 
     public void close() throws IOException {
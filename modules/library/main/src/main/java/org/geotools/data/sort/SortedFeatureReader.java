@@ -74,6 +74,16 @@ public class SortedFeatureReader implements SimpleFeatureReader {
         this.delegate = MergeSortDumper.getDelegateReader(reader, sortBy, maxFeatures);
     }
 
+    /**
+     * Builds a new sorting feature reader, sorting in parallel the runs of at least
+     * minParallelRunSize features
+     */
+    SortedFeatureReader(SimpleFeatureReader reader, SortBy[] sortBy, int maxFeatures,
+            int minParallelRunSize) throws IOException {
+        this.delegate = MergeSortDumper.getDelegateReader(reader, sortBy, maxFeatures,
+                minParallelRunSize);
+    }
+
     public SimpleFeatureType getFeatureType() {
         return delegate.getFeatureType();
     }
@@ -0,0 +1,179 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.simple;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+
+/**
+ * A feature reused by a reader for all the records it reads, loading each attribute only when
+ * it is first asked for.
+ * <p>
+ * The reader calls {@link #reset(String)} when moving to a record, and subclasses read the
+ * attributes of the current record in {@link #load(int)}. The feature, and its attribute values
+ * not read yet, are thus only valid until the next call to {@code hasNext()} or {@code next()}
+ * on the reader, which may move to the next record to find out whether there is one: use
+ * {@link SimpleFeatureBuilder#copy(org.opengis.feature.simple.SimpleFeature)} to keep it.
+ *
+ * @see org.geotools.factory.Hints#FEATURE_REUSE
+ * @source $URL$
+ * @since 8.x
+ */
+public abstract class ReusableSimpleFeature extends SimpleFeatureImpl {
+
+    /**
+     * The attributes read, or set, for the current record.
+     */
+    private final boolean[] loaded;
+
+    public ReusableSimpleFeature(SimpleFeatureType featureType) {
+        super(new Object[featureType.getAttributeCount()], featureType, new ReusableFeatureId(),
+                false);
+        loaded = new boolean[values.length];
+    }
+
+    /**
+     * Moves the feature to a new record.
+     *
+     * @param fid The identifier of the record, a default one is generated if {@code null}
+     */
+    public void reset(String fid) {
+        ((ReusableFeatureId) id).reset(fid != null ? fid : SimpleFeatureBuilder
+                .createDefaultFeatureId());
+        Arrays.fill(values, null);
+        Arrays.fill(loaded, false);
+        userData = null;
+        attributeUserData = null;
+    }
+
+    /**
+     * Reads an attribute of the current record, the value being converted to the type of the
+     * attribute if needed.
+     */
+    protected abstract Object load(int index);
+
+    /**
+     * Reads all the attributes of the current record not read yet.
+     */
+    protected void loadAll() {
+        for (int i = 0; i < values.length; i++) {
+            getAttribute(i);
+        }
+    }
+
+    @Override
+    public Object getAttribute(int index) throws IndexOutOfBoundsException {
+        if (!loaded[index]) {
+            // converted as the feature builder does
+            Object value = load(index);
+            AttributeDescriptor descriptor = featureType.getDescriptor(index);
+            if (value == null || !descriptor.getType().getBinding().isInstance(value)) {
+                value = SimpleFeatureBuilder.convert(value, descriptor);
+            }
+            values[index] = value;
+            loaded[index] = true;
+        }
+        return values[index];
+    }
+
+    @Override
+    public List<Object> getAttributes() {
+        loadAll();
+        return super.getAttributes();
+    }
+
+    @Override
+    public BoundingBox getBounds() {
+        for (int i = 0; i < values.length; i++) {
+            if (featureType.getDescriptor(i) instanceof GeometryDescriptor) {
+                getAttribute(i);
+            }
+        }
+        return super.getBounds();
+    }
+
+    @Override
+    public Collection<Property> getProperties() {
+        // the properties work on the values directly
+        loadAll();
+        return super.getProperties();
+    }
+
+    @Override
+    public Collection<Property> getProperties(String name) {
+        loadAll();
+        return super.getProperties(name);
+    }
+
+    @Override
+    public Property getProperty(String name) {
+        loadAll();
+        return super.getProperty(name);
+    }
+
+    @Override
+    public void setAttribute(int index, Object value) throws IndexOutOfBoundsException {
+        super.setAttribute(index, value);
+        loaded[index] = true;
+    }
+
+    @Override
+    public void setAttributes(List<Object> values) {
+        super.setAttributes(values);
+        Arrays.fill(loaded, true);
+    }
+
+    @Override
+    public void setValue(Collection<Property> values) {
+        loadAll();
+        super.setValue(values);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        loadAll();
+        return super.equals(obj);
+    }
+
+    @Override
+    public void validate() {
+        loadAll();
+        super.validate();
+    }
+
+    /**
+     * A feature identifier changing along with the record, without keeping the original one as
+     * {@link FeatureIdImpl#setID(String)} does.
+     */
+    static final class ReusableFeatureId extends FeatureIdImpl {
+        ReusableFeatureId() {
+            super("");
+        }
+
+        void reset(String fid) {
+            this.fid = fid;
+        }
+    }
+}
@@ -198,6 +198,10 @@ public class SimpleFeatureBuilder {
         
         // optimize the case in which we just build
         if(feature instanceof SimpleFeatureImpl) {
+            if (feature instanceof ReusableSimpleFeature) {
+                // read the attributes not read yet
+                ((ReusableSimpleFeature) feature).loadAll();
+            }
             SimpleFeatureImpl impl = (SimpleFeatureImpl) feature;
             System.arraycopy(impl.values, 0, values, 0, impl.values.length);
 
@@ -308,7 +312,7 @@ public class SimpleFeatureBuilder {
             Types.validate(descriptor, values[index]);
     }
 
-    private Object convert(Object value, AttributeDescriptor descriptor) {
+    static Object convert(Object value, AttributeDescriptor descriptor) {
         //make sure the type of the value and the binding of the type match up
         if ( value != null ) {
             Class<?> target = descriptor.getType().getBinding(); 
@@ -31,7 +31,7 @@ import com.vividsolutions.jts.geom.Envelope;
  *
  * @source $URL$
  */
-public class BoundsVisitor implements FeatureCalc {
+public class BoundsVisitor implements MergeableFeatureCalc {
     ReferencedEnvelope bounds = new ReferencedEnvelope();    
         
     public void visit(org.opengis.feature.Feature feature) {
@@ -46,6 +46,14 @@ public class BoundsVisitor implements FeatureCalc {
         this.bounds = new ReferencedEnvelope();
     }
 
+    public MergeableFeatureCalc createPartial() {
+        return new BoundsVisitor();
+    }
+
+    public void mergePartial(MergeableFeatureCalc partial) {
+        bounds.expandToInclude(((BoundsVisitor) partial).bounds);
+    }
+
     public CalcResult getResult() {
     	if(bounds == null || bounds.isEmpty()) {
     		return CalcResult.NULL_RESULT;
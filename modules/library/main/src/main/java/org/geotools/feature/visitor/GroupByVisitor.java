@@ -0,0 +1,465 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.visitor;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.expression.Expression;
+
+/**
+ * Computes several aggregates over the groups of features sharing the same values for a set of
+ * expressions, as a SQL {@code GROUP BY} would.
+ * <p>
+ * The result value is a {@link Map} from the group key, a {@link List} holding the value of each
+ * group by expression, to an array holding the value of each aggregate, in the order they were
+ * specified. Groups are returned in the order they were first met. Aggregates ignore
+ * {@code null} values, and evaluate to {@code null} on a group without any value, but for
+ * {@link AggregateFunction#COUNT} which evaluates to zero.
+ * <p>
+ * The groups are kept in a hash table while visiting, each one accumulating its aggregates
+ * in primitive arrays, so memory usage depends on the number of groups rather than on the number
+ * of features. Data stores able to compute grouped aggregates natively feed the partial results
+ * through {@link #addGroupValues(Object[], Object[])} instead.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public class GroupByVisitor implements MergeableFeatureCalc {
+
+    /**
+     * The aggregate functions supported by {@link GroupByVisitor}.
+     */
+    public enum AggregateFunction {
+        /**
+         * The number of non null values, or of features if there is no expression.
+         */
+        COUNT,
+        /**
+         * The sum of the values, a {@link Long} if all the values are integral, a
+         * {@link Double} otherwise.
+         */
+        SUM,
+        /**
+         * The minimum value.
+         */
+        MIN,
+        /**
+         * The maximum value.
+         */
+        MAX,
+        /**
+         * The average of the values, as a {@link Double}.
+         */
+        AVERAGE
+    }
+
+    /**
+     * An aggregate function applied to an expression.
+     */
+    public static final class Aggregate {
+        private final AggregateFunction function;
+
+        private final Expression expression;
+
+        /**
+         * Creates an aggregate.
+         *
+         * @param function The aggregate function.
+         * @param expression The expression to aggregate, may be {@code null} only for
+         *        {@link AggregateFunction#COUNT}, to count the features.
+         */
+        public Aggregate(AggregateFunction function, Expression expression) {
+            if (function == null) {
+                throw new NullPointerException("function");
+            }
+            if (expression == null && function != AggregateFunction.COUNT) {
+                throw new IllegalArgumentException(function + " requires an expression");
+            }
+            this.function = function;
+            this.expression = expression;
+        }
+
+        public AggregateFunction getFunction() {
+            return function;
+        }
+
+        public Expression getExpression() {
+            return expression;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Aggregate)) {
+                return false;
+            }
+            Aggregate other = (Aggregate) obj;
+            return function == other.function
+                    && (expression == null ? other.expression == null : expression
+                            .equals(other.expression));
+        }
+
+        @Override
+        public int hashCode() {
+            return function.hashCode() * 31 + (expression == null ? 0 : expression.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return function + "(" + (expression == null ? "*" : expression) + ")";
+        }
+    }
+
+    private final List<Expression> groupBy;
+
+    private final List<Aggregate> aggregates;
+
+    private Map<List<Object>, Accumulator> groups = new LinkedHashMap<List<Object>, Accumulator>();
+
+    /**
+     * Creates a visitor grouping on a single expression.
+     */
+    public GroupByVisitor(Expression groupBy, Aggregate... aggregates) {
+        this(Collections.singletonList(groupBy), Arrays.asList(aggregates));
+    }
+
+    /**
+     * Creates a visitor grouping on several expressions.
+     *
+     * @param groupBy The expressions whose values identify a group.
+     * @param aggregates The aggregates computed for each group.
+     */
+    public GroupByVisitor(List<Expression> groupBy, List<Aggregate> aggregates) {
+        if (groupBy.isEmpty()) {
+            throw new IllegalArgumentException("At least one group by expression is required");
+        }
+        if (aggregates.isEmpty()) {
+            throw new IllegalArgumentException("At least one aggregate is required");
+        }
+        this.groupBy = Collections.unmodifiableList(new ArrayList<Expression>(groupBy));
+        this.aggregates = Collections.unmodifiableList(new ArrayList<Aggregate>(aggregates));
+    }
+
+    /**
+     * Returns the expressions whose values identify a group.
+     */
+    public List<Expression> getGroupByExpressions() {
+        return groupBy;
+    }
+
+    /**
+     * Returns the aggregates computed for each group.
+     */
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    public void visit(SimpleFeature feature) {
+        visit((Feature) feature);
+    }
+
+    public void visit(Feature feature) {
+        final Object[] key = new Object[groupBy.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = groupBy.get(i).evaluate(feature);
+        }
+        final Accumulator accumulator = getAccumulator(key);
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Expression expression = aggregates.get(i).expression;
+            if (expression == null) {
+                accumulator.counts[i]++;
+            } else {
+                accumulator.add(i, expression.evaluate(feature));
+            }
+        }
+    }
+
+    /**
+     * Adds the aggregates computed elsewhere, usually by a database, for a group. Each aggregate
+     * takes one value, the partial count, sum, minimum or maximum, but for
+     * {@link AggregateFunction#AVERAGE} which takes two, the partial sum followed by the partial
+     * count. Adding the same group several times merges the partial values.
+     *
+     * @param key The values of the group by expressions.
+     * @param values The partial aggregates.
+     */
+    public void addGroupValues(Object[] key, Object[] values) {
+        if (key.length != groupBy.size()) {
+            throw new IllegalArgumentException("Expected " + groupBy.size()
+                    + " group by values, got " + key.length);
+        }
+        final Accumulator accumulator = getAccumulator(key.clone());
+        int column = 0;
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Object value = values[column++];
+            switch (aggregates.get(i).function) {
+            case COUNT:
+                if (value != null) {
+                    accumulator.counts[i] += ((Number) value).longValue();
+                }
+                break;
+            case AVERAGE:
+                final Object count = values[column++];
+                if (value != null && count != null) {
+                    accumulator.addSum(i, (Number) value);
+                    accumulator.counts[i] += ((Number) count).longValue();
+                }
+                break;
+            default:
+                accumulator.add(i, value);
+            }
+        }
+    }
+
+    private Accumulator getAccumulator(Object[] key) {
+        final List<Object> list = Arrays.asList(key);
+        Accumulator accumulator = groups.get(list);
+        if (accumulator == null) {
+            accumulator = new Accumulator(aggregates);
+            groups.put(list, accumulator);
+        }
+        return accumulator;
+    }
+
+    public void reset() {
+        groups = new LinkedHashMap<List<Object>, Accumulator>();
+    }
+
+    public MergeableFeatureCalc createPartial() {
+        return new GroupByVisitor(groupBy, aggregates);
+    }
+
+    public void mergePartial(MergeableFeatureCalc partial) {
+        for (Map.Entry<List<Object>, Accumulator> entry : ((GroupByVisitor) partial).groups
+                .entrySet()) {
+            final Accumulator accumulator = groups.get(entry.getKey());
+            if (accumulator == null) {
+                groups.put(entry.getKey(), entry.getValue());
+            } else {
+                accumulator.merge(entry.getValue());
+            }
+        }
+    }
+
+    public CalcResult getResult() {
+        if (groups.isEmpty()) {
+            return CalcResult.NULL_RESULT;
+        }
+        return new GroupByResult(aggregates, groups);
+    }
+
+    /**
+     * The running aggregates of a group. Counts and sums are kept in primitive arrays, integral
+     * sums separately from floating point ones to avoid losing precision.
+     */
+    static final class Accumulator {
+        final AggregateFunction[] functions;
+
+        final long[] counts;
+
+        final long[] longSums;
+
+        final double[] doubleSums;
+
+        final boolean[] floating;
+
+        final Comparable[] extremes;
+
+        Accumulator(List<Aggregate> aggregates) {
+            final int n = aggregates.size();
+            functions = new AggregateFunction[n];
+            for (int i = 0; i < n; i++) {
+                functions[i] = aggregates.get(i).function;
+            }
+            counts = new long[n];
+            longSums = new long[n];
+            doubleSums = new double[n];
+            floating = new boolean[n];
+            extremes = new Comparable[n];
+        }
+
+        void add(int i, Object value) {
+            if (value == null) {
+                return;
+            }
+            switch (functions[i]) {
+            case COUNT:
+                break;
+            case SUM:
+            case AVERAGE:
+                addSum(i, (Number) value);
+                break;
+            case MIN:
+                if (extremes[i] == null || compare((Comparable) value, extremes[i]) < 0) {
+                    extremes[i] = (Comparable) value;
+                }
+                break;
+            case MAX:
+                if (extremes[i] == null || compare((Comparable) value, extremes[i]) > 0) {
+                    extremes[i] = (Comparable) value;
+                }
+                break;
+            }
+            counts[i]++;
+        }
+
+        void addSum(int i, Number value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte || value instanceof BigInteger) {
+                longSums[i] += value.longValue();
+            } else {
+                doubleSums[i] += value.doubleValue();
+                floating[i] = true;
+            }
+        }
+
+        void merge(Accumulator other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+                longSums[i] += other.longSums[i];
+                doubleSums[i] += other.doubleSums[i];
+                floating[i] |= other.floating[i];
+                final Comparable value = other.extremes[i];
+                if (value != null) {
+                    final int sign = functions[i] == AggregateFunction.MIN ? -1 : 1;
+                    if (extremes[i] == null || compare(value, extremes[i]) * sign > 0) {
+                        extremes[i] = value;
+                    }
+                }
+            }
+        }
+
+        Accumulator copy() {
+            final Accumulator copy = new Accumulator(this);
+            copy.merge(this);
+            return copy;
+        }
+
+        /**
+         * Creates an empty accumulator for the same aggregates as the specified one.
+         */
+        private Accumulator(Accumulator model) {
+            final int n = model.functions.length;
+            functions = model.functions;
+            counts = new long[n];
+            longSums = new long[n];
+            doubleSums = new double[n];
+            floating = new boolean[n];
+            extremes = new Comparable[n];
+        }
+
+        Object[] getValues() {
+            final Object[] values = new Object[counts.length];
+            for (int i = 0; i < values.length; i++) {
+                switch (functions[i]) {
+                case COUNT:
+                    values[i] = counts[i];
+                    break;
+                case SUM:
+                    if (counts[i] > 0) {
+                        values[i] = floating[i] ? (Object) (doubleSums[i] + longSums[i])
+                                : (Object) longSums[i];
+                    }
+                    break;
+                case AVERAGE:
+                    if (counts[i] > 0) {
+                        values[i] = (doubleSums[i] + longSums[i]) / counts[i];
+                    }
+                    break;
+                default:
+                    values[i] = extremes[i];
+                }
+            }
+            return values;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compare(Comparable a, Comparable b) {
+            if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+            return a.compareTo(b);
+        }
+    }
+
+    /**
+     * The result of a {@link GroupByVisitor}, which can be merged with the result of another
+     * visitor computing the same aggregates.
+     */
+    public static class GroupByResult extends AbstractCalcResult {
+        private final List<Aggregate> aggregates;
+
+        private final Map<List<Object>, Accumulator> groups;
+
+        GroupByResult(List<Aggregate> aggregates, Map<List<Object>, Accumulator> groups) {
+            this.aggregates = aggregates;
+            this.groups = groups;
+        }
+
+        /**
+         * Returns the aggregates of each group.
+         */
+        public Map<List<Object>, Object[]> getValue() {
+            final Map<List<Object>, Object[]> values = new LinkedHashMap<List<Object>, Object[]>();
+            for (Map.Entry<List<Object>, Accumulator> entry : groups.entrySet()) {
+                values.put(Collections.unmodifiableList(entry.getKey()), entry.getValue()
+                        .getValues());
+            }
+            return values;
+        }
+
+        public boolean isCompatible(CalcResult targetResults) {
+            if (targetResults == CalcResult.NULL_RESULT) {
+                return true;
+            }
+            return targetResults instanceof GroupByResult
+                    && aggregates.equals(((GroupByResult) targetResults).aggregates);
+        }
+
+        public CalcResult merge(CalcResult resultsToAdd) {
+            if (!isCompatible(resultsToAdd)) {
+                throw new IllegalArgumentException("Parameter is not a compatible type");
+            }
+            if (resultsToAdd == CalcResult.NULL_RESULT) {
+                return this;
+            }
+            final Map<List<Object>, Accumulator> merged;
+            merged = new LinkedHashMap<List<Object>, Accumulator>();
+            for (Map.Entry<List<Object>, Accumulator> entry : groups.entrySet()) {
+                merged.put(entry.getKey(), entry.getValue().copy());
+            }
+            for (Map.Entry<List<Object>, Accumulator> entry : ((GroupByResult) resultsToAdd).groups
+                    .entrySet()) {
+                final Accumulator accumulator = merged.get(entry.getKey());
+                if (accumulator == null) {
+                    merged.put(entry.getKey(), entry.getValue().copy());
+                } else {
+                    accumulator.merge(entry.getValue());
+                }
+            }
+            return new GroupByResult(aggregates, merged);
+        }
+    }
+}
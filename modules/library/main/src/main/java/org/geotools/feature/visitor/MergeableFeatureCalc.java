@@ -0,0 +1,43 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.visitor;
+
+/**
+ * A calculation which can be split over several parts of a collection and then merged back,
+ * allowing the parts to be visited in parallel by {@link VisitorExecutor}.
+ * <p>
+ * The order in which the features are visited, and the way they are split among the parts,
+ * must not matter to the result.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public interface MergeableFeatureCalc extends FeatureCalc {
+
+    /**
+     * Creates a visitor performing the same calculation, with no feature visited yet.
+     */
+    MergeableFeatureCalc createPartial();
+
+    /**
+     * Adds the features visited by a partial visitor to the calculation of this visitor.
+     *
+     * @param partial A visitor created by {@link #createPartial()}.
+     */
+    void mergePartial(MergeableFeatureCalc partial);
+}
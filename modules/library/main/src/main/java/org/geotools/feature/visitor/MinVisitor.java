@@ -34,7 +34,7 @@ import org.opengis.filter.expression.Expression;
  *
  * @source $URL$
  */
-public class MinVisitor implements FeatureCalc {
+public class MinVisitor implements MergeableFeatureCalc {
     private Expression expr;
     Comparable minvalue;
     Comparable curvalue;
@@ -113,6 +113,17 @@ public class MinVisitor implements FeatureCalc {
         this.minvalue = new Integer(0);
     }
 
+    public MergeableFeatureCalc createPartial() {
+        return new MinVisitor(expr);
+    }
+
+    public void mergePartial(MergeableFeatureCalc partial) {
+        MinVisitor other = (MinVisitor) partial;
+        if (other.visited && (!visited || other.minvalue.compareTo(minvalue) < 0)) {
+            setValue(other.minvalue);
+        }
+    }
+
     public CalcResult getResult() {
         if (!visited) {
             return CalcResult.NULL_RESULT;
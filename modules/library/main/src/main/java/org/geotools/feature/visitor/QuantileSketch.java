@@ -0,0 +1,279 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.visitor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A mergeable sketch of a stream of values answering rank queries with a bounded error, in the
+ * fashion of the KLL sketch.
+ * <p>
+ * Values are kept in a stack of compactors, the values of level {@code h} standing each for
+ * {@code 2^h} original values. When a level gets over its capacity its values are sorted and
+ * every other one is promoted to the next level, alternating between the odd and even ones.
+ * The top level holds up to {@code k} values and the capacities shrink geometrically down the
+ * stack, so the sketch holds about {@code 3k} values whatever the number of values added, and
+ * the rank error is in the order of {@code 1/k}. The sketch is exact until more than {@code k}
+ * values are added.
+ *
+ * @source $URL$
+ */
+final class QuantileSketch {
+
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+    private final int k;
+
+    private double[][] levels;
+
+    private int[] sizes;
+
+    private int[] capacities;
+
+    /**
+     * The number of compactions of each level, used to alternate the promoted values.
+     */
+    private int[] compactions;
+
+    private int numLevels;
+
+    private long count;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The values sorted along with their cumulative weights, built on the first query.
+     */
+    private double[] sortedValues;
+
+    private long[] cumulativeWeights;
+
+    QuantileSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("The sketch size must be at least 8: " + k);
+        }
+        this.k = k;
+        levels = new double[][] { new double[16] };
+        sizes = new int[1];
+        compactions = new int[1];
+        numLevels = 1;
+        updateCapacities();
+    }
+
+    QuantileSketch(QuantileSketch other) {
+        k = other.k;
+        numLevels = other.numLevels;
+        levels = new double[numLevels][];
+        for (int h = 0; h < numLevels; h++) {
+            levels[h] = other.levels[h].clone();
+        }
+        sizes = other.sizes.clone();
+        compactions = other.compactions.clone();
+        capacities = other.capacities.clone();
+        count = other.count;
+        min = other.min;
+        max = other.max;
+    }
+
+    int getK() {
+        return k;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMin() {
+        return min;
+    }
+
+    double getMax() {
+        return max;
+    }
+
+    void add(double value) {
+        append(0, value);
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        if (sizes[0] > capacities[0]) {
+            compress();
+        }
+        sortedValues = null;
+    }
+
+    /**
+     * Adds all the values summarized by another sketch.
+     */
+    void merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge sketches of different sizes: " + k
+                    + " and " + other.k);
+        }
+        while (numLevels < other.numLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+        sortedValues = null;
+    }
+
+    /**
+     * Returns the value having the specified rank among the values added, starting from 0.
+     */
+    double getValueAtRank(long rank) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (rank <= 0) {
+            return min;
+        }
+        if (rank >= count - 1) {
+            return max;
+        }
+        if (sortedValues == null) {
+            sort();
+        }
+        int index = Arrays.binarySearch(cumulativeWeights, rank + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return sortedValues[Math.min(index, sortedValues.length - 1)];
+    }
+
+    /**
+     * Returns the value at the specified fraction of the sorted values, that is the value whose
+     * rank is {@code fraction * (count - 1)} rounded down.
+     */
+    double getQuantile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("The fraction must be between 0 and 1: "
+                    + fraction);
+        }
+        return getValueAtRank((long) Math.floor(fraction * (count - 1)));
+    }
+
+    private void sort() {
+        int total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            total += sizes[h];
+        }
+        // the levels are sorted together through an index, to keep each value with its weight
+        final double[] values = new double[total];
+        final long[] weights = new long[total];
+        final Integer[] order = new Integer[total];
+        int n = 0;
+        for (int h = 0; h < numLevels; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n] = 1L << h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(values[a], values[b]);
+            }
+        });
+        sortedValues = new double[total];
+        cumulativeWeights = new long[total];
+        long cumulative = 0;
+        for (int i = 0; i < total; i++) {
+            final int j = order[i];
+            sortedValues[i] = values[j];
+            cumulative += weights[j];
+            cumulativeWeights[i] = cumulative;
+        }
+    }
+
+    private void append(int level, double value) {
+        double[] items = levels[level];
+        if (sizes[level] == items.length) {
+            items = levels[level] = Arrays.copyOf(items, items.length * 2);
+        }
+        items[sizes[level]++] = value;
+    }
+
+    /**
+     * Compacts the levels over capacity, bottom up, until all of them fit.
+     */
+    private void compress() {
+        boolean compacted;
+        do {
+            compacted = false;
+            for (int h = 0; h < numLevels; h++) {
+                if (sizes[h] > capacities[h]) {
+                    compact(h);
+                    compacted = true;
+                }
+            }
+        } while (compacted);
+    }
+
+    private void compact(int level) {
+        if (level == numLevels - 1) {
+            addLevel();
+        }
+        final double[] items = levels[level];
+        int size = sizes[level];
+        Arrays.sort(items, 0, size);
+        // with an odd number of values the largest one stays in place
+        final int pairs = size / 2;
+        final int offset = compactions[level]++ & 1;
+        for (int i = 0; i < pairs; i++) {
+            append(level + 1, items[2 * i + offset]);
+        }
+        if ((size & 1) != 0) {
+            items[0] = items[size - 1];
+            sizes[level] = 1;
+        } else {
+            sizes[level] = 0;
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        levels[numLevels] = new double[16];
+        sizes = Arrays.copyOf(sizes, numLevels + 1);
+        compactions = Arrays.copyOf(compactions, numLevels + 1);
+        numLevels++;
+        updateCapacities();
+    }
+
+    private void updateCapacities() {
+        capacities = new int[numLevels];
+        for (int h = 0; h < numLevels; h++) {
+            final int depth = numLevels - 1 - h;
+            capacities[h] = Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+        }
+    }
+}
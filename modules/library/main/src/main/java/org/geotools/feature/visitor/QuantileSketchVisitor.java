@@ -0,0 +1,219 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.visitor;
+
+import org.geotools.util.Converters;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.expression.Expression;
+
+/**
+ * Computes approximate quantiles, the median among them, of a numeric expression in constant
+ * memory.
+ * <p>
+ * Unlike {@link MedianVisitor} and {@link QuantileListVisitor}, which keep all the values, this
+ * visitor summarizes them in a sketch holding about three times {@code size} values. The results
+ * are exact as long as no more than {@code size} values are visited, beyond that the rank of a
+ * returned value is off by a fraction of the number of values in the order of
+ * {@code 1 / size}: about 2% with the default size, 0.3% with a size of 1000. The results of
+ * visitors run over separate parts of a collection can be merged.
+ * <p>
+ * Null values, values which cannot be converted to a number, and NaN or infinite values are
+ * ignored.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public class QuantileSketchVisitor implements MergeableFeatureCalc {
+
+    /**
+     * The default sketch size.
+     */
+    public static final int DEFAULT_SIZE = 200;
+
+    private final Expression expr;
+
+    private final int size;
+
+    private QuantileSketch sketch;
+
+    private int countNull;
+
+    private int countNaN;
+
+    public QuantileSketchVisitor(Expression expr) {
+        this(expr, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a visitor.
+     *
+     * @param expr The expression to summarize.
+     * @param size The sketch size, the higher the more accurate, at least 8.
+     */
+    public QuantileSketchVisitor(Expression expr, int size) {
+        this.expr = expr;
+        this.size = size;
+        this.sketch = new QuantileSketch(size);
+    }
+
+    public Expression getExpression() {
+        return expr;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void visit(SimpleFeature feature) {
+        visit((Feature) feature);
+    }
+
+    public void visit(Feature feature) {
+        Object value = expr.evaluate(feature);
+        if (value != null && !(value instanceof Number)) {
+            value = Converters.convert(value, Double.class);
+        }
+        if (value == null) {
+            countNull++;
+            return;
+        }
+        final double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            countNaN++;
+            return;
+        }
+        sketch.add(d);
+    }
+
+    public void reset() {
+        sketch = new QuantileSketch(size);
+        countNull = 0;
+        countNaN = 0;
+    }
+
+    public MergeableFeatureCalc createPartial() {
+        return new QuantileSketchVisitor(expr, size);
+    }
+
+    public void mergePartial(MergeableFeatureCalc partial) {
+        final QuantileSketchVisitor other = (QuantileSketchVisitor) partial;
+        sketch.merge(other.sketch);
+        countNull += other.countNull;
+        countNaN += other.countNaN;
+    }
+
+    /**
+     * @return the number of features which returned a NaN or infinite value
+     */
+    public int getNaNCount() {
+        return countNaN;
+    }
+
+    /**
+     * @return the number of features which returned a null, or a value which is not a number
+     */
+    public int getNullCount() {
+        return countNull;
+    }
+
+    public CalcResult getResult() {
+        if (sketch.getCount() == 0) {
+            return CalcResult.NULL_RESULT;
+        }
+        return new QuantileSketchResult(new QuantileSketch(sketch));
+    }
+
+    /**
+     * The result of a {@link QuantileSketchVisitor}, whose value is the median.
+     */
+    public static class QuantileSketchResult extends AbstractCalcResult {
+        private final QuantileSketch sketch;
+
+        QuantileSketchResult(QuantileSketch sketch) {
+            this.sketch = sketch;
+        }
+
+        /**
+         * Returns the number of values summarized.
+         */
+        public long getCount() {
+            return sketch.getCount();
+        }
+
+        /**
+         * Returns the exact minimum value.
+         */
+        public double getMin() {
+            return sketch.getMin();
+        }
+
+        /**
+         * Returns the exact maximum value.
+         */
+        public double getMax() {
+            return sketch.getMax();
+        }
+
+        /**
+         * Returns the value whose rank among the sorted values, starting from 0, is the closest
+         * to the specified one.
+         */
+        public synchronized double getValueAtRank(long rank) {
+            return sketch.getValueAtRank(rank);
+        }
+
+        /**
+         * Returns the value at the specified fraction, between 0 and 1, of the sorted values.
+         */
+        public synchronized double getQuantile(double fraction) {
+            return sketch.getQuantile(fraction);
+        }
+
+        /**
+         * Returns the median value, the lower one if there is an even number of values.
+         */
+        public double getMedian() {
+            return getQuantile(0.5);
+        }
+
+        public Object getValue() {
+            return getMedian();
+        }
+
+        public boolean isCompatible(CalcResult targetResults) {
+            if (targetResults == CalcResult.NULL_RESULT) {
+                return true;
+            }
+            return targetResults instanceof QuantileSketchResult
+                    && ((QuantileSketchResult) targetResults).sketch.getK() == sketch.getK();
+        }
+
+        public CalcResult merge(CalcResult resultsToAdd) {
+            if (!isCompatible(resultsToAdd)) {
+                throw new IllegalArgumentException("Parameter is not a compatible type");
+            }
+            if (resultsToAdd == CalcResult.NULL_RESULT) {
+                return this;
+            }
+            final QuantileSketch merged = new QuantileSketch(sketch);
+            merged.merge(((QuantileSketchResult) resultsToAdd).sketch);
+            return new QuantileSketchResult(merged);
+        }
+    }
+}
@@ -42,7 +42,7 @@ import org.opengis.filter.expression.Expression;
  *
  * @source $URL$
  */
-public class StandardDeviationVisitor implements FeatureCalc {
+public class StandardDeviationVisitor implements MergeableFeatureCalc {
 	private Expression expr;
 
     boolean visited = false;
@@ -124,6 +124,28 @@ public class StandardDeviationVisitor implements FeatureCalc {
 	    this.mean = 0;
 	}
 
+    public MergeableFeatureCalc createPartial() {
+        return new StandardDeviationVisitor(expr);
+    }
+
+    /**
+     * Combines the partial mean and sum of squared differences with the pairwise formula of
+     * Chan et al.
+     */
+    public void mergePartial(MergeableFeatureCalc partial) {
+        StandardDeviationVisitor other = (StandardDeviationVisitor) partial;
+        countNull += other.countNull;
+        countNaN += other.countNaN;
+        if (other.count == 0) {
+            return;
+        }
+        int total = count + other.count;
+        double delta = other.mean - mean;
+        mean = mean + delta * other.count / total;
+        m2 = m2 + other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+    }
+
     /** mean value generated when calcualting standard deviation */
     public double getMean() {
         return mean;
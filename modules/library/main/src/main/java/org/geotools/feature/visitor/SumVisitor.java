@@ -39,7 +39,7 @@ import org.opengis.filter.expression.Expression;
  *
  * @source $URL$
  */
-public class SumVisitor implements FeatureCalc {
+public class SumVisitor implements MergeableFeatureCalc {
     private Expression expr;
     SumStrategy strategy;
 
@@ -118,6 +118,17 @@ public class SumVisitor implements FeatureCalc {
         strategy = null;
     }
 
+    public MergeableFeatureCalc createPartial() {
+        return new SumVisitor(expr);
+    }
+
+    public void mergePartial(MergeableFeatureCalc partial) {
+        CalcResult partialResult = partial.getResult();
+        if (partialResult != CalcResult.NULL_RESULT) {
+            setValue(getResult().merge(partialResult).getValue());
+        }
+    }
+
     public CalcResult getResult() {
     	if(strategy == null) {
     		return CalcResult.NULL_RESULT;
@@ -0,0 +1,242 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.visitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.util.ComputationExecutor;
+import org.opengis.feature.Feature;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Visits the parts of a collection in parallel, each one being read by its own
+ * {@link FeatureReader}, with a {@link MergeableFeatureCalc}.
+ * <p>
+ * The calling thread visits parts with the visitor itself, while up to
+ * {@link #getParallelism()} - 1 tasks visit the other parts with partial visitors, which are
+ * merged back into the visitor at the end. The tasks run on the shared
+ * {@link ComputationExecutor}, the calling thread running those the pool did not start. Parallel visits are disabled by default,
+ * they are enabled by setting the {@code org.geotools.visitor.parallelism} system property, or
+ * calling {@link #setParallelism(int)}, with the number of threads to be used.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public final class VisitorExecutor {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.feature.visitor");
+
+    private static volatile int parallelism = Math.max(1, Integer.getInteger(
+            "org.geotools.visitor.parallelism", 1));
+
+    /**
+     * The number of features a thread visits before reporting the progress, so that the threads
+     * do not contend on the listener for every feature.
+     */
+    static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Set while a thread runs a parallel visit, nested visits being run sequentially.
+     */
+    private static final ThreadLocal<Boolean> VISITING = new ThreadLocal<Boolean>();
+
+    private VisitorExecutor() {
+    }
+
+    /**
+     * Returns the maximum number of threads visiting a collection, 1 if parallel visits are
+     * disabled.
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of threads visiting a collection, 1 disabling parallel visits.
+     */
+    public static void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1: "
+                    + parallelism);
+        }
+        VisitorExecutor.parallelism = parallelism;
+    }
+
+    /**
+     * Returns {@code true} if the specified visitor can visit a collection in parallel.
+     */
+    public static boolean isParallel(FeatureVisitor visitor) {
+        return parallelism > 1 && visitor instanceof MergeableFeatureCalc
+                && VISITING.get() == null;
+    }
+
+    /**
+     * Visits the features returned by the readers, closing them at the end. Exceptions thrown by
+     * the visitor are reported to the progress listener, as in a sequential visit.
+     *
+     * @param visitor The visitor, into which the partial visitors get merged.
+     * @param readers The readers of the parts of the collection.
+     * @param progress The progress listener, may be {@code null}.
+     * @param size The number of features, to report the progress, or 0 if unknown, in which
+     *        case the progress is not reported. The progress is reported every
+     *        {@value #PROGRESS_INTERVAL} features visited by each thread.
+     */
+    public static void visit(final MergeableFeatureCalc visitor,
+            final List<? extends FeatureReader<?, ?>> readers, ProgressListener progress,
+            final float size) throws IOException {
+        if (progress == null) {
+            progress = new org.geotools.util.NullProgressListener();
+        }
+        final ProgressListener listener = progress;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLong position = new AtomicLong();
+        final AtomicBoolean abort = new AtomicBoolean();
+        final int workers = Math.min(parallelism, readers.size());
+        // the tasks running a visit, waited for before closing the readers on failure
+        final AtomicInteger active = new AtomicInteger();
+
+        List<Callable<MergeableFeatureCalc>> tasks;
+        tasks = new ArrayList<Callable<MergeableFeatureCalc>>();
+        for (int i = 0; i < workers; i++) {
+            final boolean first = i == 0;
+            tasks.add(new Callable<MergeableFeatureCalc>() {
+                public MergeableFeatureCalc call() throws Exception {
+                    active.incrementAndGet();
+                    try {
+                        if (abort.get()) {
+                            return null;
+                        }
+                        // the first task is always run by the calling thread
+                        MergeableFeatureCalc target = first ? visitor : visitor.createPartial();
+                        visit(target, readers, next, listener, position, size, abort);
+                        return target;
+                    } catch (Exception e) {
+                        abort.set(true);
+                        throw e;
+                    } catch (Error e) {
+                        abort.set(true);
+                        throw e;
+                    } finally {
+                        synchronized (active) {
+                            active.decrementAndGet();
+                            active.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        boolean failed = true;
+        listener.started();
+        try {
+            List<MergeableFeatureCalc> partials = ComputationExecutor.invokeAll(tasks);
+            for (int i = 1; i < partials.size(); i++) {
+                visitor.mergePartial(partials.get(i));
+            }
+            failed = false;
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while visiting").initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException("Failed to visit the features").initCause(cause);
+        } finally {
+            if (failed) {
+                // let the tasks still running stop before closing their readers, those not
+                // started yet will find the abort flag set
+                abort.set(true);
+                synchronized (active) {
+                    while (active.get() > 0) {
+                        try {
+                            active.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+            listener.complete();
+            for (FeatureReader<?, ?> reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close a partition reader", e);
+                }
+            }
+        }
+    }
+
+    private static void visit(MergeableFeatureCalc target,
+            List<? extends FeatureReader<?, ?>> readers, AtomicInteger next,
+            ProgressListener listener, AtomicLong position, float size, AtomicBoolean abort)
+            throws IOException {
+        VISITING.set(Boolean.TRUE);
+        try {
+            for (int i = next.getAndIncrement(); i < readers.size(); i = next.getAndIncrement()) {
+                FeatureReader<?, ?> reader = readers.get(i);
+                int visited = 0;
+                while (!abort.get() && !listener.isCanceled() && reader.hasNext()) {
+                    try {
+                        Feature feature = reader.next();
+                        target.visit(feature);
+                    } catch (Exception e) {
+                        synchronized (listener) {
+                            listener.exceptionOccurred(e);
+                        }
+                    }
+                    if (size > 0 && ++visited == PROGRESS_INTERVAL) {
+                        reportProgress(listener, position, visited, size);
+                        visited = 0;
+                    }
+                }
+                if (size > 0 && visited > 0) {
+                    reportProgress(listener, position, visited, size);
+                }
+            }
+        } finally {
+            VISITING.remove();
+        }
+    }
+
+    private static void reportProgress(ProgressListener listener, AtomicLong position,
+            int visited, float size) {
+        float done = position.addAndGet(visited) / size;
+        synchronized (listener) {
+            listener.progress(done);
+        }
+    }
+}
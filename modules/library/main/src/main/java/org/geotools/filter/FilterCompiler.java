@@ -0,0 +1,720 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.factory.Hints;
+import org.geotools.filter.function.EnvFunction;
+import org.geotools.filter.visitor.IsStaticExpressionVisitor;
+import org.geotools.util.ConverterFactory;
+import org.geotools.util.Converters;
+import org.opengis.feature.Attribute;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.Id;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsBetween;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.expression.VolatileFunction;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.Disjoint;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Compiles a {@link Filter} against a {@link SimpleFeatureType} into an equivalent filter which
+ * is faster to evaluate over many features of that type.
+ * <p>
+ * The compiled filter:
+ * <ul>
+ * <li>folds the comparisons whose expressions are static into {@link Filter#INCLUDE} or
+ * {@link Filter#EXCLUDE}, and evaluates the static sub-expressions of the others once, as
+ * found by {@link IsStaticExpressionVisitor};</li>
+ * <li>binds the property names to the attribute indexes of the feature type, reading the
+ * values of features of that type with {@link SimpleFeature#getAttribute(int)} instead of the
+ * property accessors;</li>
+ * <li>compares values against constants of the same type directly, with the constant
+ * converted once per value type instead of on each evaluation;</li>
+ * <li>evaluates the children of {@link And} and {@link Or} filters cheapest first;</li>
+ * <li>compares the envelopes of the geometries before running spatial predicates against a
+ * constant geometry.</li>
+ * </ul>
+ * Anything else, as well as features of another type and values needing conversions, is
+ * evaluated by the original filter, so that the compiled filter returns the same results.
+ * Compiled filters are thread safe, and delegate {@link Filter#accept(FilterVisitor, Object)}
+ * and {@link Object#toString()} to the original filter.
+ * <p>
+ * The compilation is an opt-in utility for code evaluating a filter against many features of
+ * the same type, the in memory filtering of the data module does not use it. The
+ * {@code FilterCompilerBenchmark} class of the tests compares the compiled and interpreted
+ * evaluations.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public final class FilterCompiler {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.filter");
+
+    /**
+     * Estimated costs of the evaluation of the filters, used to order the children of logic
+     * filters.
+     */
+    static final int COST_ID = 1;
+
+    static final int COST_BOUND_NULL = 1;
+
+    static final int COST_BOUND_COMPARISON = 2;
+
+    static final int COST_COMPARISON = 4;
+
+    static final int COST_BOUND_BBOX = 4;
+
+    static final int COST_LIKE = 8;
+
+    static final int COST_BOUND_SPATIAL = 16;
+
+    static final int COST_OTHER = 16;
+
+    static final int COST_SPATIAL = 32;
+
+    /**
+     * Checks for static expressions, the functions without parameters and the environment
+     * function being excluded as they may depend on the evaluated object or the context.
+     */
+    static final IsStaticExpressionVisitor STATIC = new IsStaticExpressionVisitor() {
+        public Boolean visit(Function expression, Object data) {
+            if (expression instanceof VolatileFunction || expression instanceof EnvFunction
+                    || expression.getParameters() == null
+                    || expression.getParameters().isEmpty()) {
+                return false;
+            }
+            return super.visit(expression, data);
+        }
+    };
+
+    static final Comparator<Filter> BY_COST = new Comparator<Filter>() {
+        public int compare(Filter f1, Filter f2) {
+            int c1 = cost(f1);
+            int c2 = cost(f2);
+            return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+        }
+    };
+
+    private final SimpleFeatureType type;
+
+    private FilterCompiler(SimpleFeatureType type) {
+        this.type = type;
+    }
+
+    /**
+     * Compiles a filter for the evaluation of features of the specified type.
+     *
+     * @param filter The filter to be compiled.
+     * @param type The type of the features that will be evaluated.
+     * @return The compiled filter, or the original filter if it cannot be made faster.
+     */
+    public static Filter compile(Filter filter, SimpleFeatureType type) {
+        if (filter == null || type == null || filter == Filter.INCLUDE
+                || filter == Filter.EXCLUDE) {
+            return filter;
+        }
+        try {
+            Filter compiled = new FilterCompiler(type).compileFilter(filter);
+            if (compiled instanceof GenericFilter) {
+                return filter;
+            }
+            return compiled;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to compile " + filter + ", it will be interpreted", e);
+            return filter;
+        }
+    }
+
+    /**
+     * Compiles a filter, possibly to {@link Filter#INCLUDE} or {@link Filter#EXCLUDE}.
+     */
+    Filter compileFilter(Filter filter) {
+        if (filter == Filter.INCLUDE || filter == Filter.EXCLUDE) {
+            return filter;
+        } else if (filter instanceof And || filter instanceof Or) {
+            return compileLogic((BinaryLogicOperator) filter);
+        } else if (filter instanceof Not) {
+            Filter child = compileFilter(((Not) filter).getFilter());
+            if (child == Filter.INCLUDE) {
+                return Filter.EXCLUDE;
+            } else if (child == Filter.EXCLUDE) {
+                return Filter.INCLUDE;
+            }
+            return new NotFilter(filter, child);
+        } else if (filter instanceof Id) {
+            return new GenericFilter(filter, COST_ID);
+        } else if (filter instanceof BinarySpatialOperator) {
+            return compileSpatial((BinarySpatialOperator) filter);
+        } else if (filter instanceof BinaryComparisonOperator) {
+            return compileComparison((BinaryComparisonOperator) filter);
+        } else if (filter instanceof PropertyIsNull) {
+            Expression expression = ((PropertyIsNull) filter).getPropertyName();
+            AttributeBinding attribute = bind(expression);
+            if (attribute != null && filter instanceof IsNullImpl) {
+                return new NullFilter(filter, attribute);
+            }
+            return new GenericFilter(filter, isStatic(expression) ? COST_ID : COST_COMPARISON);
+        } else if (filter instanceof PropertyIsBetween) {
+            return new GenericFilter(filter, COST_COMPARISON);
+        } else if (filter instanceof PropertyIsLike) {
+            return new GenericFilter(filter, COST_LIKE);
+        }
+        return new GenericFilter(filter, COST_OTHER);
+    }
+
+    Filter compileLogic(BinaryLogicOperator filter) {
+        final boolean and = filter instanceof And;
+        List<Filter> children = new ArrayList<Filter>();
+        for (Filter child : filter.getChildren()) {
+            Filter compiled = compileFilter(child);
+            if (compiled == Filter.INCLUDE) {
+                if (!and) {
+                    return Filter.INCLUDE;
+                }
+            } else if (compiled == Filter.EXCLUDE) {
+                if (and) {
+                    return Filter.EXCLUDE;
+                }
+            } else {
+                children.add(compiled);
+            }
+        }
+        if (children.isEmpty()) {
+            return and ? Filter.INCLUDE : Filter.EXCLUDE;
+        } else if (children.size() == 1) {
+            return children.get(0);
+        }
+        Filter[] sorted = children.toArray(new Filter[children.size()]);
+        // stable, so that filters of the same cost keep their order
+        Arrays.sort(sorted, BY_COST);
+        return and ? new AndFilter(filter, sorted) : new OrFilter(filter, sorted);
+    }
+
+    Filter compileComparison(BinaryComparisonOperator filter) {
+        final Expression expression1 = filter.getExpression1();
+        final Expression expression2 = filter.getExpression2();
+        final boolean static1 = isStatic(expression1);
+        final boolean static2 = isStatic(expression2);
+        if (static1 && static2) {
+            return fold(filter);
+        }
+        if (!(filter instanceof MultiCompareFilterImpl)) {
+            return new GenericFilter(filter, COST_COMPARISON);
+        }
+        final AttributeBinding attribute;
+        final Object constant;
+        final boolean attributeFirst;
+        if (static2) {
+            attribute = bind(expression1);
+            constant = evaluateStatic(expression2);
+            attributeFirst = true;
+        } else if (static1) {
+            attribute = bind(expression2);
+            constant = evaluateStatic(expression1);
+            attributeFirst = false;
+        } else {
+            attribute = null;
+            constant = null;
+            attributeFirst = false;
+        }
+        if (attribute == null || constant == null || constant instanceof Collection
+                || constant instanceof Attribute) {
+            return new GenericFilter(filter, COST_COMPARISON);
+        }
+
+        final MultiCompareFilterImpl source = (MultiCompareFilterImpl) filter;
+        if (filter instanceof PropertyIsEqualTo) {
+            return new EqualityFilter(source, attribute, constant, attributeFirst, false);
+        } else if (filter instanceof PropertyIsNotEqualTo) {
+            return new EqualityFilter(source, attribute, constant, attributeFirst, true);
+        } else if (filter instanceof PropertyIsLessThan) {
+            return new OrderingFilter(source, attribute, constant, attributeFirst, true, false);
+        } else if (filter instanceof PropertyIsLessThanOrEqualTo) {
+            return new OrderingFilter(source, attribute, constant, attributeFirst, true, true);
+        } else if (filter instanceof PropertyIsGreaterThan) {
+            return new OrderingFilter(source, attribute, constant, attributeFirst, false, false);
+        } else if (filter instanceof PropertyIsGreaterThanOrEqualTo) {
+            return new OrderingFilter(source, attribute, constant, attributeFirst, false, true);
+        }
+        return new GenericFilter(filter, COST_COMPARISON);
+    }
+
+    Filter compileSpatial(BinarySpatialOperator filter) {
+        final Expression expression1 = filter.getExpression1();
+        final Expression expression2 = filter.getExpression2();
+        final boolean static1 = isStatic(expression1);
+        final boolean static2 = isStatic(expression2);
+        if (static1 && static2) {
+            return fold(filter);
+        }
+        final boolean intersecting = filter instanceof BBOX || filter instanceof Intersects
+                || filter instanceof Contains || filter instanceof Within
+                || filter instanceof Overlaps || filter instanceof Crosses
+                || filter instanceof Touches || filter instanceof Equals;
+        if (!(filter instanceof GeometryFilterImpl)
+                || !(intersecting || filter instanceof Disjoint) || static1 == static2) {
+            return new GenericFilter(filter, COST_SPATIAL);
+        }
+        final AttributeBinding attribute = bind(static2 ? expression1 : expression2);
+        final Object constant = evaluateStatic(static2 ? expression2 : expression1);
+        final Geometry geometry = constant instanceof Collection ? null : Converters.convert(
+                constant, Geometry.class);
+        if (attribute == null || geometry == null || geometry.isEmpty()) {
+            return new GenericFilter(filter, COST_SPATIAL);
+        }
+        final boolean rectangle = (filter instanceof BBOX || filter instanceof Intersects)
+                && geometry.isRectangle();
+        return new SpatialFilter((GeometryFilterImpl) filter, attribute, geometry, static2,
+                filter instanceof Disjoint, rectangle);
+    }
+
+    /**
+     * Evaluates a filter whose expressions are static, returning the original filter if the
+     * evaluation fails.
+     */
+    Filter fold(Filter filter) {
+        try {
+            return filter.evaluate(null) ? Filter.INCLUDE : Filter.EXCLUDE;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to evaluate the static filter " + filter, e);
+            return new GenericFilter(filter, COST_OTHER);
+        }
+    }
+
+    boolean isStatic(Expression expression) {
+        return expression != null && Boolean.TRUE.equals(expression.accept(STATIC, null));
+    }
+
+    /**
+     * Returns the value of a static expression, or {@code null} if it cannot be evaluated.
+     */
+    Object evaluateStatic(Expression expression) {
+        if (expression instanceof Literal) {
+            return ((Literal) expression).getValue();
+        }
+        try {
+            return expression.evaluate(null);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to evaluate the static expression " + expression, e);
+            return null;
+        }
+    }
+
+    /**
+     * Binds a property name to an attribute of the feature type, or returns {@code null} if the
+     * expression is not a plain attribute name.
+     */
+    AttributeBinding bind(Expression expression) {
+        if (expression == null || expression.getClass() != AttributeExpressionImpl.class) {
+            return null;
+        }
+        String name = ((PropertyName) expression).getPropertyName();
+        if (name == null || name.length() == 0 || name.indexOf(':') >= 0
+                || name.indexOf('/') >= 0 || name.indexOf('@') >= 0 || name.indexOf('[') >= 0) {
+            return null;
+        }
+        int index = type.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        return new AttributeBinding(type, index, (PropertyName) expression);
+    }
+
+    static int cost(Filter filter) {
+        if (filter instanceof CompiledFilter) {
+            return ((CompiledFilter) filter).cost;
+        }
+        return filter == Filter.INCLUDE || filter == Filter.EXCLUDE ? 0 : COST_OTHER;
+    }
+
+    /**
+     * Reads an attribute by index from the features of the compiled type, and through the
+     * property name from any other object.
+     */
+    static final class AttributeBinding {
+        final SimpleFeatureType type;
+
+        final int index;
+
+        final PropertyName property;
+
+        AttributeBinding(SimpleFeatureType type, int index, PropertyName property) {
+            this.type = type;
+            this.index = index;
+            this.property = property;
+        }
+
+        Object evaluate(Object object) {
+            if (object instanceof SimpleFeature) {
+                SimpleFeature feature = (SimpleFeature) object;
+                if (feature.getFeatureType() == type) {
+                    return feature.getAttribute(index);
+                }
+            }
+            return property.evaluate(object);
+        }
+    }
+
+    /**
+     * Base class of the compiled filters, which are visited and printed as the original filter.
+     */
+    abstract static class CompiledFilter implements Filter {
+        final Filter source;
+
+        final int cost;
+
+        CompiledFilter(Filter source, int cost) {
+            this.source = source;
+            this.cost = cost;
+        }
+
+        public Object accept(FilterVisitor visitor, Object extraData) {
+            return source.accept(visitor, extraData);
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+
+    /**
+     * A filter that could not be compiled, evaluated as is.
+     */
+    static final class GenericFilter extends CompiledFilter {
+        GenericFilter(Filter source, int cost) {
+            super(source, cost);
+        }
+
+        public boolean evaluate(Object object) {
+            return source.evaluate(object);
+        }
+    }
+
+    static final class AndFilter extends CompiledFilter {
+        final Filter[] children;
+
+        AndFilter(Filter source, Filter[] children) {
+            super(source, sum(children));
+            this.children = children;
+        }
+
+        public boolean evaluate(Object object) {
+            for (Filter child : children) {
+                if (!child.evaluate(object)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class OrFilter extends CompiledFilter {
+        final Filter[] children;
+
+        OrFilter(Filter source, Filter[] children) {
+            super(source, sum(children));
+            this.children = children;
+        }
+
+        public boolean evaluate(Object object) {
+            for (Filter child : children) {
+                if (child.evaluate(object)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static int sum(Filter[] children) {
+        int cost = 0;
+        for (Filter child : children) {
+            cost += cost(child);
+        }
+        return cost;
+    }
+
+    static final class NotFilter extends CompiledFilter {
+        final Filter child;
+
+        NotFilter(Filter source, Filter child) {
+            super(source, cost(child));
+            this.child = child;
+        }
+
+        public boolean evaluate(Object object) {
+            return !child.evaluate(object);
+        }
+    }
+
+    static final class NullFilter extends CompiledFilter {
+        final AttributeBinding attribute;
+
+        NullFilter(Filter source, AttributeBinding attribute) {
+            super(source, COST_BOUND_NULL);
+            this.attribute = attribute;
+        }
+
+        public boolean evaluate(Object object) {
+            Object value = attribute.evaluate(object);
+            if (value == null) {
+                return true;
+            } else if (value instanceof Attribute) {
+                // unpacked by the original filter
+                return source.evaluate(object);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Base class of the comparisons between an attribute and a constant value.
+     */
+    abstract static class ComparisonFilter extends CompiledFilter {
+        final MultiCompareFilterImpl comparison;
+
+        final AttributeBinding attribute;
+
+        final Object constant;
+
+        final boolean attributeFirst;
+
+        ComparisonFilter(MultiCompareFilterImpl source, AttributeBinding attribute,
+                Object constant, boolean attributeFirst) {
+            super(source, COST_BOUND_COMPARISON);
+            this.comparison = source;
+            this.attribute = attribute;
+            this.constant = constant;
+            this.attributeFirst = attributeFirst;
+        }
+
+        public final boolean evaluate(Object object) {
+            Object value = attribute.evaluate(object);
+            if (value instanceof Collection || value instanceof Attribute) {
+                // multiple values, or values to be unpacked
+                return source.evaluate(object);
+            } else if (value == null) {
+                return attributeFirst ? comparison.evaluateInternal(null, constant)
+                        : comparison.evaluateInternal(constant, null);
+            }
+            return evaluateValue(value);
+        }
+
+        /**
+         * Compares a non null value, the default being the comparison of the original filter.
+         */
+        boolean evaluateValue(Object value) {
+            return attributeFirst ? comparison.evaluateInternal(value, constant) : comparison
+                    .evaluateInternal(constant, value);
+        }
+    }
+
+    /**
+     * Compares an attribute with a constant for equality, when they are of the same type.
+     */
+    static final class EqualityFilter extends ComparisonFilter {
+        final boolean negate;
+
+        /**
+         * Whether the equality of values of the constant type is decided by
+         * {@link Object#equals(Object)} alone.
+         */
+        final boolean exact;
+
+        EqualityFilter(MultiCompareFilterImpl source, AttributeBinding attribute,
+                Object constant, boolean attributeFirst, boolean negate) {
+            super(source, attribute, constant, attributeFirst);
+            this.negate = negate;
+            final Class<?> type = constant.getClass();
+            // floating point values compare +0.0 and -0.0 as equal, strings may ignore case
+            this.exact = type == Integer.class || type == Long.class || type == Short.class
+                    || type == Byte.class || type == Boolean.class
+                    || (type == String.class && source.isMatchingCase());
+        }
+
+        @Override
+        boolean evaluateValue(Object value) {
+            if (value.getClass() == constant.getClass()) {
+                if (exact || value.equals(constant)) {
+                    return value.equals(constant) != negate;
+                }
+            }
+            return super.evaluateValue(value);
+        }
+    }
+
+    /**
+     * Orders an attribute against a constant, with the constant converted once per type of
+     * values as in {@link BinaryComparisonAbstract#eval(Object, Object)}.
+     */
+    static final class OrderingFilter extends ComparisonFilter {
+        static final Hints SAFE = new Hints(ConverterFactory.SAFE_CONVERSION, Boolean.TRUE);
+
+        final boolean less;
+
+        final boolean orEqual;
+
+        /**
+         * The constant converted to the type of the last compared value.
+         */
+        volatile Object[] converted;
+
+        OrderingFilter(MultiCompareFilterImpl source, AttributeBinding attribute,
+                Object constant, boolean attributeFirst, boolean less, boolean orEqual) {
+            super(source, attribute, constant, attributeFirst);
+            this.less = less;
+            this.orEqual = orEqual;
+            this.converted = new Object[] { constant.getClass(), constant };
+        }
+
+        @Override
+        boolean evaluateValue(Object value) {
+            if (!(value instanceof Comparable)) {
+                return super.evaluateValue(value);
+            }
+            final Class<?> type = value.getClass();
+            Object[] converted = this.converted;
+            if (converted[0] != type) {
+                // the values are aligned by converting the second one to the type of the first
+                if (!attributeFirst) {
+                    return super.evaluateValue(value);
+                }
+                Object other = Converters.convert(constant, type, SAFE);
+                if (other == null || other.getClass() != type) {
+                    return super.evaluateValue(value);
+                }
+                converted = new Object[] { type, other };
+                this.converted = converted;
+            }
+            final int compare = attributeFirst ? compare(value, converted[1]) : compare(
+                    converted[1], value);
+            if (compare == 0) {
+                return orEqual;
+            }
+            return less ? compare < 0 : compare > 0;
+        }
+
+        /**
+         * Compares values of the same type as {@link CompareFilterImpl#compare}.
+         */
+        @SuppressWarnings("unchecked")
+        static int compare(Object value1, Object value2) {
+            if (value1 instanceof Number) {
+                double left = ((Number) value1).doubleValue();
+                double right = ((Number) value2).doubleValue();
+                return left > right ? 1 : (left == right ? 0 : -1);
+            }
+            return ((Comparable<Object>) value1).compareTo(value2);
+        }
+    }
+
+    /**
+     * Checks the envelopes of an attribute geometry and a constant geometry before evaluating a
+     * spatial predicate.
+     */
+    static final class SpatialFilter extends CompiledFilter {
+        final GeometryFilterImpl spatial;
+
+        final AttributeBinding attribute;
+
+        final Geometry geometry;
+
+        final Envelope envelope;
+
+        final boolean attributeFirst;
+
+        final boolean disjoint;
+
+        /**
+         * Whether the predicate is an intersection with a rectangle, which is true for any
+         * geometry within its envelope.
+         */
+        final boolean rectangle;
+
+        SpatialFilter(GeometryFilterImpl source, AttributeBinding attribute, Geometry geometry,
+                boolean attributeFirst, boolean disjoint, boolean rectangle) {
+            super(source, source instanceof BBOX ? COST_BOUND_BBOX : COST_BOUND_SPATIAL);
+            this.spatial = source;
+            this.attribute = attribute;
+            this.geometry = geometry;
+            this.envelope = geometry.getEnvelopeInternal();
+            this.attributeFirst = attributeFirst;
+            this.disjoint = disjoint;
+            this.rectangle = rectangle;
+        }
+
+        public boolean evaluate(Object object) {
+            Object value = attribute.evaluate(object);
+            if (value == null) {
+                return false;
+            } else if (!(value instanceof Geometry)) {
+                return source.evaluate(object);
+            }
+            final Geometry other = (Geometry) value;
+            final Envelope otherEnvelope = other.getEnvelopeInternal();
+            if (!envelope.intersects(otherEnvelope)) {
+                return disjoint;
+            } else if (rectangle && !other.isEmpty() && envelope.contains(otherEnvelope)) {
+                return true;
+            }
+            return attributeFirst ? spatial.evaluateInternal(other, geometry) : spatial
+                    .evaluateInternal(geometry, other);
+        }
+    }
+}
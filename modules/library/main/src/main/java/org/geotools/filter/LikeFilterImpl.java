@@ -18,9 +18,6 @@ package org.geotools.filter;
 
 
 import java.util.Collection;
-import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.geotools.factory.CommonFactoryFinder;
 import org.opengis.filter.FilterVisitor;
@@ -54,8 +51,8 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
     /** The escape sequence for the REGEXP pattern. */
     private String escape = "\\";
 
-    /** the pattern compiled into a java regex */
-    private Pattern compPattern = null;
+    /** the matcher of the pattern, shared with the equal filters */
+    private LikeMatcher matcher = null;
 
     /** Used to indicate if case should be ignored or not */
     boolean matchingCase;
@@ -166,22 +163,22 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
     
     public void setWildCard(String wildCard) {
         this.wildcardMulti = wildCard;
-        compPattern = null;
+        matcher = null;
     }
     
     public void setSingleChar(String singleChar) {
         this.wildcardSingle = singleChar;
-        compPattern = null;
+        matcher = null;
     }
     
     public void setEscape(String escape) {
         this.escape = escape;
-        compPattern = null;
+        matcher = null;
     }
 
     public void setMatchCase(boolean matchingCase){
         this.matchingCase = matchingCase;
-        compPattern = null;
+        matcher = null;
     }
     
     public boolean isMatchingCase() {
@@ -194,109 +191,17 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
 
     public void setMatchingCase(boolean matchingCase) {
             this.matchingCase = matchingCase;
+            matcher = null;
     }
     
-    private Matcher getMatcher(String string){
-        if(compPattern == null){
-            // protect the vars as this is moved code
-
-            String pattern1 = new String(this.pattern);
-            String wildcardMulti1 = new String(this.wildcardMulti);
-            String wildcardSingle1 = new String(this.wildcardSingle);
-            String escape1 = new String(this.escape);
-            
-//          The following things happen for both wildcards:
-            //  (1) If a user-defined wildcard exists, replace with Java wildcard
-            //  (2) If a user-defined escape exists, Java wildcard + user-escape
-            //  Then, test for matching pattern and return result.
-            char esc = escape1.charAt(0);
-            if( LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("wildcard " + wildcardMulti1 + " single " + wildcardSingle1);
-                LOGGER.finer("escape " + escape1 + " esc " + esc + " esc == \\ "
-                        + (esc == '\\'));
-            }
-
-            String escapedWildcardMulti = fixSpecials(wildcardMulti1);
-            String escapedWildcardSingle = fixSpecials(wildcardSingle1);
-
-            // escape any special chars which are not our wildcards
-            StringBuffer tmp = new StringBuffer("");
-
-            boolean escapedMode = false;
-
-            for (int i = 0; i < pattern1.length(); i++) {
-                char chr = pattern1.charAt(i);
-                if( LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("tmp = " + tmp + " looking at " + chr);
-                }
-
-                if (pattern1.regionMatches(false, i, escape1, 0, escape1.length())) {
-                    // skip the escape string
-                    LOGGER.finer("escape ");
-                    escapedMode = true;
-
-                    i += escape1.length();
-                    chr = pattern1.charAt(i);
-                }
-
-                if (pattern1.regionMatches(false, i, wildcardMulti1, 0,
-                            wildcardMulti1.length())) { // replace with java wildcard
-                    LOGGER.finer("multi wildcard");
-
-                    if (escapedMode) {
-                        LOGGER.finer("escaped ");
-                        tmp.append(escapedWildcardMulti);
-                    } else {
-                        tmp.append(".*");
-                    }
-
-                    i += (wildcardMulti1.length() - 1);
-                    escapedMode = false;
-
-                    continue;
-                }
-
-                if (pattern1.regionMatches(false, i, wildcardSingle1, 0,
-                            wildcardSingle1.length())) {
-                    // replace with java single wild card
-                    LOGGER.finer("single wildcard");
-
-                    if (escapedMode) {
-                        LOGGER.finer("escaped ");
-                        tmp.append(escapedWildcardSingle);
-                    } else {
-                        // From the OpenGIS filter encoding spec, 
-                        // "the single singleChar character matches exactly one character"
-                        tmp.append(".{1}");
-                    }
-
-                    i += (wildcardSingle1.length() - 1);
-                    escapedMode = false;
-
-                    continue;
-                }
-
-                if (isSpecial(chr)) {
-                    LOGGER.finer("special");
-                    tmp.append(this.escape + chr);
-                    escapedMode = false;
-
-                    continue;
-                }
-
-                tmp.append(chr);
-                escapedMode = false;
-            }
-
-            pattern1 = tmp.toString();
-            if( LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("final pattern " + pattern1);
-            }
-            compPattern = isMatchingCase()  
-                ? Pattern.compile(pattern1)
-                : Pattern.compile(pattern1, Pattern.CASE_INSENSITIVE);
+    private LikeMatcher getMatcher() {
+        LikeMatcher result = matcher;
+        if (result == null) {
+            result = LikeMatcher.get(pattern, wildcardMulti, wildcardSingle, escape,
+                    isMatchingCase());
+            matcher = result;
         }
-        return compPattern.matcher(string);
+        return result;
     }
 
     /**
@@ -448,7 +353,7 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
      */
     public void setLiteral(String literal) {
         this.pattern = literal;
-        compPattern = null;
+        matcher = null;
     }
     
     /**
@@ -487,8 +392,7 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
                 int count = 0;
                 
                 for (Object element : (Collection<Object>) value){
-                    Matcher matcher = getMatcher(element.toString());
-                    boolean temp = matcher.matches();
+                    boolean temp = getMatcher().matches(element.toString());
                     if (temp) {
                         count++;
                     }
@@ -506,8 +410,7 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
                     default: return false;
                 }
             } else {
-                Matcher matcher = getMatcher(value.toString());
-                return matcher.matches();
+                return getMatcher().matches(value.toString());
             }
     }
     
@@ -576,45 +479,6 @@ public class LikeFilterImpl extends AbstractFilterImpl implements LikeFilter {
         return getWildcardSingle();
     }
 
-    /**
-     * convienience method to determine if a character is special to the regex
-     * system.
-     *
-     * @param chr the character to test
-     *
-     * @return is the character a special character.
-     */
-    private boolean isSpecial(final char chr) {
-        return ((chr == '.') || (chr == '?') || (chr == '*') || (chr == '^')
-        || (chr == '$') || (chr == '+') || (chr == '[') || (chr == ']')
-        || (chr == '(') || (chr == ')') || (chr == '|') || (chr == '\\')
-        || (chr == '&'));
-    }
-
-    /**
-     * convienience method to escape any character that is special to the regex
-     * system.
-     *
-     * @param inString the string to fix
-     *
-     * @return the fixed string
-     */
-    private String fixSpecials(final String inString) {
-        StringBuffer tmp = new StringBuffer("");
-
-        for (int i = 0; i < inString.length(); i++) {
-            char chr = inString.charAt(i);
-
-            if (isSpecial(chr)) {
-                tmp.append(this.escape + chr);
-            } else {
-                tmp.append(chr);
-            }
-        }
-
-        return tmp.toString();
-    }
-
     /**
      * Compares this filter to the specified object.  Returns true  if the
      * passed in object is the same as this filter.  Checks  to make sure the
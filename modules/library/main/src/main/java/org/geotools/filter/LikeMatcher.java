@@ -0,0 +1,342 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Matches strings against the pattern of a {@link LikeFilterImpl}.
+ * <p>
+ * The exact, prefix ({@code abc%}), suffix ({@code %abc}), contains ({@code %abc%}) and match
+ * all ({@code %}) patterns are matched with string operations, any other pattern with a regular
+ * expression. The string operations give the same results as the regular expression: case is
+ * ignored for US-ASCII letters only, and the multiple wildcard does not match line terminators,
+ * the strings containing them or surrogate characters being matched with the regular
+ * expression anyway. The patterns with braces are always matched with the regular expression,
+ * which reads them as quantifiers.
+ * <p>
+ * Matchers are immutable and shared among the filters with the same pattern, through a bounded
+ * cache.
+ *
+ * @source $URL$
+ */
+final class LikeMatcher {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geotools.core");
+
+    /**
+     * The maximum number of cached matchers.
+     */
+    static final int CACHE_SIZE = 1000;
+
+    private static final Map<List<Object>, LikeMatcher> CACHE;
+
+    static {
+        CACHE = new LinkedHashMap<List<Object>, LikeMatcher>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, LikeMatcher> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    enum Kind {
+        EXACT, PREFIX, SUFFIX, CONTAINS, ANY, REGEX
+    }
+
+    final Kind kind;
+
+    /**
+     * The literal part of the pattern, {@code null} for regular expressions.
+     */
+    final String literal;
+
+    final boolean matchCase;
+
+    /**
+     * The regular expression, used by the simple patterns for the values with line terminators
+     * or surrogates.
+     */
+    final Pattern regex;
+
+    private LikeMatcher(Kind kind, String literal, boolean matchCase, Pattern regex) {
+        this.kind = kind;
+        this.literal = literal;
+        this.matchCase = matchCase;
+        this.regex = regex;
+    }
+
+    /**
+     * Returns the matcher of a pattern, shared with the filters using the same pattern.
+     */
+    static LikeMatcher get(String pattern, String wildcardMulti, String wildcardSingle,
+            String escape, boolean matchCase) {
+        List<Object> key = Arrays.<Object> asList(pattern, wildcardMulti, wildcardSingle, escape,
+                matchCase);
+        synchronized (CACHE) {
+            LikeMatcher matcher = CACHE.get(key);
+            if (matcher != null) {
+                return matcher;
+            }
+        }
+        LikeMatcher matcher = compile(pattern, wildcardMulti, wildcardSingle, escape, matchCase);
+        synchronized (CACHE) {
+            CACHE.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    static LikeMatcher compile(String pattern, String wildcardMulti, String wildcardSingle,
+            String escape, boolean matchCase) {
+        String expression = toRegex(pattern, wildcardMulti, wildcardSingle, escape);
+        Pattern regex = matchCase ? Pattern.compile(expression) : Pattern.compile(expression,
+                Pattern.CASE_INSENSITIVE);
+        LikeMatcher simple = compileSimple(pattern, wildcardMulti, wildcardSingle, escape,
+                matchCase, regex);
+        if (simple != null) {
+            return simple;
+        }
+        return new LikeMatcher(Kind.REGEX, null, matchCase, regex);
+    }
+
+    /**
+     * Recognizes the patterns made of a literal with optional leading and trailing multiple
+     * wildcards, returning {@code null} for any other pattern.
+     */
+    static LikeMatcher compileSimple(String pattern, String wildcardMulti,
+            String wildcardSingle, String escape, boolean matchCase, Pattern regex) {
+        if (wildcardMulti.length() != 1 || wildcardSingle.length() != 1 || escape.length() != 1) {
+            return null;
+        }
+        final char multi = wildcardMulti.charAt(0);
+        final char single = wildcardSingle.charAt(0);
+        final char esc = escape.charAt(0);
+        if (multi == single || multi == esc || single == esc) {
+            return null;
+        }
+        // the regular expression escapes special characters with the like escape
+        final boolean regexEscape = esc == '\\';
+
+        StringBuilder literal = new StringBuilder();
+        boolean leading = false;
+        boolean trailing = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char chr = pattern.charAt(i);
+            if (chr == multi) {
+                if (literal.length() == 0) {
+                    leading = true;
+                } else {
+                    trailing = true;
+                }
+                continue;
+            } else if (trailing || chr == single || chr == '{' || chr == '}') {
+                // braces are not escaped, the regular expression reads them as quantifiers
+                return null;
+            } else if (chr == esc) {
+                if (++i == pattern.length()) {
+                    return null;
+                }
+                chr = pattern.charAt(i);
+            }
+            if (isSpecial(chr) && !regexEscape) {
+                return null;
+            }
+            literal.append(chr);
+        }
+
+        final Kind kind;
+        if (literal.length() == 0) {
+            kind = leading ? Kind.ANY : Kind.EXACT;
+        } else if (leading) {
+            kind = trailing ? Kind.CONTAINS : Kind.SUFFIX;
+        } else {
+            kind = trailing ? Kind.PREFIX : Kind.EXACT;
+        }
+        return new LikeMatcher(kind, literal.toString(), matchCase, regex);
+    }
+
+    /**
+     * Returns {@code true} if the value matches the pattern.
+     */
+    boolean matches(String value) {
+        if (kind == Kind.REGEX || needsRegex(value)) {
+            return regex.matcher(value).matches();
+        }
+        final int length = literal.length();
+        switch (kind) {
+        case EXACT:
+            return value.length() == length && regionMatches(value, 0);
+        case PREFIX:
+            return value.length() >= length && regionMatches(value, 0);
+        case SUFFIX:
+            return value.length() >= length && regionMatches(value, value.length() - length);
+        case CONTAINS:
+            if (matchCase) {
+                return value.indexOf(literal) >= 0;
+            }
+            for (int i = 0; i <= value.length() - length; i++) {
+                if (regionMatches(value, i)) {
+                    return true;
+                }
+            }
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private boolean regionMatches(String value, int offset) {
+        if (matchCase) {
+            return value.startsWith(literal, offset);
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            char c1 = value.charAt(offset + i);
+            char c2 = literal.charAt(i);
+            if (c1 != c2
+                    && (c1 >= 128 || c2 >= 128 || Character.toLowerCase(c1) != Character
+                            .toLowerCase(c2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the value has characters that the regular expression wildcards
+     * treat in a special way.
+     */
+    private static boolean needsRegex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char chr = value.charAt(i);
+            if (chr == '\n' || chr == '\r' || chr == '\u0085' || chr == '\u2028'
+                    || chr == '\u2029' || (chr >= '\uD800' && chr <= '\uDFFF')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts a like pattern into a java regular expression.
+     */
+    static String toRegex(String pattern, String wildcardMulti, String wildcardSingle,
+            String escape) {
+        // The following things happen for both wildcards:
+        // (1) If a user-defined wildcard exists, replace with Java wildcard
+        // (2) If a user-defined escape exists, Java wildcard + user-escape
+        String escapedWildcardMulti = fixSpecials(wildcardMulti, escape);
+        String escapedWildcardSingle = fixSpecials(wildcardSingle, escape);
+
+        // escape any special chars which are not our wildcards
+        StringBuffer tmp = new StringBuffer("");
+
+        boolean escapedMode = false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char chr = pattern.charAt(i);
+
+            if (pattern.regionMatches(false, i, escape, 0, escape.length())) {
+                // skip the escape string
+                escapedMode = true;
+
+                i += escape.length();
+                chr = pattern.charAt(i);
+            }
+
+            if (pattern.regionMatches(false, i, wildcardMulti, 0, wildcardMulti.length())) {
+                // replace with java wildcard
+                if (escapedMode) {
+                    tmp.append(escapedWildcardMulti);
+                } else {
+                    tmp.append(".*");
+                }
+
+                i += (wildcardMulti.length() - 1);
+                escapedMode = false;
+
+                continue;
+            }
+
+            if (pattern.regionMatches(false, i, wildcardSingle, 0, wildcardSingle.length())) {
+                // replace with java single wild card
+                if (escapedMode) {
+                    tmp.append(escapedWildcardSingle);
+                } else {
+                    // From the OpenGIS filter encoding spec,
+                    // "the single singleChar character matches exactly one character"
+                    tmp.append(".{1}");
+                }
+
+                i += (wildcardSingle.length() - 1);
+                escapedMode = false;
+
+                continue;
+            }
+
+            if (isSpecial(chr)) {
+                tmp.append(escape + chr);
+                escapedMode = false;
+
+                continue;
+            }
+
+            tmp.append(chr);
+            escapedMode = false;
+        }
+
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("final pattern " + tmp);
+        }
+        return tmp.toString();
+    }
+
+    /**
+     * convienience method to determine if a character is special to the regex system.
+     */
+    static boolean isSpecial(final char chr) {
+        return ((chr == '.') || (chr == '?') || (chr == '*') || (chr == '^') || (chr == '$')
+                || (chr == '+') || (chr == '[') || (chr == ']') || (chr == '(') || (chr == ')')
+                || (chr == '|') || (chr == '\\') || (chr == '&'));
+    }
+
+    /**
+     * convienience method to escape any character that is special to the regex system.
+     */
+    private static String fixSpecials(final String inString, String escape) {
+        StringBuffer tmp = new StringBuffer("");
+
+        for (int i = 0; i < inString.length(); i++) {
+            char chr = inString.charAt(i);
+
+            if (isSpecial(chr)) {
+                tmp.append(escape + chr);
+            } else {
+                tmp.append(chr);
+            }
+        }
+
+        return tmp.toString();
+    }
+}
@@ -29,9 +29,14 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.QuantileListVisitor;
+import org.geotools.feature.visitor.QuantileSketchVisitor;
+import org.geotools.feature.visitor.QuantileSketchVisitor.QuantileSketchResult;
 import org.geotools.filter.capability.FunctionNameImpl;
+import org.geotools.util.Converters;
 import org.geotools.util.NullProgressListener;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.filter.capability.FunctionName;
+import org.opengis.filter.expression.PropertyName;
 
 /**
  * Breaks a SimpleFeatureCollection into classes with an equal number of items in each.
@@ -43,6 +48,14 @@ import org.opengis.filter.capability.FunctionName;
  */
 public class QuantileFunction extends ClassificationFunction {
     
+    /**
+     * The size of the sketch used to classify numeric attributes, which can be set with the
+     * {@code org.geotools.filter.function.quantileSketchSize} system property. Collections
+     * holding up to this number of values are classified exactly.
+     */
+    static final int SKETCH_SIZE = Integer.getInteger(
+            "org.geotools.filter.function.quantileSketchSize", 1000);
+    
     public static FunctionName NAME = new FunctionNameImpl("Quantile",
             RangedClassifier.class,
             parameter("value", Double.class),
@@ -53,6 +66,9 @@ public class QuantileFunction extends ClassificationFunction {
 	}
     
 	private Object calculate(SimpleFeatureCollection featureCollection) {
+		if (isNumeric(featureCollection)) {
+		    return calculateSketch(featureCollection);
+		}
 		// use a visitor to find the values in each bin
 		QuantileListVisitor quantileVisit = new QuantileListVisitor(getExpression(), getClasses());
 		if (progress == null) progress = new NullProgressListener();
@@ -76,24 +92,85 @@ public class QuantileFunction extends ClassificationFunction {
 		Comparable globalMax = (Comparable) lastBin[lastBin.length-1];
 	
 		if ((globalMin instanceof Number) && (globalMax instanceof Number)) {
-            return calculateNumerical(bin, globalMin, globalMax);
+		    Comparable[] localMin = new Comparable[bin.length];
+		    Comparable[] localMax = new Comparable[bin.length];
+		    for (int i = 0; i < bin.length; i++) {
+		        localMin[i] = (Comparable) bin[i].get(0);
+		        localMax[i] = (Comparable) bin[i].get(bin[i].size()-1);
+		    }
+            return calculateNumerical(localMin, localMax, globalMin, globalMax);
 		} else {
             return calculateNonNumerical(bin);
 		}
 	}
+	
+	/**
+	 * Returns true if the expression is an attribute of numeric type, whose quantiles can be
+	 * computed with a sketch rather than by sorting all the values.
+	 */
+	private boolean isNumeric(SimpleFeatureCollection featureCollection) {
+	    if (!(getExpression() instanceof PropertyName) || featureCollection.getSchema() == null) {
+	        return false;
+	    }
+	    Object att = getExpression().evaluate(featureCollection.getSchema());
+	    return att instanceof AttributeDescriptor
+	            && Number.class.isAssignableFrom(((AttributeDescriptor) att).getType().getBinding());
+	}
+	
+	/**
+	 * Computes the classes from a quantile sketch, in constant memory. The classes are the same
+	 * as the ones computed from the sorted values while the collection holds no more than
+	 * {@link #SKETCH_SIZE} values, and approximate beyond.
+	 */
+	private Object calculateSketch(SimpleFeatureCollection featureCollection) {
+	    QuantileSketchVisitor sketchVisit = new QuantileSketchVisitor(getExpression(), SKETCH_SIZE);
+	    if (progress == null) progress = new NullProgressListener();
+	    try {
+	        featureCollection.accepts(sketchVisit, progress);
+	    } catch (IOException e) {
+	        LOGGER.log(Level.SEVERE, "QuantileFunction calculate(SimpleFeatureCollection) failed" , e);
+	        return null;
+	    }
+	    if (progress.isCanceled()) return null;
+	    CalcResult calcResult = sketchVisit.getResult();
+	    if (calcResult == CalcResult.NULL_RESULT) return null;
+	    QuantileSketchResult sketch = (QuantileSketchResult) calcResult;
+	    Class binding = ((AttributeDescriptor) getExpression().evaluate(
+	            featureCollection.getSchema())).getType().getBinding();
+	    
+	    // lay out the classes as QuantileListVisitor does, the first classes taking one more
+	    // value when the count is not a multiple of the number of classes
+	    long count = sketch.getCount();
+	    int classNum = (int) Math.min(getClasses(), count);
+	    if (classNum <= 0) return null;
+	    long binPop = (count + classNum - 1) / classNum;
+	    long lastBigBin = count % classNum;
+	    if (lastBigBin == 0) lastBigBin = classNum;
+	    else lastBigBin--;
+	    Comparable[] localMin = new Comparable[classNum];
+	    Comparable[] localMax = new Comparable[classNum];
+	    long rank = 0;
+	    for (int i = 0; i < classNum; i++) {
+	        localMin[i] = toBinding(sketch.getValueAtRank(rank), binding);
+	        rank += binPop;
+	        localMax[i] = toBinding(sketch.getValueAtRank(rank - 1), binding);
+	        if (lastBigBin == i) binPop--;
+	    }
+	    return calculateNumerical(localMin, localMax, toBinding(sketch.getMin(), binding),
+	            toBinding(sketch.getMax(), binding));
+	}
+	
+	private Comparable toBinding(double value, Class binding) {
+	    Object converted = Converters.convert(value, binding);
+	    return converted instanceof Comparable ? (Comparable) converted : new Double(value);
+	}
     
-    private Object calculateNumerical(List[] bin, Comparable globalMin, Comparable globalMax) {
-        int classNum = bin.length;
-        //size arrays
-        Comparable[] localMin = new Comparable[classNum];
-        Comparable[] localMax = new Comparable[classNum];
+    private Object calculateNumerical(Comparable[] localMin, Comparable[] localMax,
+            Comparable globalMin, Comparable globalMax) {
+        int classNum = localMin.length;
         //globally consistent
         //double slotWidth = (((Number) globalMax).doubleValue() - ((Number) globalMin).doubleValue()) / classNum;
         for (int i = 0; i < classNum; i++) {
-            //copy the min + max values
-            List thisBin = bin[i];
-            localMin[i] = (Comparable) thisBin.get(0);
-            localMax[i] = (Comparable) thisBin.get(thisBin.size()-1);
             //locally accurate
             double slotWidth = ((Number) localMax[i]).doubleValue() - ((Number) localMin[i]).doubleValue();
             if (slotWidth == 0.0) { //use global value, as there is only 1 value in this set
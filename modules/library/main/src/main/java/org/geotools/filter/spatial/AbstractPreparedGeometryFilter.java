@@ -17,13 +17,13 @@
 package org.geotools.filter.spatial;
 
 import org.geotools.filter.GeometryFilterImpl;
+import org.geotools.geometry.jts.PreparedGeometryCache;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Literal;
 
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 /**
  * A base class for GeometryFilters that will use PreparedGeometries when the Expression
@@ -43,6 +43,11 @@ import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
  * If <strong>BOTH</strong> of the expressions are literals then a cached value is generated by calling {@link #basicEvaluate(Geometry, Geometry)}.   
  * </p>
  * <p>
+ * The literal geometries are prepared through {@link PreparedGeometryCache}, so that equal filters
+ * share them. When neither expression is a literal the geometries are compared directly, without
+ * looking them up in the cache.
+ * </p>
+ * <p>
  * The method {@link #basicEvaluate(Geometry, Geometry)} is required to be implemented so that a cached value can be generated in the case
  * that both expressions are literals
  * </p>
@@ -132,8 +137,6 @@ public abstract class AbstractPreparedGeometryFilter extends GeometryFilterImpl
         }
     }
 
-    private final PreparedGeometryFactory pGeomFac;
-
     /**
      * Indicates which expressions are {@link Literal}s 
      */
@@ -157,7 +160,6 @@ public abstract class AbstractPreparedGeometryFilter extends GeometryFilterImpl
     protected AbstractPreparedGeometryFilter(FilterFactory factory,
             Expression e1, Expression e2) {
         super(factory, e1, e2);
-        pGeomFac = new PreparedGeometryFactory();
         if( e1!=null ) setExpression1(e1);
         if( e2!=null ) setExpression2(e2);
         
@@ -166,7 +168,6 @@ public abstract class AbstractPreparedGeometryFilter extends GeometryFilterImpl
     protected AbstractPreparedGeometryFilter(FilterFactory factory,
             Expression e1, Expression e2, MatchAction matchAction) {
         super(factory, e1, e2, matchAction);
-        pGeomFac = new PreparedGeometryFactory();
         if( e1!=null ) setExpression1(e1);
         if( e2!=null ) setExpression2(e2);
         
@@ -188,14 +189,14 @@ public abstract class AbstractPreparedGeometryFilter extends GeometryFilterImpl
         }
         case LEFT: {
             Geometry left = (Geometry) ((Literal) expression1).getValue();
-            leftPreppedGeom = pGeomFac.create(left);
+            leftPreppedGeom = PreparedGeometryCache.prepare(left);
             rightPreppedGeom = null;
             cacheValue = false;
             break;
         }
         case RIGHT: {
             Geometry right = (Geometry) ((Literal) expression2).getValue();
-            rightPreppedGeom = pGeomFac.create(right);
+            rightPreppedGeom = PreparedGeometryCache.prepare(right);
             leftPreppedGeom = null;
             cacheValue = false;
             break;
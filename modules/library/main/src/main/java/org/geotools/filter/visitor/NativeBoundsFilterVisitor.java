@@ -0,0 +1,89 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter.visitor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.referencing.CRS;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Extracts the area of a filter in the native coordinate reference system of the data, giving
+ * up, with an infinite envelope, on the bounding boxes and geometries in another one. Used to
+ * look up a spatial index, or to tell which cached results a change affects.
+ * <p>
+ * A bounding box whose SRS cannot be decoded, or any reference system when the native one is
+ * unknown, counts as another reference system.
+ *
+ * @source $URL$
+ * @since 8.x
+ */
+public class NativeBoundsFilterVisitor extends ExtractBoundsFilterVisitor {
+
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.filter.visitor");
+
+    private final CoordinateReferenceSystem crs;
+
+    /**
+     * @param crs the native coordinate reference system, or {@code null} if unknown
+     */
+    public NativeBoundsFilterVisitor(CoordinateReferenceSystem crs) {
+        this.crs = crs;
+    }
+
+    @Override
+    public Object visit(BBOX filter, Object data) {
+        String srs = filter.getSRS();
+        if (srs != null && !isNative(srs)) {
+            return infinity();
+        }
+        return super.visit(filter, data);
+    }
+
+    @Override
+    public Object visit(Literal expression, Object data) {
+        Object value = expression.getValue();
+        if (value instanceof Geometry) {
+            Object userData = ((Geometry) value).getUserData();
+            if (userData instanceof CoordinateReferenceSystem
+                    && (crs == null || !CRS.equalsIgnoreMetadata(userData, crs))) {
+                return infinity();
+            }
+        }
+        return super.visit(expression, data);
+    }
+
+    private boolean isNative(String srs) {
+        if (crs == null) {
+            return false;
+        }
+        try {
+            return CRS.equalsIgnoreMetadata(CRS.decode(srs), crs);
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Could not decode " + srs, e);
+            }
+            return false;
+        }
+    }
+}
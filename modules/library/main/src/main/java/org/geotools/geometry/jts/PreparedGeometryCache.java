@@ -0,0 +1,172 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geometry.jts;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * A process wide cache of {@link PreparedGeometry}, so that large geometries used over and over
+ * in spatial predicates, such as the clip areas of many requests, are prepared once.
+ * <p>
+ * Geometries are looked up by content: the same instance is found immediately, while an equal
+ * geometry, as per {@link Geometry#equalsExact(Geometry)}, is found after a comparison of the
+ * coordinates, which is much cheaper than preparing it again. Geometries with less than
+ * {@code org.geotools.preparedGeometry.minPoints} points (64 by default) are cheap to prepare
+ * and not cached. The cache is bounded by the total number of points of the cached geometries,
+ * set by {@code org.geotools.preparedGeometry.maxPoints} (500000 by default), the least
+ * recently used geometries being evicted first.
+ * <p>
+ * The cache is meant for the geometries known to be reused, such as the literals of the spatial
+ * filters, prepared once when the filter is built, and the geometries of {@link PreparedPredicate}
+ * batches. Looking up the geometries evaluated one at a time would cost more than it saves.
+ * <p>
+ * The prepared geometries are shared among threads, which JTS supports since 1.12.
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public final class PreparedGeometryCache {
+
+    static final int MIN_POINTS = Integer.getInteger("org.geotools.preparedGeometry.minPoints",
+            64);
+
+    static final long MAX_POINTS = Long.getLong("org.geotools.preparedGeometry.maxPoints",
+            500000L);
+
+    private static final PreparedGeometryFactory FACTORY = new PreparedGeometryFactory();
+
+    /**
+     * The cached geometries, in access order.
+     */
+    private static final LinkedHashMap<Key, PreparedGeometry> CACHE =
+            new LinkedHashMap<Key, PreparedGeometry>(16, 0.75f, true);
+
+    private static long points;
+
+    private PreparedGeometryCache() {
+    }
+
+    /**
+     * Returns the prepared version of a geometry, from the cache if the same geometry has been
+     * prepared before.
+     *
+     * @param geometry The geometry, not {@code null}.
+     */
+    public static PreparedGeometry prepare(Geometry geometry) {
+        final int size = geometry.getNumPoints();
+        if (size < MIN_POINTS || size > MAX_POINTS) {
+            return FACTORY.create(geometry);
+        }
+        final Key key = new Key(geometry, size);
+        synchronized (CACHE) {
+            PreparedGeometry prepared = CACHE.get(key);
+            if (prepared != null) {
+                return prepared;
+            }
+        }
+        return put(key, FACTORY.create(geometry));
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            points = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cached geometries.
+     */
+    static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    private static PreparedGeometry put(Key key, PreparedGeometry prepared) {
+        synchronized (CACHE) {
+            // another thread may have prepared it meanwhile
+            PreparedGeometry previous = CACHE.get(key);
+            if (previous != null) {
+                return previous;
+            }
+            CACHE.put(key, prepared);
+            points += key.size;
+            for (Iterator<Key> it = CACHE.keySet().iterator(); points > MAX_POINTS
+                    && it.hasNext();) {
+                Key eldest = it.next();
+                if (eldest != key) {
+                    it.remove();
+                    points -= eldest.size;
+                }
+            }
+            return prepared;
+        }
+    }
+
+    /**
+     * Looks up a geometry by content, hashing its type, size and envelope only, so that the
+     * coordinates are compared just for the geometries which are likely equal.
+     */
+    static final class Key {
+        final Geometry geometry;
+
+        final int size;
+
+        final int hash;
+
+        Key(Geometry geometry, int size) {
+            this.geometry = geometry;
+            this.size = size;
+            Envelope envelope = geometry.getEnvelopeInternal();
+            int h = geometry.getClass().hashCode();
+            h = 31 * h + size;
+            h = 31 * h + geometry.getNumGeometries();
+            h = 31 * h + envelope.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (geometry == other.geometry) {
+                return true;
+            }
+            return hash == other.hash && size == other.size
+                    && geometry.getClass() == other.geometry.getClass()
+                    && geometry.equalsExact(other.geometry);
+        }
+    }
+}
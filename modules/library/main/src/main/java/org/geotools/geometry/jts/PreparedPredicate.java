@@ -0,0 +1,194 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geometry.jts;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+
+/**
+ * The spatial predicates of a {@link PreparedGeometry}, evaluated against one or many candidate
+ * geometries.
+ * <p>
+ * The envelopes of the candidates are checked first, so that the candidates which cannot match
+ * are decided without running the predicate. Null candidates never match. For example, to find
+ * the features within a country:
+ *
+ * <pre>
+ * PreparedGeometry country = PreparedGeometryCache.prepare(geometry);
+ * BitSet within = PreparedPredicate.CONTAINS.evaluate(country, candidates);
+ * </pre>
+ *
+ * @source $URL$
+ *
+ * @since 8.x
+ */
+public enum PreparedPredicate {
+    INTERSECTS {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.intersects(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.intersects(candidate);
+        }
+    },
+    DISJOINT {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return true;
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return !prepared.getGeometry().getEnvelopeInternal().intersects(
+                    candidate.getEnvelopeInternal())
+                    || prepared.disjoint(candidate);
+        }
+    },
+    /**
+     * The prepared geometry contains the candidate.
+     */
+    CONTAINS {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.contains(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.contains(candidate);
+        }
+    },
+    /**
+     * The prepared geometry contains the candidate, without touching its boundary.
+     */
+    CONTAINS_PROPERLY {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.contains(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.containsProperly(candidate);
+        }
+    },
+    /**
+     * The prepared geometry covers the candidate.
+     */
+    COVERS {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.contains(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.covers(candidate);
+        }
+    },
+    /**
+     * The prepared geometry is within the candidate.
+     */
+    WITHIN {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return candidate.contains(prepared);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.within(candidate);
+        }
+    },
+    /**
+     * The prepared geometry is covered by the candidate.
+     */
+    COVERED_BY {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return candidate.contains(prepared);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.coveredBy(candidate);
+        }
+    },
+    TOUCHES {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.intersects(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.touches(candidate);
+        }
+    },
+    CROSSES {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.intersects(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.crosses(candidate);
+        }
+    },
+    OVERLAPS {
+        boolean possible(Envelope prepared, Envelope candidate) {
+            return prepared.intersects(candidate);
+        }
+
+        boolean test(PreparedGeometry prepared, Geometry candidate) {
+            return prepared.overlaps(candidate);
+        }
+    };
+
+    /**
+     * Returns {@code false} if the predicate cannot hold for geometries with such envelopes.
+     */
+    abstract boolean possible(Envelope prepared, Envelope candidate);
+
+    abstract boolean test(PreparedGeometry prepared, Geometry candidate);
+
+    /**
+     * Evaluates the predicate between the prepared geometry and a candidate.
+     *
+     * @param prepared The prepared geometry.
+     * @param candidate The candidate geometry, may be {@code null}.
+     */
+    public boolean evaluate(PreparedGeometry prepared, Geometry candidate) {
+        if (candidate == null) {
+            return false;
+        }
+        return possible(prepared.getGeometry().getEnvelopeInternal(),
+                candidate.getEnvelopeInternal())
+                && test(prepared, candidate);
+    }
+
+    /**
+     * Evaluates the predicate between the prepared geometry and each candidate.
+     *
+     * @param prepared The prepared geometry.
+     * @param candidates The candidate geometries, which may contain {@code null}.
+     * @return The indexes of the candidates for which the predicate holds.
+     */
+    public BitSet evaluate(PreparedGeometry prepared, List<? extends Geometry> candidates) {
+        final Envelope envelope = prepared.getGeometry().getEnvelopeInternal();
+        final BitSet result = new BitSet(candidates.size());
+        int i = 0;
+        for (Geometry candidate : candidates) {
+            if (candidate != null && possible(envelope, candidate.getEnvelopeInternal())
+                    && test(prepared, candidate)) {
+                result.set(i);
+            }
+            i++;
+        }
+        return result;
+    }
+}
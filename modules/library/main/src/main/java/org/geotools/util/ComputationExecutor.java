@@ -0,0 +1,158 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pool shared by the computations split in parallel tasks, such as sorting features
+ * or processing the tiles of a raster, so that they do not each create and leak their own
+ * threads.
+ * <p>
+ * The pool has a fixed number of daemon threads, the number of available processors unless set
+ * with the {@code org.geotools.computation.threads} system property, and cannot be shut down.
+ * Tasks should be run with {@link #invokeAll(List)}, which lets the calling thread run the tasks
+ * the pool did not start yet, so that the computations complete even when the pool is busy, or
+ * when they are nested.
+ *
+ * @source $URL$
+ * @since 8.x
+ */
+public final class ComputationExecutor {
+
+    private static final int THREADS = Math.max(1, Integer.getInteger(
+            "org.geotools.computation.threads", Runtime.getRuntime().availableProcessors()));
+
+    private static ExecutorService executor;
+
+    private ComputationExecutor() {
+    }
+
+    /**
+     * Returns the number of threads of the pool, that is, the number of tasks worth splitting a
+     * computation into.
+     */
+    public static int getThreadCount() {
+        return THREADS;
+    }
+
+    /**
+     * Returns the shared executor. Its shutdown methods throw an
+     * {@link UnsupportedOperationException}.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new SharedExecutorService(Executors.newFixedThreadPool(THREADS,
+                    new ThreadFactory() {
+                        final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "GeoTools computation "
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }));
+        }
+        return executor;
+    }
+
+    /**
+     * Runs the tasks on the shared pool and returns their results, in the same order. The
+     * calling thread runs the first task, then any task not started yet by the pool.
+     *
+     * @throws ExecutionException if a task failed, the tasks not started yet being cancelled
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+            throws InterruptedException, ExecutionException {
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<T>(task));
+        }
+        if (futures.size() > 1) {
+            ExecutorService pool = getExecutor();
+            for (int i = 1; i < futures.size(); i++) {
+                pool.execute(futures.get(i));
+            }
+        }
+        boolean done = false;
+        try {
+            // running a task already started, or completed, does nothing
+            for (FutureTask<T> future : futures) {
+                future.run();
+            }
+            List<T> results = new ArrayList<T>(futures.size());
+            for (FutureTask<T> future : futures) {
+                results.add(future.get());
+            }
+            done = true;
+            return results;
+        } finally {
+            if (!done) {
+                for (FutureTask<T> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delegates to the pool, refusing to shut it down
+     */
+    static final class SharedExecutorService extends AbstractExecutorService {
+        final ExecutorService pool;
+
+        SharedExecutorService(ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        public void execute(Runnable command) {
+            pool.execute(command);
+        }
+
+        public void shutdown() {
+            throw new UnsupportedOperationException("The shared executor cannot be shut down");
+        }
+
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException("The shared executor cannot be shut down");
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.identity.FeatureId;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Tests the spatial index of {@link Diff} and its use by {@link DiffFeatureReader}.
+ *
+ * @source $URL$
+ */
+public class DiffFeatureReaderTest extends TestCase {
+
+    private SimpleFeatureType type;
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    private FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    private SimpleFeature[] stored;
+
+    private Diff diff;
+
+    protected void setUp() throws Exception {
+        type = DataUtilities.createType("diff", "name:String,*geom:Geometry");
+        // features 0 to 9 in the store, along the diagonal
+        stored = new SimpleFeature[10];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = feature("s." + i, "stored", i, i);
+        }
+        // 1000 added features, along the diagonal from 100
+        diff = new Diff();
+        for (int i = 0; i < 1000; i++) {
+            diff.add("a." + i, feature("a." + i, "added", 100 + i, 100 + i));
+        }
+    }
+
+    SimpleFeature feature(String fid, String name, double x, double y) {
+        return SimpleFeatureBuilder.build(type,
+                new Object[] { name, gf.createPoint(new Coordinate(x, y)) }, fid);
+    }
+
+    Set<String> read(Filter filter) throws Exception {
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader;
+        reader = new FilteringFeatureReader<SimpleFeatureType, SimpleFeature>(
+                DataUtilities.reader(stored), filter);
+        reader = new DiffFeatureReader<SimpleFeatureType, SimpleFeature>(reader, diff, filter);
+        Set<String> fids = new HashSet<String>();
+        try {
+            while (reader.hasNext()) {
+                assertTrue(fids.add(reader.next().getID()));
+            }
+        } finally {
+            reader.close();
+        }
+        return fids;
+    }
+
+    public void testQueryIndex() {
+        assertEquals(11, diff.queryIndex(new Envelope(100, 110, 100, 110)).size());
+
+        // moved features are found at their new location only
+        diff.modify("a.0", feature("a.0", "moved", -50, -50));
+        List<SimpleFeature> features = diff.queryIndex(new Envelope(-60, -40, -60, -40));
+        assertEquals(1, features.size());
+        assertEquals("moved", features.get(0).getAttribute("name"));
+        assertEquals(10, diff.queryIndex(new Envelope(100, 110, 100, 110)).size());
+
+        // removed features are not found
+        diff.remove("a.1");
+        diff.remove("s.0");
+        assertEquals(9, diff.queryIndex(new Envelope(100, 110, 100, 110)).size());
+
+        // copies keep the index
+        Diff copy = new Diff(diff);
+        assertEquals(9, copy.queryIndex(new Envelope(100, 110, 100, 110)).size());
+        assertEquals(1, copy.queryIndex(new Envelope(-60, -40, -60, -40)).size());
+
+        diff.clear();
+        assertTrue(diff.queryIndex(new Envelope(100, 110, 100, 110)).isEmpty());
+    }
+
+    public void testBBOX() throws Exception {
+        diff.modify("s.3", feature("s.3", "moved", 105.5, 105.5));
+        diff.remove("s.4");
+        diff.remove("a.2");
+        Set<String> fids = read(ff.bbox("geom", 3, 3, 105, 105, null));
+        Set<String> expected = new HashSet<String>();
+        for (int i = 5; i < 10; i++) {
+            expected.add("s." + i);
+        }
+        for (int i = 0; i <= 5; i++) {
+            if (i != 2) {
+                expected.add("a." + i);
+            }
+        }
+        assertEquals(expected, fids);
+    }
+
+    public void testBBOXAndAttribute() throws Exception {
+        diff.modify("s.3", feature("s.3", "added", 103.5, 103.5));
+        diff.modify("a.1", feature("a.1", "modified", 101, 101));
+        Filter filter = ff.and(ff.bbox("geom", 0, 0, 104, 104, null),
+                ff.equals(ff.property("name"), ff.literal("added")));
+        Set<String> expected = new HashSet<String>();
+        expected.add("s.3");
+        expected.add("a.0");
+        expected.add("a.2");
+        expected.add("a.3");
+        expected.add("a.4");
+        assertEquals(expected, read(filter));
+    }
+
+    public void testDisjointBBOXes() throws Exception {
+        // a line crossing both boxes, whose intersection is empty
+        diff.add("a.line", SimpleFeatureBuilder.build(type, new Object[] { "line",
+                gf.createLineString(new Coordinate[] { new Coordinate(0.5, 0.5),
+                        new Coordinate(5.5, 5.5) }) }, "a.line"));
+        Filter filter = ff.and(ff.bbox("geom", 0, 0, 1, 1, null),
+                ff.bbox("geom", 5, 5, 6, 6, null));
+        Set<String> fids = read(filter);
+        assertEquals(1, fids.size());
+        assertTrue(fids.contains("a.line"));
+    }
+
+    public void testFid() throws Exception {
+        diff.modify("s.1", feature("s.1", "modified", 1, 1));
+        Set<FeatureId> ids = new HashSet<FeatureId>();
+        ids.add(ff.featureId("s.1"));
+        ids.add(ff.featureId("a.7"));
+        ids.add(ff.featureId("s.2"));
+        Set<String> fids = read(ff.id(ids));
+        assertEquals(3, fids.size());
+        assertTrue(fids.contains("a.7"));
+    }
+
+    public void testAll() throws Exception {
+        diff.remove("s.0");
+        diff.remove("a.0");
+        assertEquals(9 + 999, read(Filter.INCLUDE).size());
+    }
+}
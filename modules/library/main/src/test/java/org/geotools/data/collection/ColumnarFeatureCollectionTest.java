@@ -0,0 +1,252 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.data.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.FeatureCalc;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.SumVisitor;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Unit tests for {@link ColumnarFeatureCollection}.
+ *
+ * @source $URL$
+ */
+public class ColumnarFeatureCollectionTest {
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    private static final String[] WKT = { "POINT (1 2)", "POINT (1 2 3)",
+            "LINESTRING (0 0, 1 1, 2 0)", "LINEARRING (0 0, 1 1, 1 0, 0 0)",
+            "POLYGON ((0 0, 0 4, 4 4, 4 0, 0 0), (1 1, 1 2, 2 2, 2 1, 1 1))",
+            "MULTIPOINT ((0 0), (1 1))", "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+            "MULTIPOLYGON (((0 0, 0 1, 1 1, 0 0)), ((5 5, 5 6, 6 6, 5 5)))",
+            "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 1 1))", "POINT EMPTY",
+            "POLYGON EMPTY" };
+
+    private SimpleFeatureType type;
+
+    private List<SimpleFeature> features;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.setCRS(DefaultEngineeringCRS.CARTESIAN_2D);
+        tb.add("geom", Geometry.class);
+        tb.add("name", String.class);
+        tb.add("count", Integer.class);
+        tb.add("total", Long.class);
+        tb.add("value", Double.class);
+        tb.add("ratio", Float.class);
+        tb.add("flag", Boolean.class);
+        type = tb.buildFeatureType();
+
+        WKTReader reader = new WKTReader();
+        Random random = new Random(1);
+        features = new ArrayList<SimpleFeature>();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        for (int i = 0; i < 2000; i++) {
+            Geometry geometry;
+            if (i < WKT.length) {
+                geometry = reader.read(WKT[i]);
+            } else if (i % 100 == 0) {
+                geometry = null;
+            } else {
+                double x = random.nextDouble() * 100;
+                double y = random.nextDouble() * 100;
+                geometry = reader.read("LINESTRING (" + x + " " + y + ", " + (x + 1) + " "
+                        + (y + 2) + ")");
+            }
+            fb.add(geometry);
+            fb.add(i % 7 == 0 ? null : "name" + (i % 10));
+            fb.add(i);
+            fb.add((long) i * 1000000000L);
+            fb.add(random.nextDouble());
+            fb.add(random.nextFloat());
+            fb.add(i % 3 == 0 ? null : i % 2 == 0);
+            features.add(fb.buildFeature("test." + (i + 1)));
+        }
+    }
+
+    List<SimpleFeature> read(SimpleFeatureCollection collection) {
+        List<SimpleFeature> result = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator it = collection.features();
+        try {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+        return result;
+    }
+
+    void assertSameFeatures(List<SimpleFeature> expected, List<SimpleFeature> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            SimpleFeature feature = expected.get(i);
+            assertEquals(feature.getID(), actual.get(i).getID());
+            for (int j = 0; j < type.getAttributeCount(); j++) {
+                Object value = feature.getAttribute(j);
+                Object copy = actual.get(i).getAttribute(j);
+                if (value instanceof Geometry) {
+                    assertEquals(value.getClass(), copy.getClass());
+                    assertTrue(feature.getID(), ((Geometry) value).equalsExact((Geometry) copy));
+                } else {
+                    assertEquals(value, copy);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        ColumnarFeatureCollection collection = new ColumnarFeatureCollection(type);
+        collection.addAll(features);
+        assertEquals(features.size(), collection.size());
+        assertSameFeatures(features, read(collection));
+        assertEquals(new ListFeatureCollection(type, features).getBounds(), collection
+                .getBounds());
+
+        collection.clear();
+        assertEquals(0, collection.size());
+        assertTrue(read(collection).isEmpty());
+    }
+
+    @Test
+    public void demoted() throws Exception {
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        Geometry geometry = new WKTReader().read("POINT (3 3)");
+        geometry.setUserData("data");
+        fb.add(geometry);
+        fb.add("other");
+        fb.add(1);
+        fb.add(2L);
+        fb.add(3.0);
+        fb.add(4f);
+        fb.add(true);
+        features.add(fb.buildFeature("other"));
+        // an id with leading zeros
+        features.add(fb.buildFeature("test.007"));
+
+        ColumnarFeatureCollection collection = new ColumnarFeatureCollection(type);
+        collection.addAll(features);
+        List<SimpleFeature> copy = read(collection);
+        assertSameFeatures(features, copy);
+        assertEquals("data", ((Geometry) copy.get(copy.size() - 1).getDefaultGeometry())
+                .getUserData());
+    }
+
+    @Test
+    public void subCollection() {
+        ColumnarFeatureCollection collection = new ColumnarFeatureCollection(type);
+        collection.addAll(features);
+        Filter[] filters = {
+                FF.bbox("geom", 10, 10, 30, 40, null),
+                FF.and(FF.bbox("geom", 0, 0, 50, 50, null), FF.greater(FF.property("count"),
+                        FF.literal(1000))),
+                FF.intersects(FF.property("geom"), FF.literal(features.get(4)
+                        .getDefaultGeometry())),
+                FF.or(FF.bbox("geom", 0, 0, 5, 5, null), FF.bbox("geom", 90, 90, 100, 100,
+                        null)), FF.equals(FF.property("name"), FF.literal("name3")),
+                FF.bbox("geom", 200, 200, 300, 300, null) };
+        for (Filter filter : filters) {
+            List<SimpleFeature> expected = new ArrayList<SimpleFeature>();
+            for (SimpleFeature feature : features) {
+                if (filter.evaluate(feature)) {
+                    expected.add(feature);
+                }
+            }
+            SimpleFeatureCollection sub = collection.subCollection(filter);
+            assertSameFeatures(expected, read(sub));
+            assertEquals(expected.size(), sub.size());
+
+            SimpleFeatureCollection viaSource = new CollectionFeatureSource(collection)
+                    .getFeatures(filter);
+            assertEquals(expected.size(), viaSource.size());
+        }
+        assertTrue(collection.subCollection(FF.bbox("geom", 10, 10, 30, 40, null)).size() > 0);
+    }
+
+    @Test
+    public void visitors() throws Exception {
+        ColumnarFeatureCollection collection = new ColumnarFeatureCollection(type);
+        collection.addAll(features);
+        ListFeatureCollection list = new ListFeatureCollection(type, features);
+
+        assertSameResult(list, collection, new CountVisitor(), new CountVisitor());
+        for (String name : new String[] { "count", "total", "value", "ratio" }) {
+            Expression property = FF.property(name);
+            assertSameResult(list, collection, new SumVisitor(property), new SumVisitor(
+                    property));
+            assertSameResult(list, collection, new MinVisitor(property), new MinVisitor(
+                    property));
+            assertSameResult(list, collection, new MaxVisitor(property), new MaxVisitor(
+                    property));
+        }
+        Expression name = FF.property("name");
+        assertSameResult(list, collection, new MinVisitor(name), new MinVisitor(name));
+        Expression sum = FF.add(FF.property("count"), FF.literal(1));
+        assertSameResult(list, collection, new SumVisitor(sum), new SumVisitor(sum));
+    }
+
+    void assertSameResult(SimpleFeatureCollection expected, SimpleFeatureCollection actual,
+            FeatureCalc expectedVisitor, FeatureCalc actualVisitor) throws Exception {
+        expected.accepts(expectedVisitor, null);
+        actual.accepts(actualVisitor, null);
+        assertEquals(expectedVisitor.getResult().getValue(), actualVisitor.getResult()
+                .getValue());
+    }
+
+    @Test
+    public void ids() {
+        Set<String> ids = new HashSet<String>();
+        ColumnarFeatureCollection collection = new ColumnarFeatureCollection(type);
+        collection.addAll(features.subList(0, 10));
+        for (SimpleFeature feature : read(collection)) {
+            ids.add(feature.getID());
+        }
+        assertEquals(10, ids.size());
+        assertTrue(ids.contains("test.10"));
+    }
+}
@@ -3,6 +3,8 @@ package org.geotools.data.sort;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.NoSuchElementException;
 
@@ -235,6 +237,98 @@ public class SortedReaderTest {
         }
     }
 
+    @Test
+    public void testFileSortKeepsAllFeatures() throws IOException {
+        // 501 features are not a multiple of the block size
+        SimpleFeatureReader sr = null;
+        try {
+            sr = new SortedFeatureReader(fr, peopleAsc, 7);
+            assertEquals(501, assertSortedOnPeopleAscCount(sr));
+        } finally {
+            if (sr != null) {
+                sr.close();
+            }
+        }
+    }
+
+    @Test
+    public void testParallelFileSort() throws IOException {
+        SimpleFeatureReader sr = null;
+        try {
+            sr = new SortedFeatureReader(fr, peopleAsc, 100, 1);
+            assertEquals(501, assertSortedOnPeopleAscCount(sr));
+        } finally {
+            if (sr != null) {
+                sr.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFileSortRoundTrip() throws IOException {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("roundtrip");
+        typeBuilder.add("id", Integer.class);
+        typeBuilder.add("text", String.class);
+        typeBuilder.add("amount", BigDecimal.class);
+        typeBuilder.add("timestamp", java.sql.Timestamp.class);
+        SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+        // longer than what writeUTF can handle
+        char[] chars = new char[70000];
+        Arrays.fill(chars, '\u00e8');
+        String longText = new String(chars);
+        java.sql.Timestamp ts = new java.sql.Timestamp(System.currentTimeMillis());
+        ts.setNanos(123456789);
+
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        DefaultFeatureCollection features = new DefaultFeatureCollection("roundtrip", type);
+        for (int i = 9; i >= 0; i--) {
+            builder.add(i);
+            builder.add(i + longText);
+            builder.add(new BigDecimal("12345678901234567890.123").add(new BigDecimal(i)));
+            builder.add(ts);
+            features.add(builder.buildFeature("rt." + i));
+        }
+
+        SortBy[] idAsc = new SortBy[] { ff.sort("id", SortOrder.ASCENDING) };
+        assertTrue(SortedFeatureReader.canSort(type, idAsc));
+        SimpleFeatureReader sr = null;
+        try {
+            sr = new SortedFeatureReader(new DelegateSimpleFeatureReader(type,
+                    features.features()), idAsc, 3);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(sr.hasNext());
+                SimpleFeature f = sr.next();
+                assertEquals("rt." + i, f.getID());
+                assertEquals(i, f.getAttribute("id"));
+                assertEquals(i + longText, f.getAttribute("text"));
+                assertEquals(new BigDecimal("12345678901234567890.123").add(new BigDecimal(i)),
+                        f.getAttribute("amount"));
+                assertEquals(ts, f.getAttribute("timestamp"));
+            }
+            assertFalse(sr.hasNext());
+        } finally {
+            if (sr != null) {
+                sr.close();
+            }
+        }
+    }
+
+    private int assertSortedOnPeopleAscCount(SimpleFeatureReader fr)
+            throws IllegalArgumentException, NoSuchElementException, IOException {
+        int count = 0;
+        int prev = Integer.MIN_VALUE;
+        while (fr.hasNext()) {
+            SimpleFeature f = fr.next();
+            int curr = (Integer) f.getAttribute("PERSONS");
+            assertTrue(curr >= prev);
+            prev = curr;
+            count++;
+        }
+        return count;
+    }
+
     private void assertSortedOnPeopleAsc(SimpleFeatureReader fr) throws IllegalArgumentException,
             NoSuchElementException, IOException {
         double prev = -1;
@@ -0,0 +1,108 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.feature.simple;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Tests {@link ReusableSimpleFeature}.
+ *
+ * @source $URL$
+ */
+public class ReusableSimpleFeatureTest extends TestCase {
+
+    SimpleFeatureType featureType;
+
+    Object[][] records;
+
+    int record;
+
+    int loads;
+
+    ReusableSimpleFeature feature;
+
+    protected void setUp() throws Exception {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("point", Point.class, (CoordinateReferenceSystem) null);
+        typeBuilder.add("integer", Integer.class);
+        typeBuilder.add("name", String.class);
+        featureType = typeBuilder.buildFeatureType();
+
+        GeometryFactory gf = new GeometryFactory();
+        records = new Object[][] { { gf.createPoint(new Coordinate(0, 0)), "1", "a" },
+                { gf.createPoint(new Coordinate(1, 1)), 2, null } };
+        feature = new ReusableSimpleFeature(featureType) {
+            protected Object load(int index) {
+                loads++;
+                return records[record][index];
+            }
+        };
+    }
+
+    public void testLazy() {
+        record = 0;
+        feature.reset("test.1");
+        assertEquals(0, loads);
+        assertEquals("test.1", feature.getID());
+        // converted to the attribute type
+        assertEquals(Integer.valueOf(1), feature.getAttribute("integer"));
+        assertEquals(Integer.valueOf(1), feature.getAttribute(1));
+        assertEquals(1, loads);
+        assertEquals(0, feature.getBounds().getMinX(), 0d);
+        assertEquals(2, loads);
+
+        feature.getUserData().put("key", "value");
+        record = 1;
+        feature.reset("test.2");
+        assertEquals("test.2", feature.getID());
+        assertEquals("test.2", feature.getIdentifier().getID());
+        assertTrue(feature.getUserData().isEmpty());
+        assertEquals(Arrays.asList(records[1]), feature.getAttributes());
+        assertEquals(5, loads);
+    }
+
+    public void testSetAttribute() {
+        record = 0;
+        feature.reset("test.1");
+        feature.setAttribute("name", "b");
+        assertEquals("b", feature.getAttribute("name"));
+        assertEquals(0, loads);
+    }
+
+    public void testCopy() {
+        record = 0;
+        feature.reset("test.1");
+        SimpleFeature copy = SimpleFeatureBuilder.copy(feature);
+        record = 1;
+        feature.reset("test.2");
+        assertEquals("test.1", copy.getID());
+        assertEquals(Integer.valueOf(1), copy.getAttribute("integer"));
+        assertEquals("a", copy.getAttribute("name"));
+        assertEquals(records[0][0], copy.getDefaultGeometry());
+    }
+}
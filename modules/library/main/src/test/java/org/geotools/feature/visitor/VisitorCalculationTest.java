@@ -18,21 +18,29 @@ package org.geotools.feature.visitor;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.geotools.data.DataTestCase;
 import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.visitor.GroupByVisitor.Aggregate;
+import org.geotools.feature.visitor.GroupByVisitor.AggregateFunction;
 import org.geotools.feature.visitor.MaxVisitor.MaxResult;
 import org.geotools.feature.visitor.MedianVisitor.MedianResult;
 import org.geotools.feature.visitor.MinVisitor.MinResult;
+import org.geotools.feature.visitor.QuantileSketchVisitor.QuantileSketchResult;
 import org.geotools.feature.visitor.UniqueVisitor.UniqueResult;
 import org.geotools.filter.IllegalFilterException;
+import org.geotools.util.DefaultProgressListener;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.FilterFactory;
@@ -416,6 +424,60 @@ public class VisitorCalculationTest extends DataTestCase {
         assertSame(result, result.merge(emptyVisitor.getResult()));
     }
 
+    public void testQuantileSketch() throws Exception {
+        FilterFactory factory = CommonFactoryFinder.getFilterFactory(null);
+        Expression expr = factory.property(ft3.getDescriptor(0).getLocalName());
+        QuantileSketchVisitor visitor = new QuantileSketchVisitor(expr);
+        fc3.accepts(visitor, null);
+        QuantileSketchResult result = (QuantileSketchResult) visitor.getResult();
+        // exact below the sketch size
+        assertEquals(100, result.getCount());
+        assertEquals(50.0, result.getMedian(), 0.0);
+        assertEquals(1.0, result.getQuantile(0), 0.0);
+        assertEquals(100.0, result.getQuantile(1), 0.0);
+        assertEquals(26.0, result.getValueAtRank(25), 0.0);
+        //test empty collection
+        QuantileSketchVisitor emptyVisitor = new QuantileSketchVisitor(expr);
+        empty.accepts(emptyVisitor, null);
+        assertEquals(CalcResult.NULL_RESULT, emptyVisitor.getResult());
+        assertSame(result, result.merge(emptyVisitor.getResult()));
+
+        // approximate beyond, and mergeable
+        QuantileSketchVisitor first = new QuantileSketchVisitor(expr, 100);
+        QuantileSketchVisitor second = new QuantileSketchVisitor(expr, 100);
+        SimpleFeatureType type = DataUtilities.createType("sketch", "value:0");
+        for (int i = 0; i < 100000; i++) {
+            SimpleFeature f = SimpleFeatureBuilder.build(type, new Object[] { i }, null);
+            (i % 2 == 0 ? first : second).visit(f);
+        }
+        result = (QuantileSketchResult) first.getResult().merge(
+                second.getResult());
+        assertEquals(100000, result.getCount());
+        assertEquals(0.0, result.getMin(), 0.0);
+        assertEquals(99999.0, result.getMax(), 0.0);
+        assertEquals(50000, result.getMedian(), 5000);
+        assertEquals(90000, result.getQuantile(0.9), 5000);
+    }
+
+    public void testCardinality() throws Exception {
+        FilterFactory factory = CommonFactoryFinder.getFilterFactory(null);
+        Expression expr = factory.property(ft3.getDescriptor(0).getLocalName());
+        CardinalityVisitor visitor = new CardinalityVisitor(expr);
+        fc3.accepts(visitor, null);
+        assertEquals(100, visitor.getCardinality());
+
+        // a large number of values, with duplicates, split in two parts
+        CardinalityVisitor first = new CardinalityVisitor(expr);
+        CardinalityVisitor second = new CardinalityVisitor(expr);
+        SimpleFeatureType type = DataUtilities.createType("cardinality", "value:0");
+        for (int i = 0; i < 200000; i++) {
+            SimpleFeature f = SimpleFeatureBuilder.build(type, new Object[] { i % 50000 }, null);
+            (i % 3 == 0 ? first : second).visit(f);
+        }
+        long estimate = first.getResult().merge(second.getResult()).toLong();
+        assertEquals(50000, estimate, 50000 * 0.05);
+    }
+
     public void testStandardDeviation() throws Exception {
     	FilterFactory factory = CommonFactoryFinder.getFilterFactory(null);
     	Expression expr = factory.property(ft3.getDescriptor(0).getLocalName());
@@ -475,4 +537,131 @@ public class VisitorCalculationTest extends DataTestCase {
             assertEquals("Parameter is not a compatible type", e.getMessage());
 		}
     }
+
+    public void testGroupBy() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("groups",
+                "region:String,kind:String,value:Integer,weight:Double");
+        Object[][] rows = new Object[][] { { "north", "a", 1, 0.5 }, { "south", "a", 2, 1.5 },
+                { "north", "b", 3, null }, { "north", "a", 4, 2.0 }, { null, "a", 5, 1.0 } };
+        SimpleFeature[] features = new SimpleFeature[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            features[i] = SimpleFeatureBuilder.build(type, rows[i], null);
+        }
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        GroupByVisitor visitor = new GroupByVisitor(ff.property("region"),
+                new Aggregate(AggregateFunction.COUNT, null),
+                new Aggregate(AggregateFunction.SUM, ff.property("value")),
+                new Aggregate(AggregateFunction.MAX, ff.property("value")),
+                new Aggregate(AggregateFunction.AVERAGE, ff.property("weight")));
+        DataUtilities.collection(features).accepts(visitor, null);
+
+        Map<List<Object>, Object[]> groups = visitor.getResult().toMap();
+        assertEquals(3, groups.size());
+        Object[] north = groups.get(Arrays.asList("north"));
+        assertEquals(3L, north[0]);
+        assertEquals(8L, north[1]);
+        assertEquals(4, north[2]);
+        // the null weight is ignored
+        assertEquals(1.25, ((Number) north[3]).doubleValue(), 1e-9);
+        assertEquals(1L, groups.get(Arrays.asList((Object) null))[0]);
+
+        // two keys, and partial results merged from another visitor
+        List<Expression> keys = new ArrayList<Expression>();
+        keys.add(ff.property("region"));
+        keys.add(ff.property("kind"));
+        List<Aggregate> aggregates = Collections.singletonList(
+                new Aggregate(AggregateFunction.SUM, ff.property("weight")));
+        GroupByVisitor first = new GroupByVisitor(keys, aggregates);
+        GroupByVisitor second = new GroupByVisitor(keys, aggregates);
+        for (int i = 0; i < features.length; i++) {
+            (i % 2 == 0 ? first : second).visit(features[i]);
+        }
+        second.addGroupValues(new Object[] { "north", "b" }, new Object[] { 0.25 });
+        groups = first.getResult().merge(second.getResult()).toMap();
+        assertEquals(4, groups.size());
+        assertEquals(2.5, groups.get(Arrays.asList("north", "a"))[0]);
+        assertEquals(0.25, groups.get(Arrays.asList("north", "b"))[0]);
+        assertEquals(1.5, groups.get(Arrays.asList("south", "a"))[0]);
+
+        assertFalse(first.getResult().isCompatible(visitor.getResult()));
+    }
+
+    public void testParallelVisit() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("parallel", "value:Double,kind:String");
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < 10000; i++) {
+            features.add(SimpleFeatureBuilder.build(type,
+                    new Object[] { (double) (i * 7919 % 10007), i % 2 == 0 ? "even" : "odd" },
+                    "parallel." + i));
+        }
+        ListFeatureCollection collection = new ListFeatureCollection(type, features);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        Expression value = ff.property("value");
+
+        CountVisitor count = new CountVisitor();
+        SumVisitor sum = new SumVisitor(value);
+        MinVisitor min = new MinVisitor(value);
+        MaxVisitor max = new MaxVisitor(value);
+        StandardDeviationVisitor stddev = new StandardDeviationVisitor(value);
+        GroupByVisitor groupBy = new GroupByVisitor(ff.property("kind"),
+                new Aggregate(AggregateFunction.SUM, value));
+        MergeableFeatureCalc[] sequential = new MergeableFeatureCalc[] { count, sum, min, max,
+                stddev, groupBy };
+        for (MergeableFeatureCalc visitor : sequential) {
+            collection.accepts(visitor, null);
+        }
+
+        VisitorExecutor.setParallelism(4);
+        try {
+            for (MergeableFeatureCalc visitor : sequential) {
+                MergeableFeatureCalc parallel = visitor.createPartial();
+                collection.accepts(parallel, null);
+                if (visitor == stddev) {
+                    assertEquals(visitor.getResult().toDouble(),
+                            parallel.getResult().toDouble(), 1e-6);
+                } else if (visitor == groupBy) {
+                    Map<List<Object>, Object[]> expected = visitor.getResult().toMap();
+                    Map<List<Object>, Object[]> actual = parallel.getResult().toMap();
+                    assertEquals(expected.keySet(), actual.keySet());
+                    for (List<Object> key : expected.keySet()) {
+                        assertTrue(Arrays.equals(expected.get(key), actual.get(key)));
+                    }
+                } else {
+                    assertEquals(visitor.getResult().getValue(),
+                            parallel.getResult().getValue());
+                }
+            }
+        } finally {
+            VisitorExecutor.setParallelism(1);
+        }
+    }
+
+    public void testParallelVisitProgress() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("parallel", "value:Double");
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < 10000; i++) {
+            features.add(SimpleFeatureBuilder.build(type, new Object[] { (double) i },
+                    "parallel." + i));
+        }
+        ListFeatureCollection collection = new ListFeatureCollection(type, features);
+        final int[] reports = new int[1];
+        DefaultProgressListener progress = new DefaultProgressListener() {
+            public void progress(float percent) {
+                reports[0]++;
+                super.progress(Math.max(percent, getProgress()));
+            }
+        };
+
+        VisitorExecutor.setParallelism(4);
+        try {
+            CountVisitor count = new CountVisitor();
+            collection.accepts(count, progress);
+            assertEquals(10000, count.getCount());
+        } finally {
+            VisitorExecutor.setParallelism(1);
+        }
+        // 4 slices of 2500 features, each reporting after 1000, 2000 and 2500 features
+        assertEquals(12, reports[0]);
+        assertEquals(1f, progress.getProgress(), 1e-6);
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Compares the evaluation time of filters compiled by {@link FilterCompiler} with the one of the
+ * original filters, over the same features. It's not run as part of the tests, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.geotools.filter.FilterCompilerBenchmark [-Dexec.args="features runs"]
+ * </pre>
+ *
+ * Each filter is evaluated over all the features in a number of runs, after as many warm up
+ * runs, alternating the compiled and interpreted filters, and the best time per feature of each
+ * is reported along with the speedup.
+ *
+ * @source $URL$
+ */
+public class FilterCompilerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        SimpleFeatureType type = DataUtilities.createType("benchmark",
+                "name:String,value:Integer,ratio:Double,*geom:Point");
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>(count);
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(42);
+        String[] names = { "alpha", "beta", "gamma", "delta", null };
+        for (int i = 0; i < count; i++) {
+            features.add(SimpleFeatureBuilder.build(type, new Object[] {
+                    names[random.nextInt(names.length)], random.nextInt(1000),
+                    random.nextDouble() * 100,
+                    gf.createPoint(new Coordinate(random.nextDouble() * 100,
+                            random.nextDouble() * 100)) }, "benchmark." + i));
+        }
+
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Expression value = ff.property("value");
+        Expression ratio = ff.property("ratio");
+        Expression name = ff.property("name");
+        Map<String, Filter> filters = new LinkedHashMap<String, Filter>();
+        filters.put("value = 500", ff.equals(value, ff.literal(500)));
+        filters.put("value < '500'", ff.less(value, ff.literal("500")));
+        filters.put("ratio between", ff.between(ratio, ff.literal(10), ff.literal(20)));
+        filters.put("name is null", ff.isNull(name));
+        filters.put("static folding", ff.and(ff.equals(ff.literal(1), ff.literal(1)), ff.less(
+                value, ff.function("strLength", ff.literal("abcdefghij")))));
+        filters.put("like or compare", ff.or(ff.like(name, "*a*"), ff.less(value,
+                ff.literal(100))));
+        filters.put("bbox", ff.bbox("geom", 10, 10, 30, 30, null));
+        filters.put("intersects", ff.intersects(ff.property("geom"), ff.literal(new WKTReader()
+                .read("POLYGON((10 10, 60 20, 40 60, 10 10))"))));
+
+        System.out.println(count + " features, " + runs + " runs");
+        System.out.println(String.format("%-20s %15s %15s %8s", "filter", "interpreted ns",
+                "compiled ns", "speedup"));
+        for (Map.Entry<String, Filter> entry : filters.entrySet()) {
+            Filter filter = entry.getValue();
+            Filter compiled = FilterCompiler.compile(filter, type);
+            long interpretedBest = Long.MAX_VALUE;
+            long compiledBest = Long.MAX_VALUE;
+            int matches = 0;
+            for (int run = 0; run < runs * 2; run++) {
+                boolean warm = run >= runs;
+                long interpretedTime = time(filter, features);
+                long compiledTime = time(compiled, features);
+                if (warm) {
+                    interpretedBest = Math.min(interpretedBest, interpretedTime);
+                    compiledBest = Math.min(compiledBest, compiledTime);
+                }
+            }
+            for (SimpleFeature feature : features) {
+                if (filter.evaluate(feature) != compiled.evaluate(feature)) {
+                    throw new IllegalStateException("Different results for " + entry.getKey());
+                }
+                if (filter.evaluate(feature)) {
+                    matches++;
+                }
+            }
+            System.out.println(String.format("%-20s %15.1f %15.1f %7.2fx (%d matches)", entry
+                    .getKey(), (double) interpretedBest / count, (double) compiledBest / count,
+                    (double) interpretedBest / compiledBest, matches));
+        }
+    }
+
+    static long time(Filter filter, List<SimpleFeature> features) {
+        long start = System.nanoTime();
+        int matches = 0;
+        for (SimpleFeature feature : features) {
+            if (filter.evaluate(feature)) {
+                matches++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // keeps the evaluation from being optimized away
+        if (matches < 0) {
+            throw new IllegalStateException();
+        }
+        return elapsed;
+    }
+}
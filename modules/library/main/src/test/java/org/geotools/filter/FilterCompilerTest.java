@@ -0,0 +1,184 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Tests that the filters compiled by {@link FilterCompiler} return the same results as the
+ * original filters.
+ *
+ * @source $URL$
+ */
+public class FilterCompilerTest extends TestCase {
+
+    private FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    private SimpleFeatureType type;
+
+    private List<Object> features;
+
+    protected void setUp() throws Exception {
+        type = DataUtilities.createType("compiled",
+                "name:String,value:Integer,ratio:Double,code:String,*geom:Geometry");
+        features = new ArrayList<Object>();
+        String[] names = { "alpha", "Beta", "gamma", null, "5", "ALPHA" };
+        Object[] ratios = { 0.0, -0.0, 5.0, 2.5, null, Double.NaN };
+        for (int i = 0; i < 30; i++) {
+            Geometry geom = null;
+            if (i % 7 != 0) {
+                geom = gf.createPoint(new Coordinate(i, i % 10));
+            } else if (i > 0) {
+                geom = gf.createLineString(new Coordinate[] { new Coordinate(i, 0),
+                        new Coordinate(i + 3, 3) });
+            }
+            Integer value = i % 11 == 0 ? null : Integer.valueOf(i - 10);
+            String code = i % 3 == 0 ? "10" : String.valueOf(i);
+            features.add(SimpleFeatureBuilder.build(type, new Object[] { names[i % names.length],
+                    value, ratios[i % ratios.length], code, geom }, "compiled." + i));
+        }
+        // a feature of another type
+        SimpleFeatureType other = DataUtilities.createType("other", "value:Integer,name:String");
+        features.add(SimpleFeatureBuilder.build(other, new Object[] { 5, "alpha" }, "other.1"));
+    }
+
+    List<Filter> filters() throws Exception {
+        List<Filter> filters = new ArrayList<Filter>();
+        Expression value = ff.property("value");
+        Expression ratio = ff.property("ratio");
+        Expression name = ff.property("name");
+        Expression code = ff.property("code");
+        Object[] constants = { 5, 5L, 5.0, 5.5, "5", "abc", (short) 0, -0.0, "10" };
+        for (Expression property : new Expression[] { value, ratio, name, code }) {
+            for (Object constant : constants) {
+                Expression literal = ff.literal(constant);
+                filters.add(ff.equals(property, literal));
+                filters.add(ff.equals(literal, property));
+                filters.add(ff.notEqual(property, literal));
+                filters.add(ff.less(property, literal));
+                filters.add(ff.lessOrEqual(literal, property));
+                filters.add(ff.greater(property, literal));
+                filters.add(ff.greaterOrEqual(property, literal));
+                filters.add(ff.greater(literal, property));
+            }
+        }
+        filters.add(ff.equal(name, ff.literal("alpha"), false));
+        filters.add(ff.notEqual(name, ff.literal("ALPHA"), false));
+        filters.add(ff.isNull(name));
+        filters.add(ff.isNull(value));
+        filters.add(ff.not(ff.isNull(ratio)));
+        filters.add(ff.equals(value, ff.function("strLength", ff.literal("abcde"))));
+        filters.add(ff.greater(ff.function("strLength", name), ff.literal(4)));
+        filters.add(ff.equals(ff.literal(1), ff.literal(1)));
+        filters.add(ff.equals(ff.literal(1), ff.literal(2)));
+        filters.add(ff.and(ff.greater(value, ff.literal(0)), ff.like(name, "*a*")));
+        filters.add(ff.or(ff.like(name, "B*"), ff.less(value, ff.literal(-5))));
+        filters.add(ff.and(ff.equals(ff.literal(1), ff.literal(1)), ff.less(value, ff
+                .literal(3))));
+        filters.add(ff.or(ff.equals(ff.literal(1), ff.literal(2)), ff.not(ff.less(value, ff
+                .literal(3)))));
+        filters.add(ff.between(value, ff.literal(-3), ff.literal(3)));
+
+        filters.add(ff.bbox("geom", 3, 0, 12, 5, null));
+        filters.add(ff.bbox("geom", 15, 2, 30, 30, null));
+        Geometry polygon = new WKTReader().read("POLYGON((0 0, 10 0, 10 4, 0 4, 0 0))");
+        Geometry triangle = new WKTReader().read("POLYGON((5 0, 25 0, 15 9, 5 0))");
+        for (Geometry geometry : new Geometry[] { polygon, triangle }) {
+            Expression literal = ff.literal(geometry);
+            Expression geom = ff.property("geom");
+            filters.add(ff.intersects(geom, literal));
+            filters.add(ff.intersects(literal, geom));
+            filters.add(ff.contains(literal, geom));
+            filters.add(ff.within(geom, literal));
+            filters.add(ff.disjoint(geom, literal));
+            filters.add(ff.touches(geom, literal));
+            filters.add(ff.crosses(geom, literal));
+            filters.add(ff.overlaps(geom, literal));
+            filters.add(ff.equal(geom, literal));
+            filters.add(ff.dwithin(geom, literal, 1, "m"));
+            filters.add(ff.and(ff.intersects(geom, literal), ff.greater(value, ff.literal(0))));
+        }
+        return filters;
+    }
+
+    public void testSameResults() throws Exception {
+        for (Filter filter : filters()) {
+            Filter compiled = FilterCompiler.compile(filter, type);
+            for (Object feature : features) {
+                assertEquals(filter + " on " + feature, filter.evaluate(feature), compiled
+                        .evaluate(feature));
+            }
+        }
+    }
+
+    public void testConstantFolding() {
+        assertSame(Filter.INCLUDE, FilterCompiler.compile(ff.equals(ff.literal(1), ff
+                .literal("1")), type));
+        assertSame(Filter.EXCLUDE, FilterCompiler.compile(ff.and(ff.less(ff.literal(2), ff
+                .literal(1)), ff.equals(ff.property("value"), ff.literal(1))), type));
+        Filter filter = ff.or(ff.equals(ff.literal(1), ff.literal(2)), ff.equals(ff
+                .property("value"), ff.literal(1)));
+        assertTrue(FilterCompiler.compile(filter, type) instanceof FilterCompiler.EqualityFilter);
+    }
+
+    public void testCheapestFirst() throws Exception {
+        Filter spatial = ff.intersects(ff.property("geom"), ff.literal(new WKTReader()
+                .read("POLYGON((5 0, 25 0, 15 9, 5 0))")));
+        Filter like = ff.like(ff.property("name"), "a*");
+        Filter compare = ff.greater(ff.property("value"), ff.literal(0));
+        Filter compiled = FilterCompiler.compile(ff.and(Arrays.asList(spatial, like, compare)),
+                type);
+        Filter[] children = ((FilterCompiler.AndFilter) compiled).children;
+        assertEquals(3, children.length);
+        assertTrue(children[0] instanceof FilterCompiler.OrderingFilter);
+        assertSame(like, ((FilterCompiler.GenericFilter) children[1]).source);
+        assertTrue(children[2] instanceof FilterCompiler.SpatialFilter);
+    }
+
+    public void testUncompiled() {
+        Filter like = ff.like(ff.property("name"), "a*");
+        assertSame(like, FilterCompiler.compile(like, type));
+        Filter unknown = ff.equals(ff.property("missing"), ff.literal(1));
+        assertSame(unknown, FilterCompiler.compile(unknown, type));
+        // the compiled filter is visited as the original one
+        Filter filter = ff.equals(ff.property("value"), ff.literal(1));
+        Filter compiled = FilterCompiler.compile(filter, type);
+        assertNotSame(filter, compiled);
+        assertEquals(filter.toString(), compiled.toString());
+        assertEquals(filter, compiled.accept(new DuplicatingFilterVisitor(), null));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter;
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.opengis.filter.FilterFactory;
+
+/**
+ * Tests that the string matching of {@link LikeMatcher} agrees with the regular expressions.
+ *
+ * @source $URL$
+ */
+public class LikeMatcherTest extends TestCase {
+
+    static final String[] PATTERNS = { "abc", "abc*", "*abc", "*abc*", "*", "**", "", "a.c*",
+            "*a\\*c", "\\\\b*", "*\\?*", "a?c", "*a*c*", "AbC*", "*\u00c9t\u00c9*", "a$^c", "\\",
+            "ab{2}*", "a\\{1,2}c", "*}*" };
+
+    static final String[] VALUES = { "", "abc", "ABC", "abcd", "xabc", "xabcx", "ab", "a.cd",
+            "abbc", "xa*c", "\\bc", "x?y", "aXc", "\u00e9t\u00e9", "x\u00c9t\u00c9x", "a$^c",
+            "ab\nc", "abc\n", "\nabc", "x\u2028abc", "abc\ud834\udd1e", "\ud834\udd1eabc",
+            "abbx", "ab{2}x", "ac", "aac", "x}" };
+
+    public void testKinds() {
+        assertEquals(LikeMatcher.Kind.EXACT, matcher("abc", true).kind);
+        assertEquals(LikeMatcher.Kind.PREFIX, matcher("abc*", true).kind);
+        assertEquals(LikeMatcher.Kind.SUFFIX, matcher("*abc", false).kind);
+        assertEquals(LikeMatcher.Kind.CONTAINS, matcher("**a\\*c*", false).kind);
+        assertEquals("a*c", matcher("**a\\*c*", false).literal);
+        assertEquals(LikeMatcher.Kind.ANY, matcher("*", true).kind);
+        assertEquals(LikeMatcher.Kind.REGEX, matcher("a?c", true).kind);
+        assertEquals(LikeMatcher.Kind.REGEX, matcher("*a*c*", true).kind);
+        // special characters are not escaped properly with other escapes
+        assertEquals(LikeMatcher.Kind.REGEX,
+                LikeMatcher.compile("a.c*", "*", "?", "!", true).kind);
+        assertEquals(LikeMatcher.Kind.PREFIX,
+                LikeMatcher.compile("a!*c*", "*", "?", "!", true).kind);
+    }
+
+    public void testBraces() {
+        // matched as regex quantifiers, never as literals
+        LikeMatcher matcher = matcher("ab{2}*", true);
+        assertEquals(LikeMatcher.Kind.REGEX, matcher.kind);
+        assertTrue(matcher.matches("abbx"));
+        assertFalse(matcher.matches("ab{2}x"));
+        assertEquals(LikeMatcher.Kind.REGEX, matcher("a\\{1,2}c", true).kind);
+        assertEquals(LikeMatcher.Kind.REGEX, matcher("*}*", true).kind);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        assertTrue(ff.like(ff.literal("abbc"), "ab{2}%", "%", "_", "\\").evaluate(null));
+        assertFalse(ff.like(ff.literal("ab{2}c"), "ab{2}%", "%", "_", "\\").evaluate(null));
+    }
+
+    public void testSameAsRegex() {
+        for (String pattern : PATTERNS) {
+            String regex;
+            try {
+                regex = LikeMatcher.toRegex(pattern, "*", "?", "\\");
+            } catch (StringIndexOutOfBoundsException e) {
+                // trailing escape
+                continue;
+            }
+            for (boolean matchCase : new boolean[] { true, false }) {
+                Pattern compiled = matchCase ? Pattern.compile(regex) : Pattern.compile(regex,
+                        Pattern.CASE_INSENSITIVE);
+                LikeMatcher matcher = matcher(pattern, matchCase);
+                for (String value : VALUES) {
+                    assertEquals(pattern + " " + matchCase + " " + value, compiled.matcher(value)
+                            .matches(), matcher.matches(value));
+                }
+            }
+        }
+    }
+
+    public void testShared() {
+        assertSame(LikeMatcher.get("abc*", "*", "?", "\\", true), LikeMatcher.get("abc*", "*",
+                "?", "\\", true));
+        assertNotSame(LikeMatcher.get("abc*", "*", "?", "\\", true), LikeMatcher.get("abc*",
+                "*", "?", "\\", false));
+    }
+
+    public void testFilter() {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        assertTrue(ff.like(ff.literal("Abcd"), "abc%", "%", "_", "\\", false).evaluate(null));
+        assertFalse(ff.like(ff.literal("Abcd"), "abc%", "%", "_", "\\", true).evaluate(null));
+        assertTrue(ff.like(ff.literal("xabcx"), "%abc%", "%", "_", "\\").evaluate(null));
+        assertTrue(ff.like(ff.literal("xabc"), "%a_c", "%", "_", "\\").evaluate(null));
+    }
+
+    LikeMatcher matcher(String pattern, boolean matchCase) {
+        return LikeMatcher.compile(pattern, "*", "?", "\\", matchCase);
+    }
+}
@@ -165,6 +165,35 @@ public class QuantileFunctionTest extends FunctionTestSupport {
     }
     
     
+    /**
+     * Classifies more values than the quantile sketch holds, the class breaks are then
+     * approximate, but the classes still cover all the values.
+     */
+    public void testLargeCollection() throws Exception {
+        SimpleFeatureType dataType = DataUtilities.createType("classification.large", "id:0,value:int");
+        int count = QuantileFunction.SKETCH_SIZE * 10;
+        SimpleFeature[] myfeatures = new SimpleFeature[count];
+        for (int i = 0; i < count; i++) {
+            // shuffle the values a bit
+            int value = (i * 7919) % count;
+            myfeatures[i] = SimpleFeatureBuilder.build(dataType, new Object[] {
+                    new Integer(i), new Integer(value) }, "classification.large" + i);
+        }
+        MemoryDataStore store = new MemoryDataStore();
+        store.createSchema(dataType);
+        store.addFeatures(myfeatures);
+        SimpleFeatureCollection myFeatureCollection = store.getFeatureSource("large").getFeatures();
+
+        org.opengis.filter.expression.Expression function = ff.function("Quantile", ff.property("value"), ff.literal(4));
+        RangedClassifier range = (RangedClassifier) function.evaluate(myFeatureCollection);
+        assertEquals(4, range.getSize());
+        assertTrue(((Number) range.getMin(0)).doubleValue() <= 0);
+        assertTrue(((Number) range.getMax(3)).doubleValue() >= count - 1);
+        for (int i = 1; i < 4; i++) {
+            assertEquals(count * i / 4.0, ((Number) range.getMin(i)).doubleValue(), count * 0.02);
+        }
+    }
+    
     public void testEvaluateWithStrings() throws Exception {
         org.opengis.filter.expression.Expression function = ff.function("Quantile", ff.property("group"), ff.literal(2)  );
         Classifier classifier = (Classifier) function.evaluate( featureCollection );
@@ -0,0 +1,85 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.filter.visitor;
+
+import static org.junit.Assert.*;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.referencing.CRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Tests {@link NativeBoundsFilterVisitor}.
+ *
+ * @source $URL$
+ */
+public class NativeBoundsFilterVisitorTest {
+
+    FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    CoordinateReferenceSystem crs;
+
+    Envelope infinity = new ExtractBoundsFilterVisitor().infinity();
+
+    @Before
+    public void setUp() throws Exception {
+        crs = CRS.decode("EPSG:4326");
+    }
+
+    Envelope bounds(Filter filter, CoordinateReferenceSystem nativeCRS) {
+        return (Envelope) filter.accept(new NativeBoundsFilterVisitor(nativeCRS), null);
+    }
+
+    @Test
+    public void testBbox() {
+        Envelope expected = new Envelope(-10, 10, -10, 10);
+        assertEquals(expected, bounds(ff.bbox("geom", -10, -10, 10, 10, null), crs));
+        assertEquals(expected, bounds(ff.bbox("geom", -10, -10, 10, 10, "EPSG:4326"), crs));
+        assertEquals(infinity, bounds(ff.bbox("geom", -10, -10, 10, 10, "EPSG:3857"), crs));
+        assertEquals(infinity, bounds(ff.bbox("geom", -10, -10, 10, 10, "unknown"), crs));
+        // the native reference system is unknown
+        assertEquals(expected, bounds(ff.bbox("geom", -10, -10, 10, 10, null), null));
+        assertEquals(infinity, bounds(ff.bbox("geom", -10, -10, 10, 10, "EPSG:4326"), null));
+    }
+
+    @Test
+    public void testLiteral() throws Exception {
+        Envelope expected = new Envelope(0, 10, 0, 10);
+        assertEquals(expected, bounds(intersects(null), crs));
+        assertEquals(expected, bounds(intersects(CRS.decode("EPSG:4326")), crs));
+        assertEquals(infinity, bounds(intersects(CRS.decode("EPSG:3857")), crs));
+        // user data other than a reference system is ignored
+        assertEquals(expected, bounds(intersects("data"), crs));
+        assertEquals(infinity, bounds(intersects(crs), null));
+    }
+
+    Filter intersects(Object userData) {
+        Geometry line = new GeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(0, 0), new Coordinate(10, 10) });
+        line.setUserData(userData);
+        return ff.intersects(ff.property("geom"), ff.literal(line));
+    }
+}
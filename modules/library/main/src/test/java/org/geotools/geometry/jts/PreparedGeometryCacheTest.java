@@ -0,0 +1,184 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.geometry.jts;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Tests {@link PreparedGeometryCache} and {@link PreparedPredicate}.
+ *
+ * @source $URL$
+ */
+public class PreparedGeometryCacheTest {
+
+    GeometryFactory gf = new GeometryFactory();
+
+    @Before
+    public void setUp() {
+        PreparedGeometryCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        PreparedGeometryCache.clear();
+    }
+
+    /**
+     * A circle with the specified number of points.
+     */
+    Geometry circle(double x, double y, double radius, int points) {
+        Coordinate[] coordinates = new Coordinate[points + 1];
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            coordinates[i] = new Coordinate(x + radius * Math.cos(angle), y + radius
+                    * Math.sin(angle));
+        }
+        coordinates[points] = coordinates[0];
+        return gf.createPolygon(gf.createLinearRing(coordinates), null);
+    }
+
+    @Test
+    public void testPrepare() {
+        Geometry circle = circle(0, 0, 10, 200);
+        PreparedGeometry prepared = PreparedGeometryCache.prepare(circle);
+        assertSame(prepared, PreparedGeometryCache.prepare(circle));
+        // an equal geometry finds the same prepared geometry
+        assertSame(prepared, PreparedGeometryCache.prepare(circle(0, 0, 10, 200)));
+        assertNotSame(prepared, PreparedGeometryCache.prepare(circle(0, 0, 11, 200)));
+        assertEquals(2, PreparedGeometryCache.size());
+
+        // small geometries are not cached
+        Geometry small = circle(0, 0, 10, 8);
+        assertNotSame(PreparedGeometryCache.prepare(small), PreparedGeometryCache.prepare(small));
+        assertEquals(2, PreparedGeometryCache.size());
+    }
+
+    @Test
+    public void testNonLiteralEvaluation() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("pair", "a:Polygon,b:Polygon");
+        Geometry a = circle(0, 0, 10, 2000);
+        Geometry b = circle(5, 0, 10, 2000);
+        SimpleFeature feature = SimpleFeatureBuilder.build(type, new Object[] { a, b }, "pair.1");
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+        Expression pa = ff.property("a");
+        Expression pb = ff.property("b");
+        Filter[] filters = { ff.intersects(pa, pb), ff.disjoint(pa, pb), ff.contains(pa, pb),
+                ff.within(pa, pb) };
+        Expression[] functions = { ff.function("intersects", pa, pb),
+                ff.function("disjoint", pa, pb), ff.function("contains", pa, pb),
+                ff.function("within", pa, pb) };
+
+        // the geometries are used over and over, but never looked up in the cache
+        for (int i = 0; i < 5; i++) {
+            for (Filter filter : filters) {
+                filter.evaluate(feature);
+            }
+            for (Expression function : functions) {
+                function.evaluate(feature);
+            }
+        }
+        assertEquals(0, PreparedGeometryCache.size());
+        assertTrue(filters[0].evaluate(feature));
+        assertFalse(filters[1].evaluate(feature));
+    }
+
+    @Test
+    public void testEviction() {
+        int count = (int) (PreparedGeometryCache.MAX_POINTS / 10000) + 5;
+        for (int i = 0; i < count; i++) {
+            PreparedGeometryCache.prepare(circle(i, 0, 10, 10000));
+        }
+        assertTrue(PreparedGeometryCache.size() <= PreparedGeometryCache.MAX_POINTS / 10001);
+        // the most recent one is still there
+        Geometry last = circle(count - 1, 0, 10, 10000);
+        assertSame(PreparedGeometryCache.prepare(last), PreparedGeometryCache.prepare(last));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        WKTReader reader = new WKTReader();
+        Geometry square = reader.read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))");
+        PreparedGeometry prepared = PreparedGeometryCache.prepare(square);
+        List<Geometry> candidates = new ArrayList<Geometry>();
+        candidates.add(reader.read("POINT(5 5)"));
+        candidates.add(reader.read("POINT(10 5)"));
+        candidates.add(reader.read("POINT(20 5)"));
+        candidates.add(null);
+        candidates.add(reader.read("LINESTRING(5 5, 15 5)"));
+        candidates.add(reader.read("POLYGON((-1 -1, 11 -1, 11 11, -1 11, -1 -1))"));
+        candidates.add(reader.read("POLYGON EMPTY"));
+
+        for (PreparedPredicate predicate : PreparedPredicate.values()) {
+            BitSet result = predicate.evaluate(prepared, candidates);
+            for (int i = 0; i < candidates.size(); i++) {
+                Geometry candidate = candidates.get(i);
+                boolean expected = candidate != null && expected(predicate, square, candidate);
+                assertEquals(predicate + " " + candidate, expected, result.get(i));
+                assertEquals(expected, predicate.evaluate(prepared, candidate));
+            }
+        }
+    }
+
+    boolean expected(PreparedPredicate predicate, Geometry g1, Geometry g2) {
+        switch (predicate) {
+        case INTERSECTS:
+            return g1.intersects(g2);
+        case DISJOINT:
+            return g1.disjoint(g2);
+        case CONTAINS:
+            return g1.contains(g2);
+        case CONTAINS_PROPERLY:
+            return g1.relate(g2, "T**FF*FF*");
+        case COVERS:
+            return g1.covers(g2);
+        case WITHIN:
+            return g1.within(g2);
+        case COVERED_BY:
+            return g1.coveredBy(g2);
+        case TOUCHES:
+            return g1.touches(g2);
+        case CROSSES:
+            return g1.crosses(g2);
+        case OVERLAPS:
+            return g1.overlaps(g2);
+        default:
+            throw new IllegalArgumentException(predicate.toString());
+        }
+    }
+}
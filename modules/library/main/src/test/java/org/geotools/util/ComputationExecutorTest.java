@@ -0,0 +1,93 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ComputationExecutor}.
+ *
+ * @source $URL$
+ */
+public class ComputationExecutorTest extends TestCase {
+
+    List<Callable<Integer>> tasks(int count, final boolean nested) {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < count; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    if (nested) {
+                        int sum = 0;
+                        for (Integer result : ComputationExecutor.invokeAll(tasks(4, false))) {
+                            sum += result;
+                        }
+                        return value + sum;
+                    }
+                    return value;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    public void testInvokeAll() throws Exception {
+        List<Integer> results = ComputationExecutor.invokeAll(tasks(100, false));
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    public void testNested() throws Exception {
+        // more nested computations than threads, waiting on each other
+        int count = ComputationExecutor.getThreadCount() * 4;
+        List<Integer> results = ComputationExecutor.invokeAll(tasks(count, true));
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i + 6), results.get(i));
+        }
+    }
+
+    public void testFailure() throws Exception {
+        List<Callable<Integer>> tasks = tasks(10, false);
+        tasks.add(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                throw new IllegalStateException("failed");
+            }
+        });
+        try {
+            ComputationExecutor.invokeAll(tasks);
+            fail("The failure should have been reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testNoShutdown() {
+        try {
+            ComputationExecutor.getExecutor().shutdown();
+            fail("The shared executor should not be shut down");
+        } catch (UnsupportedOperationException e) {
+            // fine
+        }
+    }
+}
@@ -589,7 +589,21 @@ public class Hints extends RenderingHints {
      * @since 2.4.1
      */
     public static final Key FEATURE_2D = new Key(Boolean.class);
-    
+
+    /**
+     * Allows the feature readers to return the same feature object over and over, its attributes
+     * being read only when asked for. The features returned are then valid only until the next
+     * call to {@code hasNext()} or {@code next()} on the reader, as readers move their cursor to
+     * the next record as soon as they are asked whether there is one, and should be copied to be
+     * kept. The readers wrapping another one keep to the same rule, they do not look ahead while
+     * returning a feature.
+     * <p>
+     * Meant for the consumers looking at each feature once, such as rendering or aggregation.
+     *
+     * @since 8.x
+     */
+    public static final Key FEATURE_REUSE = new Key(Boolean.class);
+
     /**
      * Key to control the maximum number of features that will be kept in memory
      * when performing a fallback merge-sort (used when the datastore does not have
@@ -0,0 +1,324 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.StyleLayer;
+import org.geotools.renderer.GTRenderer;
+import org.geotools.styling.Style;
+
+/**
+ * Renders a block of NxN tiles (a "metatile") with a single call to the wrapped
+ * {@link GTRenderer} and then slices the result into the single tiles.
+ * <p>
+ * Compared to rendering each tile on its own, the data is queried once for the
+ * whole block, the screen map based decimation is shared, and labels are
+ * resolved across the whole block, avoiding duplicated or truncated labels at
+ * the inner tile edges. The metatile is painted with a gutter around it, by
+ * default estimated with a {@link MetaBufferEstimator} from the styles of the
+ * layers, so that symbols and labels crossing the metatile border are painted
+ * consistently with the adjacent metatiles.
+ * <p>
+ * The tiles returned are views on the metatile image (see
+ * {@link BufferedImage#getSubimage(int, int, int, int)}), callers needing
+ * independent images should copy them.
+ *
+ * @source $URL$
+ */
+public class MetaTileRenderer {
+
+    /** The logger for the rendering module. */
+    private static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.rendering");
+
+    /**
+     * The result of a metatile rendering, holding both the full metatile image
+     * (gutter included) and the tiles sliced out of it
+     */
+    public static class MetaTile {
+        BufferedImage image;
+
+        BufferedImage[][] tiles;
+
+        ReferencedEnvelope[][] envelopes;
+
+        int gutter;
+
+        MetaTile(BufferedImage image, BufferedImage[][] tiles,
+                ReferencedEnvelope[][] envelopes, int gutter) {
+            this.image = image;
+            this.tiles = tiles;
+            this.envelopes = envelopes;
+            this.gutter = gutter;
+        }
+
+        /**
+         * The full metatile image, including the gutter
+         */
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * The gutter size, in pixels, used to paint the metatile
+         */
+        public int getGutter() {
+            return gutter;
+        }
+
+        /**
+         * Number of tile rows in the metatile
+         */
+        public int getRows() {
+            return tiles.length;
+        }
+
+        /**
+         * Number of tile columns in the metatile
+         */
+        public int getColumns() {
+            return tiles[0].length;
+        }
+
+        /**
+         * Returns the tile at the specified position. Row zero is the top
+         * (northern) one, column zero is the leftmost (western) one
+         */
+        public BufferedImage getTile(int row, int column) {
+            return tiles[row][column];
+        }
+
+        /**
+         * Returns the world envelope of the tile at the specified position
+         */
+        public ReferencedEnvelope getTileEnvelope(int row, int column) {
+            return envelopes[row][column];
+        }
+    }
+
+    GTRenderer renderer;
+
+    int tileWidth = 256;
+
+    int tileHeight = 256;
+
+    int metaTileFactor = 4;
+
+    int gutter = -1;
+
+    int imageType = BufferedImage.TYPE_INT_ARGB;
+
+    Color background;
+
+    /**
+     * Builds a new metatile renderer wrapping the specified renderer. The
+     * renderer must be already configured with the map content to be painted
+     *
+     * @param renderer
+     */
+    public MetaTileRenderer(GTRenderer renderer) {
+        if (renderer == null) {
+            throw new NullPointerException("The renderer cannot be null");
+        }
+        this.renderer = renderer;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Sets the size of the single tiles, in pixels
+     *
+     * @param tileWidth
+     * @param tileHeight
+     */
+    public void setTileSize(int tileWidth, int tileHeight) {
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException("Tile width and height must be positive");
+        }
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
+    public int getMetaTileFactor() {
+        return metaTileFactor;
+    }
+
+    /**
+     * Sets the number of tiles rendered along each axis in a single metatile
+     *
+     * @param metaTileFactor
+     */
+    public void setMetaTileFactor(int metaTileFactor) {
+        if (metaTileFactor <= 0) {
+            throw new IllegalArgumentException("The metatile factor must be positive");
+        }
+        this.metaTileFactor = metaTileFactor;
+    }
+
+    public int getGutter() {
+        return gutter;
+    }
+
+    /**
+     * Sets the gutter, in pixels, painted around the metatile. A negative
+     * value (the default) makes the renderer estimate it from the styles in
+     * the map content
+     *
+     * @param gutter
+     */
+    public void setGutter(int gutter) {
+        this.gutter = gutter;
+    }
+
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Sets the {@link BufferedImage} type used for the metatile image
+     *
+     * @param imageType
+     */
+    public void setImageType(int imageType) {
+        this.imageType = imageType;
+    }
+
+    public Color getBackground() {
+        return background;
+    }
+
+    /**
+     * Sets the background color of the metatile, if null the image is left
+     * transparent
+     *
+     * @param background
+     */
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    /**
+     * Renders the metatile covering the specified area. The area must be the
+     * union of the envelopes of the NxN tiles (gutter excluded)
+     *
+     * @param metaTileArea
+     *            the world area covered by the metatile
+     * @return the rendered metatile
+     */
+    public MetaTile render(ReferencedEnvelope metaTileArea) {
+        if (metaTileArea == null) {
+            throw new NullPointerException("The metatile area cannot be null");
+        }
+        final int width = tileWidth * metaTileFactor;
+        final int height = tileHeight * metaTileFactor;
+        final int gutter = getActualGutter();
+
+        // expand the area by the gutter, using the same resolution as the
+        // tiles
+        final double resx = metaTileArea.getWidth() / width;
+        final double resy = metaTileArea.getHeight() / height;
+        ReferencedEnvelope renderingArea = new ReferencedEnvelope(metaTileArea.getMinX()
+                - gutter * resx, metaTileArea.getMaxX() + gutter * resx,
+                metaTileArea.getMinY() - gutter * resy, metaTileArea.getMaxY() + gutter * resy,
+                metaTileArea.getCoordinateReferenceSystem());
+
+        // paint the whole metatile in one shot
+        BufferedImage image = new BufferedImage(width + gutter * 2, height + gutter * 2,
+                imageType);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            if (background != null) {
+                graphics.setColor(background);
+                graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            }
+            renderer.paint(graphics, new Rectangle(image.getWidth(), image.getHeight()),
+                    renderingArea);
+        } finally {
+            graphics.dispose();
+        }
+
+        // slice it into tiles
+        BufferedImage[][] tiles = new BufferedImage[metaTileFactor][metaTileFactor];
+        ReferencedEnvelope[][] envelopes = new ReferencedEnvelope[metaTileFactor][metaTileFactor];
+        final double tileSpanX = tileWidth * resx;
+        final double tileSpanY = tileHeight * resy;
+        for (int row = 0; row < metaTileFactor; row++) {
+            for (int col = 0; col < metaTileFactor; col++) {
+                tiles[row][col] = image.getSubimage(gutter + col * tileWidth, gutter + row
+                        * tileHeight, tileWidth, tileHeight);
+                double minx = metaTileArea.getMinX() + col * tileSpanX;
+                double maxy = metaTileArea.getMaxY() - row * tileSpanY;
+                envelopes[row][col] = new ReferencedEnvelope(minx, minx + tileSpanX, maxy
+                        - tileSpanY, maxy, metaTileArea.getCoordinateReferenceSystem());
+            }
+        }
+
+        return new MetaTile(image, tiles, envelopes, gutter);
+    }
+
+    /**
+     * Returns the gutter to be used, either the user specified one, or one
+     * estimated out of the styles in the map content and the renderer
+     * "renderingBuffer" hint
+     */
+    int getActualGutter() {
+        if (gutter >= 0) {
+            return gutter;
+        }
+
+        int result = 0;
+        Map hints = renderer.getRendererHints();
+        if (hints != null && hints.get("renderingBuffer") instanceof Number) {
+            result = ((Number) hints.get("renderingBuffer")).intValue();
+        }
+
+        MapContent content = renderer.getMapContent();
+        if (content != null) {
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            for (Layer layer : content.layers()) {
+                if (layer instanceof StyleLayer && layer.isVisible()) {
+                    Style style = ((StyleLayer) layer).getStyle();
+                    if (style != null) {
+                        style.accept(estimator);
+                    }
+                }
+            }
+            if (!estimator.isEstimateAccurate()) {
+                LOGGER.fine("The metatile gutter estimate is not accurate, "
+                        + "you may want to set it manually");
+            }
+            result = Math.max(result, estimator.getBuffer());
+        }
+
+        return result;
+    }
+}
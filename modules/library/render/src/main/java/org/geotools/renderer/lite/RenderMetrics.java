@@ -0,0 +1,302 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite;
+
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timings and counters collected by the {@link StreamingRenderer} during a
+ * paint call, reported to the {@link RenderMetricsListener}s. All times are
+ * expressed in nanoseconds.
+ *
+ * @source $URL$
+ */
+public class RenderMetrics {
+
+    /**
+     * The metrics collected for a single layer
+     */
+    public static class LayerMetrics {
+
+        String layerId;
+
+        String title;
+
+        long queryTime;
+
+        long featuresRead;
+
+        long featuresSkipped;
+
+        long geometriesGeneralized;
+
+        long processingTime;
+
+        long rasterReadTime;
+
+        long rasterBytesRead;
+
+        long backBufferBytes;
+
+        long paintRequests;
+
+        long paintingTime;
+
+        LayerMetrics(String layerId, String title) {
+            this.layerId = layerId;
+            this.title = title;
+        }
+
+        /**
+         * Records a feature read, returns the current time
+         */
+        long featureRead(long mark) {
+            final long now = System.nanoTime();
+            queryTime += now - mark;
+            featuresRead++;
+            return now;
+        }
+
+        /**
+         * Records the time spent processing a feature (style evaluation,
+         * transformation and generalization, queuing for painting), returns
+         * the current time
+         */
+        long featureProcessed(long mark) {
+            final long now = System.nanoTime();
+            processingTime += now - mark;
+            return now;
+        }
+
+        /**
+         * The layer identifier, same as the one used in the label cache
+         */
+        public String getLayerId() {
+            return layerId;
+        }
+
+        /**
+         * The layer title, if any
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Time spent querying the data source and reading features from it
+         */
+        public long getQueryTime() {
+            return queryTime;
+        }
+
+        /**
+         * Number of features read from the data source, features are counted
+         * once per scan (multiple feature type styles might require multiple
+         * scans)
+         */
+        public long getFeaturesRead() {
+            return featuresRead;
+        }
+
+        /**
+         * Number of features skipped because the {@link org.geotools.renderer.ScreenMap} pixels
+         * they cover were already painted, each feature being counted once whatever the number
+         * of symbolizers applied to it
+         */
+        public long getFeaturesSkipped() {
+            return featuresSkipped;
+        }
+
+        /**
+         * Number of features whose geometries have been generalized, by the
+         * decimator, by the {@link org.geotools.renderer.ScreenMap}, or both,
+         * each feature being counted once
+         */
+        public long getGeometriesGeneralized() {
+            return geometriesGeneralized;
+        }
+
+        /**
+         * Time spent evaluating rules and styles, transforming and
+         * generalizing geometries
+         */
+        public long getProcessingTime() {
+            return processingTime;
+        }
+
+        /**
+         * Time spent reading rasters from the coverage readers
+         */
+        public long getRasterReadTime() {
+            return rasterReadTime;
+        }
+
+        /**
+         * Size in bytes of the rasters read from the coverage readers, as laid out by their
+         * sample models
+         */
+        public long getRasterBytesRead() {
+            return rasterBytesRead;
+        }
+
+        /**
+         * Size in bytes of the back buffers allocated to paint the feature type styles of the
+         * layer in parallel
+         */
+        public long getBackBufferBytes() {
+            return backBufferBytes;
+        }
+
+        /**
+         * Number of painting requests (shapes, rasters, layer merges) issued
+         */
+        public long getPaintRequests() {
+            return paintRequests;
+        }
+
+        /**
+         * Time spent painting on the target graphics
+         */
+        public long getPaintingTime() {
+            return paintingTime;
+        }
+
+        @Override
+        public String toString() {
+            return "LayerMetrics[layer=" + layerId + ", title=" + title + ", queryTime="
+                    + queryTime + ", featuresRead=" + featuresRead + ", featuresSkipped="
+                    + featuresSkipped + ", geometriesGeneralized=" + geometriesGeneralized
+                    + ", processingTime=" + processingTime + ", rasterReadTime="
+                    + rasterReadTime + ", rasterBytesRead=" + rasterBytesRead
+                    + ", backBufferBytes=" + backBufferBytes + ", paintRequests="
+                    + paintRequests + ", paintingTime=" + paintingTime + "]";
+        }
+    }
+
+    List<LayerMetrics> layers = new ArrayList<LayerMetrics>();
+
+    int width;
+
+    int height;
+
+    long startTime;
+
+    long totalTime;
+
+    long labelingTime;
+
+    RenderMetrics(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.startTime = System.nanoTime();
+    }
+
+    LayerMetrics addLayer(String layerId, String title) {
+        LayerMetrics layer = new LayerMetrics(layerId, title);
+        layers.add(layer);
+        return layer;
+    }
+
+    /**
+     * The metrics of the layers painted, in painting order
+     */
+    public List<LayerMetrics> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * The width of the painted area, in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * The height of the painted area, in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The number of pixels of the painted area
+     */
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    /**
+     * The size in bytes of the rasters read by all the layers
+     */
+    public long getRasterBytesRead() {
+        long bytes = 0;
+        for (LayerMetrics layer : layers) {
+            bytes += layer.rasterBytesRead;
+        }
+        return bytes;
+    }
+
+    /**
+     * The size in bytes of the back buffers allocated by all the layers
+     */
+    public long getBackBufferBytes() {
+        long bytes = 0;
+        for (LayerMetrics layer : layers) {
+            bytes += layer.backBufferBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the size in bytes of the pixels of an image, according to its sample model
+     */
+    static long getSize(RenderedImage image) {
+        if (image == null) {
+            return 0;
+        }
+        SampleModel sm = image.getSampleModel();
+        long bits = 0;
+        for (int size : sm.getSampleSize()) {
+            bits += size;
+        }
+        return (long) image.getWidth() * image.getHeight() * bits / 8;
+    }
+
+    /**
+     * The time spent in the paint call
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * The time spent placing and painting the labels at the end of the paint
+     */
+    public long getLabelingTime() {
+        return labelingTime;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderMetrics[size=" + width + "x" + height + ", totalTime=" + totalTime
+                + ", labelingTime=" + labelingTime + ", layers=" + layers + "]";
+    }
+}
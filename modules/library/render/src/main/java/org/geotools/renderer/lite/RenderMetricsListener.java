@@ -0,0 +1,41 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite;
+
+import org.geotools.renderer.RenderListener;
+
+/**
+ * A {@link RenderListener} that also receives the timings and counters
+ * collected by the {@link StreamingRenderer} during a paint call.
+ * <p>
+ * The metrics are collected only if at least one listener of this type is
+ * registered when the paint starts, otherwise the renderer skips all the
+ * bookkeeping.
+ *
+ * @source $URL$
+ */
+public interface RenderMetricsListener extends RenderListener {
+
+    /**
+     * Called once at the end of a paint call, after the labels have been
+     * painted
+     *
+     * @param metrics
+     *            the metrics collected during the paint
+     */
+    public void renderingCompleted(RenderMetrics metrics);
+}
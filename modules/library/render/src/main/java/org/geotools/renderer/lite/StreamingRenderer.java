@@ -288,6 +288,18 @@ public class StreamingRenderer implements GTRenderer {
 
     private List<RenderListener> renderListeners = new CopyOnWriteArrayList<RenderListener>();
 
+    /**
+     * The metrics collected during the current paint, null if no
+     * {@link RenderMetricsListener} is registered
+     */
+    private RenderMetrics metrics;
+
+    /**
+     * The metrics of the layer currently being processed, null if metrics are
+     * not being collected
+     */
+    private RenderMetrics.LayerMetrics currentLayerMetrics;
+
     private RenderingHints java2dHints;
 
     private int renderingBufferDEFAULT = 0;
@@ -488,6 +500,27 @@ public class StreamingRenderer implements GTRenderer {
         }
     }
 
+    /**
+     * Builds the metrics holder if there is at least one
+     * {@link RenderMetricsListener} registered, returns null otherwise
+     */
+    private RenderMetrics createMetrics(Rectangle paintArea) {
+        for (RenderListener listener : renderListeners) {
+            if (listener instanceof RenderMetricsListener) {
+                return new RenderMetrics(paintArea.width, paintArea.height);
+            }
+        }
+        return null;
+    }
+
+    private void fireRenderingCompletedEvent(RenderMetrics metrics) {
+        for (RenderListener listener : renderListeners) {
+            if (listener instanceof RenderMetricsListener) {
+                ((RenderMetricsListener) listener).renderingCompleted(metrics);
+            }
+        }
+    }
+
     private void fireErrorEvent(Throwable t) {
         LOGGER.log(Level.SEVERE, t.getLocalizedMessage(), t);
         if (renderListeners.size() > 0) {
@@ -728,6 +761,10 @@ public class StreamingRenderer implements GTRenderer {
         // reset the abort flag
         renderingStopRequested = false;
         
+        // collect metrics only if someone is going to look at them
+        metrics = createMetrics(paintArea);
+        currentLayerMetrics = null;
+        
         // setup the graphic clip
         graphics.setClip(paintArea);
 
@@ -809,6 +846,9 @@ public class StreamingRenderer implements GTRenderer {
                     return;
                 }
                 labelCache.startLayer(i+"");
+                if (metrics != null) {
+                    currentLayerMetrics = metrics.addLayer(i + "", layer.getTitle());
+                }
                 
                 if (layer instanceof DirectLayer) {
                     RenderingRequest request = new RenderDirectLayerRequest(
@@ -835,6 +875,7 @@ public class StreamingRenderer implements GTRenderer {
                 labelCache.endLayer(i+"", graphics, screenSize);
             }
         } finally {
+            currentLayerMetrics = null;
             try {
                 if(!renderingStopRequested) {
                     requests.put(new EndRequest());
@@ -851,10 +892,21 @@ public class StreamingRenderer implements GTRenderer {
         }
         
         if(!renderingStopRequested) {
+            long labelStart = metrics != null ? System.nanoTime() : 0;
             labelCache.end(graphics, paintArea);
+            if (metrics != null) {
+                metrics.labelingTime = System.nanoTime() - labelStart;
+            }
         } else {
             labelCache.clear();
         }
+        
+        if (metrics != null) {
+            metrics.totalTime = System.nanoTime() - metrics.startTime;
+            RenderMetrics completed = metrics;
+            metrics = null;
+            fireRenderingCompletedEvent(completed);
+        }
     
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine(new StringBuffer("Style cache hit ratio: ").append(
@@ -2429,8 +2481,11 @@ public class StreamingRenderer implements GTRenderer {
         final LiteFeatureTypeStyle[] fts_array = (LiteFeatureTypeStyle[]) lfts
         .toArray(new LiteFeatureTypeStyle[lfts.size()]);
 
+        final RenderMetrics.LayerMetrics layerMetrics = currentLayerMetrics;
+
         // for each lite feature type style, scan the whole collection and draw
         for (LiteFeatureTypeStyle liteFeatureTypeStyle : fts_array) {
+            long mark = layerMetrics != null ? System.nanoTime() : 0;
             Iterator iterator = null;
             if (collection != null)
                 iterator = collection.iterator();
@@ -2451,10 +2506,16 @@ public class StreamingRenderer implements GTRenderer {
                 while (iterator.hasNext() && !renderingStopRequested) {
                     try {
                         rf.setFeature(iterator.next());
+                        if (layerMetrics != null) {
+                            mark = layerMetrics.featureRead(mark);
+                        }
                         process(rf, liteFeatureTypeStyle, scaleRange, at, destinationCrs, layerId);
                     } catch (Throwable tr) {
                         fireErrorEvent(tr);
                     }
+                    if (layerMetrics != null) {
+                        mark = layerMetrics.featureProcessed(mark);
+                    }
                 }
             } finally {
                 if (collection instanceof FeatureCollection) {
@@ -2475,6 +2536,8 @@ public class StreamingRenderer implements GTRenderer {
     private void drawOptimized(final Graphics2D graphics, MapLayer currLayer, AffineTransform at,
             CoordinateReferenceSystem destinationCrs, String layerId, Collection collection,
             FeatureCollection features, final NumberRange scaleRange, final List lfts) {
+        final RenderMetrics.LayerMetrics layerMetrics = currentLayerMetrics;
+        long mark = layerMetrics != null ? System.nanoTime() : 0;
         Iterator iterator = null;
         if( collection != null ) iterator = collection.iterator();        
         if( features != null ) iterator = features.iterator();
@@ -2495,6 +2558,9 @@ public class StreamingRenderer implements GTRenderer {
             while (iterator.hasNext() && !renderingStopRequested) { 
                 try {
                     rf.setFeature(iterator.next());
+                    if (layerMetrics != null) {
+                        mark = layerMetrics.featureRead(mark);
+                    }
                     // draw the feature on the main graphics and on the eventual extra image buffers
                     for (LiteFeatureTypeStyle liteFeatureTypeStyle : fts_array) {
                         rf.setScreenMap(liteFeatureTypeStyle.screenMap);
@@ -2504,6 +2570,9 @@ public class StreamingRenderer implements GTRenderer {
                 } catch (Throwable tr) {
                     fireErrorEvent(tr);
                 }
+                if (layerMetrics != null) {
+                    mark = layerMetrics.featureProcessed(mark);
+                }
             }
             
             // submit the merge request
@@ -2661,7 +2730,15 @@ public class StreamingRenderer implements GTRenderer {
                         final Object params = paramsPropertyName.evaluate(drawMe.content);
                         GridGeometry2D readGG = new GridGeometry2D(new GridEnvelope2D(screenSize), mapExtent);
                         AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) grid;
+                        final long readStart = currentLayerMetrics != null ? System.nanoTime() : 0;
                         coverage = readCoverage(reader, params, readGG);
+                        if (currentLayerMetrics != null) {
+                            currentLayerMetrics.rasterReadTime += System.nanoTime() - readStart;
+                            if (coverage != null) {
+                                currentLayerMetrics.rasterBytesRead += RenderMetrics
+                                        .getSize(coverage.getRenderedImage());
+                            }
+                        }
                         disposeCoverage = true;
                     }
                 } catch (IllegalArgumentException e) {
@@ -3077,6 +3154,8 @@ public class StreamingRenderer implements GTRenderer {
         private boolean clone;
         private IdentityHashMap decimators = new IdentityHashMap();
         private ScreenMap screenMap;
+        /** Whether the feature has been counted as skipped, or generalized, in the metrics */
+        private boolean skipped, generalized;
 
 
         public RenderableFeature(MapLayer layer, boolean clone) {
@@ -3092,6 +3171,19 @@ public class StreamingRenderer implements GTRenderer {
             this.content = feature;
             geometries.clear();
             shapes.clear();
+            skipped = false;
+            generalized = false;
+        }
+
+        /**
+         * Counts the feature as generalized in the metrics, once whatever the number of
+         * geometries and generalization steps
+         */
+        private void generalized() {
+            if (currentLayerMetrics != null && !generalized) {
+                currentLayerMetrics.geometriesGeneralized++;
+                generalized = true;
+            }
         }
 
         public LiteShape2 getShape(Symbolizer symbolizer, AffineTransform at) throws FactoryException {
@@ -3112,10 +3204,15 @@ public class StreamingRenderer implements GTRenderer {
                     Envelope env = g.getEnvelopeInternal();
                     if(screenMap.canSimplify(env))
                         if (screenMap.checkAndSet(env)) {
+                            if (currentLayerMetrics != null && !skipped) {
+                                currentLayerMetrics.featuresSkipped++;
+                                skipped = true;
+                            }
                             return null;
                         } else {
                             g = screenMap.getSimplifiedShape(env.getMinX(), env.getMinY(), 
                                     env.getMaxX(), env.getMaxY(), g.getFactory(), g.getClass());
+                            generalized();
                         }
                 }
     
@@ -3216,6 +3313,9 @@ public class StreamingRenderer implements GTRenderer {
                 } else {
                     // first generalize and transform the geometry into the rendering CRS
                     Decimator d = getDecimator(sa.xform);
+                    if (d != NULL_DECIMATOR) {
+                        generalized();
+                    }
                     d.decimateTransformGeneralize(geom, sa.crsxform);
                     geom.geometryChanged();
                     // then post process it (provide reverse transform if available)                   
@@ -3237,7 +3337,11 @@ public class StreamingRenderer implements GTRenderer {
                 MathTransform2D xform = null;
                 if(sa != null)
                     xform = sa.xform;
-                shape = new LiteShape2(geom, xform, getDecimator(xform), false, false);
+                Decimator d = getDecimator(xform);
+                if (d != NULL_DECIMATOR) {
+                    generalized();
+                }
+                shape = new LiteShape2(geom, xform, d, false, false);
             }
 
             // cache the result
@@ -3280,6 +3384,12 @@ public class StreamingRenderer implements GTRenderer {
      * @author aaime
      */
     abstract class RenderingRequest {
+        /**
+         * The metrics of the layer that issued the request, if metrics are
+         * being collected
+         */
+        final RenderMetrics.LayerMetrics layerMetrics = currentLayerMetrics;
+
         abstract void execute();
     }
     
@@ -3352,6 +3462,9 @@ public class StreamingRenderer implements GTRenderer {
                     // we may have not found anything to paint, in that case the delegate
                     // has not been initialized
                     if(image != null) {
+                        if (layerMetrics != null) {
+                            layerMetrics.backBufferBytes += RenderMetrics.getSize(image);
+                        }
                         graphics.drawImage(image, 0, 0, null);
                         ftsGraphics.dispose();
                     }
@@ -3506,6 +3619,11 @@ public class StreamingRenderer implements GTRenderer {
                     RenderingRequest request = requests.take();
                     if(request instanceof EndRequest || renderingStopRequested) {
                         done = true;
+                    } else if(request.layerMetrics != null) {
+                        long start = System.nanoTime();
+                        request.execute();
+                        request.layerMetrics.paintingTime += System.nanoTime() - start;
+                        request.layerMetrics.paintRequests++;
                     } else {
                         request.execute();
                     }
@@ -0,0 +1,338 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.referencing.piecewise.PiecewiseTransform1DElement;
+import org.geotools.renderer.i18n.ErrorKeys;
+import org.geotools.renderer.i18n.Errors;
+import org.geotools.util.logging.Logging;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * A compiled, immutable version of a {@link ColorMapTransform} used by the
+ * {@link RasterClassifier} to classify pixels without going through the
+ * domain element search (and its synchronization) for each sample.
+ * <ul>
+ * <li>For byte, unsigned short and short data a full lookup table is built
+ * once, mapping each possible sample value to its output</li>
+ * <li>For {@link LinearColorMap} on int, float and double data the domain
+ * elements are turned into sorted primitive arrays of breakpoints which are
+ * binary searched</li>
+ * </ul>
+ * Being immutable, a lookup can be safely shared by the threads computing the
+ * tiles of the classified image.
+ *
+ * @source $URL$
+ */
+abstract class ColorMapLookup {
+
+    private static final Logger LOGGER = Logging.getLogger(ColorMapLookup.class);
+
+    /**
+     * Builds a compiled lookup for the specified transform and source data
+     * type, or returns null if no compiled version is available for the
+     * combination
+     *
+     * @param pieces
+     *            the color map transform
+     * @param dataType
+     *            the source image data type, as a {@link DataBuffer} constant
+     * @return the compiled lookup, or null
+     */
+    static ColorMapLookup create(ColorMapTransform<?> pieces, int dataType) {
+        try {
+            switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                return new TableLookup(pieces, 0, 256);
+            case DataBuffer.TYPE_USHORT:
+                return new TableLookup(pieces, 0, 65536);
+            case DataBuffer.TYPE_SHORT:
+                return new TableLookup(pieces, Short.MIN_VALUE, 65536);
+            case DataBuffer.TYPE_INT:
+            case DataBuffer.TYPE_FLOAT:
+            case DataBuffer.TYPE_DOUBLE:
+                if (pieces instanceof LinearColorMap) {
+                    return new BreakpointLookup((LinearColorMap) pieces);
+                }
+                return null;
+            default:
+                return null;
+            }
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Could not compile the color map, "
+                        + "falling back on the domain search", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if samples should be read as integers and classified with
+     * {@link #lookup(int)}
+     */
+    abstract boolean isIntegral();
+
+    /**
+     * Classifies an integral sample
+     *
+     * @throws IllegalArgumentException
+     *             if the value is not mapped and there is no default value
+     */
+    abstract double lookup(int sample);
+
+    /**
+     * Classifies a floating point sample
+     *
+     * @throws IllegalArgumentException
+     *             if the value is not mapped and there is no default value
+     */
+    abstract double lookup(double sample);
+
+    static IllegalArgumentException unmappedValue(double value) {
+        return new IllegalArgumentException(Errors.format(ErrorKeys.ILLEGAL_ARGUMENT_$1, Double
+                .toString(value)));
+    }
+
+    /**
+     * A full lookup table for integral data types with a limited range
+     */
+    static final class TableLookup extends ColorMapLookup {
+
+        final int offset;
+
+        final double[] table;
+
+        final boolean[] mapped;
+
+        TableLookup(ColorMapTransform<?> pieces, int offset, int size)
+                throws TransformException {
+            this.offset = offset;
+            this.table = new double[size];
+            this.mapped = new boolean[size];
+
+            final boolean hasDefault = pieces.hasDefaultValue();
+            final double defaultValue = hasDefault ? pieces.getDefaultValue() : Double.NaN;
+            for (int i = 0; i < size; i++) {
+                final double value = i + offset;
+                final PiecewiseTransform1DElement element = (PiecewiseTransform1DElement) pieces
+                        .findDomainElement(value);
+                if (element != null) {
+                    table[i] = element.transform(value);
+                    mapped[i] = true;
+                } else if (hasDefault) {
+                    table[i] = defaultValue;
+                    mapped[i] = true;
+                }
+            }
+        }
+
+        @Override
+        boolean isIntegral() {
+            return true;
+        }
+
+        @Override
+        double lookup(int sample) {
+            final int i = sample - offset;
+            if (i < 0 || i >= table.length || !mapped[i]) {
+                throw unmappedValue(sample);
+            }
+            return table[i];
+        }
+
+        @Override
+        double lookup(double sample) {
+            return lookup((int) sample);
+        }
+    }
+
+    /**
+     * Sorted breakpoints for a {@link LinearColorMap}, reproducing its search
+     * order: pre-filtering elements first, then the standard ones
+     */
+    static final class BreakpointLookup extends ColorMapLookup {
+
+        /** The pre-filtering (usually no data) elements, scanned linearly */
+        final Breakpoints preFiltering;
+
+        /** Standard elements whose minimum is NaN, matched by raw bits */
+        final Breakpoints nanElements;
+
+        /** Standard elements, sorted by minimum */
+        final Breakpoints standard;
+
+        final boolean hasDefault;
+
+        final double defaultValue;
+
+        BreakpointLookup(LinearColorMap colorMap) {
+            final LinearColorMapElement[] standardElements = colorMap.getDomainElements();
+            final List<LinearColorMapElement> preFilteringElements = new ArrayList<LinearColorMapElement>();
+            for (int i = standardElements.length; i < colorMap.size(); i++) {
+                preFilteringElements.add(colorMap.get(i));
+            }
+            final List<LinearColorMapElement> nans = new ArrayList<LinearColorMapElement>();
+            final List<LinearColorMapElement> sorted = new ArrayList<LinearColorMapElement>();
+            for (LinearColorMapElement element : standardElements) {
+                if (Double.isNaN(element.getInputMinimum())) {
+                    nans.add(element);
+                } else {
+                    sorted.add(element);
+                }
+            }
+
+            this.preFiltering = new Breakpoints(preFilteringElements, false);
+            this.nanElements = new Breakpoints(nans, false);
+            this.standard = new Breakpoints(sorted, true);
+            this.hasDefault = colorMap.hasDefaultValue();
+            this.defaultValue = hasDefault ? colorMap.getDefaultValue() : Double.NaN;
+        }
+
+        @Override
+        boolean isIntegral() {
+            return false;
+        }
+
+        @Override
+        double lookup(int sample) {
+            return lookup((double) sample);
+        }
+
+        @Override
+        double lookup(double sample) {
+            int i = preFiltering.scan(sample);
+            if (i >= 0) {
+                return preFiltering.transform(i, sample);
+            }
+            i = standard.search(sample);
+            if (i >= 0) {
+                return standard.transform(i, sample);
+            }
+            i = nanElements.scan(sample);
+            if (i >= 0) {
+                return nanElements.transform(i, sample);
+            }
+            if (hasDefault) {
+                return defaultValue;
+            }
+            throw unmappedValue(sample);
+        }
+    }
+
+    /**
+     * The domain ranges and linear transforms of a list of color map elements,
+     * stored in primitive arrays
+     */
+    static final class Breakpoints {
+
+        final double[] minimums;
+
+        final double[] maximums;
+
+        final double[] scales;
+
+        final double[] offsets;
+
+        Breakpoints(List<LinearColorMapElement> elements, boolean sort) {
+            LinearColorMapElement[] array = (LinearColorMapElement[]) elements
+                    .toArray(new LinearColorMapElement[elements.size()]);
+            if (sort) {
+                Arrays.sort(array, new Comparator<LinearColorMapElement>() {
+
+                    public int compare(LinearColorMapElement e1, LinearColorMapElement e2) {
+                        return Double.compare(e1.getInputMinimum(), e2.getInputMinimum());
+                    }
+                });
+            }
+            final int length = array.length;
+            minimums = new double[length];
+            maximums = new double[length];
+            scales = new double[length];
+            offsets = new double[length];
+            for (int i = 0; i < length; i++) {
+                minimums[i] = array[i].getInputMinimum();
+                maximums[i] = array[i].getInputMaximum();
+                scales[i] = array[i].getScale();
+                offsets[i] = array[i].getOffset();
+            }
+        }
+
+        /**
+         * Same containment check as the domain elements
+         */
+        boolean contains(int i, double value) {
+            return (value <= maximums[i] && value >= minimums[i])
+                    || (Double.doubleToRawLongBits(value) == Double
+                            .doubleToRawLongBits(minimums[i]));
+        }
+
+        /**
+         * Linear scan, returns the index of the first element containing the
+         * value, or -1
+         */
+        int scan(double value) {
+            for (int i = 0; i < minimums.length; i++) {
+                if (contains(i, value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Binary search over the sorted minimums, returns the index of the
+         * element containing the value, or -1
+         */
+        int search(double value) {
+            if (minimums.length == 0 || Double.isNaN(value)) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(minimums, value);
+            if (i >= 0) {
+                // caught a minimum exactly
+                if (contains(i, value)) {
+                    return i;
+                }
+            } else {
+                // insertion point, the candidate is the element before it
+                i = -i - 1;
+            }
+            if (i > 0 && contains(i - 1, value)) {
+                return i - 1;
+            }
+            return -1;
+        }
+
+        double transform(int i, double value) {
+            // constant elements might be matched by NaN or infinite values
+            final double scale = scales[i];
+            if (scale == 0) {
+                return offsets[i];
+            }
+            return value * scale + offsets[i];
+        }
+    }
+}
@@ -73,6 +73,12 @@ public class RasterClassifier extends PointOpImage {
 	 */
 	private int bandIndex;
 
+	/**
+	 * The compiled version of the pieces for the source data type, if
+	 * available
+	 */
+	private final ColorMapLookup lookup;
+
 	/**
 	 * Constructs a new {@code RasterClassifier}.
 	 * 
@@ -91,6 +97,8 @@ public class RasterClassifier extends PointOpImage {
 				.get(JAI.KEY_IMAGE_LAYOUT), lic), hints, false);
 		this.pieces = lic;
 		this.bandIndex = bandIndex;
+		this.lookup = ColorMapLookup.create(lic, image.getSampleModel()
+				.getDataType());
 		permitInPlaceOperation();
 	}
 
@@ -170,6 +178,17 @@ public class RasterClassifier extends PointOpImage {
 				iterator.nextBand();
 		}
 
+		// ////////////////////////////////////////////////////////////////////
+		//
+		// Use the compiled lookup if we have one, it does not need to search
+		// the pieces for each sample
+		//
+		// ////////////////////////////////////////////////////////////////////
+		if (lookup != null) {
+			computeRect(iterator, lookup);
+			return;
+		}
+
 		// ////////////////////////////////////////////////////////////////////
 		//
 		// Check if we can make good use of a no data category for filling gaps
@@ -270,6 +289,37 @@ public class RasterClassifier extends PointOpImage {
 		} while (iterator.finishedBands());
 	}
 
+	/**
+	 * Classifies the current band of the iterator using a compiled lookup
+	 * 
+	 * @param iterator
+	 *            the iterator, already positioned on the band to classify
+	 * @param lookup
+	 *            the compiled lookup
+	 */
+	private void computeRect(final WritableRectIter iterator,
+			final ColorMapLookup lookup) {
+		final boolean integral = lookup.isIntegral();
+		try {
+			iterator.startLines();
+			if (!iterator.finishedLines())
+				do {
+					iterator.startPixels();
+					if (!iterator.finishedPixels())
+						do {
+							if (integral)
+								iterator.setSample(lookup.lookup(iterator
+										.getSample()));
+							else
+								iterator.setSample(lookup.lookup(iterator
+										.getSampleDouble()));
+						} while (!iterator.nextPixelDone());
+				} while (!iterator.nextLineDone());
+		} catch (Throwable cause) {
+			throw new ImagingException(cause.getLocalizedMessage(), cause);
+		}
+	}
+
 	// ///////////////////////////////////////////////////////////////////////////////
 	// ////// ////////
 	// ////// REGISTRATION OF "SampleTranscode" IMAGE OPERATION ////////
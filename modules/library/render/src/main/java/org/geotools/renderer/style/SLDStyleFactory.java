@@ -33,7 +33,11 @@ import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,6 +48,7 @@ import javax.swing.Icon;
 import javax.swing.ImageIcon;
 
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.FilterAttributeExtractor;
 import org.geotools.styling.ExternalGraphic;
 import org.geotools.styling.Fill;
 import org.geotools.styling.Font;
@@ -61,6 +66,7 @@ import org.geotools.styling.StyleFactoryFinder;
 import org.geotools.styling.Symbolizer;
 import org.geotools.styling.TextSymbolizer;
 import org.geotools.styling.TextSymbolizer2;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
 import org.geotools.util.Range;
 import org.geotools.util.SoftValueHashMap;
 import org.opengis.feature.Feature;
@@ -166,6 +172,20 @@ public class SLDStyleFactory {
 	/** Symbolizers that do not depend on attributes */
 	Map staticSymbolizers = new SoftValueHashMap();
 
+	/**
+	 * Default maximum number of styles cached for data driven symbolizers
+	 */
+	public static final int DEFAULT_EVALUATED_STYLE_CACHE_SIZE = 1000;
+
+	/**
+	 * Styles built out of data driven symbolizers, keyed by symbolizer and
+	 * evaluated style expressions, the least recently used being dropped
+	 * beyond the cache size
+	 */
+	Map evaluatedStyles = Collections.synchronizedMap(new EvaluatedStyleCache());
+
+	private int evaluatedStyleCacheSize = DEFAULT_EVALUATED_STYLE_CACHE_SIZE;
+
 	/**
 	 * Build a default rendering hint to avoid NPE
 	 */
@@ -253,6 +273,35 @@ public class SLDStyleFactory {
 		this.vectorRenderingEnabled = vectorRenderingEnabled;
 	}
 
+	/**
+	 * Returns the maximum number of styles cached for data driven symbolizers
+	 */
+	public int getEvaluatedStyleCacheSize() {
+		return evaluatedStyleCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of styles cached for data driven symbolizers.
+	 * Symbolizers whose expressions depend on feature attributes (e.g.,
+	 * thematic maps using Recode, Categorize or Interpolate) have their
+	 * Style2D cached by the values their expressions evaluate to, so that each
+	 * class is built only once, however many attribute values fall in it. Use
+	 * 0 to disable the cache.
+	 * 
+	 * @param evaluatedStyleCacheSize
+	 *            the maximum number of cached styles
+	 */
+	public void setEvaluatedStyleCacheSize(int evaluatedStyleCacheSize) {
+		if (evaluatedStyleCacheSize < 0) {
+			throw new IllegalArgumentException(
+					"The evaluated style cache size must be positive or zero");
+		}
+		this.evaluatedStyleCacheSize = evaluatedStyleCacheSize;
+		evaluatedStyles.clear();
+		// force re-evaluation of the dynamic symbolizers
+		dynamicSymbolizers.clear();
+	}
+
 	public double getHitRatio() {
 		return (double) hits / (double) requests;
 	}
@@ -298,37 +347,122 @@ public class SLDStyleFactory {
 
 		if (style != null) {
 			hits++;
-		} else {
-			style = createStyleInternal(drawMe, symbolizer, scaleRange);
+			return style;
+		}
 
-			// for some legitimate cases some styles cannot be turned into a
-			// valid Style2D
-			// e.g., point symbolizer that contains no graphic that can be used
-			// due to network issues
-			if (style == null) {
-				return null;
+		// for data driven symbolizers we might have already built a style for
+		// the same evaluated expressions
+		Object dynamic = dynamicSymbolizers.get(key);
+		EvaluatedSymbolizerKey evaluatedKey = null;
+		if (dynamic instanceof Expression[]) {
+			evaluatedKey = buildEvaluatedKey(key, (Expression[]) dynamic,
+					drawMe);
+			if (evaluatedKey != null) {
+				style = (Style2D) evaluatedStyles.get(evaluatedKey);
+				if (style != null) {
+					hits++;
+					return style;
+				}
 			}
+		}
 
-			// if known dynamic symbolizer return the style
-			if (dynamicSymbolizers.containsKey(key)) {
-				return style;
-			} else {
-				// lets see if it's static or dynamic
-				StyleAttributeExtractorTruncated sae = new StyleAttributeExtractorTruncated();
-				sae.visit(symbolizer);
-
-				Set nameSet = sae.getAttributeNameSet();
-				boolean noAttributes = (nameSet == null) || (nameSet.size() == 0);
-				if (noAttributes && !sae.isUsingVolatileFunctions()) {
-					staticSymbolizers.put(key, style);
+		style = createStyleInternal(drawMe, symbolizer, scaleRange);
+
+		// for some legitimate cases some styles cannot be turned into a
+		// valid Style2D
+		// e.g., point symbolizer that contains no graphic that can be used
+		// due to network issues
+		if (style == null) {
+			return null;
+		}
+
+		if (dynamic == null) {
+			// lets see if it's static or dynamic
+			StyleAttributeExtractorTruncated sae = new StyleAttributeExtractorTruncated();
+			sae.visit(symbolizer);
+
+			Set nameSet = sae.getAttributeNameSet();
+			boolean noAttributes = (nameSet == null) || (nameSet.size() == 0);
+			if (noAttributes && !sae.isUsingVolatileFunctions()) {
+				staticSymbolizers.put(key, style);
+			} else if (isEvaluatedStyleCacheable(symbolizer, sae)) {
+				Expression[] expressions = getDynamicExpressions(symbolizer,
+						nameSet);
+				if (expressions != null) {
+					dynamicSymbolizers.put(key, expressions);
+					evaluatedKey = buildEvaluatedKey(key, expressions, drawMe);
 				} else {
 					dynamicSymbolizers.put(key, Boolean.TRUE);
 				}
+			} else {
+				dynamicSymbolizers.put(key, Boolean.TRUE);
 			}
 		}
+
+		if (evaluatedKey != null) {
+			evaluatedStyles.put(evaluatedKey, style);
+		}
 		return style;
 	}
 
+	/**
+	 * Returns true if the style built out of the symbolizer only depends on the
+	 * values of the attributes it references, in that case it can be cached
+	 * using the evaluated style expressions as part of the key.
+	 * Text symbolizers are excluded since the label is part of the
+	 * {@link TextStyle2D}.
+	 */
+	private boolean isEvaluatedStyleCacheable(Symbolizer symbolizer,
+			StyleAttributeExtractorTruncated sae) {
+		return evaluatedStyleCacheSize > 0
+				&& !(symbolizer instanceof TextSymbolizer)
+				&& !sae.isUsingVolatileFunctions()
+				&& !sae.isUsingDynamincProperties()
+				&& !sae.getPropertyNameSet().isEmpty();
+	}
+
+	/**
+	 * Returns the expressions of the symbolizer that depend on feature
+	 * attributes, the geometry one excluded, or null if some of the attributes
+	 * are used elsewhere, in which case the expressions do not determine the
+	 * style
+	 */
+	private Expression[] getDynamicExpressions(Symbolizer symbolizer,
+			Set attributes) {
+		DynamicExpressionCollector collector = new DynamicExpressionCollector(
+				symbolizer);
+		symbolizer.accept(collector);
+		if (collector.expressions.isEmpty()
+				|| !collector.attributes.containsAll(attributes)) {
+			return null;
+		}
+		return (Expression[]) collector.expressions
+				.toArray(new Expression[collector.expressions.size()]);
+	}
+
+	/**
+	 * Evaluates the style expressions of a data driven symbolizer against the
+	 * feature and builds the key for the evaluated style cache. Categorize or
+	 * Interpolate over a continuous attribute thus give one key per class,
+	 * not one per feature. Returns null if the values are not suitable as a
+	 * cache key (e.g., geometries, which would make every feature unique)
+	 */
+	private EvaluatedSymbolizerKey buildEvaluatedKey(SymbolizerKey key,
+			Expression[] expressions, Object feature) {
+		if (feature == null) {
+			return null;
+		}
+		Object[] values = new Object[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			Object value = expressions[i].evaluate(feature);
+			if (value instanceof Geometry) {
+				return null;
+			}
+			values[i] = value;
+		}
+		return new EvaluatedSymbolizerKey(key, values);
+	}
+
 	/**
 	 * Really creates the symbolizer
 	 * 
@@ -1402,6 +1536,90 @@ public class SLDStyleFactory {
 		this.mapScaleDenominator = mapScaleDenominator;
 	}
 
+	/**
+	 * A size bounded LRU cache for the evaluated styles
+	 */
+	class EvaluatedStyleCache extends LinkedHashMap {
+		private static final long serialVersionUID = -2916186213418484543L;
+
+		public EvaluatedStyleCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > evaluatedStyleCacheSize;
+		}
+	}
+
+	/**
+	 * Collects the expressions of a symbolizer depending on feature
+	 * attributes, the geometry one excluded, and the names of all the
+	 * attributes they use. Function arguments are not collected on their own,
+	 * the function using them is.
+	 */
+	static class DynamicExpressionCollector extends DuplicatingStyleVisitor {
+		List<Expression> expressions = new ArrayList<Expression>();
+
+		Set<String> attributes = new HashSet<String>();
+
+		private Expression geometry;
+
+		DynamicExpressionCollector(Symbolizer symbolizer) {
+			this.geometry = symbolizer.getGeometry();
+		}
+
+		@Override
+		protected Expression copy(Expression expression) {
+			if (expression != null && !(expression instanceof Literal)) {
+				FilterAttributeExtractor extractor = new FilterAttributeExtractor();
+				expression.accept(extractor, null);
+				Set<String> names = extractor.getAttributeNameSet();
+				attributes.addAll(names);
+				if (!names.isEmpty() && expression != geometry) {
+					expressions.add(expression);
+				}
+			}
+			return super.copy(expression);
+		}
+	}
+
+	/**
+	 * Key for styles built out of data driven symbolizers, made of the
+	 * symbolizer key and the values of the style expressions of the symbolizer
+	 */
+	static class EvaluatedSymbolizerKey {
+		private SymbolizerKey symbolizerKey;
+		private Object[] values;
+
+		public EvaluatedSymbolizerKey(SymbolizerKey symbolizerKey,
+				Object[] values) {
+			this.symbolizerKey = symbolizerKey;
+			this.values = values;
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EvaluatedSymbolizerKey)) {
+				return false;
+			}
+
+			EvaluatedSymbolizerKey other = (EvaluatedSymbolizerKey) obj;
+
+			return other.symbolizerKey.equals(symbolizerKey)
+					&& Arrays.equals(other.values, values);
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		public int hashCode() {
+			return symbolizerKey.hashCode() * 37 + Arrays.hashCode(values);
+		}
+	}
+
 	/**
 	 * Simple key used to cache Style2D objects based on the originating
 	 * symbolizer and scale range. Will compare symbolizers by identity,
@@ -0,0 +1,145 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.property.PropertyDataStore;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.lite.MetaTileRenderer.MetaTile;
+import org.geotools.styling.Style;
+import org.geotools.test.TestData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class MetaTileRendererTest {
+
+    SimpleFeatureSource polyfs;
+
+    ReferencedEnvelope metaTileBounds;
+
+    StreamingRenderer renderer;
+
+    @Before
+    public void setUp() throws Exception {
+        File property = new File(TestData.getResource(this, "tilerect.properties").toURI());
+        PropertyDataStore ds = new PropertyDataStore(property.getParentFile());
+        polyfs = ds.getFeatureSource("tilerect");
+        metaTileBounds = new ReferencedEnvelope(0, 20, -10, 10, polyfs.getBounds()
+                .getCoordinateReferenceSystem());
+
+        Style style = RendererBaseTest.loadStyle(this, "fillSolid.sld");
+        MapContent mc = new MapContent();
+        mc.addLayer(new FeatureLayer(polyfs, style));
+
+        renderer = new StreamingRenderer();
+        renderer.setMapContent(mc);
+    }
+
+    @Test
+    public void testSlicing() throws Exception {
+        MetaTileRenderer mtr = new MetaTileRenderer(renderer);
+        mtr.setTileSize(100, 100);
+        mtr.setMetaTileFactor(2);
+        mtr.setGutter(10);
+        mtr.setBackground(Color.WHITE);
+
+        MetaTile metaTile = mtr.render(metaTileBounds);
+        assertEquals(10, metaTile.getGutter());
+        assertEquals(220, metaTile.getImage().getWidth());
+        assertEquals(220, metaTile.getImage().getHeight());
+        assertEquals(2, metaTile.getRows());
+        assertEquals(2, metaTile.getColumns());
+
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 2; col++) {
+                BufferedImage tile = metaTile.getTile(row, col);
+                assertEquals(100, tile.getWidth());
+                assertEquals(100, tile.getHeight());
+                // the tile is a view on the metatile
+                assertEquals(metaTile.getImage().getRGB(10 + col * 100 + 50,
+                        10 + row * 100 + 50), tile.getRGB(50, 50));
+            }
+        }
+
+        // row zero is the northern one
+        ReferencedEnvelope upperLeft = metaTile.getTileEnvelope(0, 0);
+        assertEquals(0, upperLeft.getMinX(), 1e-9);
+        assertEquals(10, upperLeft.getMaxX(), 1e-9);
+        assertEquals(0, upperLeft.getMinY(), 1e-9);
+        assertEquals(10, upperLeft.getMaxY(), 1e-9);
+        ReferencedEnvelope lowerRight = metaTile.getTileEnvelope(1, 1);
+        assertEquals(10, lowerRight.getMinX(), 1e-9);
+        assertEquals(20, lowerRight.getMaxX(), 1e-9);
+        assertEquals(-10, lowerRight.getMinY(), 1e-9);
+        assertEquals(0, lowerRight.getMaxY(), 1e-9);
+    }
+
+    @Test
+    public void testSameAsSingleTile() throws Exception {
+        MetaTileRenderer mtr = new MetaTileRenderer(renderer);
+        mtr.setTileSize(100, 100);
+        mtr.setMetaTileFactor(2);
+        mtr.setGutter(0);
+        mtr.setImageType(BufferedImage.TYPE_INT_RGB);
+        mtr.setBackground(Color.WHITE);
+        MetaTile metaTile = mtr.render(metaTileBounds);
+
+        MetaTileRenderer single = new MetaTileRenderer(renderer);
+        single.setTileSize(100, 100);
+        single.setMetaTileFactor(1);
+        single.setGutter(0);
+        single.setImageType(BufferedImage.TYPE_INT_RGB);
+        single.setBackground(Color.WHITE);
+        BufferedImage tile = single.render(metaTile.getTileEnvelope(0, 0)).getTile(0, 0);
+
+        BufferedImage sliced = metaTile.getTile(0, 0);
+        for (int y = 5; y < 100; y += 10) {
+            for (int x = 5; x < 100; x += 10) {
+                assertEquals(tile.getRGB(x, y), sliced.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testEstimatedGutter() throws Exception {
+        MetaTileRenderer mtr = new MetaTileRenderer(renderer);
+        assertTrue(mtr.getActualGutter() >= 0);
+
+        Map<Object, Object> hints = new HashMap<Object, Object>();
+        hints.put("renderingBuffer", 50);
+        renderer.setRendererHints(hints);
+        assertEquals(50, mtr.getActualGutter());
+
+        mtr.setGutter(5);
+        assertEquals(5, mtr.getActualGutter());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.geotools.data.property.PropertyDataStore;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.MapContent;
+import org.geotools.styling.Style;
+import org.geotools.test.TestData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ *
+ * @source $URL$
+ */
+public class RenderMetricsTest {
+
+    SimpleFeatureSource polyfs;
+
+    StreamingRenderer renderer;
+
+    ReferencedEnvelope bounds;
+
+    static class MetricsCollector extends CountingRenderListener implements
+            RenderMetricsListener {
+        RenderMetrics metrics;
+
+        public void renderingCompleted(RenderMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File property = new File(TestData.getResource(this, "tilerect.properties").toURI());
+        PropertyDataStore ds = new PropertyDataStore(property.getParentFile());
+        polyfs = ds.getFeatureSource("tilerect");
+        bounds = polyfs.getBounds();
+
+        Style style = RendererBaseTest.loadStyle(this, "fillSolid.sld");
+        MapContent mc = new MapContent();
+        mc.addLayer(new FeatureLayer(polyfs, style));
+        renderer = new StreamingRenderer();
+        renderer.setMapContent(mc);
+    }
+
+    void paint() {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            renderer.paint(graphics, new Rectangle(200, 100), bounds);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    @Test
+    public void testMetricsCollected() throws Exception {
+        MetricsCollector collector = new MetricsCollector();
+        renderer.addRenderListener(collector);
+        paint();
+
+        RenderMetrics metrics = collector.metrics;
+        assertNotNull(metrics);
+        assertEquals(200 * 100, metrics.getPixels());
+        assertTrue(metrics.getTotalTime() > 0);
+        assertEquals(1, metrics.getLayers().size());
+
+        RenderMetrics.LayerMetrics layer = metrics.getLayers().get(0);
+        assertEquals("0", layer.getLayerId());
+        assertEquals(polyfs.getFeatures().size(), layer.getFeaturesRead());
+        assertTrue(layer.getQueryTime() > 0);
+        assertTrue(layer.getPaintRequests() > 0);
+        assertTrue(layer.getPaintingTime() > 0);
+        // counted once per feature, whatever the symbolizers and generalization steps
+        assertTrue(layer.getFeaturesSkipped() <= layer.getFeaturesRead());
+        assertTrue(layer.getGeometriesGeneralized() <= layer.getFeaturesRead());
+        // a single vector feature type style, no raster read nor back buffer
+        assertEquals(0, metrics.getRasterBytesRead());
+        assertEquals(0, metrics.getBackBufferBytes());
+    }
+
+    @Test
+    public void testImageSize() throws Exception {
+        assertEquals(200 * 100 * 4, RenderMetrics.getSize(new BufferedImage(200, 100,
+                BufferedImage.TYPE_4BYTE_ABGR)));
+        assertEquals(200 * 100 * 2, RenderMetrics.getSize(new BufferedImage(200, 100,
+                BufferedImage.TYPE_USHORT_GRAY)));
+        assertEquals(0, RenderMetrics.getSize(null));
+    }
+
+    @Test
+    public void testNoMetricsWithPlainListener() throws Exception {
+        CountingRenderListener listener = new CountingRenderListener();
+        renderer.addRenderListener(listener);
+        paint();
+        assertTrue(listener.features > 0);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.renderer.lite.gridcoverage2d;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.DataBuffer;
+
+import org.geotools.referencing.piecewise.PiecewiseTransform1DElement;
+import org.geotools.util.NumberRange;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the compiled color map lookups give the same results as the domain
+ * search they replace
+ *
+ * @source $URL$
+ */
+public class ColorMapLookupTest {
+
+    LinearColorMap colorMap;
+
+    @Before
+    public void setUp() {
+        final LinearColorMapElement c0 = LinearColorMapElement.create("c0", Color.BLACK,
+                NumberRange.create(Double.NEGATIVE_INFINITY, false, 10, true), 0);
+        final LinearColorMapElement c1 = LinearColorMapElement.create("c1", Color.blue,
+                NumberRange.create(10.0, false, 100.0, true), 1);
+        final LinearColorMapElement c2 = LinearColorMapElement.create("c2", new Color[] {
+                Color.green, Color.red }, NumberRange.create(100.0, false, 200, true),
+                NumberRange.create(2, 200));
+        final LinearColorMapElement c3 = LinearColorMapElement.create("c3", Color.red, 220.0,
+                201);
+        final LinearColorMapElement nodata = LinearColorMapElement.create("nodata", new Color(0,
+                0, 0, 0), NumberRange.create(Double.NaN, Double.NaN), 250);
+
+        colorMap = new LinearColorMap("", new LinearColorMapElement[] { c0, c1, c2, c3 },
+                new LinearColorMapElement[] { nodata });
+    }
+
+    /**
+     * Checks the lookup against the domain search
+     */
+    void assertClassification(ColorMapLookup lookup, double value) throws Exception {
+        PiecewiseTransform1DElement element = (PiecewiseTransform1DElement) colorMap
+                .findDomainElement(value);
+        if (element != null) {
+            assertEquals(element.transform(value), lookup.lookup(value), 0d);
+        } else if (colorMap.hasDefaultValue()) {
+            assertEquals(colorMap.getDefaultValue(), lookup.lookup(value), 0d);
+        } else {
+            try {
+                lookup.lookup(value);
+                fail("Value " + value + " should not have been mapped");
+            } catch (IllegalArgumentException e) {
+                // fine
+            }
+        }
+    }
+
+    @Test
+    public void testByteTable() throws Exception {
+        ColorMapLookup lookup = ColorMapLookup.create(colorMap, DataBuffer.TYPE_BYTE);
+        assertTrue(lookup instanceof ColorMapLookup.TableLookup);
+        assertTrue(lookup.isIntegral());
+        for (int i = 0; i < 256; i++) {
+            assertClassification(lookup, i);
+        }
+    }
+
+    @Test
+    public void testShortTable() throws Exception {
+        ColorMapLookup lookup = ColorMapLookup.create(colorMap, DataBuffer.TYPE_SHORT);
+        assertTrue(lookup instanceof ColorMapLookup.TableLookup);
+        for (int i = Short.MIN_VALUE; i <= Short.MAX_VALUE; i += 7) {
+            assertClassification(lookup, i);
+        }
+    }
+
+    @Test
+    public void testFloatBreakpoints() throws Exception {
+        ColorMapLookup lookup = ColorMapLookup.create(colorMap, DataBuffer.TYPE_FLOAT);
+        assertTrue(lookup instanceof ColorMapLookup.BreakpointLookup);
+        assertFalse(lookup.isIntegral());
+        for (double v = -50; v < 300; v += 0.25) {
+            assertClassification(lookup, v);
+        }
+        // the breakpoints themselves
+        double[] values = new double[] { 10, 100, 200, 220, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY };
+        for (double v : values) {
+            assertClassification(lookup, v);
+        }
+        // no data
+        assertEquals(250, lookup.lookup(Double.NaN), 0d);
+    }
+}
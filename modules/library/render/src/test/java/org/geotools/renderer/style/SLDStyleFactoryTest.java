@@ -180,6 +180,75 @@ public class SLDStyleFactoryTest extends TestCase {
         assertTrue(pi.isDone());
     }
     
+    public void testEvaluatedStyleCache() throws Exception {
+        PolygonSymbolizer symb = sf.createPolygonSymbolizer();
+        Fill fill = sf.createFill(ff.function("Recode", ff.property("symb"),
+                ff.literal("0xF054"), ff.literal("#FF0000"), ff.literal("0xF055"),
+                ff.literal("#0000FF")));
+        symb.setFill(fill);
+
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(featureType);
+        fb.set("geom", new GeometryFactory().createPoint(new Coordinate(1, 1)));
+        fb.set("symb", "0xF054");
+        fb.set("icon", "another.png");
+        SimpleFeature sameClass = fb.buildFeature(null);
+        fb.set("symb", "0xF055");
+        SimpleFeature otherClass = fb.buildFeature(null);
+
+        PolygonStyle2D ps1 = (PolygonStyle2D) sld.createStyle(feature, symb, range);
+        assertEquals(Color.RED, ps1.getFill());
+        SymbolizerKey key = new SymbolizerKey(symb, range);
+        assertTrue(sld.dynamicSymbolizers.containsKey(key));
+
+        // same attribute values, the style is reused
+        PolygonStyle2D ps2 = (PolygonStyle2D) sld.createStyle(sameClass, symb, range);
+        assertSame(ps1, ps2);
+
+        // different values, a new style is built
+        PolygonStyle2D ps3 = (PolygonStyle2D) sld.createStyle(otherClass, symb, range);
+        assertNotSame(ps1, ps3);
+        assertEquals(Color.BLUE, ps3.getFill());
+        assertSame(ps3, sld.createStyle(otherClass, symb, range));
+        assertEquals(2, sld.evaluatedStyles.size());
+
+        // the least recently used styles are dropped
+        sld.setEvaluatedStyleCacheSize(1);
+        ps1 = (PolygonStyle2D) sld.createStyle(feature, symb, range);
+        ps3 = (PolygonStyle2D) sld.createStyle(otherClass, symb, range);
+        assertEquals(1, sld.evaluatedStyles.size());
+        assertSame(ps3, sld.createStyle(otherClass, symb, range));
+        assertNotSame(ps1, sld.createStyle(feature, symb, range));
+
+        // disable the cache
+        sld.setEvaluatedStyleCacheSize(0);
+        ps1 = (PolygonStyle2D) sld.createStyle(feature, symb, range);
+        ps2 = (PolygonStyle2D) sld.createStyle(sameClass, symb, range);
+        assertNotSame(ps1, ps2);
+        assertEquals(0, sld.evaluatedStyles.size());
+    }
+
+    public void testEvaluatedStyleCacheClasses() throws Exception {
+        // classes of a continuous value, each one holding many attribute values
+        PolygonSymbolizer symb = sf.createPolygonSymbolizer();
+        symb.setFill(sf.createFill(ff.function("Categorize", ff.function("strLength", ff
+                .property("icon")), ff.literal("#FF0000"), ff.literal(10), ff
+                .literal("#0000FF"))));
+
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(featureType);
+        fb.set("geom", new GeometryFactory().createPoint(new Coordinate(1, 1)));
+        fb.set("icon", "third.png");
+        SimpleFeature sameClass = fb.buildFeature(null);
+        fb.set("icon", "another.png");
+        SimpleFeature otherClass = fb.buildFeature(null);
+
+        PolygonStyle2D ps1 = (PolygonStyle2D) sld.createStyle(feature, symb, range);
+        assertEquals(Color.RED, ps1.getFill());
+        assertSame(ps1, sld.createStyle(sameClass, symb, range));
+        PolygonStyle2D ps2 = (PolygonStyle2D) sld.createStyle(otherClass, symb, range);
+        assertEquals(Color.BLUE, ps2.getFill());
+        assertEquals(2, sld.evaluatedStyles.size());
+    }
+
     public void testCreateDynamicExternalGraphics() throws Exception {
         URL url = StreamingRenderer.class.getResource("test-data/");
         PointSymbolizer symb = sf.createPointSymbolizer();
@@ -24,7 +24,8 @@ import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
-import java.awt.image.SampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.File;
 import java.io.FileInputStream;
@@ -34,9 +35,12 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
@@ -44,6 +48,7 @@ import java.util.zip.GZIPInputStream;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.FileCacheImageInputStream;
 import javax.imageio.stream.ImageInputStream;
@@ -70,6 +75,7 @@ import org.geotools.image.io.ImageIOExt;
 import org.geotools.resources.i18n.Vocabulary;
 import org.geotools.resources.i18n.VocabularyKeys;
 import org.geotools.resources.image.ImageUtilities;
+import org.geotools.referencing.CRS;
 import org.geotools.util.NumberRange;
 import org.opengis.coverage.ColorInterpretation;
 import org.opengis.coverage.grid.Format;
@@ -81,6 +87,7 @@ import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValue;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -90,6 +97,15 @@ import com.vividsolutions.jts.io.InStream;
 /**
  * This class can read an arc grid data source (ArcGrid or GRASS ASCII) and
  * create a {@link GridCoverage2D} from the data.
+ * <p>
+ * Uncompressed grid files are read in streaming mode, unless disabled with the
+ * {@code org.geotools.arcgrid.streaming} system property: only the rows and
+ * columns of the requested area are parsed, as the image tiles get computed,
+ * seeking to the rows through an index built on the first read (see
+ * {@link AsciiGridRowIndex}, which can be saved beside the grid in a
+ * {@code .rowidx} file). The images keep the grid file open until fully read,
+ * or until the reader is disposed. In this mode a request not intersecting the
+ * grid returns {@code null}.
  * 
  * @author Daniele Romagnoli, GeoSolutions
  * @author Simone Giannecchini, GeoSolutions
@@ -109,6 +125,23 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 	/** No data value for this dataset. */
 	private double inNoData = Double.NaN;
 
+	/**
+	 * Whether uncompressed grid files are read with the streaming reader, true by
+	 * default, can be disabled with the "org.geotools.arcgrid.streaming" system property.
+	 */
+	static final boolean STREAMING = Boolean.valueOf(System.getProperty(
+			"org.geotools.arcgrid.streaming", "true"));
+
+	/** Data type of the raster, as returned by the imageio-ext reader */
+	private int dataType = DataBuffer.TYPE_DOUBLE;
+
+	/** Row index of the grid file, built on the first streaming read */
+	private AsciiGridRowIndex rowIndex;
+
+	/** The streaming images created by this reader, whose file is released on dispose */
+	private final Set<AsciiGridImage> images = Collections.synchronizedSet(Collections
+			.newSetFromMap(new WeakHashMap<AsciiGridImage, Boolean>()));
+
 	/**
 	 * Creates a new instance of an ArcGridReader basing the decision on whether
 	 * the file is compressed or not. I assume nothing about file extension.
@@ -198,6 +231,9 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 			//
 			// /////////////////////////////////////////////////////////////////////
 			getResolutionInfo(reader);
+			final ImageTypeSpecifier rawType = reader.getRawImageType(0);
+			if (rawType != null && rawType.getSampleModel().getDataType() == DataBuffer.TYPE_FLOAT)
+				dataType = DataBuffer.TYPE_FLOAT;
 
 			// release the stream if we can.
 			finalStreamPreparation();
@@ -391,7 +427,8 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 	 *            an array of {@link GeneralParameterValue} containing the
 	 *            parameters to control this read process.
 	 * 
-	 * @return a {@link GridCoverage2D}.
+	 * @return a {@link GridCoverage2D}, or {@code null} if the grid is read in
+	 *         streaming mode and the requested envelope does not intersect it.
 	 * 
 	 * @see AbstractGridFormat
 	 * @see ArcGridFormat
@@ -436,6 +473,9 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 	private GridCoverage2D createCoverage(GeneralEnvelope requestedEnvelope,
 			Rectangle requestedDim, OverviewPolicy overviewPolicy) throws IOException {
 
+		if (isStreamable())
+			return createStreamingCoverage(requestedEnvelope, requestedDim, overviewPolicy);
+
 		if (!closeMe) {
 
 			inStream.reset();
@@ -510,6 +550,142 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 		pbjImageRead.add(readerSPI.createReaderInstance());
 		final RenderedOp asciiCoverage = JAI.create("ImageRead", pbjImageRead,hints);
 
+		return buildCoverage(asciiCoverage, originalEnvelope);
+	}
+
+	/**
+	 * Returns true if the source can be read by the streaming reader, that is,
+	 * it is an uncompressed file.
+	 */
+	private boolean isStreamable() {
+		return STREAMING && source instanceof File && !gzipped;
+	}
+
+	/**
+	 * Creates the coverage reading only the part of the grid file intersecting
+	 * the requested envelope, a strip of rows at a time, as the image tiles get
+	 * computed.
+	 * 
+	 * @param requestedEnvelope
+	 * @param requestedDim
+	 * @param overviewPolicy
+	 * @return a {@link GridCoverage2D}, or null if the requested envelope does
+	 *         not intersect the grid
+	 * @throws IOException
+	 */
+	private GridCoverage2D createStreamingCoverage(GeneralEnvelope requestedEnvelope,
+			Rectangle requestedDim, OverviewPolicy overviewPolicy) throws IOException {
+		final ImageReadParam readP = new ImageReadParam();
+		final Rectangle region;
+		try {
+			setReadParams(overviewPolicy, readP, requestedEnvelope, requestedDim);
+			region = getSourceRegion(requestedEnvelope);
+		} catch (IOException e) {
+			if (LOGGER.isLoggable(Level.SEVERE))
+				LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+			return null;
+		} catch (TransformException e) {
+			if (LOGGER.isLoggable(Level.SEVERE))
+				LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+			return null;
+		}
+		if (region.isEmpty())
+			return null;
+
+		final AsciiGridImage image = new AsciiGridImage((File) source, getRowIndex(),
+				dataType, region, readP.getSourceXSubsampling(),
+				readP.getSourceYSubsampling(), hints);
+		images.add(image);
+
+		// the envelope of the region being read
+		final double cellX = originalEnvelope.getSpan(0) / originalGridRange.getSpan(0);
+		final double cellY = originalEnvelope.getSpan(1) / originalGridRange.getSpan(1);
+		final double minX = originalEnvelope.getMinimum(0);
+		final double maxY = originalEnvelope.getMaximum(1);
+		final GeneralEnvelope envelope = new GeneralEnvelope(
+				new double[] { minX + region.x * cellX, maxY - (region.y + region.height) * cellY },
+				new double[] { minX + (region.x + region.width) * cellX, maxY - region.y * cellY });
+		envelope.setCoordinateReferenceSystem(crs);
+		return buildCoverage(image, envelope);
+	}
+
+	/**
+	 * Computes the region of the grid covered by the requested envelope
+	 * 
+	 * @param requestedEnvelope
+	 * @return
+	 * @throws TransformException
+	 * @throws DataSourceException
+	 */
+	private Rectangle getSourceRegion(GeneralEnvelope requestedEnvelope)
+			throws TransformException, DataSourceException {
+		final Rectangle grid = new Rectangle(0, 0, originalGridRange.getSpan(0),
+				originalGridRange.getSpan(1));
+		if (requestedEnvelope == null)
+			return grid;
+
+		GeneralEnvelope envelope = requestedEnvelope;
+		final CoordinateReferenceSystem requestedCRS = envelope.getCoordinateReferenceSystem();
+		if (requestedCRS != null && !CRS.equalsIgnoreMetadata(requestedCRS, crs)) {
+			try {
+				final MathTransform transform = CRS.findMathTransform(requestedCRS, crs, true);
+				if (!transform.isIdentity())
+					envelope = CRS.transform(transform, envelope);
+			} catch (FactoryException e) {
+				throw new DataSourceException(e);
+			}
+		}
+
+		// tolerance to avoid picking an extra row or column on exact matches
+		final double eps = 1e-6;
+		final double cellX = originalEnvelope.getSpan(0) / grid.width;
+		final double cellY = originalEnvelope.getSpan(1) / grid.height;
+		final int x0 = (int) Math.floor((envelope.getMinimum(0) - originalEnvelope.getMinimum(0)) / cellX + eps);
+		final int x1 = (int) Math.ceil((envelope.getMaximum(0) - originalEnvelope.getMinimum(0)) / cellX - eps);
+		final int y0 = (int) Math.floor((originalEnvelope.getMaximum(1) - envelope.getMaximum(1)) / cellY + eps);
+		final int y1 = (int) Math.ceil((originalEnvelope.getMaximum(1) - envelope.getMinimum(1)) / cellY - eps);
+		return grid.intersection(new Rectangle(x0, y0, x1 - x0, y1 - y0));
+	}
+
+	/**
+	 * Disposes the reader, closing the grid file of the images it created. The
+	 * coverages already read keep working, opening the file again if needed.
+	 */
+	@Override
+	public void dispose() {
+		super.dispose();
+		final AsciiGridImage[] created;
+		synchronized (images) {
+			created = images.toArray(new AsciiGridImage[images.size()]);
+			images.clear();
+		}
+		for (AsciiGridImage image : created) {
+			image.releaseFile();
+		}
+	}
+
+	/**
+	 * Returns the row index of the grid file, building it if needed
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized AsciiGridRowIndex getRowIndex() throws IOException {
+		if (rowIndex == null)
+			rowIndex = AsciiGridRowIndex.getIndex((File) source,
+					originalGridRange.getSpan(0), originalGridRange.getSpan(1));
+		return rowIndex;
+	}
+
+	/**
+	 * Wraps the image into a coverage, along with the no data category.
+	 * 
+	 * @param image
+	 * @param envelope
+	 * @return
+	 * @throws IOException
+	 */
+	private GridCoverage2D buildCoverage(RenderedImage image, GeneralEnvelope envelope) throws IOException {
 		// //
 		//
 		// Creating the coverage
@@ -545,8 +721,7 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 			//
 			// Sample dimension
 			//
-		        final SampleModel sm = asciiCoverage.getSampleModel();
-		        final ColorModel cm = asciiCoverage.getColorModel();
+		        final ColorModel cm = image.getColorModel();
 	                final ColorInterpretation colorInterpretation=TypeMap.getColorInterpretation(cm, 0);
 	                if(colorInterpretation==null)
 	                       throw new IOException("Unrecognized sample dimension type");
@@ -561,8 +736,8 @@ public final class ArcGridReader extends AbstractGridCoverage2DReader implements
 			//
 			return coverageFactory.create(
 			        coverageName, 
-			        asciiCoverage,
-			        originalEnvelope, 
+			        image,
+			        envelope, 
 			        new GridSampleDimension[] { band },
 			        null,
 			        properties);
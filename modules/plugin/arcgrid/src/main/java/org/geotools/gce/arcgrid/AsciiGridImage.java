@@ -0,0 +1,275 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.arcgrid;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.SourcelessOpImage;
+
+/**
+ * A {@link java.awt.image.RenderedImage} reading a region of an ASCII grid on demand, a strip of
+ * rows at a time, optionally subsampling it.
+ * <p>
+ * The values of a row can only be located by scanning the row from its start, so the tiles span
+ * the whole image width, and each tile seeks to the first row it needs using the
+ * {@link AsciiGridRowIndex}. The tiles are read by a small pool of scanners, each one keeping its
+ * mapped window of the file across tiles, so consecutive strips usually need no new mapping.
+ * <p>
+ * The grid file is opened on the first tile computed, and closed, along with the mapped windows,
+ * as soon as every tile has been read once, when {@link #releaseFile()} is called, or by
+ * {@link #dispose()}. Unless disposed, the image opens the file again if a tile has to be
+ * computed once more, e.g., after being dropped from the tile cache.
+ *
+ * @source $URL$
+ */
+class AsciiGridImage extends SourcelessOpImage {
+
+    /** Target number of pixels in each tile */
+    static final int TILE_PIXELS = 512 * 512;
+
+    final File grid;
+
+    final AsciiGridRowIndex index;
+
+    final Rectangle sourceRegion;
+
+    final int xSubsampling;
+
+    final int ySubsampling;
+
+    /** The grid file, open from the first tile computation to the image disposal */
+    RandomAccessFile file;
+
+    /** The scanners not in use */
+    final LinkedList<AsciiGridScanner> scanners = new LinkedList<AsciiGridScanner>();
+
+    /** The number of scanners in use */
+    int busy;
+
+    /** The rows of tiles read at least once */
+    final BitSet readTiles = new BitSet();
+
+    /** Whether the file should be closed as soon as no scanner is in use */
+    boolean releasePending;
+
+    boolean disposed;
+
+    /**
+     * Builds the image
+     *
+     * @param grid the ASCII grid file
+     * @param index the row index of the grid
+     * @param dataType {@link DataBuffer#TYPE_FLOAT} or {@link DataBuffer#TYPE_DOUBLE}
+     * @param sourceRegion the region of the grid to read
+     * @param xSubsampling the subsampling along the columns
+     * @param ySubsampling the subsampling along the rows
+     * @param configuration the JAI hints, e.g., the tile cache to use
+     */
+    AsciiGridImage(File grid, AsciiGridRowIndex index, int dataType, Rectangle sourceRegion,
+            int xSubsampling, int ySubsampling, Map<?, ?> configuration) {
+        this(grid, index, dataType, sourceRegion, xSubsampling, ySubsampling, configuration,
+                (sourceRegion.width + xSubsampling - 1) / xSubsampling,
+                (sourceRegion.height + ySubsampling - 1) / ySubsampling);
+    }
+
+    private AsciiGridImage(File grid, AsciiGridRowIndex index, int dataType,
+            Rectangle sourceRegion, int xSubsampling, int ySubsampling, Map<?, ?> configuration,
+            int width, int height) {
+        super(buildLayout(dataType, width, height), configuration, buildSampleModel(dataType,
+                width, height), 0, 0, width, height);
+        this.grid = grid;
+        this.index = index;
+        this.sourceRegion = new Rectangle(sourceRegion);
+        this.xSubsampling = xSubsampling;
+        this.ySubsampling = ySubsampling;
+    }
+
+    static int getTileHeight(int width, int height) {
+        return Math.max(1, Math.min(height, TILE_PIXELS / Math.max(1, width)));
+    }
+
+    static SampleModel buildSampleModel(int dataType, int width, int height) {
+        return RasterFactory.createBandedSampleModel(dataType, width,
+                getTileHeight(width, height), 1);
+    }
+
+    static ImageLayout buildLayout(int dataType, int width, int height) {
+        ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                false, false, Transparency.OPAQUE, dataType);
+        ImageLayout layout = new ImageLayout(0, 0, width, height);
+        layout.setTileGridXOffset(0);
+        layout.setTileGridYOffset(0);
+        layout.setTileWidth(width);
+        layout.setTileHeight(getTileHeight(width, height));
+        layout.setColorModel(cm);
+        return layout;
+    }
+
+    @Override
+    protected void computeRect(PlanarImage[] sources, WritableRaster dest, Rectangle destRect) {
+        final int firstColumn = sourceRegion.x + destRect.x * xSubsampling;
+        final double[] row = new double[destRect.width];
+        AsciiGridScanner scanner = null;
+        try {
+            scanner = getScanner();
+            for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
+                scanner.seek(index.getRowOffset(sourceRegion.y + y * ySubsampling));
+                scanner.skipValues(firstColumn);
+                for (int x = 0; x < row.length; x++) {
+                    if (x > 0) {
+                        scanner.skipValues(xSubsampling - 1);
+                    }
+                    row[x] = scanner.nextValue();
+                }
+                dest.setSamples(destRect.x, y, destRect.width, 1, 0, row);
+            }
+            tileRead(destRect);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the ASCII grid " + grid, e);
+        } finally {
+            if (scanner != null) {
+                releaseScanner(scanner);
+            }
+        }
+    }
+
+    /**
+     * Records the tile containing the specified area as read, if the area covers it fully
+     */
+    void tileRead(Rectangle destRect) {
+        final int tileY = YToTileY(destRect.y);
+        final int tileEnd = Math.min(tileYToY(tileY) + getTileHeight(), getMaxY());
+        if (destRect.y == tileYToY(tileY) && destRect.y + destRect.height >= tileEnd) {
+            synchronized (scanners) {
+                readTiles.set(tileY - getMinTileY());
+            }
+        }
+    }
+
+    /**
+     * Returns an idle scanner, or a new one, opening the grid file if needed
+     */
+    AsciiGridScanner getScanner() throws IOException {
+        synchronized (scanners) {
+            if (disposed) {
+                throw new IllegalStateException("The image has been disposed");
+            }
+            if (!scanners.isEmpty()) {
+                busy++;
+                return scanners.removeFirst();
+            }
+            if (file == null) {
+                file = new RandomAccessFile(grid, "r");
+            }
+            final AsciiGridScanner scanner = new AsciiGridScanner(file.getChannel());
+            busy++;
+            return scanner;
+        }
+    }
+
+    void releaseScanner(AsciiGridScanner scanner) {
+        synchronized (scanners) {
+            busy--;
+            if (disposed) {
+                scanner.close();
+                if (busy == 0) {
+                    closeFile();
+                }
+            } else {
+                scanners.addFirst(scanner);
+                if (busy == 0
+                        && (releasePending || readTiles.cardinality() == getNumYTiles())) {
+                    closeFile();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the grid file and unmaps its windows, now if no tile is being computed, otherwise
+     * as soon as the tiles being computed are done. The image stays usable, opening the file
+     * again if needed
+     */
+    void releaseFile() {
+        synchronized (scanners) {
+            if (busy == 0) {
+                closeFile();
+            } else {
+                releasePending = true;
+            }
+        }
+    }
+
+    /**
+     * Closes the idle scanners and the file, to be called holding the scanners lock with no
+     * scanner in use
+     */
+    private void closeFile() {
+        for (AsciiGridScanner scanner : scanners) {
+            scanner.close();
+        }
+        scanners.clear();
+        releasePending = false;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing we can do
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Unmaps the file windows and closes the grid file
+     */
+    @Override
+    public void dispose() {
+        synchronized (scanners) {
+            if (!disposed) {
+                disposed = true;
+                // the scanners in use are closed when released, their file along with them
+                // when the last one is
+                if (busy == 0) {
+                    closeFile();
+                } else {
+                    for (AsciiGridScanner scanner : scanners) {
+                        scanner.close();
+                    }
+                    scanners.clear();
+                }
+            }
+        }
+        super.dispose();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.arcgrid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The file offsets of the rows of an ASCII grid, allowing reads to seek directly to the first
+ * row they need.
+ * <p>
+ * Building the index requires a full scan of the grid. By default the index is kept in memory
+ * only, by the reader that built it. Setting the {@code org.geotools.arcgrid.saveRowIndex} system
+ * property to true saves it beside the grid, in a file with the same name and the
+ * {@link #EXTENSION} extension appended, reused by later readers as long as the grid file size
+ * and last modified date do not change, provided the directory of the grid is writable. An
+ * index file found beside the grid is used whatever the property.
+ *
+ * @source $URL$
+ */
+class AsciiGridRowIndex {
+
+    /** Logger. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.geotools.gce.arcgrid");
+
+    /** The extension appended to the grid file name to get the index file name */
+    static final String EXTENSION = ".rowidx";
+
+    static final int MAGIC = 0x41534349;
+
+    static final int VERSION = 1;
+
+    /** Whether the index gets saved beside the grid, off by default */
+    static final boolean SAVE = Boolean.getBoolean("org.geotools.arcgrid.saveRowIndex");
+
+    final int width;
+
+    final int height;
+
+    /** Position of each row, plus the position after the last value */
+    final long[] offsets;
+
+    AsciiGridRowIndex(int width, int height, long[] offsets) {
+        this.width = width;
+        this.height = height;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Returns the file position from which the specified row can be read
+     */
+    long getRowOffset(int row) {
+        return offsets[row];
+    }
+
+    /**
+     * Loads the index saved beside the grid, or builds and saves it if missing or out of date
+     */
+    static AsciiGridRowIndex getIndex(File grid, int width, int height) throws IOException {
+        return getIndex(grid, width, height, SAVE);
+    }
+
+    /**
+     * Loads the index saved beside the grid, or builds it if missing or out of date, saving it
+     * only if requested and the grid directory is writable
+     */
+    static AsciiGridRowIndex getIndex(File grid, int width, int height, boolean save)
+            throws IOException {
+        File indexFile = new File(grid.getPath() + EXTENSION);
+        if (indexFile.exists()) {
+            try {
+                AsciiGridRowIndex index = load(indexFile, grid, width, height);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Could not load the row index " + indexFile
+                            + ", rebuilding it", e);
+                }
+            }
+        }
+
+        AsciiGridRowIndex index = build(grid, width, height);
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        if (!save || directory == null || !directory.canWrite()) {
+            return index;
+        }
+        try {
+            index.save(indexFile, grid);
+        } catch (IOException e) {
+            // not a problem, we'll just rebuild it next time
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Could not save the row index " + indexFile, e);
+            }
+            indexFile.delete();
+        }
+        return index;
+    }
+
+    /**
+     * Scans the grid recording the position of each row
+     */
+    static AsciiGridRowIndex build(File grid, int width, int height) throws IOException {
+        final long[] offsets = new long[height + 1];
+        FileInputStream fis = new FileInputStream(grid);
+        AsciiGridScanner scanner = null;
+        try {
+            scanner = new AsciiGridScanner(fis.getChannel());
+            offsets[0] = scanner.skipHeader();
+            for (int row = 0; row < height; row++) {
+                scanner.skipValues(width);
+                offsets[row + 1] = scanner.position();
+            }
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            fis.close();
+        }
+        return new AsciiGridRowIndex(width, height, offsets);
+    }
+
+    /**
+     * Loads the index, returns null if it does not match the grid
+     */
+    static AsciiGridRowIndex load(File indexFile, File grid, int width, int height)
+            throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                indexFile)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION
+                    || dis.readLong() != grid.length() || dis.readLong() != grid.lastModified()
+                    || dis.readInt() != width || dis.readInt() != height) {
+                return null;
+            }
+            long[] offsets = new long[height + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = dis.readLong();
+            }
+            return new AsciiGridRowIndex(width, height, offsets);
+        } finally {
+            dis.close();
+        }
+    }
+
+    void save(File indexFile, File grid) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(grid.length());
+            dos.writeLong(grid.lastModified());
+            dos.writeInt(width);
+            dos.writeInt(height);
+            for (int i = 0; i < offsets.length; i++) {
+                dos.writeLong(offsets[i]);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.arcgrid;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.geotools.resources.NIOUtilities;
+
+/**
+ * Scans the values of an ASCII grid working directly on the bytes of the file, which is memory
+ * mapped a window at a time, so that files larger than 2GB can be handled as well. Each window
+ * is unmapped when the scanner slides to the next one, or when it's closed.
+ * <p>
+ * Numbers are parsed without creating any intermediate string whenever they can be converted
+ * exactly, that is, when they have at most 15 significant digits and a small enough exponent.
+ * The other tokens fall back on {@link Double#parseDouble(String)}, "*" (the GRASS null) and
+ * "nan" are read as {@link Double#NaN}.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @source $URL$
+ */
+class AsciiGridScanner {
+
+    /** Size of the mapped windows */
+    static final int WINDOW_SIZE = 32 * 1024 * 1024;
+
+    /** The keywords that can be found in ESRI and GRASS headers */
+    static final Set<String> HEADER_KEYWORDS = new HashSet<String>(Arrays.asList("ncols",
+            "nrows", "xllcorner", "xllcenter", "yllcorner", "yllcenter", "cellsize", "dx", "dy",
+            "nodata_value", "north:", "south:", "east:", "west:", "rows:", "cols:", "null:",
+            "type:", "multiplier:"));
+
+    /** Powers of ten that can be represented exactly as doubles */
+    static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /** Max significant digits for which the mantissa fits exactly in a double */
+    static final int MAX_EXACT_DIGITS = 15;
+
+    final FileChannel channel;
+
+    final long length;
+
+    final int windowSize;
+
+    MappedByteBuffer buffer;
+
+    /** File position of the first byte in the buffer */
+    long bufferStart;
+
+    AsciiGridScanner(FileChannel channel) throws IOException {
+        this(channel, WINDOW_SIZE);
+    }
+
+    AsciiGridScanner(FileChannel channel, int windowSize) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Moves to the specified file position
+     */
+    void seek(long position) throws IOException {
+        if (buffer != null && position >= bufferStart && position <= bufferStart + buffer.limit()) {
+            buffer.position((int) (position - bufferStart));
+        } else {
+            map(position);
+        }
+    }
+
+    /**
+     * Returns the current file position
+     */
+    long position() {
+        return buffer == null ? 0 : bufferStart + buffer.position();
+    }
+
+    private boolean map(long position) throws IOException {
+        if (position >= length) {
+            return false;
+        }
+        NIOUtilities.clean(buffer);
+        buffer = null;
+        bufferStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                Math.min(windowSize, length - position));
+        return true;
+    }
+
+    /**
+     * Unmaps the current window, the channel is left open
+     */
+    void close() {
+        NIOUtilities.clean(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Returns the next byte, or -1 at the end of the file
+     */
+    int read() throws IOException {
+        if (buffer == null || !buffer.hasRemaining()) {
+            if (!map(position())) {
+                return -1;
+            }
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Moves back of one byte, can only be used after a successful {@link #read()}
+     */
+    void unread() {
+        buffer.position(buffer.position() - 1);
+    }
+
+    static boolean isWhitespace(int c) {
+        return c <= ' ' && c >= 0;
+    }
+
+    /**
+     * Skips the whitespace and returns the first byte of the next token, or -1 at the end of the
+     * file
+     */
+    int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    /**
+     * Skips the header lines, leaving the scanner on the first line of values
+     *
+     * @return the file position of the first line of values
+     */
+    long skipHeader() throws IOException {
+        seek(0);
+        while (true) {
+            long lineStart = position();
+            int c;
+            do {
+                c = read();
+            } while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+            if (c == -1) {
+                throw new EOFException("No values found in the ASCII grid");
+            }
+            // read the first token of the line
+            StringBuilder sb = new StringBuilder();
+            while (c != -1 && !isWhitespace(c)) {
+                sb.append((char) c);
+                c = read();
+            }
+            if (!HEADER_KEYWORDS.contains(sb.toString().toLowerCase(Locale.ENGLISH))) {
+                seek(lineStart);
+                return lineStart;
+            }
+            // skip the rest of the header line
+            while (c != -1 && c != '\n') {
+                c = read();
+            }
+        }
+    }
+
+    /**
+     * Skips the specified number of values without parsing them
+     */
+    void skipValues(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int c = skipWhitespace();
+            if (c == -1) {
+                throw new EOFException("Unexpected end of the ASCII grid at " + position());
+            }
+            do {
+                c = read();
+            } while (c != -1 && !isWhitespace(c));
+        }
+    }
+
+    /**
+     * Parses the next value
+     */
+    double nextValue() throws IOException {
+        int c = skipWhitespace();
+        if (c == -1) {
+            throw new EOFException("Unexpected end of the ASCII grid at " + position());
+        }
+        final long tokenStart = position() - 1;
+
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            c = read();
+        } else if (c == '+') {
+            c = read();
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean exact = true;
+        while (c >= '0' && c <= '9') {
+            anyDigit = true;
+            if (digits < MAX_EXACT_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                // too many digits, let Double.parseDouble handle the rounding
+                exact = false;
+            }
+            c = read();
+        }
+        if (c == '.') {
+            c = read();
+            while (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < MAX_EXACT_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else if (c != '0') {
+                    exact = false;
+                }
+                c = read();
+            }
+        }
+        if (anyDigit && (c == 'e' || c == 'E')) {
+            c = read();
+            boolean negativeExp = false;
+            if (c == '-') {
+                negativeExp = true;
+                c = read();
+            } else if (c == '+') {
+                c = read();
+            }
+            int exp = 0;
+            boolean anyExpDigit = false;
+            while (c >= '0' && c <= '9') {
+                anyExpDigit = true;
+                if (exp < 10000) {
+                    exp = exp * 10 + (c - '0');
+                }
+                c = read();
+            }
+            if (!anyExpDigit) {
+                exact = false;
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+
+        if (anyDigit && exact && (c == -1 || isWhitespace(c))) {
+            double value;
+            if (mantissa == 0) {
+                value = 0;
+            } else if (exponent >= 0 && exponent < POW10.length) {
+                value = mantissa * POW10[exponent];
+            } else if (exponent < 0 && -exponent < POW10.length) {
+                value = mantissa / POW10[-exponent];
+            } else {
+                return parseToken(tokenStart);
+            }
+            return negative ? -value : value;
+        }
+
+        return parseToken(tokenStart);
+    }
+
+    /**
+     * Slow path, reads the token as a string and parses it
+     */
+    private double parseToken(long tokenStart) throws IOException {
+        seek(tokenStart);
+        StringBuilder sb = new StringBuilder();
+        int c = read();
+        while (c != -1 && !isWhitespace(c)) {
+            sb.append((char) c);
+            c = read();
+        }
+        String token = sb.toString();
+        if ("*".equals(token) || "nan".equalsIgnoreCase(token)) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid value '" + token + "' in the ASCII grid at "
+                    + tokenStart);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.arcgrid;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.geometry.GeneralEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * Tests the streaming ASCII grid reading
+ *
+ * @source $URL$
+ */
+public class AsciiGridStreamingTest {
+
+    static final int WIDTH = 37;
+
+    static final int HEIGHT = 23;
+
+    File grid;
+
+    double[] values;
+
+    @Before
+    public void setUp() throws Exception {
+        grid = File.createTempFile("streaming", ".asc");
+        values = new double[WIDTH * HEIGHT];
+        Random random = new Random(1);
+        PrintWriter pw = new PrintWriter(grid);
+        try {
+            pw.print("ncols 37\nnrows 23\nxllcorner 10\nyllcorner 20\ncellsize 0.5\n"
+                    + "NODATA_value -9999\n");
+            for (int i = 0; i < values.length; i++) {
+                String token;
+                switch (random.nextInt(6)) {
+                case 0:
+                    token = Integer.toString(random.nextInt(20000) - 10000);
+                    break;
+                case 1:
+                    token = Double.toString(random.nextDouble() * 1000 - 500);
+                    break;
+                case 2:
+                    token = String.format(Locale.ENGLISH, "%.3f", random.nextGaussian() * 100);
+                    break;
+                case 3:
+                    token = Double.toString(random.nextGaussian() * 1e-30);
+                    break;
+                case 4:
+                    token = "-9999";
+                    break;
+                default:
+                    // more digits than can be parsed exactly on the fast path
+                    token = "1.2345678901234567890123";
+                }
+                values[i] = Double.parseDouble(token);
+                pw.print(token);
+                pw.print((i + 1) % WIDTH == 0 ? "\r\n" : (i % 3 == 0 ? "\t " : " "));
+            }
+        } finally {
+            pw.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(grid.getPath() + AsciiGridRowIndex.EXTENSION).delete();
+        grid.delete();
+    }
+
+    @Test
+    public void testScanner() throws Exception {
+        // small windows, so that tokens end up split between them
+        for (int window : new int[] { 7, 64, AsciiGridScanner.WINDOW_SIZE }) {
+            FileInputStream fis = new FileInputStream(grid);
+            try {
+                AsciiGridScanner scanner = new AsciiGridScanner(fis.getChannel(), window);
+                long dataStart = scanner.skipHeader();
+                for (int i = 0; i < values.length; i++) {
+                    // the values must be the same, bit by bit, as the ones of Double.parseDouble
+                    assertEquals(Double.doubleToLongBits(values[i]),
+                            Double.doubleToLongBits(scanner.nextValue()));
+                }
+
+                scanner.seek(dataStart);
+                scanner.skipValues(WIDTH * 2 + 3);
+                assertEquals(values[WIDTH * 2 + 3], scanner.nextValue(), 0d);
+            } finally {
+                fis.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSpecialValues() throws Exception {
+        File special = File.createTempFile("special", ".asc");
+        try {
+            PrintWriter pw = new PrintWriter(special);
+            pw.print("north: 10\nsouth: 0\neast: 10\nwest: 0\nrows: 1\ncols: 6\n"
+                    + "* nan -0 1e3 +2.5E-2 .5");
+            pw.close();
+            FileInputStream fis = new FileInputStream(special);
+            try {
+                AsciiGridScanner scanner = new AsciiGridScanner(fis.getChannel());
+                scanner.skipHeader();
+                assertTrue(Double.isNaN(scanner.nextValue()));
+                assertTrue(Double.isNaN(scanner.nextValue()));
+                assertEquals(Double.doubleToLongBits(-0d),
+                        Double.doubleToLongBits(scanner.nextValue()));
+                assertEquals(1000d, scanner.nextValue(), 0d);
+                assertEquals(0.025d, scanner.nextValue(), 0d);
+                assertEquals(0.5d, scanner.nextValue(), 0d);
+            } finally {
+                fis.close();
+            }
+        } finally {
+            special.delete();
+        }
+    }
+
+    @Test
+    public void testRowIndexPersisted() throws Exception {
+        File indexFile = new File(grid.getPath() + AsciiGridRowIndex.EXTENSION);
+        assertFalse(indexFile.exists());
+        AsciiGridRowIndex index = AsciiGridRowIndex.getIndex(grid, WIDTH, HEIGHT, true);
+        assertTrue(indexFile.exists());
+
+        AsciiGridRowIndex loaded = AsciiGridRowIndex.load(indexFile, grid, WIDTH, HEIGHT);
+        assertNotNull(loaded);
+        assertArrayEquals(index.offsets, loaded.offsets);
+
+        // does not match a grid with a different layout
+        assertNull(AsciiGridRowIndex.load(indexFile, grid, HEIGHT, WIDTH));
+    }
+
+    @Test
+    public void testRowIndexNotSaved() throws Exception {
+        File indexFile = new File(grid.getPath() + AsciiGridRowIndex.EXTENSION);
+        AsciiGridRowIndex index = AsciiGridRowIndex.getIndex(grid, WIDTH, HEIGHT, false);
+        assertFalse(indexFile.exists());
+        assertEquals(HEIGHT + 1, index.offsets.length);
+    }
+
+    @Test
+    public void testImageRegion() throws Exception {
+        AsciiGridRowIndex index = AsciiGridRowIndex.getIndex(grid, WIDTH, HEIGHT);
+        Rectangle region = new Rectangle(5, 3, 20, 15);
+        AsciiGridImage image = new AsciiGridImage(grid, index, DataBuffer.TYPE_DOUBLE, region, 3,
+                2, null);
+        assertEquals(7, image.getWidth());
+        assertEquals(8, image.getHeight());
+        Raster data = image.getData();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int col = region.x + x * 3;
+                int row = region.y + y * 2;
+                assertEquals(values[row * WIDTH + col], data.getSampleDouble(x, y, 0), 0d);
+            }
+        }
+
+        // the file is closed once every tile has been read
+        assertNull(image.file);
+        assertTrue(image.scanners.isEmpty());
+
+        // opened again if needed, and released once the scanners in use are done
+        AsciiGridScanner scanner = image.getScanner();
+        assertNotNull(image.file);
+        image.releaseFile();
+        assertNotNull(image.file);
+        image.releaseScanner(scanner);
+        assertNull(image.file);
+        assertTrue(image.scanners.isEmpty());
+
+        image.dispose();
+        assertNull(image.file);
+    }
+
+    @Test
+    public void testReadSubset() throws Exception {
+        ArcGridReader reader = new ArcGridReader(grid);
+        try {
+            // rows 3 to 7 and columns 4 to 9, from the upper left corner
+            GeneralEnvelope envelope = new GeneralEnvelope(new double[] { 10 + 4 * 0.5,
+                    20 + (HEIGHT - 8) * 0.5 }, new double[] { 10 + 10 * 0.5,
+                    20 + (HEIGHT - 3) * 0.5 });
+            envelope.setCoordinateReferenceSystem(reader.getCrs());
+            ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D
+                    .createValue();
+            gg.setValue(new GridGeometry2D(new GridEnvelope2D(new Rectangle(0, 0, 6, 5)),
+                    envelope));
+            GridCoverage2D coverage = reader.read(new GeneralParameterValue[] { gg });
+            assertNotNull(coverage);
+
+            RenderedImage image = coverage.getRenderedImage();
+            assertEquals(6, image.getWidth());
+            assertEquals(5, image.getHeight());
+            assertEquals(envelope.getMinimum(0), coverage.getEnvelope().getMinimum(0), 1e-9);
+            assertEquals(envelope.getMaximum(1), coverage.getEnvelope().getMaximum(1), 1e-9);
+            Raster data = image.getData();
+            for (int y = 0; y < 5; y++) {
+                for (int x = 0; x < 6; x++) {
+                    assertEquals(values[(y + 3) * WIDTH + x + 4],
+                            data.getSampleDouble(image.getMinX() + x, image.getMinY() + y, 0),
+                            1e-3);
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+}
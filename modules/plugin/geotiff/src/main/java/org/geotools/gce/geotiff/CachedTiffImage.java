@@ -0,0 +1,67 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+/**
+ * A tiled image of a GeoTIFF file whose tiles are the native TIFF tiles, served by the
+ * {@link GeoTiffFileCache} of the file, so that only the tiles actually requested get decoded,
+ * and only once as long as they stay in the cache.
+ *
+ * @source $URL$
+ */
+class CachedTiffImage extends PlanarImage {
+
+    final GeoTiffFileCache cache;
+
+    final int imageIndex;
+
+    CachedTiffImage(GeoTiffFileCache cache, int imageIndex) throws IOException {
+        super(buildLayout(cache.getInfo(), imageIndex), null, null);
+        this.cache = cache;
+        this.imageIndex = imageIndex;
+    }
+
+    static ImageLayout buildLayout(GeoTiffFileCache.FileInfo info, int imageIndex) {
+        final ImageTypeSpecifier type = info.types[imageIndex];
+        final int tileWidth = info.tileWidths[imageIndex];
+        final int tileHeight = info.tileHeights[imageIndex];
+        return new ImageLayout(0, 0, info.widths[imageIndex], info.heights[imageIndex], 0, 0,
+                tileWidth, tileHeight, type.getSampleModel(tileWidth, tileHeight),
+                type.getColorModel());
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileX < getMinTileX() || tileX > getMaxTileX() || tileY < getMinTileY()
+                || tileY > getMaxTileY()) {
+            return null;
+        }
+        try {
+            return cache.getTile(imageIndex, tileX, tileY);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read tile " + tileX + "," + tileY
+                    + " of image " + imageIndex + " of " + cache.file, e);
+        }
+    }
+}
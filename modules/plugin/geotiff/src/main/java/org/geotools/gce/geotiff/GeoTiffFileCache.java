@@ -0,0 +1,471 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+
+import org.geotools.coverage.grid.io.imageio.geotiff.GeoTiffIIOMetadataDecoder;
+import org.geotools.image.io.ImageIOExt;
+
+/**
+ * Keeps, for the most recently used GeoTIFF files, the parsed image directory information and
+ * GeoTIFF metadata, a few open TIFF readers, and a LRU cache of decoded tiles, so that repeated
+ * reads of the same file (e.g., the many tile requests of a map client) skip parsing the IFDs
+ * and decoding again the same tiles.
+ * <p>
+ * The cache keeps files open, so it is used only when enabled with the {@link #ENABLED_KEY}
+ * system property. The readers acquire the entries of their files, and release them in
+ * {@link GeoTiffReader#dispose()}, an entry being dropped when the last reader using the file
+ * releases it. Entries are keyed by the canonical file path and dropped as soon as the file size or last modified date
+ * changes. The number of cached files and the decoded tile budget of each file can be configured
+ * with the {@link #CACHED_FILES_KEY} and {@link #TILE_CACHE_SIZE_KEY} system properties, a zero
+ * tile budget disables the tile caching. The cached tiles are shared, so they are handed out as
+ * read only rasters.
+ *
+ * @source $URL$
+ */
+class GeoTiffFileCache {
+
+    /** Logger. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(GeoTiffFileCache.class.toString());
+
+    /** System property enabling the cache, off by default */
+    static final String ENABLED_KEY = "org.geotools.gce.geotiff.fileCache";
+
+    /** System property controlling the max number of files kept in the cache */
+    static final String CACHED_FILES_KEY = "org.geotools.gce.geotiff.cachedFiles";
+
+    /** System property controlling the max bytes of decoded tiles kept for each file */
+    static final String TILE_CACHE_SIZE_KEY = "org.geotools.gce.geotiff.tileCacheSize";
+
+    static final int MAX_FILES = Math.max(1, Integer.getInteger(CACHED_FILES_KEY, 8));
+
+    static final long TILE_CACHE_SIZE = Long.getLong(TILE_CACHE_SIZE_KEY, 16 * 1024 * 1024);
+
+    /** Max number of idle readers kept open for each file */
+    static final int MAX_IDLE_READERS = 4;
+
+    private final static TIFFImageReaderSpi READER_SPI = new TIFFImageReaderSpi();
+
+    /** The cached files, in access order */
+    private static final Map<String, GeoTiffFileCache> FILES = new LinkedHashMap<String, GeoTiffFileCache>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = -1942386217316562744L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GeoTiffFileCache> eldest) {
+            if (size() > MAX_FILES) {
+                eldest.getValue().dispose();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The number of readers using each file, keyed like the cached files and guarded by their
+     * lock. Counted apart from the entries, which may be evicted and built again meanwhile
+     */
+    private static final Map<String, Integer> REFERENCES = new HashMap<String, Integer>();
+
+    /**
+     * The structure of the images contained in a TIFF file, along with the metadata of the first
+     * one
+     */
+    static final class FileInfo {
+        final int numImages;
+
+        final int[] widths;
+
+        final int[] heights;
+
+        final boolean[] tiled;
+
+        final int[] tileWidths;
+
+        final int[] tileHeights;
+
+        final ImageTypeSpecifier[] types;
+
+        final IIOMetadata iioMetadata;
+
+        final GeoTiffIIOMetadataDecoder metadata;
+
+        /**
+         * Collects the information using a reader already positioned on the file
+         */
+        FileInfo(ImageReader reader) throws IOException {
+            numImages = reader.getNumImages(true);
+            widths = new int[numImages];
+            heights = new int[numImages];
+            tiled = new boolean[numImages];
+            tileWidths = new int[numImages];
+            tileHeights = new int[numImages];
+            types = new ImageTypeSpecifier[numImages];
+            for (int i = 0; i < numImages; i++) {
+                widths[i] = reader.getWidth(i);
+                heights[i] = reader.getHeight(i);
+                tiled[i] = reader.isImageTiled(i);
+                tileWidths[i] = reader.getTileWidth(i);
+                tileHeights[i] = reader.getTileHeight(i);
+                Iterator<ImageTypeSpecifier> it = reader.getImageTypes(i);
+                types[i] = it != null && it.hasNext() ? it.next() : null;
+            }
+            iioMetadata = reader.getImageMetadata(0);
+            metadata = new GeoTiffIIOMetadataDecoder(iioMetadata);
+        }
+
+        /**
+         * Returns true if the tiles of the specified image can be cached
+         */
+        boolean isCacheable(int image) {
+            return image >= 0 && image < numImages && tiled[image] && types[image] != null;
+        }
+    }
+
+    final File file;
+
+    final long length;
+
+    final long lastModified;
+
+    private final ImageInputStreamSpi streamSpi;
+
+    private final long maxBytes;
+
+    private FileInfo info;
+
+    /** The decoded tiles, in access order */
+    private final LinkedHashMap<Long, Raster> tiles = new LinkedHashMap<Long, Raster>(16, 0.75f,
+            true);
+
+    private long bytes;
+
+    private final LinkedList<ImageReader> idleReaders = new LinkedList<ImageReader>();
+
+    private boolean disposed;
+
+    long hits;
+
+    long misses;
+
+    GeoTiffFileCache(File file, long maxBytes) {
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.maxBytes = maxBytes;
+        this.streamSpi = ImageIOExt.getImageInputStreamSPI(file);
+    }
+
+    /**
+     * Returns true if the readers should go through the cache, as set by the {@link #ENABLED_KEY}
+     * system property
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_KEY);
+    }
+
+    /**
+     * Returns the cache for the specified file, dropping the old one if the file has been
+     * modified meanwhile
+     */
+    static GeoTiffFileCache get(File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        synchronized (FILES) {
+            GeoTiffFileCache cache = FILES.get(key);
+            if (cache != null
+                    && (cache.length != file.length() || cache.lastModified != file.lastModified())) {
+                FILES.remove(key);
+                cache.dispose();
+                cache = null;
+            }
+            if (cache == null) {
+                cache = new GeoTiffFileCache(file, TILE_CACHE_SIZE);
+                FILES.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Records a reader using the specified file
+     */
+    static void acquire(File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        synchronized (FILES) {
+            final Integer references = REFERENCES.get(key);
+            REFERENCES.put(key, references == null ? 1 : references + 1);
+        }
+    }
+
+    /**
+     * Records a reader no longer using the specified file, dropping its cache if it was the last
+     * one
+     */
+    static void release(File file) throws IOException {
+        final String key = file.getCanonicalPath();
+        GeoTiffFileCache cache = null;
+        synchronized (FILES) {
+            final Integer references = REFERENCES.get(key);
+            if (references == null) {
+                return;
+            } else if (references > 1) {
+                REFERENCES.put(key, references - 1);
+                return;
+            }
+            REFERENCES.remove(key);
+            cache = FILES.remove(key);
+        }
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * Drops the cache of the specified file, if any, whatever the readers using it
+     */
+    static void remove(File file) throws IOException {
+        GeoTiffFileCache cache;
+        synchronized (FILES) {
+            cache = FILES.remove(file.getCanonicalPath());
+        }
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * Drops all the cached files
+     */
+    static void clear() {
+        synchronized (FILES) {
+            for (GeoTiffFileCache cache : FILES.values()) {
+                cache.dispose();
+            }
+            FILES.clear();
+        }
+    }
+
+    /**
+     * Returns true if decoded tiles are going to be cached
+     */
+    boolean isTileCacheEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the image structure and metadata, parsing them on the first call
+     */
+    FileInfo getInfo() throws IOException {
+        synchronized (this) {
+            if (info != null) {
+                return info;
+            }
+        }
+        final ImageReader reader = borrowReader();
+        try {
+            final FileInfo parsed = new FileInfo(reader);
+            synchronized (this) {
+                if (info == null) {
+                    info = parsed;
+                }
+                return info;
+            }
+        } finally {
+            returnReader(reader);
+        }
+    }
+
+    /**
+     * Returns the specified tile of the specified image, decoding it only if it's not cached
+     * already. The returned raster is shared, it's not writable
+     */
+    Raster getTile(int image, int tileX, int tileY) throws IOException {
+        final Long key = Long.valueOf(((long) image << 48) | ((long) tileY << 24) | tileX);
+        synchronized (this) {
+            final Raster tile = tiles.get(key);
+            if (tile != null) {
+                hits++;
+                return tile;
+            }
+            misses++;
+        }
+
+        final Raster tile = decodeTile(image, tileX, tileY);
+        final long tileBytes = getSize(tile);
+        synchronized (this) {
+            if (!disposed && tileBytes <= maxBytes) {
+                final Raster previous = tiles.put(key, tile);
+                if (previous != null) {
+                    bytes -= getSize(previous);
+                }
+                bytes += tileBytes;
+                // iteration goes from the least to the most recently used tile
+                for (Iterator<Raster> it = tiles.values().iterator(); bytes > maxBytes
+                        && it.hasNext();) {
+                    bytes -= getSize(it.next());
+                    it.remove();
+                }
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Decodes a full tile, the tiles on the right and bottom borders are padded to the tile size
+     */
+    private Raster decodeTile(int image, int tileX, int tileY) throws IOException {
+        final FileInfo info = getInfo();
+        final int tileWidth = info.tileWidths[image];
+        final int tileHeight = info.tileHeights[image];
+        final Rectangle bounds = new Rectangle(tileX * tileWidth, tileY * tileHeight, tileWidth,
+                tileHeight).intersection(new Rectangle(0, 0, info.widths[image],
+                info.heights[image]));
+        if (bounds.isEmpty()) {
+            throw new IllegalArgumentException("Tile " + tileX + "," + tileY
+                    + " is outside of image " + image + " of " + file);
+        }
+
+        final BufferedImage decoded;
+        final ImageReader reader = borrowReader();
+        try {
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(bounds);
+            decoded = reader.read(image, param);
+        } finally {
+            returnReader(reader);
+        }
+
+        final WritableRaster tile = Raster.createWritableRaster(info.types[image].getSampleModel(
+                tileWidth, tileHeight), new Point(tileX * tileWidth, tileY * tileHeight));
+        tile.setRect(decoded.getRaster().createTranslatedChild(bounds.x, bounds.y));
+        return new ReadOnlyRaster(tile);
+    }
+
+    /**
+     * A view of a raster that is not a {@link WritableRaster}, so that the shared tiles cannot be
+     * modified by the image operations reading them
+     */
+    static final class ReadOnlyRaster extends Raster {
+        ReadOnlyRaster(Raster raster) {
+            super(raster.getSampleModel(), raster.getDataBuffer(), new Point(raster
+                    .getSampleModelTranslateX(), raster.getSampleModelTranslateY()));
+        }
+    }
+
+    static long getSize(Raster raster) {
+        final DataBuffer db = raster.getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks()
+                * (DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+    }
+
+    synchronized long getCachedBytes() {
+        return bytes;
+    }
+
+    synchronized int getCachedTiles() {
+        return tiles.size();
+    }
+
+    private ImageReader borrowReader() throws IOException {
+        synchronized (this) {
+            if (!idleReaders.isEmpty()) {
+                return idleReaders.removeFirst();
+            }
+        }
+        final ImageInputStream stream = streamSpi != null ? streamSpi.createInputStreamInstance(
+                file, ImageIO.getUseCache(), ImageIO.getCacheDirectory()) : ImageIO
+                .createImageInputStream(file);
+        if (stream == null) {
+            throw new IOException("No input stream for " + file);
+        }
+        final ImageReader reader = READER_SPI.createReaderInstance();
+        reader.setInput(stream);
+        return reader;
+    }
+
+    private void returnReader(ImageReader reader) {
+        synchronized (this) {
+            if (!disposed && idleReaders.size() < MAX_IDLE_READERS) {
+                idleReaders.addFirst(reader);
+                return;
+            }
+        }
+        disposeReader(reader);
+    }
+
+    private static void disposeReader(ImageReader reader) {
+        final Object input = reader.getInput();
+        try {
+            reader.dispose();
+        } catch (Throwable t) {
+            // nothing we can do
+        }
+        if (input instanceof ImageInputStream) {
+            try {
+                ((ImageInputStream) input).close();
+            } catch (Throwable t) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, t.getLocalizedMessage(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the cached tiles and closes the idle readers. The readers in use get closed when
+     * given back
+     */
+    void dispose() {
+        final LinkedList<ImageReader> closing;
+        synchronized (this) {
+            disposed = true;
+            tiles.clear();
+            bytes = 0;
+            closing = new LinkedList<ImageReader>(idleReaders);
+            idleReaders.clear();
+        }
+        for (ImageReader reader : closing) {
+            disposeReader(reader);
+        }
+    }
+}
@@ -66,7 +66,6 @@ import javax.imageio.stream.ImageInputStream;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.RenderedOp;
 
 import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
@@ -145,6 +144,12 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 
     private int extOvrImgChoice = -1;
 
+    /** True if the files of this reader go through the {@link GeoTiffFileCache} */
+    private boolean fileCached;
+
+    /** True while this reader holds a reference to the {@link GeoTiffFileCache} of its files */
+    private boolean cacheAcquired;
+
 	/**
 	 * Creates a new instance of GeoTiffReader
 	 * 
@@ -275,20 +280,25 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
         try {
             // //
             //
-            // Get a reader for this format
+            // get the METADATA, cached files are parsed only once and then shared
             //
             // //
-            reader = READER_SPI.createReaderInstance();
-
-            // //
-            //
-            // get the METADATA
-            //
-            // //
-            inStream.mark();
-            reader.setInput(inStream);
-            final IIOMetadata iioMetadata = reader.getImageMetadata(0);
-            final GeoTiffIIOMetadataDecoder metadata = new GeoTiffIIOMetadataDecoder(iioMetadata);
+            fileCached = source instanceof File && GeoTiffFileCache.isEnabled();
+            final GeoTiffFileCache.FileInfo info;
+            if (fileCached) {
+                GeoTiffFileCache.acquire((File) source);
+                if (ovrInStreamSPI != null) {
+                    GeoTiffFileCache.acquire(ovrSource);
+                }
+                cacheAcquired = true;
+                info = GeoTiffFileCache.get((File) source).getInfo();
+            } else {
+                reader = READER_SPI.createReaderInstance();
+                inStream.mark();
+                reader.setInput(inStream);
+                info = new GeoTiffFileCache.FileInfo(reader);
+            }
+            final GeoTiffIIOMetadataDecoder metadata = info.metadata;
             gtcs = new GeoTiffMetadata2CRSAdapter(hints);
             
             // //
@@ -330,9 +340,9 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             // get the dimension of the hr image and build the model as well as
             // computing the resolution
             // //
-            numOverviews = reader.getNumImages(true) - 1;
-            int hrWidth = reader.getWidth(0);
-            int hrHeight = reader.getHeight(0);
+            numOverviews = info.numImages - 1;
+            int hrWidth = info.widths[0];
+            int hrHeight = info.heights[0];
             final Rectangle actualDim = new Rectangle(0, 0, hrWidth, hrHeight);
             originalGridRange = new GridEnvelope2D(actualDim);
 
@@ -362,14 +372,20 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
             highestRes[0] = XAffineTransform.getScaleX0(tempTransform);
             highestRes[1] = XAffineTransform.getScaleY0(tempTransform);
 
+            GeoTiffFileCache.FileInfo ovrInfo = null;
             if (ovrInStreamSPI != null) {
-                ovrReader = READER_SPI.createReaderInstance();
-                ovrStream = ovrInStreamSPI.createInputStreamInstance(ovrSource,
-                        ImageIO.getUseCache(), ImageIO.getCacheDirectory());
-                ovrReader.setInput(ovrStream);
+                if (fileCached) {
+                    ovrInfo = GeoTiffFileCache.get(ovrSource).getInfo();
+                } else {
+                    ovrReader = READER_SPI.createReaderInstance();
+                    ovrStream = ovrInStreamSPI.createInputStreamInstance(ovrSource,
+                            ImageIO.getUseCache(), ImageIO.getCacheDirectory());
+                    ovrReader.setInput(ovrStream);
+                    ovrInfo = new GeoTiffFileCache.FileInfo(ovrReader);
+                }
                 // this includes the real image as this is a image index, we need to add one.
                 extOvrImgChoice = numOverviews + 1;
-                numOverviews = numOverviews + ovrReader.getNumImages(true);
+                numOverviews = numOverviews + ovrInfo.numImages;
                 if (numOverviews < extOvrImgChoice)
                     extOvrImgChoice = -1;
             }
@@ -388,17 +404,19 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                 double spanRes0 = highestRes[0] * this.originalGridRange.getSpan(0);
                 double spanRes1 = highestRes[1] * this.originalGridRange.getSpan(1);
                 for (int i = 0; i < firstExternalOverview; i++) {
-                    overViewResolutions[i][0] = spanRes0 / reader.getWidth(i + 1);
-                    overViewResolutions[i][1] = spanRes1 / reader.getHeight(i + 1);
+                    overViewResolutions[i][0] = spanRes0 / info.widths[i + 1];
+                    overViewResolutions[i][1] = spanRes1 / info.heights[i + 1];
                 }
                 for (int i = firstExternalOverview; i < numOverviews; i++) {
-                    overViewResolutions[i][0] = spanRes0 / ovrReader.getWidth(i - firstExternalOverview);
-                    overViewResolutions[i][1] = spanRes1 / ovrReader.getHeight(i - firstExternalOverview);
+                    overViewResolutions[i][0] = spanRes0 / ovrInfo.widths[i - firstExternalOverview];
+                    overViewResolutions[i][1] = spanRes1 / ovrInfo.heights[i - firstExternalOverview];
                 }
                
             } else
                 overViewResolutions = null;
         } catch (Throwable e) {
+            // the reader is not going to be disposed
+            releaseCachedFiles();
             throw new DataSourceException(e);
         } finally {
             if (reader != null)
@@ -406,7 +424,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                     reader.dispose();
                 } catch (Throwable t) {
                 }
-                
+
             if (ovrReader != null)
                 try {
                     ovrReader.dispose();
@@ -419,7 +437,7 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                 } catch (Throwable t) {
                 }
 
-            if (inStream != null)
+            if (reader != null && inStream != null)
                 try {
                     inStream.reset();
                 } catch (Throwable t) {
@@ -522,24 +540,28 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
                     layout.setTileWidth(suggestedTileSize[0]);
                     newHints.add(new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
 		}
-		final ParameterBlock pbjRead = new ParameterBlock();
-        if (extOvrImgChoice >= 0 && imageChoice >= extOvrImgChoice) {
-            pbjRead.add(ovrInStreamSPI.createInputStreamInstance(ovrSource, ImageIO.getUseCache(),
-                    ImageIO.getCacheDirectory()));
-            pbjRead.add(imageChoice - extOvrImgChoice);
-        } else {
-            pbjRead.add(inStreamSPI != null ? inStreamSPI.createInputStreamInstance(source, ImageIO.getUseCache(), 
-                    ImageIO.getCacheDirectory()) : ImageIO.createImageInputStream(source));
-            pbjRead.add(imageChoice);
-        }
+		PlanarImage coverageRaster = suggestedTileSize == null ? readCachedTiles(imageChoice,
+		        readP) : null;
+		if (coverageRaster == null) {
+    		final ParameterBlock pbjRead = new ParameterBlock();
+            if (extOvrImgChoice >= 0 && imageChoice >= extOvrImgChoice) {
+                pbjRead.add(ovrInStreamSPI.createInputStreamInstance(ovrSource, ImageIO.getUseCache(),
+                        ImageIO.getCacheDirectory()));
+                pbjRead.add(imageChoice - extOvrImgChoice);
+            } else {
+                pbjRead.add(inStreamSPI != null ? inStreamSPI.createInputStreamInstance(source, ImageIO.getUseCache(), 
+                        ImageIO.getCacheDirectory()) : ImageIO.createImageInputStream(source));
+                pbjRead.add(imageChoice);
+            }
+        		pbjRead.add(Boolean.FALSE);
     		pbjRead.add(Boolean.FALSE);
-		pbjRead.add(Boolean.FALSE);
-		pbjRead.add(Boolean.FALSE);
-		pbjRead.add(null);
-		pbjRead.add(null);
-		pbjRead.add(readP);
-		pbjRead.add(READER_SPI.createReaderInstance());
-		RenderedOp coverageRaster=JAI.create("ImageRead", pbjRead,newHints!=null?(RenderingHints) newHints:null);
+    		pbjRead.add(Boolean.FALSE);
+    		pbjRead.add(null);
+    		pbjRead.add(null);
+    		pbjRead.add(readP);
+    		pbjRead.add(READER_SPI.createReaderInstance());
+    		coverageRaster=JAI.create("ImageRead", pbjRead,newHints!=null?(RenderingHints) newHints:null);
+		}
 		
                 //
                 // MASKING INPUT COLOR as indicated
@@ -581,6 +603,35 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 
 	}
 
+    /**
+     * Builds an image serving the native tiles of the chosen image from the
+     * {@link GeoTiffFileCache} of the file, so that repeated reads of the same area do not decode
+     * the same tiles again.
+     * 
+     * @return the image, or null if the file or the requested read cannot use the tile cache, that
+     *         is, if the cache is not enabled, the chosen image is not tiled, or subsampling is
+     *         required
+     */
+    private PlanarImage readCachedTiles(int imageChoice, ImageReadParam readP) throws IOException {
+        if (!fileCached || readP.getSourceXSubsampling() != 1
+                || readP.getSourceYSubsampling() != 1) {
+            return null;
+        }
+        final GeoTiffFileCache cache;
+        final int imageIndex;
+        if (extOvrImgChoice >= 0 && imageChoice >= extOvrImgChoice) {
+            cache = GeoTiffFileCache.get(ovrSource);
+            imageIndex = imageChoice - extOvrImgChoice;
+        } else {
+            cache = GeoTiffFileCache.get((File) source);
+            imageIndex = imageChoice;
+        }
+        if (!cache.isTileCacheEnabled() || !cache.getInfo().isCacheable(imageIndex)) {
+            return null;
+        }
+        return new CachedTiffImage(cache, imageIndex);
+    }
+
     /**
      * Returns the geotiff metadata for this geotiff file.
      * 
@@ -593,6 +644,10 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
         ImageInputStream stream = null;
         
         try {
+            if (fileCached) {
+                // already parsed and shared
+                return GeoTiffFileCache.get((File) source).getInfo().metadata;
+            }
             if ((source instanceof InputStream)|| (source instanceof ImageInputStream)){
                 closeMe = false;
             }
@@ -827,4 +882,30 @@ public class GeoTiffReader extends AbstractGridCoverage2DReader implements GridC
 		return 1;
 	}
 
+    /**
+     * Disposes this reader, releasing the {@link GeoTiffFileCache} entries of its files, which
+     * are dropped once no other reader uses them so that they do not stay open. The coverages
+     * already read keep working, decoding their tiles again if needed.
+     */
+    @Override
+    public void dispose() {
+        super.dispose();
+        releaseCachedFiles();
+    }
+
+    private void releaseCachedFiles() {
+        if (cacheAcquired) {
+            cacheAcquired = false;
+            try {
+                GeoTiffFileCache.release((File) source);
+                if (ovrInStreamSPI != null) {
+                    GeoTiffFileCache.release(ovrSource);
+                }
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
 }
@@ -89,6 +89,24 @@ import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
  */
 public class GeoTiffWriteParams extends GeoToolsWriteParams {
 
+    /**
+     * How the internal overviews are computed
+     */
+    public enum OverviewResampling {
+        /** Each overview pixel is the upper left pixel of the 2x2 block it covers */
+        NEAREST,
+        /** Each overview pixel is the average of the valid pixels of the 2x2 block it covers */
+        AVERAGE
+    }
+
+    private boolean parallelWriting;
+
+    private int writerThreads = Runtime.getRuntime().availableProcessors();
+
+    private int overviews;
+
+    private OverviewResampling overviewResampling = OverviewResampling.AVERAGE;
+
     /**
      * Default constructor.
      */
@@ -104,4 +122,68 @@ public class GeoTiffWriteParams extends GeoToolsWriteParams {
         return ((TIFFImageWriteParam) adaptee).isForceToBigTIFF();
     }
 
+    /**
+     * Enables the parallel writer, which computes and compresses the tiles on
+     * {@link #getWriterThreads()} threads while writing them in order to the output, and can
+     * generate internal overviews in the same pass. It supports no, LZW and Deflate (ZLib)
+     * compression of images with one sample per data element; for the other images, or if an
+     * unsupported compression is requested, the standard writer is used instead, without
+     * overviews.
+     * <p>
+     * Files that may get larger than 4GB are automatically written as BigTIFF.
+     */
+    public void setParallelWriting(final boolean parallelWriting) {
+        this.parallelWriting = parallelWriting;
+    }
+
+    public boolean isParallelWriting() {
+        return parallelWriting;
+    }
+
+    /**
+     * Sets the number of threads used by the parallel writer, defaults to the number of
+     * available processors
+     */
+    public void setWriterThreads(final int writerThreads) {
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("The number of writer threads must be positive");
+        }
+        this.writerThreads = writerThreads;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    /**
+     * Sets the number of internal overviews to generate, each one halving the resolution of the
+     * previous one. Overviews are generated until the requested number is reached or the image
+     * fits in a single tile. Setting a positive number of overviews enables the parallel writer.
+     */
+    public void setOverviews(final int overviews) {
+        if (overviews < 0) {
+            throw new IllegalArgumentException("The number of overviews cannot be negative");
+        }
+        this.overviews = overviews;
+    }
+
+    public int getOverviews() {
+        return overviews;
+    }
+
+    /**
+     * Sets how overviews are computed, defaults to {@link OverviewResampling#AVERAGE}. Palette
+     * images always use {@link OverviewResampling#NEAREST}.
+     */
+    public void setOverviewResampling(final OverviewResampling overviewResampling) {
+        if (overviewResampling == null) {
+            throw new IllegalArgumentException("The overview resampling cannot be null");
+        }
+        this.overviewResampling = overviewResampling;
+    }
+
+    public OverviewResampling getOverviewResampling() {
+        return overviewResampling;
+    }
+
 }
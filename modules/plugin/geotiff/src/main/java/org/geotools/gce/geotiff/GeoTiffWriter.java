@@ -16,7 +16,9 @@
  */
 package org.geotools.gce.geotiff;
 
+import it.geosolutions.imageio.plugins.tiff.TIFFField;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+import it.geosolutions.imageio.plugins.tiff.TIFFTag;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
 
@@ -24,14 +26,19 @@ import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.RenderedImage;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -265,7 +272,10 @@ public class GeoTiffWriter extends AbstractGridCoverageWriter implements
 			setGeoReference(crs, metadata, tr, range);
 
 			// writing ALWAYS the geophysics vew of the data
-			writeImage(((GridCoverage2D) gc).geophysics(true).getRenderedImage(), this.outStream, metadata, gtParams,listener);
+			final RenderedImage image = ((GridCoverage2D) gc).geophysics(true).getRenderedImage();
+			if (!writeParallel(image, this.outStream, metadata, gtParams, inNoData, listener)) {
+			    writeImage(image, this.outStream, metadata, gtParams,listener);
+			}
 			
 			// write tfw
 			if(writeTfw&& (destination instanceof File)){
@@ -494,6 +504,156 @@ public class GeoTiffWriter extends AbstractGridCoverageWriter implements
 		return true;
 	}
 
+	/**
+	 * Writes the provided rendered image with the {@link ParallelTiffWriter}, if the parameters
+	 * ask for it and both the image and the requested compression are supported.
+	 * 
+	 * @return false if the image has not been written, and the standard writer has to be used
+	 */
+	private boolean writeParallel(final RenderedImage image,
+	        final ImageOutputStream outputStream,
+	        final GeoTiffIIOMetadataEncoder geoTIFFMetadata,
+	        final GeoToolsWriteParams gtParams, final double noData,
+	        final ProgressListener listener) throws IOException {
+	    if (!(gtParams instanceof GeoTiffWriteParams)) {
+	        return false;
+	    }
+	    final GeoTiffWriteParams params = (GeoTiffWriteParams) gtParams;
+	    if (!params.isParallelWriting() && params.getOverviews() == 0) {
+	        return false;
+	    }
+	    final int compression = params.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT ? ParallelTiffWriter
+	            .getCompression(params.getCompressionType()) : ParallelTiffWriter.COMPRESSION_NONE;
+	    if (!ParallelTiffWriter.isSupported(image) || compression < 0
+	            || params.getSourceXSubsampling() != 1 || params.getSourceYSubsampling() != 1) {
+	        if (LOGGER.isLoggable(Level.WARNING)) {
+	            LOGGER.warning("The image or the compression are not supported by the parallel "
+	                    + "writer, falling back on the standard one, overviews won't be written");
+	        }
+	        return false;
+	    }
+
+	    if (outputStream == null) {
+	        throw new NullPointerException("Some input parameters are null");
+	    }
+	    final ImageWriter writer = tiffWriterFactory.createWriterInstance();
+	    try {
+	        final ImageWriteParam writeParams = params.getAdaptee();
+	        final IIOMetadata metadata = createGeoTiffIIOMetadata(writer,
+	                ImageTypeSpecifier.createFromRenderedImage(image), geoTIFFMetadata, writeParams);
+
+	        final ParallelTiffWriter tiffWriter = new ParallelTiffWriter(outputStream, image,
+	                params.getSourceRegion());
+	        if (params.getTilingMode() == ImageWriteParam.MODE_EXPLICIT) {
+	            tiffWriter.setTileSize(params.getTileWidth(), params.getTileHeight());
+	        }
+	        tiffWriter.setCompression(compression,
+	                compression != ParallelTiffWriter.COMPRESSION_NONE ? params.getCompressionQuality() : -1);
+	        tiffWriter.setOverviews(params.getOverviews(),
+	                params.getOverviewResampling() == GeoTiffWriteParams.OverviewResampling.AVERAGE);
+	        tiffWriter.setNoData(noData);
+	        tiffWriter.setBigTiff(params.isForceToBigTIFF());
+	        tiffWriter.setThreads(params.getWriterThreads());
+	        tiffWriter.setFields(getFields(metadata));
+	        tiffWriter.setProgressListener(listener);
+	        tiffWriter.write();
+	    } finally {
+	        try {
+	            if (!(destination instanceof ImageOutputStream))
+	                outputStream.close();
+	        } catch (Throwable e) {
+	            if (LOGGER.isLoggable(Level.WARNING)) {
+	                LOGGER.log(Level.WARNING, e.getLocalizedMessage(), e);
+	            }
+	        }
+	        writer.dispose();
+	    }
+	    return true;
+	}
+
+	/**
+	 * Converts the fields of the image metadata, but the ones describing the image structure, in
+	 * fields for the {@link ParallelTiffWriter}
+	 */
+	static List<ParallelTiffWriter.Field> getFields(IIOMetadata metadata) throws IOException {
+	    final List<ParallelTiffWriter.Field> result = new ArrayList<ParallelTiffWriter.Field>();
+	    final Set<Integer> structureTags = new HashSet<Integer>();
+	    for (int tag : ParallelTiffWriter.STRUCTURE_TAGS) {
+	        structureTags.add(tag);
+	    }
+	    for (TIFFField field : ((TIFFImageMetadata) metadata).getRootIFD().getTIFFFields()) {
+	        if (structureTags.contains(field.getTagNumber())) {
+	            continue;
+	        }
+	        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	        final DataOutputStream dos = new DataOutputStream(bos);
+	        final int count = field.getCount();
+	        long tiffCount = count;
+	        switch (field.getType()) {
+	        case TIFFTag.TIFF_BYTE:
+	        case TIFFTag.TIFF_SBYTE:
+	        case TIFFTag.TIFF_UNDEFINED:
+	            for (int i = 0; i < count; i++) {
+	                dos.writeByte(field.getAsInt(i));
+	            }
+	            break;
+	        case TIFFTag.TIFF_ASCII:
+	            for (int i = 0; i < count; i++) {
+	                dos.write(field.getAsString(i).getBytes("US-ASCII"));
+	                dos.writeByte(0);
+	            }
+	            tiffCount = dos.size();
+	            break;
+	        case TIFFTag.TIFF_SHORT:
+	        case TIFFTag.TIFF_SSHORT:
+	            for (int i = 0; i < count; i++) {
+	                dos.writeShort(field.getAsInt(i));
+	            }
+	            break;
+	        case TIFFTag.TIFF_LONG:
+	        case TIFFTag.TIFF_SLONG:
+	            for (int i = 0; i < count; i++) {
+	                dos.writeInt((int) field.getAsLong(i));
+	            }
+	            break;
+	        case TIFFTag.TIFF_RATIONAL:
+	            for (int i = 0; i < count; i++) {
+	                final long[] rational = field.getAsRational(i);
+	                dos.writeInt((int) rational[0]);
+	                dos.writeInt((int) rational[1]);
+	            }
+	            break;
+	        case TIFFTag.TIFF_SRATIONAL:
+	            for (int i = 0; i < count; i++) {
+	                final int[] rational = field.getAsSRational(i);
+	                dos.writeInt(rational[0]);
+	                dos.writeInt(rational[1]);
+	            }
+	            break;
+	        case TIFFTag.TIFF_FLOAT:
+	            for (int i = 0; i < count; i++) {
+	                dos.writeFloat(field.getAsFloat(i));
+	            }
+	            break;
+	        case TIFFTag.TIFF_DOUBLE:
+	            for (int i = 0; i < count; i++) {
+	                dos.writeDouble(field.getAsDouble(i));
+	            }
+	            break;
+	        default:
+	            if (LOGGER.isLoggable(Level.FINE)) {
+	                LOGGER.fine("Skipping TIFF tag " + field.getTagNumber() + " of type "
+	                        + field.getType());
+	            }
+	            continue;
+	        }
+	        dos.flush();
+	        result.add(new ParallelTiffWriter.Field(field.getTagNumber(), field.getType(),
+	                tiffCount, bos.toByteArray()));
+	    }
+	    return result;
+	}
+
 	/**
 	 * Creates image metadata which complies to the GeoTIFFWritingUtilities
 	 * specification for the given image writer, image type and
@@ -0,0 +1,984 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.opengis.util.ProgressListener;
+
+/**
+ * Writes a tiled TIFF computing and compressing the tiles on a pool of threads, while the calling
+ * thread writes them, in order, to the output. Internal overviews are generated in the same pass:
+ * each tile is also reduced by a factor of two, and the reduced tiles are assembled, a row of
+ * tiles at a time, into the tiles of the next level, which are then encoded and reduced in turn.
+ * <p>
+ * The image directories are written first, right after the header, followed by the tile data of
+ * all the levels; the tile offsets and byte counts are filled in at the end, so the output must
+ * allow seeking back to them. Files whose uncompressed size is close to 4GB or larger are
+ * written as BigTIFF.
+ * <p>
+ * Only images with one sample per data element ({@link ComponentSampleModel}) are supported, see
+ * {@link #isSupported(RenderedImage)}.
+ *
+ * @source $URL$
+ */
+class ParallelTiffWriter {
+
+    static final int COMPRESSION_NONE = 1;
+
+    static final int COMPRESSION_LZW = 5;
+
+    static final int COMPRESSION_ZLIB = 8;
+
+    static final int COMPRESSION_DEFLATE = 32946;
+
+    // TIFF field types
+    static final int TYPE_BYTE = 1;
+
+    static final int TYPE_ASCII = 2;
+
+    static final int TYPE_SHORT = 3;
+
+    static final int TYPE_LONG = 4;
+
+    static final int TYPE_RATIONAL = 5;
+
+    static final int TYPE_SBYTE = 6;
+
+    static final int TYPE_UNDEFINED = 7;
+
+    static final int TYPE_SSHORT = 8;
+
+    static final int TYPE_SLONG = 9;
+
+    static final int TYPE_SRATIONAL = 10;
+
+    static final int TYPE_FLOAT = 11;
+
+    static final int TYPE_DOUBLE = 12;
+
+    static final int TYPE_LONG8 = 16;
+
+    // the tags written by this class
+    static final int TAG_NEW_SUBFILE_TYPE = 254;
+
+    static final int TAG_IMAGE_WIDTH = 256;
+
+    static final int TAG_IMAGE_LENGTH = 257;
+
+    static final int TAG_BITS_PER_SAMPLE = 258;
+
+    static final int TAG_COMPRESSION = 259;
+
+    static final int TAG_PHOTOMETRIC = 262;
+
+    static final int TAG_SAMPLES_PER_PIXEL = 277;
+
+    static final int TAG_PLANAR_CONFIGURATION = 284;
+
+    static final int TAG_COLOR_MAP = 320;
+
+    static final int TAG_TILE_WIDTH = 322;
+
+    static final int TAG_TILE_LENGTH = 323;
+
+    static final int TAG_TILE_OFFSETS = 324;
+
+    static final int TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TAG_EXTRA_SAMPLES = 338;
+
+    static final int TAG_SAMPLE_FORMAT = 339;
+
+    /**
+     * The image structure tags, which are computed by this class and must not be copied from
+     * other metadata
+     */
+    static final int[] STRUCTURE_TAGS = { TAG_NEW_SUBFILE_TYPE, 255, TAG_IMAGE_WIDTH,
+            TAG_IMAGE_LENGTH, TAG_BITS_PER_SAMPLE, TAG_COMPRESSION, TAG_PHOTOMETRIC, 266, 273,
+            274, TAG_SAMPLES_PER_PIXEL, 278, 279, 282, 283, TAG_PLANAR_CONFIGURATION, 296, 317,
+            TAG_COLOR_MAP, TAG_TILE_WIDTH, TAG_TILE_LENGTH, TAG_TILE_OFFSETS,
+            TAG_TILE_BYTE_COUNTS, TAG_EXTRA_SAMPLES, TAG_SAMPLE_FORMAT };
+
+    /** Above this estimated size the file is written as BigTIFF */
+    static final long BIG_TIFF_THRESHOLD = 0xFFFFFFFFL * 3 / 4;
+
+    /** The number of tiles each thread is allowed to compute ahead of the writer */
+    static final int TILES_AHEAD = 4;
+
+    /**
+     * A TIFF field, holding its value already encoded in big endian order
+     */
+    static final class Field implements Comparable<Field> {
+        final int tag;
+
+        final int type;
+
+        final long count;
+
+        final byte[] value;
+
+        Field(int tag, int type, long count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+
+        static Field shorts(int tag, int... values) {
+            ByteBuffer bb = ByteBuffer.allocate(values.length * 2);
+            for (int v : values) {
+                bb.putShort((short) v);
+            }
+            return new Field(tag, TYPE_SHORT, values.length, bb.array());
+        }
+
+        static Field longs(int tag, long... values) {
+            ByteBuffer bb = ByteBuffer.allocate(values.length * 4);
+            for (long v : values) {
+                bb.putInt((int) v);
+            }
+            return new Field(tag, TYPE_LONG, values.length, bb.array());
+        }
+
+        public int compareTo(Field other) {
+            return tag < other.tag ? -1 : (tag == other.tag ? 0 : 1);
+        }
+    }
+
+    /**
+     * A resolution level of the output
+     */
+    final class Level {
+        final int index;
+
+        final int width;
+
+        final int height;
+
+        final int numXTiles;
+
+        final int numYTiles;
+
+        final long[] offsets;
+
+        final long[] byteCounts;
+
+        /** Where the tile offsets and byte counts have to be written */
+        long offsetsPosition;
+
+        long byteCountsPosition;
+
+        /** The row of tiles being assembled from the tiles of the previous level */
+        WritableRaster row;
+
+        Level(int index, int width, int height) {
+            this.index = index;
+            this.width = width;
+            this.height = height;
+            this.numXTiles = (width + tileWidth - 1) / tileWidth;
+            this.numYTiles = (height + tileHeight - 1) / tileHeight;
+            this.offsets = new long[numXTiles * numYTiles];
+            this.byteCounts = new long[numXTiles * numYTiles];
+        }
+
+        Rectangle getTileBounds(int tileIndex) {
+            final int tx = tileIndex % numXTiles;
+            final int ty = tileIndex / numXTiles;
+            return new Rectangle(tx * tileWidth, ty * tileHeight, tileWidth, tileHeight)
+                    .intersection(new Rectangle(0, 0, width, height));
+        }
+    }
+
+    /**
+     * The output of the encoding of a tile
+     */
+    static final class EncodedTile {
+        final int level;
+
+        final int index;
+
+        final byte[] data;
+
+        /** The tile reduced to the next level resolution, null for the last level */
+        final Raster reduced;
+
+        EncodedTile(int level, int index, byte[] data, Raster reduced) {
+            this.level = level;
+            this.index = index;
+            this.data = data;
+            this.reduced = reduced;
+        }
+    }
+
+    /**
+     * Encodes a tile, reading it from the image if it's a full resolution tile
+     */
+    final class EncodeTask implements Callable<EncodedTile> {
+        final Level level;
+
+        final int index;
+
+        final Raster source;
+
+        EncodeTask(Level level, int index, Raster source) {
+            this.level = level;
+            this.index = index;
+            this.source = source;
+        }
+
+        public EncodedTile call() throws Exception {
+            Raster raster = source;
+            if (raster == null) {
+                final Rectangle bounds = level.getTileBounds(index);
+                raster = image.getData(
+                        new Rectangle(region.x + bounds.x, region.y + bounds.y, bounds.width,
+                                bounds.height)).createTranslatedChild(bounds.x, bounds.y);
+            }
+            final byte[] data = compress(serialize(raster));
+            final Raster reduced = level.index < levels.length - 1 ? reduce(raster) : null;
+            return new EncodedTile(level.index, index, data, reduced);
+        }
+    }
+
+    private final ImageOutputStream out;
+
+    private final RenderedImage image;
+
+    private final Rectangle region;
+
+    private final int numBands;
+
+    private final int dataType;
+
+    private final int bytesPerSample;
+
+    private int tileWidth = 256;
+
+    private int tileHeight = 256;
+
+    private int compression = COMPRESSION_NONE;
+
+    private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int overviews;
+
+    private boolean averageOverviews = true;
+
+    private double noData = Double.NaN;
+
+    private boolean bigTiff;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private List<Field> fields = Collections.emptyList();
+
+    private ProgressListener listener;
+
+    private Level[] levels;
+
+    /** The stream position of the TIFF header, all the offsets are relative to it */
+    private long base;
+
+    /**
+     * Creates the writer
+     *
+     * @param out the output, must support seeking back to the already written data
+     * @param image the image to write
+     * @param region the area of the image to write, or null to write it all
+     */
+    ParallelTiffWriter(ImageOutputStream out, RenderedImage image, Rectangle region) {
+        this.out = out;
+        this.image = image;
+        final Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(),
+                image.getWidth(), image.getHeight());
+        this.region = region == null ? bounds : region.intersection(bounds);
+        if (this.region.isEmpty()) {
+            throw new IllegalArgumentException("The region to write does not overlap the image");
+        }
+        final SampleModel sm = image.getSampleModel();
+        this.numBands = sm.getNumBands();
+        this.dataType = sm.getDataType();
+        this.bytesPerSample = DataBuffer.getDataTypeSize(dataType) / 8;
+    }
+
+    /**
+     * Returns true if the image sample model can be written by this class
+     */
+    static boolean isSupported(RenderedImage image) {
+        final SampleModel sm = image.getSampleModel();
+        if (!(sm instanceof ComponentSampleModel)) {
+            return false;
+        }
+        final int dataType = sm.getDataType();
+        if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT
+                && dataType != DataBuffer.TYPE_SHORT && dataType != DataBuffer.TYPE_INT
+                && dataType != DataBuffer.TYPE_FLOAT && dataType != DataBuffer.TYPE_DOUBLE) {
+            return false;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != DataBuffer.getDataTypeSize(dataType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the TIFF compression code for the specified ImageIO compression type, or -1 if the
+     * compression is not supported
+     */
+    static int getCompression(String compressionType) {
+        if (compressionType == null) {
+            return COMPRESSION_NONE;
+        } else if ("LZW".equalsIgnoreCase(compressionType)) {
+            return COMPRESSION_LZW;
+        } else if ("ZLib".equalsIgnoreCase(compressionType)) {
+            return COMPRESSION_ZLIB;
+        } else if ("Deflate".equalsIgnoreCase(compressionType)) {
+            return COMPRESSION_DEFLATE;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the tile size, rounded up to a multiple of 16 as required by the TIFF specification
+     */
+    void setTileSize(int tileWidth, int tileHeight) {
+        this.tileWidth = Math.max(16, (tileWidth + 15) / 16 * 16);
+        this.tileHeight = Math.max(16, (tileHeight + 15) / 16 * 16);
+    }
+
+    /**
+     * Sets the compression
+     *
+     * @param compression one of the COMPRESSION_XXX codes
+     * @param quality the compression quality, between 0 and 1, used to pick the Deflate level,
+     *        or a negative number to use the default level
+     */
+    void setCompression(int compression, float quality) {
+        if (compression != COMPRESSION_NONE && compression != COMPRESSION_LZW
+                && compression != COMPRESSION_ZLIB && compression != COMPRESSION_DEFLATE) {
+            throw new IllegalArgumentException("Unsupported compression " + compression);
+        }
+        this.compression = compression;
+        this.deflateLevel = quality < 0 ? Deflater.DEFAULT_COMPRESSION : 1 + Math.round(Math
+                .min(1, quality) * 8);
+    }
+
+    /**
+     * Sets the number of overviews to generate, and whether they average the pixels or pick the
+     * nearest one. Palette images always use the nearest pixel.
+     */
+    void setOverviews(int overviews, boolean average) {
+        this.overviews = overviews;
+        this.averageOverviews = average && !(image.getColorModel() instanceof IndexColorModel);
+    }
+
+    /**
+     * Sets the value of the pixels that are not taken into account when averaging the overviews
+     */
+    void setNoData(double noData) {
+        this.noData = noData;
+    }
+
+    void setBigTiff(boolean bigTiff) {
+        this.bigTiff = bigTiff;
+    }
+
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the additional fields of the full resolution directory, e.g., the GeoTIFF ones
+     */
+    void setFields(List<Field> fields) {
+        this.fields = fields;
+    }
+
+    void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Writes the image
+     */
+    void write() throws IOException {
+        buildLevels();
+        long totalTiles = 0;
+        long uncompressedSize = 0;
+        for (Level level : levels) {
+            totalTiles += level.offsets.length;
+            uncompressedSize += (long) level.offsets.length * tileWidth * tileHeight * numBands
+                    * bytesPerSample;
+        }
+        if (uncompressedSize > BIG_TIFF_THRESHOLD) {
+            bigTiff = true;
+        }
+
+        writeDirectories();
+
+        if (listener != null) {
+            listener.started();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    int count;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ParallelTiffWriter-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            final LinkedList<Future<EncodedTile>> queue = new LinkedList<Future<EncodedTile>>();
+            final Level fullRes = levels[0];
+            final int maxAhead = threads * TILES_AHEAD;
+            int nextTile = 0;
+            long written = 0;
+            while (nextTile < fullRes.offsets.length || !queue.isEmpty()) {
+                while (nextTile < fullRes.offsets.length && queue.size() < maxAhead) {
+                    queue.add(executor.submit(new EncodeTask(fullRes, nextTile++, null)));
+                }
+                final EncodedTile tile = get(queue.removeFirst());
+
+                final Level level = levels[tile.level];
+                level.offsets[tile.index] = out.getStreamPosition() - base;
+                level.byteCounts[tile.index] = tile.data.length;
+                out.write(tile.data);
+                if (tile.data.length % 2 != 0) {
+                    // keep the tiles word aligned
+                    out.write(0);
+                }
+                if (tile.reduced != null) {
+                    for (EncodeTask task : accumulate(tile)) {
+                        queue.add(executor.submit(task));
+                    }
+                }
+
+                written++;
+                if (listener != null) {
+                    if (listener.isCanceled()) {
+                        throw new IIOException("The write operation has been canceled");
+                    }
+                    listener.progress(100f * written / totalTiles);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long end = out.getStreamPosition();
+        for (Level level : levels) {
+            writeOffsets(level.offsetsPosition, level.offsets);
+            writeOffsets(level.byteCountsPosition, level.byteCounts);
+        }
+        out.seek(end);
+        out.flush();
+        if (listener != null) {
+            listener.complete();
+        }
+    }
+
+    private static EncodedTile get(Future<EncodedTile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IIOException("Interrupted while writing the tiles", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IIOException("Failed to encode a tile", cause);
+        }
+    }
+
+    private void buildLevels() {
+        final List<Level> list = new ArrayList<Level>();
+        Level level = new Level(0, region.width, region.height);
+        list.add(level);
+        while (list.size() <= overviews && (level.numXTiles > 1 || level.numYTiles > 1)) {
+            level = new Level(list.size(), (level.width + 1) / 2, (level.height + 1) / 2);
+            list.add(level);
+        }
+        levels = list.toArray(new Level[list.size()]);
+    }
+
+    /**
+     * Adds a reduced tile of the previous level to the row of the next level being assembled,
+     * returns the tasks encoding the tiles of the row once it's complete
+     */
+    private List<EncodeTask> accumulate(EncodedTile tile) {
+        final Level source = levels[tile.level];
+        final Level target = levels[tile.level + 1];
+        final int tx = tile.index % source.numXTiles;
+        final int ty = tile.index / source.numXTiles;
+        final int targetRow = ty / 2;
+        if (target.row == null) {
+            final int y = targetRow * tileHeight;
+            target.row = Raster.createWritableRaster(tile.reduced.getSampleModel()
+                    .createCompatibleSampleModel(target.width,
+                            Math.min(tileHeight, target.height - y)), new Point(0, y));
+        }
+        target.row.setRect(tile.reduced);
+
+        if (tx < source.numXTiles - 1 || (ty % 2 == 0 && ty < source.numYTiles - 1)) {
+            return Collections.emptyList();
+        }
+        // the row is complete, split it in tiles
+        final List<EncodeTask> tasks = new ArrayList<EncodeTask>(target.numXTiles);
+        for (int i = 0; i < target.numXTiles; i++) {
+            final int index = targetRow * target.numXTiles + i;
+            final Rectangle bounds = target.getTileBounds(index);
+            tasks.add(new EncodeTask(target, index, target.row.createChild(bounds.x, bounds.y,
+                    bounds.width, bounds.height, bounds.x, bounds.y, null)));
+        }
+        target.row = null;
+        return tasks;
+    }
+
+    /**
+     * Encodes the tile pixels, padding them to the full tile size
+     */
+    byte[] serialize(Raster raster) {
+        final int minX = raster.getMinX();
+        final int minY = raster.getMinY();
+        final int width = raster.getWidth();
+        final int rowLength = width * numBands;
+        final int tileRowBytes = tileWidth * numBands * bytesPerSample;
+        final ByteBuffer bb = ByteBuffer.allocate(tileRowBytes * tileHeight);
+        bb.order(ByteOrder.BIG_ENDIAN);
+        int[] ints = null;
+        float[] floats = null;
+        double[] doubles = null;
+        for (int y = 0; y < raster.getHeight(); y++) {
+            bb.position(y * tileRowBytes);
+            switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                ints = raster.getPixels(minX, minY + y, width, 1, ints);
+                for (int i = 0; i < rowLength; i++) {
+                    bb.put((byte) ints[i]);
+                }
+                break;
+            case DataBuffer.TYPE_USHORT:
+            case DataBuffer.TYPE_SHORT:
+                ints = raster.getPixels(minX, minY + y, width, 1, ints);
+                for (int i = 0; i < rowLength; i++) {
+                    bb.putShort((short) ints[i]);
+                }
+                break;
+            case DataBuffer.TYPE_INT:
+                ints = raster.getPixels(minX, minY + y, width, 1, ints);
+                for (int i = 0; i < rowLength; i++) {
+                    bb.putInt(ints[i]);
+                }
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                floats = raster.getPixels(minX, minY + y, width, 1, floats);
+                for (int i = 0; i < rowLength; i++) {
+                    bb.putFloat(floats[i]);
+                }
+                break;
+            default:
+                doubles = raster.getPixels(minX, minY + y, width, 1, doubles);
+                for (int i = 0; i < rowLength; i++) {
+                    bb.putDouble(doubles[i]);
+                }
+            }
+        }
+        return bb.array();
+    }
+
+    byte[] compress(byte[] data) {
+        switch (compression) {
+        case COMPRESSION_LZW:
+            return lzw(data);
+        case COMPRESSION_ZLIB:
+        case COMPRESSION_DEFLATE:
+            final Deflater deflater = new Deflater(deflateLevel);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+                final byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    final int n = deflater.deflate(buffer);
+                    bos.write(buffer, 0, n);
+                }
+                return bos.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        default:
+            return data;
+        }
+    }
+
+    /**
+     * Compresses the data with the TIFF flavour of LZW, that is, most significant bit first and
+     * switching to a longer code one code early
+     */
+    static byte[] lzw(byte[] data) {
+        final int clearCode = 256;
+        final int eoiCode = 257;
+        // open addressing hash of (prefix code << 8 | byte) -> code
+        final int hashSize = 8192;
+        final int[] keys = new int[hashSize];
+        final short[] codes = new short[hashSize];
+        java.util.Arrays.fill(keys, -1);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+        long bitBuffer = 0;
+        int bitCount = 0;
+        int codeWidth = 9;
+        int nextCode = 258;
+
+        // write the clear code
+        bitBuffer = clearCode;
+        bitCount = codeWidth;
+
+        if (data.length > 0) {
+            int prefix = data[0] & 0xFF;
+            for (int i = 1; i < data.length; i++) {
+                final int c = data[i] & 0xFF;
+                final int key = (prefix << 8) | c;
+                int slot = (key * 0x9E3779B1 >>> 19) & (hashSize - 1);
+                while (keys[slot] != -1 && keys[slot] != key) {
+                    slot = (slot + 1) & (hashSize - 1);
+                }
+                if (keys[slot] == key) {
+                    prefix = codes[slot];
+                    continue;
+                }
+                // emit the prefix
+                bitBuffer = (bitBuffer << codeWidth) | prefix;
+                bitCount += codeWidth;
+                while (bitCount >= 8) {
+                    bos.write((int) (bitBuffer >>> (bitCount - 8)));
+                    bitCount -= 8;
+                }
+                keys[slot] = key;
+                codes[slot] = (short) nextCode++;
+                if (nextCode == 4094) {
+                    // table full, start again
+                    bitBuffer = (bitBuffer << codeWidth) | clearCode;
+                    bitCount += codeWidth;
+                    java.util.Arrays.fill(keys, -1);
+                    nextCode = 258;
+                    codeWidth = 9;
+                } else if (nextCode == (1 << codeWidth)) {
+                    codeWidth++;
+                }
+                prefix = c;
+            }
+            bitBuffer = (bitBuffer << codeWidth) | prefix;
+            bitCount += codeWidth;
+            while (bitCount >= 8) {
+                bos.write((int) (bitBuffer >>> (bitCount - 8)));
+                bitCount -= 8;
+            }
+            // the code width might change after the last entry, as the decoder sees it
+            if (nextCode + 1 == (1 << codeWidth) && codeWidth < 12) {
+                codeWidth++;
+            }
+        }
+        bitBuffer = (bitBuffer << codeWidth) | eoiCode;
+        bitCount += codeWidth;
+        while (bitCount >= 8) {
+            bos.write((int) (bitBuffer >>> (bitCount - 8)));
+            bitCount -= 8;
+        }
+        if (bitCount > 0) {
+            bos.write((int) (bitBuffer << (8 - bitCount)));
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Halves the resolution of a tile, either averaging the valid pixels of each 2x2 block or
+     * taking the upper left one
+     */
+    Raster reduce(Raster raster) {
+        final int width = (raster.getWidth() + 1) / 2;
+        final int height = (raster.getHeight() + 1) / 2;
+        final WritableRaster reduced = Raster.createWritableRaster(raster.getSampleModel()
+                .createCompatibleSampleModel(width, height), new Point(raster.getMinX() / 2,
+                raster.getMinY() / 2));
+        final boolean integral = dataType != DataBuffer.TYPE_FLOAT
+                && dataType != DataBuffer.TYPE_DOUBLE;
+        final boolean hasNoData = !Double.isNaN(noData);
+        final int srcWidth = raster.getWidth();
+        final double[] row0 = new double[srcWidth * numBands];
+        final double[] row1 = new double[srcWidth * numBands];
+        final double[] result = new double[width * numBands];
+        for (int y = 0; y < height; y++) {
+            final int sy = raster.getMinY() + y * 2;
+            raster.getPixels(raster.getMinX(), sy, srcWidth, 1, row0);
+            final boolean hasRow1 = y * 2 + 1 < raster.getHeight();
+            if (hasRow1 && averageOverviews) {
+                raster.getPixels(raster.getMinX(), sy + 1, srcWidth, 1, row1);
+            }
+            for (int x = 0; x < width; x++) {
+                final int sx = x * 2;
+                for (int b = 0; b < numBands; b++) {
+                    final int i = sx * numBands + b;
+                    if (!averageOverviews) {
+                        result[x * numBands + b] = row0[i];
+                        continue;
+                    }
+                    double sum = 0;
+                    int count = 0;
+                    final boolean hasColumn1 = sx + 1 < srcWidth;
+                    for (int k = 0; k < 4; k++) {
+                        if ((k % 2 == 1 && !hasColumn1) || (k >= 2 && !hasRow1)) {
+                            continue;
+                        }
+                        final double v = (k >= 2 ? row1 : row0)[i + (k % 2) * numBands];
+                        if (Double.isNaN(v) || (hasNoData && v == noData)) {
+                            continue;
+                        }
+                        sum += v;
+                        count++;
+                    }
+                    double value;
+                    if (count == 0) {
+                        value = hasNoData ? noData : (integral ? 0 : Double.NaN);
+                    } else {
+                        value = sum / count;
+                        if (integral) {
+                            value = Math.round(value);
+                        }
+                    }
+                    result[x * numBands + b] = value;
+                }
+            }
+            reduced.setPixels(reduced.getMinX(), reduced.getMinY() + y, width, 1, result);
+        }
+        return reduced;
+    }
+
+    /**
+     * Writes the header and the directories of all the levels, leaving the tile offsets and byte
+     * counts to be filled in later
+     */
+    private void writeDirectories() throws IOException {
+        out.setByteOrder(ByteOrder.BIG_ENDIAN);
+        base = out.getStreamPosition();
+        out.writeByte('M');
+        out.writeByte('M');
+        if (bigTiff) {
+            out.writeShort(43);
+            out.writeShort(8);
+            out.writeShort(0);
+            out.writeLong(16);
+        } else {
+            out.writeShort(42);
+            out.writeInt(8);
+        }
+
+        for (int i = 0; i < levels.length; i++) {
+            final Level level = levels[i];
+            final List<Field> directory = buildDirectory(level);
+            final long position = out.getStreamPosition();
+            final int entrySize = bigTiff ? 20 : 12;
+            final int inlineSize = bigTiff ? 8 : 4;
+            final long directorySize = (bigTiff ? 8 : 2) + directory.size() * entrySize
+                    + (bigTiff ? 8 : 4);
+            long valuesSize = 0;
+            for (Field field : directory) {
+                if (field.value.length > inlineSize) {
+                    valuesSize += (field.value.length + 1) / 2 * 2;
+                }
+            }
+            final boolean last = i == levels.length - 1;
+            final long next = last ? 0 : position - base + directorySize + valuesSize;
+
+            // the entries
+            if (bigTiff) {
+                out.writeLong(directory.size());
+            } else {
+                out.writeShort(directory.size());
+            }
+            long valuePosition = position + directorySize;
+            for (Field field : directory) {
+                out.writeShort(field.tag);
+                out.writeShort(field.type);
+                if (bigTiff) {
+                    out.writeLong(field.count);
+                } else {
+                    out.writeInt((int) field.count);
+                }
+                final long fieldPosition;
+                if (field.value.length > inlineSize) {
+                    fieldPosition = valuePosition;
+                    if (bigTiff) {
+                        out.writeLong(valuePosition - base);
+                    } else {
+                        out.writeInt((int) (valuePosition - base));
+                    }
+                    valuePosition += (field.value.length + 1) / 2 * 2;
+                } else {
+                    fieldPosition = out.getStreamPosition();
+                    out.write(field.value);
+                    for (int j = field.value.length; j < inlineSize; j++) {
+                        out.write(0);
+                    }
+                }
+                if (field.tag == TAG_TILE_OFFSETS) {
+                    level.offsetsPosition = fieldPosition;
+                } else if (field.tag == TAG_TILE_BYTE_COUNTS) {
+                    level.byteCountsPosition = fieldPosition;
+                }
+            }
+            if (bigTiff) {
+                out.writeLong(next);
+            } else {
+                out.writeInt((int) next);
+            }
+
+            // the values that do not fit in the entries
+            for (Field field : directory) {
+                if (field.value.length > inlineSize) {
+                    out.write(field.value);
+                    if (field.value.length % 2 != 0) {
+                        out.write(0);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Field> buildDirectory(Level level) {
+        final List<Field> directory = new ArrayList<Field>();
+        if (level.index > 0) {
+            // reduced resolution version of the image
+            directory.add(Field.longs(TAG_NEW_SUBFILE_TYPE, 1));
+        }
+        directory.add(Field.longs(TAG_IMAGE_WIDTH, level.width));
+        directory.add(Field.longs(TAG_IMAGE_LENGTH, level.height));
+        final int[] bits = new int[numBands];
+        final int[] formats = new int[numBands];
+        final int format = dataType == DataBuffer.TYPE_FLOAT
+                || dataType == DataBuffer.TYPE_DOUBLE ? 3
+                : (dataType == DataBuffer.TYPE_SHORT || dataType == DataBuffer.TYPE_INT ? 2 : 1);
+        for (int b = 0; b < numBands; b++) {
+            bits[b] = bytesPerSample * 8;
+            formats[b] = format;
+        }
+        directory.add(Field.shorts(TAG_BITS_PER_SAMPLE, bits));
+        directory.add(Field.shorts(TAG_COMPRESSION, compression));
+
+        // photometric interpretation and extra samples
+        final ColorModel cm = image.getColorModel();
+        int photometric = 1;
+        int colorSamples = 1;
+        if (cm instanceof IndexColorModel && numBands == 1
+                && (dataType == DataBuffer.TYPE_BYTE || dataType == DataBuffer.TYPE_USHORT)) {
+            photometric = 3;
+            final IndexColorModel icm = (IndexColorModel) cm;
+            final int size = 1 << bits[0];
+            final int[] map = new int[size * 3];
+            for (int i = 0; i < Math.min(size, icm.getMapSize()); i++) {
+                map[i] = icm.getRed(i) * 257;
+                map[size + i] = icm.getGreen(i) * 257;
+                map[2 * size + i] = icm.getBlue(i) * 257;
+            }
+            directory.add(Field.shorts(TAG_COLOR_MAP, map));
+        } else if (cm != null && cm.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                && cm.getNumColorComponents() == 3 && numBands >= 3) {
+            photometric = 2;
+            colorSamples = 3;
+        }
+        directory.add(Field.shorts(TAG_PHOTOMETRIC, photometric));
+        directory.add(Field.shorts(TAG_SAMPLES_PER_PIXEL, numBands));
+        directory.add(Field.shorts(TAG_PLANAR_CONFIGURATION, 1));
+        directory.add(Field.longs(TAG_TILE_WIDTH, tileWidth));
+        directory.add(Field.longs(TAG_TILE_LENGTH, tileHeight));
+        final int tiles = level.offsets.length;
+        if (bigTiff) {
+            directory.add(new Field(TAG_TILE_OFFSETS, TYPE_LONG8, tiles, new byte[tiles * 8]));
+            directory.add(new Field(TAG_TILE_BYTE_COUNTS, TYPE_LONG8, tiles, new byte[tiles * 8]));
+        } else {
+            directory.add(new Field(TAG_TILE_OFFSETS, TYPE_LONG, tiles, new byte[tiles * 4]));
+            directory.add(new Field(TAG_TILE_BYTE_COUNTS, TYPE_LONG, tiles, new byte[tiles * 4]));
+        }
+        if (photometric != 3 && numBands > colorSamples) {
+            final int[] extra = new int[numBands - colorSamples];
+            if (cm != null && cm.hasAlpha()) {
+                extra[0] = cm.isAlphaPremultiplied() ? 1 : 2;
+            }
+            directory.add(Field.shorts(TAG_EXTRA_SAMPLES, extra));
+        }
+        directory.add(Field.shorts(TAG_SAMPLE_FORMAT, formats));
+
+        if (level.index == 0) {
+            directory.addAll(fields);
+        }
+        Collections.sort(directory);
+        return directory;
+    }
+
+    private void writeOffsets(long position, long[] values) throws IOException {
+        out.seek(position);
+        for (long value : values) {
+            if (bigTiff) {
+                out.writeLong(value);
+            } else {
+                if (value > 0xFFFFFFFFL) {
+                    throw new IIOException("The output exceeds the 4GB limit of TIFF files, "
+                            + "BigTIFF should be used instead");
+                }
+                out.writeInt((int) value);
+            }
+        }
+    }
+}
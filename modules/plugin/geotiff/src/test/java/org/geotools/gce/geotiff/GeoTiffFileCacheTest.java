@@ -0,0 +1,222 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.geotiff;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+
+import javax.imageio.ImageWriteParam;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.test.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * Tests the reuse of the parsed metadata and decoded tiles across reads of the same file
+ *
+ * @source $URL$
+ */
+public class GeoTiffFileCacheTest {
+
+    File tiled;
+
+    GridCoverage2D original;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(GeoTiffFileCache.ENABLED_KEY, "true");
+        final File input = TestData.file(GeoTiffReaderTest.class, "geo.tiff");
+        GeoTiffReader reader = new GeoTiffReader(input);
+        original = reader.read(null);
+        reader.dispose();
+
+        tiled = File.createTempFile("tiled", ".tif");
+        GeoTiffWriter writer = new GeoTiffWriter(tiled);
+        try {
+            GeoTiffWriteParams params = new GeoTiffWriteParams();
+            params.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setTiling(16, 16);
+            ParameterValue<GeoToolsWriteParams> value = GeoTiffFormat.GEOTOOLS_WRITE_PARAMS
+                    .createValue();
+            value.setValue(params);
+            writer.write(original, new GeneralParameterValue[] { value });
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(GeoTiffFileCache.ENABLED_KEY);
+        GeoTiffFileCache.remove(tiled);
+        tiled.delete();
+        original.dispose(true);
+    }
+
+    @Test
+    public void testTilesReused() throws Exception {
+        GeoTiffReader reader = new GeoTiffReader(tiled);
+        try {
+            RenderedImage first = reader.read(null).getRenderedImage();
+            assertTrue(first instanceof CachedTiffImage);
+            assertEquals(16, first.getTileWidth());
+            assertEquals(16, first.getTileHeight());
+            assertSamePixels(original.getRenderedImage(), first);
+
+            GeoTiffFileCache cache = GeoTiffFileCache.get(tiled);
+            final long misses = cache.misses;
+            final int tiles = first.getNumXTiles() * first.getNumYTiles();
+            assertEquals(tiles, cache.getCachedTiles());
+
+            // a new reader on the same file decodes nothing
+            GeoTiffReader other = new GeoTiffReader(tiled);
+            try {
+                assertSame(reader.getMetadata(), other.getMetadata());
+                RenderedImage second = other.read(null).getRenderedImage();
+                assertSamePixels(first, second);
+                assertEquals(misses, cache.misses);
+                assertTrue(cache.hits >= tiles);
+            } finally {
+                other.dispose();
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        System.clearProperty(GeoTiffFileCache.ENABLED_KEY);
+        GeoTiffReader reader = new GeoTiffReader(tiled);
+        try {
+            RenderedImage image = reader.read(null).getRenderedImage();
+            assertFalse(image instanceof CachedTiffImage);
+            assertSamePixels(original.getRenderedImage(), image);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testDisposeEvicts() throws Exception {
+        GeoTiffReader reader = new GeoTiffReader(tiled);
+        RenderedImage image = reader.read(null).getRenderedImage();
+        GeoTiffFileCache cache = GeoTiffFileCache.get(tiled);
+        assertTrue(cache.getCachedTiles() > 0);
+        reader.dispose();
+
+        // the file is not held by the cache anymore
+        assertEquals(0, cache.getCachedTiles());
+        assertNotSame(cache, GeoTiffFileCache.get(tiled));
+        GeoTiffFileCache.remove(tiled);
+        // the image still works, decoding its tiles again
+        assertSamePixels(original.getRenderedImage(), image);
+    }
+
+    @Test
+    public void testDisposeKeepsSharedEntries() throws Exception {
+        GeoTiffReader first = new GeoTiffReader(tiled);
+        GeoTiffReader second = new GeoTiffReader(tiled);
+        second.read(null).getRenderedImage();
+        GeoTiffFileCache cache = GeoTiffFileCache.get(tiled);
+        final int tiles = cache.getCachedTiles();
+        assertTrue(tiles > 0);
+
+        // the entry is still used by the second reader
+        first.dispose();
+        assertSame(cache, GeoTiffFileCache.get(tiled));
+        assertEquals(tiles, cache.getCachedTiles());
+
+        // dropped with the last reader
+        second.dispose();
+        assertEquals(0, cache.getCachedTiles());
+        assertNotSame(cache, GeoTiffFileCache.get(tiled));
+    }
+
+    @Test
+    public void testReadOnlyTiles() throws Exception {
+        GeoTiffFileCache cache = GeoTiffFileCache.get(tiled);
+        Raster tile = cache.getTile(0, 1, 1);
+        assertFalse(tile instanceof WritableRaster);
+        assertEquals(16, tile.getMinX());
+        assertEquals(16, tile.getMinY());
+        assertSame(tile, cache.getTile(0, 1, 1));
+    }
+
+    @Test
+    public void testTileBudget() throws Exception {
+        // a zero budget caches nothing
+        GeoTiffFileCache probe = new GeoTiffFileCache(tiled, 0);
+        final long tileSize = GeoTiffFileCache.getSize(probe.getTile(0, 0, 0));
+        assertEquals(0, probe.getCachedTiles());
+        probe.dispose();
+
+        // room for two tiles
+        GeoTiffFileCache cache = new GeoTiffFileCache(tiled, tileSize * 2);
+        try {
+            cache.getTile(0, 0, 0);
+            assertEquals(tileSize, cache.getCachedBytes());
+            cache.getTile(0, 1, 0);
+            cache.getTile(0, 0, 1);
+            assertEquals(2, cache.getCachedTiles());
+            assertEquals(tileSize * 2, cache.getCachedBytes());
+            // the least recently used tile got evicted
+            final long misses = cache.misses;
+            cache.getTile(0, 0, 1);
+            assertEquals(misses, cache.misses);
+            cache.getTile(0, 0, 0);
+            assertEquals(misses + 1, cache.misses);
+        } finally {
+            cache.dispose();
+        }
+    }
+
+    @Test
+    public void testModifiedFile() throws Exception {
+        GeoTiffFileCache cache = GeoTiffFileCache.get(tiled);
+        assertSame(cache, GeoTiffFileCache.get(tiled));
+        assertTrue(tiled.setLastModified(tiled.lastModified() - 10000));
+        assertNotSame(cache, GeoTiffFileCache.get(tiled));
+    }
+
+    void assertSamePixels(RenderedImage expected, RenderedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        Raster e = expected.getData();
+        Raster a = actual.getData();
+        final int bands = e.getNumBands();
+        assertEquals(bands, a.getNumBands());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                for (int b = 0; b < bands; b++) {
+                    assertEquals(e.getSampleDouble(expected.getMinX() + x, expected.getMinY() + y,
+                            b), a.getSampleDouble(actual.getMinX() + x, actual.getMinY() + y, b),
+                            0d);
+                }
+            }
+        }
+    }
+}
@@ -17,15 +17,26 @@
 package org.geotools.gce.geotiff;
 
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFDirectory;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import javax.media.jai.PlanarImage;
 
 import junit.framework.Assert;
@@ -588,4 +599,231 @@ public class GeoTiffWriterTest extends Assert {
         }
     }
     
+    @Test
+    public void testParallelWriteWithOverviews() throws Exception {
+        final GridCoverage2D coverage = readGeoTiff();
+        final File output = File.createTempFile("parallel", ".tif");
+        try {
+            writeParallel(coverage, output, "LZW", false);
+            assertSameCoverage(coverage, output);
+
+            // the overviews picked the upper left pixel of each 2x2 block
+            final Raster original = coverage.getRenderedImage().getData();
+            final Raster overview = readTiffImage(output, 1);
+            assertEquals((original.getWidth() + 1) / 2, overview.getWidth());
+            assertEquals((original.getHeight() + 1) / 2, overview.getHeight());
+            for (int y = 0; y < overview.getHeight(); y++) {
+                for (int x = 0; x < overview.getWidth(); x++) {
+                    for (int b = 0; b < original.getNumBands(); b++) {
+                        assertEquals(original.getSample(original.getMinX() + x * 2,
+                                original.getMinY() + y * 2, b), overview.getSample(x, y, b));
+                    }
+                }
+            }
+        } finally {
+            coverage.dispose(true);
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testParallelWriteDeflate() throws Exception {
+        final GridCoverage2D coverage = readGeoTiff();
+        final File output = File.createTempFile("deflate", ".tif");
+        try {
+            writeParallel(coverage, output, "Deflate", false);
+            assertEquals(ParallelTiffWriter.COMPRESSION_DEFLATE, readCompression(output));
+            assertSameCoverage(coverage, output);
+        } finally {
+            coverage.dispose(true);
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testParallelWriteBigTiff() throws Exception {
+        final GridCoverage2D coverage = readGeoTiff();
+        final File output = File.createTempFile("bigtiff", ".tif");
+        try {
+            writeParallel(coverage, output, "LZW", true);
+            // the BigTIFF version number follows the byte order mark
+            final FileInputStream fis = new FileInputStream(output);
+            try {
+                final byte[] header = new byte[4];
+                assertEquals(4, fis.read(header));
+                assertEquals(43, ((header[2] & 0xFF) << 8) | (header[3] & 0xFF));
+            } finally {
+                fis.close();
+            }
+            assertSameCoverage(coverage, output);
+            assertTrue(readTiffImageCount(output) > 1);
+        } finally {
+            coverage.dispose(true);
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testParallelAverageOverviewsWithNoData() throws Exception {
+        // 64x64 pixels, zero being nodata, with a block of nodata only
+        final int size = 64;
+        final short noData = 0;
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_USHORT_GRAY);
+        final WritableRaster raster = image.getRaster();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final boolean empty = (x + y) % 3 == 0 || (x < 2 && y < 2);
+                raster.setSample(x, y, 0, empty ? noData : 1 + x + y * size);
+            }
+        }
+
+        final File output = File.createTempFile("average", ".tif");
+        final ImageOutputStream out = new FileImageOutputStream(output);
+        try {
+            final ParallelTiffWriter writer = new ParallelTiffWriter(out, image, null);
+            writer.setTileSize(32, 32);
+            writer.setCompression(ParallelTiffWriter.COMPRESSION_ZLIB, -1);
+            writer.setOverviews(1, true);
+            writer.setNoData(noData);
+            writer.setThreads(2);
+            writer.write();
+        } finally {
+            out.close();
+        }
+
+        try {
+            assertEquals(2, readTiffImageCount(output));
+            final Raster overview = readTiffImage(output, 1);
+            assertEquals(size / 2, overview.getWidth());
+            assertEquals(size / 2, overview.getHeight());
+            assertEquals(noData, overview.getSample(0, 0, 0));
+            for (int y = 0; y < size / 2; y++) {
+                for (int x = 0; x < size / 2; x++) {
+                    double sum = 0;
+                    int count = 0;
+                    for (int k = 0; k < 4; k++) {
+                        final int value = raster.getSample(x * 2 + k % 2, y * 2 + k / 2, 0);
+                        if (value != noData) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                    final long expected = count == 0 ? noData : Math.round(sum / count);
+                    assertEquals(x + "," + y, expected, overview.getSample(x, y, 0));
+                }
+            }
+        } finally {
+            output.delete();
+        }
+    }
+
+    private GridCoverage2D readGeoTiff() throws IOException {
+        final File input = TestData.file(GeoTiffReaderTest.class, "geo.tiff");
+        final GeoTiffReader reader = new GeoTiffReader(input);
+        try {
+            return reader.read(null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private void writeParallel(GridCoverage2D coverage, File output, String compression,
+            boolean bigTiff) throws IOException {
+        final GeoTiffWriteParams params = new GeoTiffWriteParams();
+        params.setParallelWriting(true);
+        params.setWriterThreads(3);
+        params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        params.setCompressionType(compression);
+        params.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        params.setTiling(32, 32);
+        params.setOverviews(2);
+        params.setOverviewResampling(GeoTiffWriteParams.OverviewResampling.NEAREST);
+        params.setForceToBigTIFF(bigTiff);
+        final ParameterValue<GeoToolsWriteParams> value = GeoTiffFormat.GEOTOOLS_WRITE_PARAMS
+                .createValue();
+        value.setValue(params);
+        final GeoTiffWriter writer = new GeoTiffWriter(output);
+        try {
+            writer.write(coverage, new GeneralParameterValue[] { value });
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Reads back the written file and checks it has the same georeferencing and pixels
+     */
+    private void assertSameCoverage(GridCoverage2D coverage, File output) throws Exception {
+        final GeoTiffReader reader = new GeoTiffReader(output);
+        final GridCoverage2D written;
+        try {
+            written = reader.read(null);
+        } finally {
+            reader.dispose();
+        }
+        try {
+            assertTrue(CRS.equalsIgnoreMetadata(coverage.getCoordinateReferenceSystem(),
+                    written.getCoordinateReferenceSystem()));
+            final GeneralEnvelope expected = new GeneralEnvelope(coverage.getEnvelope());
+            final GeneralEnvelope actual = new GeneralEnvelope(written.getEnvelope());
+            assertTrue(expected.equals(actual, 1e-6, true));
+            final Raster original = coverage.getRenderedImage().getData();
+            final Raster copy = written.getRenderedImage().getData();
+            assertEquals(original.getWidth(), copy.getWidth());
+            assertEquals(original.getHeight(), copy.getHeight());
+            for (int y = 0; y < original.getHeight(); y++) {
+                for (int x = 0; x < original.getWidth(); x++) {
+                    for (int b = 0; b < original.getNumBands(); b++) {
+                        assertEquals(original.getSample(original.getMinX() + x,
+                                original.getMinY() + y, b), copy.getSample(copy.getMinX() + x,
+                                copy.getMinY() + y, b));
+                    }
+                }
+            }
+        } finally {
+            written.dispose(true);
+        }
+    }
+
+    private ImageReader createTiffReader(File file) throws IOException {
+        final ImageReader reader = new TIFFImageReaderSpi().createReaderInstance();
+        reader.setInput(ImageIO.createImageInputStream(file));
+        return reader;
+    }
+
+    private void disposeTiffReader(ImageReader reader) throws IOException {
+        final ImageInputStream stream = (ImageInputStream) reader.getInput();
+        reader.dispose();
+        stream.close();
+    }
+
+    private Raster readTiffImage(File file, int imageIndex) throws IOException {
+        final ImageReader reader = createTiffReader(file);
+        try {
+            return reader.read(imageIndex).getRaster();
+        } finally {
+            disposeTiffReader(reader);
+        }
+    }
+
+    private int readTiffImageCount(File file) throws IOException {
+        final ImageReader reader = createTiffReader(file);
+        try {
+            return reader.getNumImages(true);
+        } finally {
+            disposeTiffReader(reader);
+        }
+    }
+
+    private int readCompression(File file) throws IOException {
+        final ImageReader reader = createTiffReader(file);
+        try {
+            final TIFFDirectory directory = TIFFDirectory.createFromMetadata(reader
+                    .getImageMetadata(0));
+            return directory.getTIFFField(BaselineTIFFTagSet.TAG_COMPRESSION).getAsInt(0);
+        } finally {
+            disposeTiffReader(reader);
+        }
+    }
+
 }
@@ -24,9 +24,8 @@ import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.channels.Channels;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -138,10 +137,12 @@ public final class ImagePyramidReader extends AbstractGridCoverage2DReader imple
 	private String[] levelsDirs;
 
 	/**
-	 * Cache of {@link ImageMosaicReader} objects for the different levels.
-	 * 
+	 * Manages the {@link ImageMosaicReader} objects for the different levels.
+	 * All the levels share the hints of this reader, thus the same executor
+	 * service and tile cache, if any. The executor service also opens the
+	 * prefetched levels.
 	 */    
-	private ConcurrentHashMap<Integer, ImageMosaicReader> readers =new ConcurrentHashMap<Integer, ImageMosaicReader>();
+	PyramidLevelsManager levels;
 
 	/**
 	 * Constructor for an {@link ImagePyramidReader}.
@@ -277,6 +278,15 @@ public final class ImagePyramidReader extends AbstractGridCoverage2DReader imple
 			// name
 			coverageName = properties.getProperty("Name");
 
+			final Object executor = hints.get(Hints.EXECUTOR_SERVICE);
+			this.levels = new PyramidLevelsManager(numOverviews + 1,
+					executor instanceof Executor ? (Executor) executor : null) {
+				@Override
+				protected ImageMosaicReader createReader(int level) throws IOException {
+					return createLevelReader(level);
+				}
+			};
+
 			// original gridrange (estimated)
 			originalGridRange = new GridEnvelope2D(
 					new Rectangle(
@@ -475,68 +485,96 @@ public final class ImagePyramidReader extends AbstractGridCoverage2DReader imple
 		// Check to have the needed reader in memory
 		// 
 		
-                // light check to see if this reader had been disposed, not synching for performance. 
-                if (readers == null) {
-                    throw new IllegalStateException("This ImagePyramidReader has already been disposed");
-                }
-		
-                ImageMosaicReader reader = readers.get(imageChoice);
-                if (reader == null) {
-        
-                    //
-                    // we must create the underlying mosaic 
-                    //
-                    final String levelDirName = levelsDirs[imageChoice.intValue()];
-                    final URL parentUrl = DataUtilities.getParentUrl(sourceURL);
-                    // look for a shapefile first
-                    final String extension = new StringBuilder(levelDirName).append("/").append(coverageName).append(".shp").toString();
-                    final URL shpFileUrl = DataUtilities.extendURL(parentUrl, extension);
-                    if (shpFileUrl.getProtocol() != null
-                            && shpFileUrl.getProtocol().equalsIgnoreCase("file")
-                            && !DataUtilities.urlToFile(shpFileUrl).exists())
-                        reader = new ImageMosaicReader(DataUtilities.extendURL(parentUrl, levelDirName), hints);
-                    else
-                        reader = new ImageMosaicReader(shpFileUrl, hints);
-                    final ImageMosaicReader putByOtherThreadJustNow =readers.putIfAbsent(imageChoice, reader);
-                    if(putByOtherThreadJustNow!=null){
-                        // some other thread just did inserted this
-                        try{
-                            reader.dispose();
-                        } catch (Exception e) {
-                            if(LOGGER.isLoggable(Level.FINE)){
-                                LOGGER.log(Level.FINE,e.getLocalizedMessage(),e);
-                            }
-                        }
-                        
-                        //use the other one
-                        reader=putByOtherThreadJustNow;
-                    }
-        
+		// light check to see if this reader had been disposed, not synching for performance. 
+		if (levels == null) {
+			throw new IllegalStateException("This ImagePyramidReader has already been disposed");
 		}
-
+		final PyramidLevelsManager.LevelReader level = levels.acquire(imageChoice);
+		try {
+			// when the request falls between two resolutions, the next request
+			// will likely hit the other one too, get it ready
+			if (dim != null)
+				levels.prefetch(getNeighbourLevel(imageChoice, getResolution(requestedEnvelope, dim, crs)));
 	
-		//
-		// Abusing of the created ImageMosaicreader for getting a
-		// gridcoverage2d, then rename it
-		//
-		GridCoverage2D mosaicCoverage = reader.read(params);
-		if(mosaicCoverage != null) {
-		    return new GridCoverage2D(coverageName, mosaicCoverage);
-		} else {
-		    // the mosaic can still return null in corner cases, handle that gracefully
-		    return null;
+			//
+			// Abusing of the created ImageMosaicreader for getting a
+			// gridcoverage2d, then rename it
+			//
+			GridCoverage2D mosaicCoverage = level.getReader().read(params);
+			if(mosaicCoverage != null) {
+			    return new GridCoverage2D(coverageName, mosaicCoverage);
+			} else {
+			    // the mosaic can still return null in corner cases, handle that gracefully
+			    return null;
+			}
+		} finally {
+			levels.release(level);
 		}
 	}
 
+	/**
+	 * Creates the {@link ImageMosaicReader} for the specified level
+	 * 
+	 * @param imageChoice
+	 * @return
+	 * @throws IOException
+	 */
+	private ImageMosaicReader createLevelReader(int imageChoice) throws IOException {
+		final String levelDirName = levelsDirs[imageChoice];
+		final URL parentUrl = DataUtilities.getParentUrl(sourceURL);
+		// look for a shapefile first
+		final String extension = new StringBuilder(levelDirName).append("/").append(coverageName).append(".shp").toString();
+		final URL shpFileUrl = DataUtilities.extendURL(parentUrl, extension);
+		if (shpFileUrl.getProtocol() != null
+				&& shpFileUrl.getProtocol().equalsIgnoreCase("file")
+				&& !DataUtilities.urlToFile(shpFileUrl).exists())
+			return new ImageMosaicReader(DataUtilities.extendURL(parentUrl, levelDirName), hints);
+		else
+			return new ImageMosaicReader(shpFileUrl, hints);
+	}
+
+	/**
+	 * Returns the level on the other side of the requested resolution with
+	 * respect to the chosen one, or -1 if the requested resolution matches the
+	 * chosen level, or falls outside of the pyramid resolutions.
+	 * 
+	 * @param imageChoice
+	 * @param requestedRes
+	 * @return
+	 */
+	int getNeighbourLevel(int imageChoice, double[] requestedRes) {
+		if (requestedRes == null) {
+			return -1;
+		}
+		final double chosen = getLevelResolution(imageChoice)[0];
+		final double requested = requestedRes[0];
+		// tolerate small differences, e.g. due to rounding in the requested grid
+		if (Math.abs(requested - chosen) <= chosen * 0.01) {
+			return -1;
+		}
+		if (requested > chosen && imageChoice < numOverviews) {
+			// between the chosen level and the next lower resolution one
+			return requested < getLevelResolution(imageChoice + 1)[0] ? imageChoice + 1 : -1;
+		} else if (requested < chosen && imageChoice > 0) {
+			// between the chosen level and the next higher resolution one
+			return requested > getLevelResolution(imageChoice - 1)[0] ? imageChoice - 1 : -1;
+		}
+		return -1;
+	}
+
+	private double[] getLevelResolution(int level) {
+		return level == 0 ? highestRes : overViewResolutions[level - 1];
+	}
+
 	/**
 	 * @see org.opengis.coverage.grid.GridCoverageReader#dispose()
 	 */
 	@Override
 	public synchronized void dispose() {
 		super.dispose();
-		for(Entry<Integer, ImageMosaicReader> element:readers.entrySet())
-		    element.getValue().dispose();
-		readers.clear();
+		if (levels != null) {
+			levels.dispose();
+		}
 	}
 	
 	/**
@@ -0,0 +1,401 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.gce.imagepyramid;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.gce.imagemosaic.ImageMosaicReader;
+import org.geotools.util.ComputationExecutor;
+
+/**
+ * Manages the life cycle of the {@link ImageMosaicReader} backing each level of a pyramid.
+ * <p>
+ * Each open level holds its own index, spatial tree and granule descriptors, so for large
+ * pyramids keeping all the levels open exhausts both the heap and the file descriptors. The
+ * manager keeps at most {@link #getMaxOpenLevels()} levels open, evicting the least recently
+ * used ones, and closes the levels that have not been used for more than
+ * {@link #getMaxIdleTime()} milliseconds. Idle levels are looked for on each access, and
+ * every {@link #SWEEP_PERIOD} milliseconds by a background timer, so that a pyramid that is not
+ * read anymore releases its levels too. Levels are reference counted, a level is never closed
+ * while a read is using it.
+ * <p>
+ * Levels can also be opened ahead of time with {@link #prefetch(int)}, on the executor given
+ * to the manager, or on the shared {@link ComputationExecutor} pool.
+ *
+ * @source $URL$
+ */
+abstract class PyramidLevelsManager {
+
+    /** Logger. */
+    private final static Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger(PyramidLevelsManager.class.toString());
+
+    /** Default max number of open levels per pyramid */
+    static final int DEFAULT_MAX_OPEN_LEVELS = Integer.getInteger(
+            "org.geotools.imagepyramid.maxOpenLevels", 8);
+
+    /** Default time, in milliseconds, after which an unused level gets closed */
+    static final long DEFAULT_MAX_IDLE_TIME = Long.getLong(
+            "org.geotools.imagepyramid.maxIdleTime", 5 * 60 * 1000);
+
+    /** Time, in milliseconds, between two looks for idle levels */
+    static final long SWEEP_PERIOD = Math.max(1000, Long.getLong(
+            "org.geotools.imagepyramid.sweepPeriod", 60 * 1000));
+
+    /** The timer closing the idle levels of all the pyramids */
+    private static Timer sweeper;
+
+    /**
+     * Periodically closes the idle levels, without keeping the manager from being garbage
+     * collected
+     */
+    static final class Sweeper extends TimerTask {
+        final WeakReference<PyramidLevelsManager> manager;
+
+        Sweeper(PyramidLevelsManager manager) {
+            this.manager = new WeakReference<PyramidLevelsManager>(manager);
+        }
+
+        @Override
+        public void run() {
+            PyramidLevelsManager levels = manager.get();
+            if (levels == null) {
+                cancel();
+            } else {
+                levels.evictIdleLevels();
+            }
+        }
+    }
+
+    private static synchronized Timer getSweeper() {
+        if (sweeper == null) {
+            sweeper = new Timer("ImagePyramidLevelsSweeper", true);
+        }
+        return sweeper;
+    }
+
+    /**
+     * A pyramid level, along with the number of reads using it and the last time it got used
+     */
+    final class LevelReader {
+        final int level;
+
+        ImageMosaicReader reader;
+
+        int users;
+
+        long lastAccess;
+
+        boolean disposed;
+
+        LevelReader(int level) {
+            this.level = level;
+        }
+
+        /**
+         * Returns the level reader, opening it if necessary
+         */
+        synchronized ImageMosaicReader getReader() throws IOException {
+            if (disposed) {
+                throw new IllegalStateException("Pyramid level " + level
+                        + " has already been disposed");
+            }
+            if (reader == null) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Opening pyramid level " + level);
+                }
+                reader = createReader(level);
+            }
+            return reader;
+        }
+
+        synchronized void dispose() {
+            disposed = true;
+            if (reader != null) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Closing pyramid level " + level);
+                }
+                try {
+                    reader.dispose();
+                } catch (Exception e) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+                    }
+                }
+                reader = null;
+            }
+        }
+    }
+
+    /** The levels, in access order */
+    private final LinkedHashMap<Integer, LevelReader> levels = new LinkedHashMap<Integer, LevelReader>(
+            16, 0.75f, true);
+
+    /** The levels being prefetched */
+    private final Set<Integer> prefetching = new HashSet<Integer>();
+
+    private final int numLevels;
+
+    private final Executor executor;
+
+    private final Sweeper sweeperTask;
+
+    private int maxOpenLevels = DEFAULT_MAX_OPEN_LEVELS;
+
+    private long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+    private boolean disposed;
+
+    /**
+     * @param numLevels the number of levels of the pyramid
+     * @param executor the executor opening the prefetched levels, or null to use the shared
+     *        {@link ComputationExecutor} pool
+     */
+    PyramidLevelsManager(int numLevels, Executor executor) {
+        this.numLevels = numLevels;
+        this.executor = executor != null ? executor : ComputationExecutor.getExecutor();
+        this.sweeperTask = new Sweeper(this);
+        getSweeper().schedule(sweeperTask, SWEEP_PERIOD, SWEEP_PERIOD);
+    }
+
+    /**
+     * Opens the reader for the specified level
+     */
+    protected abstract ImageMosaicReader createReader(int level) throws IOException;
+
+    /**
+     * Grabs the specified level, which won't be closed until it's given back with
+     * {@link #release(LevelReader)}
+     */
+    LevelReader acquire(int level) throws IOException {
+        LevelReader levelReader;
+        List<LevelReader> evicted = new ArrayList<LevelReader>();
+        synchronized (this) {
+            if (disposed) {
+                throw new IllegalStateException("This ImagePyramidReader has already been disposed");
+            }
+            levelReader = levels.get(level);
+            if (levelReader == null) {
+                levelReader = new LevelReader(level);
+                levels.put(level, levelReader);
+            }
+            levelReader.users++;
+            levelReader.lastAccess = System.currentTimeMillis();
+            collectEvicted(evicted);
+        }
+        disposeAll(evicted);
+
+        boolean success = false;
+        try {
+            // opening a level is expensive, we don't want to block the other levels meanwhile
+            levelReader.getReader();
+            success = true;
+            return levelReader;
+        } finally {
+            if (!success) {
+                releaseFailed(levelReader);
+            }
+        }
+    }
+
+    /**
+     * Gives back a level that could not be opened, so that the next request tries again
+     */
+    private void releaseFailed(LevelReader levelReader) {
+        boolean remove;
+        synchronized (this) {
+            levelReader.users--;
+            remove = levelReader.users == 0 && levels.get(levelReader.level) == levelReader;
+            if (remove) {
+                levels.remove(levelReader.level);
+            }
+        }
+        if (remove) {
+            levelReader.dispose();
+        }
+    }
+
+    /**
+     * Gives back a level grabbed with {@link #acquire(int)}, closing the levels in excess
+     */
+    void release(LevelReader levelReader) {
+        List<LevelReader> evicted = new ArrayList<LevelReader>();
+        synchronized (this) {
+            levelReader.users--;
+            levelReader.lastAccess = System.currentTimeMillis();
+            collectEvicted(evicted);
+        }
+        disposeAll(evicted);
+    }
+
+    /**
+     * Closes the unused levels in excess, or that have been idle for too long
+     */
+    void evictIdleLevels() {
+        List<LevelReader> evicted = new ArrayList<LevelReader>();
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            collectEvicted(evicted);
+        }
+        disposeAll(evicted);
+    }
+
+    private static void disposeAll(List<LevelReader> levelReaders) {
+        for (LevelReader lr : levelReaders) {
+            lr.dispose();
+        }
+    }
+
+    /**
+     * Removes from the map the unused levels that are in excess or have been idle too long.
+     * Must be called while holding the lock
+     */
+    private void collectEvicted(List<LevelReader> evicted) {
+        final long now = System.currentTimeMillis();
+        int excess = levels.size() - maxOpenLevels;
+        // iteration goes from the least to the most recently used level
+        for (Iterator<LevelReader> it = levels.values().iterator(); it.hasNext();) {
+            LevelReader lr = it.next();
+            if (lr.users > 0) {
+                continue;
+            }
+            if (excess > 0 || now - lr.lastAccess > maxIdleTime) {
+                it.remove();
+                evicted.add(lr);
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * Opens the specified level in a background thread, unless it's already open or being
+     * opened
+     */
+    void prefetch(final int level) {
+        if (level < 0 || level >= numLevels) {
+            return;
+        }
+        List<LevelReader> evicted = new ArrayList<LevelReader>();
+        boolean open;
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            // make room before opening one more level
+            collectEvicted(evicted);
+            open = !levels.containsKey(level) && prefetching.add(level);
+        }
+        disposeAll(evicted);
+        if (!open) {
+            return;
+        }
+        Runnable task = new Runnable() {
+
+            public void run() {
+                try {
+                    release(acquire(level));
+                } catch (Exception e) {
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.log(Level.FINE, "Failed to prefetch pyramid level " + level, e);
+                    }
+                } finally {
+                    synchronized (PyramidLevelsManager.this) {
+                        prefetching.remove(level);
+                    }
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the executor given with the hints got shut down, the level will be opened on use
+            synchronized (this) {
+                prefetching.remove(level);
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Failed to prefetch pyramid level " + level, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of levels currently open or being opened
+     */
+    synchronized int getOpenLevels() {
+        return levels.size();
+    }
+
+    /**
+     * Returns true if the specified level is open or being opened
+     */
+    synchronized boolean isOpen(int level) {
+        return levels.containsKey(level);
+    }
+
+    synchronized int getMaxOpenLevels() {
+        return maxOpenLevels;
+    }
+
+    /**
+     * Sets the max number of levels kept open when not in use
+     */
+    synchronized void setMaxOpenLevels(int maxOpenLevels) {
+        this.maxOpenLevels = Math.max(1, maxOpenLevels);
+    }
+
+    synchronized long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the time, in milliseconds, after which an unused level gets closed
+     */
+    synchronized void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Closes all the levels
+     */
+    void dispose() {
+        sweeperTask.cancel();
+        List<LevelReader> disposing;
+        synchronized (this) {
+            disposed = true;
+            disposing = new ArrayList<LevelReader>(levels.values());
+            levels.clear();
+        }
+        for (LevelReader lr : disposing) {
+            lr.dispose();
+        }
+    }
+}
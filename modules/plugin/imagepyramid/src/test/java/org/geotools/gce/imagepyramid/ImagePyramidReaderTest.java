@@ -684,6 +684,110 @@ public class ImagePyramidReaderTest extends Assert {
         final ImagePyramidReader reader = (ImagePyramidReader) format.getReader(sourceDir, hints);
         assertNull(reader);
     }
+
+    /**
+     * Tests that the unused levels get closed when too many are open
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testLevelsEviction() throws IOException {
+        final URL testFile = TestData.getResource(this, "goodpyramid/"+TEST_FILE);
+        final AbstractGridFormat format = new ImagePyramidFormat();
+        final ImagePyramidReader reader = (ImagePyramidReader) format.getReader(testFile);
+        assertNotNull(reader);
+        try {
+            reader.levels.setMaxOpenLevels(1);
+            
+            // full resolution, level 0
+            assertNotNull(readFullExtent(reader, 250, 250));
+            assertTrue(reader.levels.isOpen(0));
+            assertEquals(1, reader.levels.getOpenLevels());
+            
+            // exactly half the resolution, level 1, the first one gets closed
+            assertNotNull(readFullExtent(reader, 125, 125));
+            assertTrue(reader.levels.isOpen(1));
+            assertFalse(reader.levels.isOpen(0));
+            assertEquals(1, reader.levels.getOpenLevels());
+        } finally {
+            reader.dispose();
+        }
+        
+        try {
+            readFullExtent(reader, 250, 250);
+            fail("Reading from a disposed reader should have failed");
+        } catch(IllegalStateException e) {
+            // fine
+        }
+    }
+
+    /**
+     * Tests that the levels idle for too long get closed, even without further reads
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testIdleLevelsEviction() throws IOException {
+        final URL testFile = TestData.getResource(this, "goodpyramid/"+TEST_FILE);
+        final AbstractGridFormat format = new ImagePyramidFormat();
+        final ImagePyramidReader reader = (ImagePyramidReader) format.getReader(testFile);
+        assertNotNull(reader);
+        try {
+            assertNotNull(readFullExtent(reader, 250, 250));
+            assertTrue(reader.levels.isOpen(0));
+
+            // not idle long enough yet
+            reader.levels.evictIdleLevels();
+            assertTrue(reader.levels.isOpen(0));
+
+            reader.levels.setMaxIdleTime(-1);
+            reader.levels.evictIdleLevels();
+            assertFalse(reader.levels.isOpen(0));
+            assertEquals(0, reader.levels.getOpenLevels());
+
+            // the level gets opened again on use
+            reader.levels.setMaxIdleTime(PyramidLevelsManager.DEFAULT_MAX_IDLE_TIME);
+            assertNotNull(readFullExtent(reader, 250, 250));
+            assertTrue(reader.levels.isOpen(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Tests the choice of the level to prefetch
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testNeighbourLevel() throws IOException {
+        final URL testFile = TestData.getResource(this, "goodpyramid/"+TEST_FILE);
+        final AbstractGridFormat format = new ImagePyramidFormat();
+        final ImagePyramidReader reader = (ImagePyramidReader) format.getReader(testFile);
+        assertNotNull(reader);
+        try {
+            // exact match, nothing to prefetch
+            assertEquals(-1, reader.getNeighbourLevel(0, new double[] {0.057934032977228433, 0.04039598061277999}));
+            assertEquals(-1, reader.getNeighbourLevel(2, new double[] {0.2317361319089137, 0.16158392245111997}));
+            // between level 0 and 1
+            assertEquals(1, reader.getNeighbourLevel(0, new double[] {0.08, 0.06}));
+            assertEquals(0, reader.getNeighbourLevel(1, new double[] {0.08, 0.06}));
+            // beyond the pyramid resolutions
+            assertEquals(-1, reader.getNeighbourLevel(3, new double[] {1, 1}));
+            assertEquals(-1, reader.getNeighbourLevel(0, new double[] {0.01, 0.01}));
+            assertEquals(-1, reader.getNeighbourLevel(0, null));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private GridCoverage2D readFullExtent(ImagePyramidReader reader, int width, int height) throws IOException {
+        final ParameterValue<GridGeometry2D> gg = ImageMosaicFormat.READ_GRIDGEOMETRY2D.createValue();
+        final GeneralEnvelope envelope = new GeneralEnvelope(reader.getOriginalEnvelope());
+        envelope.setCoordinateReferenceSystem(DefaultGeographicCRS.WGS84);
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(new Rectangle(0, 0, width, height)), envelope));
+        return (GridCoverage2D) reader.read(new GeneralParameterValue[] { gg });
+    }
 	
 
 //	/**
@@ -1251,6 +1251,7 @@ public class ShapefileDataStore extends AbstractFileDataStore {
         hints.add( Hints.JTS_COORDINATE_SEQUENCE_FACTORY );
         hints.add( Hints.GEOMETRY_DISTANCE);
         hints.add( Hints.SCREENMAP);
+        hints.add( Hints.FEATURE_REUSE);
         return hints;
     }
     
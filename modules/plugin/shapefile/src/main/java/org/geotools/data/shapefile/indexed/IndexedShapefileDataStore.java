@@ -1228,6 +1228,7 @@ public class IndexedShapefileDataStore extends ShapefileDataStore implements
         hints.add( Hints.JTS_COORDINATE_SEQUENCE_FACTORY );
         hints.add( Hints.GEOMETRY_DISTANCE);
         hints.add( Hints.SCREENMAP);
+        hints.add( Hints.FEATURE_REUSE);
         return hints;
     }
 }
@@ -26,6 +26,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
@@ -42,11 +43,14 @@ import org.geotools.data.DefaultQuery;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureWriter;
+import org.geotools.data.FilteringFeatureReader;
 import org.geotools.data.Query;
+import org.geotools.data.ReTypeFeatureReader;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureTypes;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -818,6 +822,145 @@ public class ShapefileDataStoreTest extends TestCaseSupport {
         s.dispose();
     }
     
+    public void testReuseFeatures() throws Exception {
+        ShapefileDataStore s = new ShapefileDataStore(TestData.url(STATE_POP));
+        List<SimpleFeature> expected = readFeatures(s, new Query(s.getSchema().getTypeName()));
+        assertEquals(49, expected.size());
+
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = s.getFeatureReader(
+                reuseQuery(s, Filter.INCLUDE, null), Transaction.AUTO_COMMIT);
+        SimpleFeature previous = null;
+        try {
+            int count = s.getSchema().getAttributeCount();
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(reader.hasNext());
+                SimpleFeature feature = reader.next();
+                if (previous != null) {
+                    assertSame(previous, feature);
+                }
+                previous = feature;
+                assertEquals(expected.get(i).getID(), feature.getID());
+
+                // the attributes are read from the dbf when asked for, in any order, or not at all
+                switch (i % 3) {
+                case 0:
+                    break;
+                case 1:
+                    assertEquals(expected.get(i).getAttribute("STATE_NAME"), feature
+                            .getAttribute("STATE_NAME"));
+                    break;
+                default:
+                    for (int j = count - 1; j >= 0; j--) {
+                        assertEquals(expected.get(i).getAttribute(j), feature.getAttribute(j));
+                    }
+                    assertEquals(expected.get(i).getAttributes(), feature.getAttributes());
+                }
+            }
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+            s.dispose();
+        }
+    }
+
+    public void testReuseFeaturesHasNext() throws Exception {
+        ShapefileDataStore s = new ShapefileDataStore(TestData.url(STATE_POP));
+        List<SimpleFeature> expected = readFeatures(s, new Query(s.getSchema().getTypeName()));
+
+        // the feature is valid until hasNext() is called, and can be copied to be kept
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = s.getFeatureReader(
+                reuseQuery(s, Filter.INCLUDE, null), Transaction.AUTO_COMMIT);
+        try {
+            int i = 0;
+            while (reader.hasNext() && reader.hasNext()) {
+                SimpleFeature feature = reader.next();
+                assertEquals(expected.get(i).getAttribute("STATE_FIPS"), feature
+                        .getAttribute("STATE_FIPS"));
+                SimpleFeature copy = SimpleFeatureBuilder.copy(feature);
+                reader.hasNext();
+                assertEquals(expected.get(i).getID(), copy.getID());
+                assertEquals(expected.get(i).getAttributes(), copy.getAttributes());
+                i++;
+            }
+            assertEquals(expected.size(), i);
+        } finally {
+            reader.close();
+            s.dispose();
+        }
+    }
+
+    public void testReuseFeaturesFiltered() throws Exception {
+        ShapefileDataStore s = new ShapefileDataStore(TestData.url(STATE_POP));
+        String typeName = s.getSchema().getTypeName();
+        Filter filter = ff.greater(ff.property("PERSONS"), ff.literal(5000000));
+        List<SimpleFeature> expected = readFeatures(s, new Query(typeName, filter));
+        assertTrue(expected.size() > 1);
+
+        // the filter is evaluated on the reused feature, before it is handed out
+        Query query = reuseQuery(s, filter, null);
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = s.getFeatureReader(query,
+                Transaction.AUTO_COMMIT);
+        assertTrue(reader instanceof FilteringFeatureReader);
+        try {
+            SimpleFeature previous = null;
+            for (SimpleFeature feature : expected) {
+                assertTrue(reader.hasNext());
+                SimpleFeature next = reader.next();
+                if (previous != null) {
+                    assertSame(previous, next);
+                }
+                previous = next;
+                assertEquals(feature, SimpleFeatureBuilder.copy(next));
+            }
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+
+        // filtered on an attribute the retyped features leave out
+        query = reuseQuery(s, filter, new String[] { "the_geom", "STATE_NAME" });
+        reader = s.getFeatureReader(query, Transaction.AUTO_COMMIT);
+        assertTrue(reader instanceof ReTypeFeatureReader);
+        List<SimpleFeature> retyped = readFeatures(reader);
+        assertEquals(expected.size(), retyped.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getID(), retyped.get(i).getID());
+            assertEquals(expected.get(i).getDefaultGeometry(), retyped.get(i)
+                    .getDefaultGeometry());
+            assertEquals(expected.get(i).getAttribute("STATE_NAME"), retyped.get(i)
+                    .getAttribute("STATE_NAME"));
+        }
+        s.dispose();
+    }
+
+    private Query reuseQuery(ShapefileDataStore s, Filter filter, String[] properties)
+            throws IOException {
+        Query query = new Query(s.getSchema().getTypeName(), filter, properties);
+        query.setHints(new Hints(Hints.FEATURE_REUSE, Boolean.TRUE));
+        return query;
+    }
+
+    private List<SimpleFeature> readFeatures(ShapefileDataStore s, Query query)
+            throws IOException {
+        return readFeatures(s.getFeatureReader(query, Transaction.AUTO_COMMIT));
+    }
+
+    /**
+     * Reads all the features of the reader, copying them as they may be reused
+     */
+    private List<SimpleFeature> readFeatures(
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader) throws IOException {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        try {
+            while (reader.hasNext()) {
+                features.add(SimpleFeatureBuilder.copy(reader.next()));
+            }
+        } finally {
+            reader.close();
+        }
+        return features;
+    }
+
     public void testWrite() throws Exception {
         // create feature type
         SimpleFeatureType type = DataUtilities.createType("junk","a:Point,b:java.math.BigDecimal,c:java.math.BigInteger");
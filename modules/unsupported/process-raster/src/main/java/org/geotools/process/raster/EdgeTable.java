@@ -0,0 +1,225 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
+
+/**
+ * The non horizontal edges of the rings of a polygon in raster space, where pixel (i, j) covers
+ * [i, i+1) x [j, j+1), sorted by minimum y. A {@link Scanner} uses the table to scanline fill the
+ * polygon, holes included, finding the spans of pixels whose center falls inside it (even-odd
+ * rule).
+ * <p>
+ * The table is not modified by the scanners, several threads can fill the same polygon as long
+ * as each one uses its own scanner.
+ *
+ * @source $URL$
+ */
+public final class EdgeTable {
+
+    /**
+     * Receives the spans of pixels found inside the polygon
+     */
+    public interface SpanHandler {
+        /**
+         * Called for each span of pixels inside the polygon
+         *
+         * @param y the row of the span
+         * @param x0 the first column of the span
+         * @param x1 the last column of the span, included
+         */
+        void span(int y, int x0, int x1);
+    }
+
+    final int edges;
+
+    final double[] x1;
+
+    final double[] y1;
+
+    final double[] y2;
+
+    final double[] slope;
+
+    /** The range of rows possibly inside the polygon */
+    final int minY, maxY;
+
+    /**
+     * Builds the table of a polygon
+     *
+     * @param rings the x and y coordinates of the rings, in raster space
+     */
+    public EdgeTable(List<double[][]> rings) {
+        List<double[]> edgeList = new ArrayList<double[]>();
+        for (double[][] ring : rings) {
+            double[] xs = ring[0];
+            double[] ys = ring[1];
+            for (int i = 1; i < xs.length; i++) {
+                if (ys[i - 1] == ys[i]) {
+                    // horizontal edges never cross a scanline
+                    continue;
+                } else if (ys[i - 1] < ys[i]) {
+                    edgeList.add(new double[] { xs[i - 1], ys[i - 1], xs[i], ys[i] });
+                } else {
+                    edgeList.add(new double[] { xs[i], ys[i], xs[i - 1], ys[i - 1] });
+                }
+            }
+        }
+        Collections.sort(edgeList, new Comparator<double[]>() {
+
+            public int compare(double[] e1, double[] e2) {
+                return Double.compare(e1[1], e2[1]);
+            }
+        });
+
+        edges = edgeList.size();
+        x1 = new double[edges];
+        y1 = new double[edges];
+        y2 = new double[edges];
+        slope = new double[edges];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < edges; i++) {
+            double[] edge = edgeList.get(i);
+            x1[i] = edge[0];
+            y1[i] = edge[1];
+            y2[i] = edge[3];
+            slope[i] = (edge[2] - edge[0]) / (edge[3] - edge[1]);
+            max = Math.max(max, edge[3]);
+        }
+        if (edges > 0) {
+            minY = (int) Math.floor(y1[0]);
+            maxY = (int) Math.floor(max);
+        } else {
+            minY = 0;
+            maxY = -1;
+        }
+    }
+
+    /**
+     * Builds the table of the polygons contained in a geometry, already in raster space
+     */
+    public EdgeTable(Geometry geometry) {
+        this(getRings(geometry));
+    }
+
+    static List<double[][]> getRings(Geometry geometry) {
+        List<double[][]> rings = new ArrayList<double[][]>();
+        for (Object o : PolygonExtracter.getPolygons(geometry)) {
+            Polygon polygon = (Polygon) o;
+            rings.add(getCoordinates(polygon.getExteriorRing()));
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                rings.add(getCoordinates(polygon.getInteriorRingN(i)));
+            }
+        }
+        return rings;
+    }
+
+    static double[][] getCoordinates(LineString ring) {
+        Coordinate[] coords = ring.getCoordinates();
+        double[][] result = new double[2][coords.length];
+        for (int i = 0; i < coords.length; i++) {
+            result[0][i] = coords[i].x;
+            result[1][i] = coords[i].y;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of non horizontal edges, the polygon is empty if there are none
+     */
+    public int getEdgeCount() {
+        return edges;
+    }
+
+    /**
+     * Scanline fills polygons with an active edge table, reusing its work arrays across fills.
+     * A scanner is not thread safe.
+     */
+    public static final class Scanner {
+        int[] active = new int[16];
+
+        double[] crossings = new double[16];
+
+        /**
+         * Finds the spans of pixels inside the polygon, within the specified bounds
+         *
+         * @param table the edge table of the polygon
+         * @param minX the first column of the bounds
+         * @param minY the first row of the bounds
+         * @param maxX the last column of the bounds, included
+         * @param maxY the last row of the bounds, included
+         * @param handler receives the spans, from top to bottom and left to right
+         */
+        public void scan(EdgeTable table, int minX, int minY, int maxX, int maxY,
+                SpanHandler handler) {
+            minY = Math.max(minY, table.minY);
+            maxY = Math.min(maxY, table.maxY);
+            int nextEdge = 0;
+            int activeCount = 0;
+            for (int y = minY; y <= maxY; y++) {
+                final double cy = y + 0.5;
+
+                // add the edges starting before the scanline
+                while (nextEdge < table.edges && table.y1[nextEdge] <= cy) {
+                    if (activeCount == active.length) {
+                        active = Arrays.copyOf(active, activeCount * 2);
+                    }
+                    active[activeCount++] = nextEdge++;
+                }
+
+                // compute the crossings, dropping the edges that ended
+                int crossingCount = 0;
+                for (int i = 0; i < activeCount;) {
+                    int e = active[i];
+                    if (table.y2[e] <= cy) {
+                        active[i] = active[--activeCount];
+                        continue;
+                    }
+                    if (crossingCount == crossings.length) {
+                        crossings = Arrays.copyOf(crossings, crossingCount * 2);
+                    }
+                    crossings[crossingCount++] = table.x1[e] + (cy - table.y1[e])
+                            * table.slope[e];
+                    i++;
+                }
+                if (crossingCount < 2) {
+                    continue;
+                }
+                Arrays.sort(crossings, 0, crossingCount);
+
+                // pairs of crossings, pixels whose center falls in [start, end)
+                for (int i = 0; i + 1 < crossingCount; i += 2) {
+                    int x0 = Math.max(minX, (int) Math.ceil(crossings[i] - 0.5));
+                    int x1 = Math.min(maxX, (int) Math.ceil(crossings[i + 1] - 0.5) - 1);
+                    if (x1 >= x0) {
+                        handler.span(y, x0, x1);
+                    }
+                }
+            }
+        }
+    }
+}
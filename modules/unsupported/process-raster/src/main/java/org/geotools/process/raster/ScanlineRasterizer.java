@@ -0,0 +1,485 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.jai.TiledImage;
+
+import org.geotools.util.ComputationExecutor;
+
+/**
+ * Burns points, lines and polygons into a single band int or float {@link TiledImage}, writing
+ * the values directly in the tile data buffers.
+ * <p>
+ * Shapes are expressed in raster space, where pixel (i, j) covers [i, i+1) x [j, j+1). They are
+ * collected in batches, and each batch is rasterized tile by tile, in parallel on the
+ * {@link ComputationExecutor} if more than one thread is allowed. Within a tile the shapes are painted in the order they were added, so
+ * later shapes overwrite earlier ones exactly as in a sequential painting.
+ * <ul>
+ * <li>Polygons (holes included) are filled with an {@link EdgeTable}, painting the pixels whose
+ * center falls inside them (even-odd rule)</li>
+ * <li>Lines are painted as Bresenham lines between the pixels containing their vertices</li>
+ * <li>Points paint the pixel containing them</li>
+ * </ul>
+ * In "all touched" mode every pixel touched by a line or by a polygon boundary is painted as well.
+ *
+ * @source $URL$
+ */
+class ScanlineRasterizer {
+
+    static final int POINT = 0;
+
+    static final int LINE = 1;
+
+    static final int POLYGON = 2;
+
+    /** Number of coordinates collected before rasterizing the batch */
+    static final int MAX_BATCH_COORDINATES = 256 * 1024;
+
+    TiledImage image;
+
+    boolean floatData;
+
+    boolean allTouched;
+
+    int threads = ComputationExecutor.getThreadCount();
+
+    List<Shape> batch = new ArrayList<Shape>();
+
+    int batchCoordinates;
+
+    /**
+     * Builds a rasterizer for the specified single band image, whose data type must be either
+     * {@link DataBuffer#TYPE_INT} or {@link DataBuffer#TYPE_FLOAT}
+     *
+     * @param image
+     */
+    public ScanlineRasterizer(TiledImage image) {
+        int dataType = image.getSampleModel().getDataType();
+        if (dataType != DataBuffer.TYPE_INT && dataType != DataBuffer.TYPE_FLOAT) {
+            throw new IllegalArgumentException("Only int and float images are supported");
+        }
+        if (!(image.getSampleModel() instanceof ComponentSampleModel)) {
+            throw new IllegalArgumentException("The image must have a component sample model");
+        }
+        this.image = image;
+        this.floatData = dataType == DataBuffer.TYPE_FLOAT;
+    }
+
+    /**
+     * When true, all pixels touched by lines and polygon boundaries are painted, otherwise only
+     * the ones along the Bresenham lines, and the ones whose center is inside the polygons
+     */
+    public void setAllTouched(boolean allTouched) {
+        this.allTouched = allTouched;
+    }
+
+    /**
+     * Sets the number of threads used to rasterize the tiles
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds a polygon
+     *
+     * @param rings the x and y coordinates of the rings, in raster space
+     * @param value the value to be burned in the image
+     */
+    public void addPolygon(List<double[][]> rings, Number value) {
+        addShape(new Shape(POLYGON, rings, value));
+    }
+
+    /**
+     * Adds a line
+     *
+     * @param xs the x coordinates of the line, in raster space
+     * @param ys the y coordinates of the line, in raster space
+     * @param value the value to be burned in the image
+     */
+    public void addLine(double[] xs, double[] ys, Number value) {
+        List<double[][]> parts = new ArrayList<double[][]>(1);
+        parts.add(new double[][] { xs, ys });
+        addShape(new Shape(LINE, parts, value));
+    }
+
+    /**
+     * Adds a point
+     *
+     * @param x the x coordinate of the point, in raster space
+     * @param y the y coordinate of the point, in raster space
+     * @param value the value to be burned in the image
+     */
+    public void addPoint(double x, double y, Number value) {
+        List<double[][]> parts = new ArrayList<double[][]>(1);
+        parts.add(new double[][] { { x }, { y } });
+        addShape(new Shape(POINT, parts, value));
+    }
+
+    void addShape(Shape shape) {
+        // skip anything outside of the image
+        if (shape.maxX < image.getMinX() || shape.minX >= image.getMinX() + image.getWidth()
+                || shape.maxY < image.getMinY()
+                || shape.minY >= image.getMinY() + image.getHeight()) {
+            return;
+        }
+        batch.add(shape);
+        batchCoordinates += shape.coordinates;
+        if (batchCoordinates > MAX_BATCH_COORDINATES) {
+            flush();
+        }
+    }
+
+    /**
+     * Rasterizes the shapes collected so far
+     */
+    public void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<Shape> shapes = batch;
+        batch = new ArrayList<Shape>();
+        batchCoordinates = 0;
+
+        // find the tiles touched by the batch
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (Shape shape : shapes) {
+            minX = Math.min(minX, shape.minX);
+            minY = Math.min(minY, shape.minY);
+            maxX = Math.max(maxX, shape.maxX);
+            maxY = Math.max(maxY, shape.maxY);
+        }
+        int minTileX = Math.max(image.getMinTileX(), image.XToTileX(minX));
+        int maxTileX = Math.min(image.getMaxTileX(), image.XToTileX(maxX));
+        int minTileY = Math.max(image.getMinTileY(), image.YToTileY(minY));
+        int maxTileY = Math.min(image.getMaxTileY(), image.YToTileY(maxY));
+
+        // grab the tiles in the calling thread, TiledImage creates them lazily
+        final List<int[]> tileIndexes = new ArrayList<int[]>();
+        final List<WritableRaster> tiles = new ArrayList<WritableRaster>();
+        for (int ty = minTileY; ty <= maxTileY; ty++) {
+            for (int tx = minTileX; tx <= maxTileX; tx++) {
+                tileIndexes.add(new int[] { tx, ty });
+                tiles.add(image.getWritableTile(tx, ty));
+            }
+        }
+
+        try {
+            final AtomicInteger nextTile = new AtomicInteger();
+            Callable<Object> worker = new Callable<Object>() {
+
+                public Object call() {
+                    int tile;
+                    while ((tile = nextTile.getAndIncrement()) < tiles.size()) {
+                        TileWriter writer = new TileWriter(tiles.get(tile));
+                        for (Shape shape : shapes) {
+                            if (writer.intersects(shape)) {
+                                rasterize(shape, writer);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            };
+            int workers = Math.min(threads, tiles.size());
+            if (workers <= 1) {
+                worker.call();
+            } else {
+                ComputationExecutor.invokeAll(Collections.nCopies(workers, worker));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while rasterizing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (int[] index : tileIndexes) {
+                image.releaseWritableTile(index[0], index[1]);
+            }
+        }
+    }
+
+    /**
+     * Rasterizes the pending shapes
+     */
+    public void dispose() {
+        flush();
+    }
+
+    void rasterize(Shape shape, TileWriter writer) {
+        switch (shape.type) {
+        case POINT:
+            writer.set((int) Math.floor(shape.parts.get(0)[0][0]),
+                    (int) Math.floor(shape.parts.get(0)[1][0]), shape);
+            break;
+        case LINE:
+            drawLines(shape, writer);
+            break;
+        case POLYGON:
+            fillPolygon(shape, writer);
+            if (allTouched) {
+                drawLines(shape, writer);
+            }
+            break;
+        }
+    }
+
+    void drawLines(Shape shape, TileWriter writer) {
+        for (double[][] part : shape.parts) {
+            double[] xs = part[0];
+            double[] ys = part[1];
+            if (xs.length == 1) {
+                writer.set((int) Math.floor(xs[0]), (int) Math.floor(ys[0]), shape);
+            }
+            for (int i = 1; i < xs.length; i++) {
+                if (allTouched) {
+                    supercover(xs[i - 1], ys[i - 1], xs[i], ys[i], shape, writer);
+                } else {
+                    bresenham((int) Math.floor(xs[i - 1]), (int) Math.floor(ys[i - 1]),
+                            (int) Math.floor(xs[i]), (int) Math.floor(ys[i]), shape, writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints the pixels along the line, endpoints included
+     */
+    void bresenham(int x0, int y0, int x1, int y1, Shape shape, TileWriter writer) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int err = dx + dy;
+        while (true) {
+            writer.set(x0, y0, shape);
+            if (x0 == x1 && y0 == y1) {
+                break;
+            }
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    /**
+     * Paints all the pixels traversed by the segment (Amanatides and Woo grid traversal)
+     */
+    void supercover(double x0, double y0, double x1, double y1, Shape shape, TileWriter writer) {
+        int cx = (int) Math.floor(x0);
+        int cy = (int) Math.floor(y0);
+        int ex = (int) Math.floor(x1);
+        int ey = (int) Math.floor(y1);
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+        int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+        double tDeltaX = dx != 0 ? 1 / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dy != 0 ? 1 / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double tMaxX = dx != 0 ? (stepX > 0 ? cx + 1 - x0 : x0 - cx) * tDeltaX
+                : Double.POSITIVE_INFINITY;
+        double tMaxY = dy != 0 ? (stepY > 0 ? cy + 1 - y0 : y0 - cy) * tDeltaY
+                : Double.POSITIVE_INFINITY;
+
+        writer.set(cx, cy, shape);
+        int steps = Math.abs(ex - cx) + Math.abs(ey - cy);
+        for (int i = 0; i < steps; i++) {
+            if (tMaxX < tMaxY) {
+                cx += stepX;
+                tMaxX += tDeltaX;
+            } else {
+                cy += stepY;
+                tMaxY += tDeltaY;
+            }
+            writer.set(cx, cy, shape);
+        }
+    }
+
+    /**
+     * Scanline fills the polygon over the tile
+     */
+    void fillPolygon(Shape shape, TileWriter writer) {
+        writer.shape = shape;
+        writer.scanner.scan(shape.table, writer.minX, writer.minY, writer.maxX, writer.maxY,
+                writer);
+    }
+
+    /**
+     * A shape to be rasterized, with its pixel bounds, and for polygons its edge table
+     */
+    static class Shape {
+        int type;
+
+        List<double[][]> parts;
+
+        int intValue;
+
+        float floatValue;
+
+        int minX, minY, maxX, maxY;
+
+        int coordinates;
+
+        EdgeTable table;
+
+        Shape(int type, List<double[][]> parts, Number value) {
+            this.type = type;
+            this.parts = parts;
+            this.intValue = value.intValue();
+            this.floatValue = value.floatValue();
+
+            double minx = Double.POSITIVE_INFINITY, miny = Double.POSITIVE_INFINITY;
+            double maxx = Double.NEGATIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+            for (double[][] part : parts) {
+                for (int i = 0; i < part[0].length; i++) {
+                    minx = Math.min(minx, part[0][i]);
+                    maxx = Math.max(maxx, part[0][i]);
+                    miny = Math.min(miny, part[1][i]);
+                    maxy = Math.max(maxy, part[1][i]);
+                }
+                coordinates += part[0].length;
+            }
+            minX = (int) Math.floor(minx);
+            minY = (int) Math.floor(miny);
+            maxX = (int) Math.floor(maxx);
+            maxY = (int) Math.floor(maxy);
+
+            if (type == POLYGON) {
+                table = new EdgeTable(parts);
+            }
+        }
+    }
+
+    /**
+     * Writes directly into the data buffer of a tile, ignoring pixels outside of it
+     */
+    static class TileWriter implements EdgeTable.SpanHandler {
+        int[] ints;
+
+        float[] floats;
+
+        int minX, minY, maxX, maxY;
+
+        int base;
+
+        int pixelStride;
+
+        int scanlineStride;
+
+        int translateX;
+
+        int translateY;
+
+        EdgeTable.Scanner scanner = new EdgeTable.Scanner();
+
+        /** The polygon being filled */
+        Shape shape;
+
+        TileWriter(WritableRaster tile) {
+            Rectangle bounds = tile.getBounds();
+            minX = bounds.x;
+            minY = bounds.y;
+            maxX = bounds.x + bounds.width - 1;
+            maxY = bounds.y + bounds.height - 1;
+
+            ComponentSampleModel sm = (ComponentSampleModel) tile.getSampleModel();
+            DataBuffer db = tile.getDataBuffer();
+            if (db instanceof DataBufferFloat) {
+                floats = ((DataBufferFloat) db).getData();
+            } else {
+                ints = ((DataBufferInt) db).getData();
+            }
+            pixelStride = sm.getPixelStride();
+            scanlineStride = sm.getScanlineStride();
+            base = db.getOffset() + sm.getBandOffsets()[0];
+            translateX = tile.getSampleModelTranslateX();
+            translateY = tile.getSampleModelTranslateY();
+        }
+
+        boolean intersects(Shape shape) {
+            return shape.maxX >= minX && shape.minX <= maxX && shape.maxY >= minY
+                    && shape.minY <= maxY;
+        }
+
+        void set(int x, int y, Shape shape) {
+            if (x < minX || x > maxX || y < minY || y > maxY) {
+                return;
+            }
+            int index = base + (y - translateY) * scanlineStride + (x - translateX) * pixelStride;
+            if (floats != null) {
+                floats[index] = shape.floatValue;
+            } else {
+                ints[index] = shape.intValue;
+            }
+        }
+
+        public void span(int y, int x0, int x1) {
+            setSpan(x0, x1, y, shape);
+        }
+
+        void setSpan(int x0, int x1, int y, Shape shape) {
+            if (y < minY || y > maxY) {
+                return;
+            }
+            x0 = Math.max(x0, minX);
+            x1 = Math.min(x1, maxX);
+            if (x1 < x0) {
+                return;
+            }
+            int index = base + (y - translateY) * scanlineStride + (x0 - translateX)
+                    * pixelStride;
+            int end = index + (x1 - x0) * pixelStride;
+            if (floats != null) {
+                float value = shape.floatValue;
+                for (; index <= end; index += pixelStride) {
+                    floats[index] = value;
+                }
+            } else {
+                int value = shape.intValue;
+                for (; index <= end; index += pixelStride) {
+                    ints[index] = value;
+                }
+            }
+        }
+    }
+}
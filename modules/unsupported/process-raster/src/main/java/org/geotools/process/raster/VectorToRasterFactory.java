@@ -110,6 +110,19 @@ public class VectorToRasterFactory extends AbstractFeatureCollectionProcessFacto
             false, // this parameter is optional
             0, 1, null, null);
 
+    /**
+     * When true all the cells touched by lines and polygon boundaries are burned, otherwise
+     * only the cells along the lines and the ones whose center falls inside the polygons.
+     * Optional, defaults to false.
+     */
+    static final Parameter<Boolean> ALL_TOUCHED = new Parameter<Boolean>(
+            "allTouched",
+            Boolean.class,
+            Text.text("All touched"),
+            Text.text("Burn all the cells touched by the geometries, not only the ones whose center is inside them"),
+            false, // this parameter is optional
+            0, 1, Boolean.FALSE, null);
+
     /**
      * The result of the operation is a FeatureCollection.
      * This can be the input FeatureCollection, modified by the process
@@ -131,6 +144,7 @@ public class VectorToRasterFactory extends AbstractFeatureCollectionProcessFacto
         parameters.put( RASTER_WIDTH.key, RASTER_WIDTH );
         parameters.put( RASTER_HEIGHT.key, RASTER_HEIGHT );
         parameters.put( TITLE.key, TITLE);
+        parameters.put( ALL_TOUCHED.key, ALL_TOUCHED);
     }
 
     public InternationalString getTitle() {
@@ -25,20 +25,16 @@
 
 package org.geotools.process.raster;
 
-import java.awt.AlphaComposite;
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.color.ColorSpace;
 import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.SampleModel;
-import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,11 +42,13 @@ import java.util.logging.Logger;
 import javax.media.jai.RasterFactory;
 import javax.media.jai.TiledImage;
 
-import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
 
-import org.geotools.coverage.grid.GridCoordinates2D;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridEnvelope2D;
@@ -59,7 +57,6 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.filter.text.cql2.CQLException;
 import org.geotools.filter.text.ecql.ECQL;
-import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.jts.Geometries;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -74,7 +71,9 @@ import org.opengis.filter.expression.Expression;
 import org.opengis.geometry.Envelope;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.MathTransform2D;
 import org.opengis.referencing.operation.TransformException;
 import org.opengis.util.ProgressListener;
 
@@ -97,7 +96,11 @@ import org.opengis.util.ProgressListener;
  */
 public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
 
-    private static final int COORD_GRID_CHUNK_SIZE = 1000;
+    /** Tile size of the output image */
+    private static final int TILE_SIZE = 512;
+
+    /** Tolerance used to move points on the right and bottom raster edges inside the raster */
+    private static final double EDGE_TOL = 1.0E-6;
 
     private static enum TransferType {
         INTEGRAL,
@@ -123,12 +126,12 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
     private boolean transformFeatures;
     private MathTransform featureToRasterTransform;
 
-    private int[] coordGridX = new int[COORD_GRID_CHUNK_SIZE];
-    private int[] coordGridY = new int[COORD_GRID_CHUNK_SIZE];
-    // private double cellsize;
+    private MathTransform2D worldToGrid;
+
+    private boolean allTouched;
 
     TiledImage image;
-    Graphics2D graphics;
+    ScanlineRasterizer rasterizer;
 
     /**
      * Constructor
@@ -139,6 +142,21 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
         super(factory);
     }
 
+    /**
+     * When true, all the pixels touched by lines and polygon boundaries are burned, otherwise
+     * only the pixels along the lines and the ones whose center is inside the polygons
+     * (the default)
+     *
+     * @param allTouched
+     */
+    public void setAllTouched(boolean allTouched) {
+        this.allTouched = allTouched;
+    }
+
+    public boolean isAllTouched() {
+        return allTouched;
+    }
+
     /**
      * A static helper method that can be called directy to run the process.
      * <p>
@@ -224,6 +242,11 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
         	title = "raster";
         }
 
+        Boolean allTouched = (Boolean) input.get(VectorToRasterFactory.ALL_TOUCHED.key);
+        if (allTouched != null) {
+            setAllTouched(allTouched);
+        }
+
         GridCoverage2D cov = convert(features, attribute, gridDim, env, title, monitor);
 
         Map<String, Object> results = new HashMap<String, Object>();
@@ -275,8 +298,6 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
                     break;
             }
 
-            graphics.setColor(valueToColor(value));
-            
             Geometries geomType = Geometries.get(geometry);
             switch (geomType) {
                 case MULTIPOLYGON:
@@ -285,14 +306,14 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
                     final int numGeom = geometry.getNumGeometries();
                     for (int i = 0; i < numGeom; i++) {
                         Geometry geomN = geometry.getGeometryN(i);
-                        drawGeometry(Geometries.get(geomN), geomN);
+                        drawGeometry(Geometries.get(geomN), geomN, value);
                     }
                     break;
                     
                 case POLYGON:
                 case LINESTRING:
                 case POINT:
-                    drawGeometry(geomType, geometry);
+                    drawGeometry(geomType, geometry, value);
                     break;
                     
                 default:
@@ -351,11 +372,14 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
         }
         finally {
             features.close( fi );
+            // burn the features still pending, if the rasterizer got created at all
+            if (rasterizer != null) {
+                rasterizer.dispose();
+                rasterizer = null;
+            }
         }
         monitor.complete();
 
-        flattenImage();
-        
         GridCoverageFactory gcf = new GridCoverageFactory();
         return gcf.create(covName, image, extent);
     }
@@ -363,6 +387,9 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
     private void initialize(SimpleFeatureCollection features,
             Envelope bounds, Object attribute, Dimension gridDim ) throws VectorToRasterException {
 
+        // do not keep the rasterizer of a previous conversion around
+        rasterizer = null;
+
         // check the attribute argument
         if (attribute instanceof String) {
             String propName = (String) attribute;
@@ -454,6 +481,12 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
         gridGeom = new GridGeometry2D(
                 new GridEnvelope2D(0, 0, gridDim.width, gridDim.height), 
                 extent);
+        try {
+            // pixel (i, j) covers [i, i+1) x [j, j+1) in raster space
+            worldToGrid = gridGeom.getCRSToGrid2D(PixelOrientation.UPPER_LEFT);
+        } catch (Exception e) {
+            throw new VectorToRasterException(e);
+        }
     }
 
     /**
@@ -502,111 +535,25 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
     }
 
     /**
-     * Create the tiled image and the associated graphics object that we will be used to
-     * draw the vector features into a raster.
-     * <p>
-     * Note, the graphics objects will be an
-     * instance of TiledImageGraphics which is a sub-class of Graphics2D.
+     * Create the single band int or float tiled image the vector features will be burned into
+     * by the {@link ScanlineRasterizer}
      */
     private void createImage( Dimension gridDim ) {
 
-        ColorModel cm = ColorModel.getRGBdefault();
-        SampleModel sm = cm.createCompatibleSampleModel(gridDim.width, gridDim.height);
+        int dataType = transferType == TransferType.FLOAT ? DataBuffer.TYPE_FLOAT
+                : DataBuffer.TYPE_INT;
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(dataType,
+                Math.min(TILE_SIZE, gridDim.width), Math.min(TILE_SIZE, gridDim.height), 1);
+        ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                false, false, Transparency.OPAQUE, dataType);
 
         image = new TiledImage(0, 0, gridDim.width, gridDim.height, 0, 0, sm, cm);
-        graphics = image.createGraphics();
-        graphics.setPaintMode();
-        graphics.setComposite(AlphaComposite.Src);
-    }
-
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band image.
-     *
-     * @todo There is probably a much easier / faster way to do this that
-     * still takes advantage of image tiling (?)
-     */
-    private void flattenImage() {
-
-        if (transferType == TransferType.FLOAT) {
-            flattenImageToFloat();
-        } else {
-            flattenImageToInt();
-        }
+        rasterizer = new ScanlineRasterizer(image);
+        rasterizer.setAllTouched(allTouched);
     }
 
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band int image.
-     */
-    private void flattenImageToInt() {
-        int numXTiles = image.getNumXTiles();
-        int numYTiles = image.getNumYTiles();
-
-        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
-                DataBuffer.TYPE_INT, image.getWidth(), image.getHeight(), 1);
-
-        TiledImage destImage = new TiledImage(0, 0, image.getWidth(), image.getHeight(),
-                0, 0, sm, new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), 
-                		false, false, Transparency.OPAQUE, DataBuffer.TYPE_INT));
-
-        for (int yt = 0; yt < numYTiles; yt++) {
-            for (int xt = 0; xt < numXTiles; xt++) {
-                Raster srcTile = image.getTile(xt, yt);
-                WritableRaster destTile = destImage.getWritableTile(xt, yt);
-
-                int[] data = new int[srcTile.getDataBuffer().getSize()];
-                srcTile.getDataElements(srcTile.getMinX(), srcTile.getMinY(),
-                        srcTile.getWidth(), srcTile.getHeight(), data);
-
-                Rectangle bounds = destTile.getBounds();
-                destTile.setPixels(bounds.x, bounds.y, bounds.width, bounds.height, data);
-                destImage.releaseWritableTile(xt, yt);
-            }
-        }
-
-        image = destImage;
-    }
-
-    /**
-     * Takes the 4-band ARGB image that we have been drawing into and
-     * converts it to a single-band float image
-     */
-    private void flattenImageToFloat() {
-        int numXTiles = image.getNumXTiles();
-        int numYTiles = image.getNumYTiles();
-
-        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_FLOAT, image.getWidth(), image.getHeight(), 1);
-        TiledImage destImage = new TiledImage(0, 0, image.getWidth(), image.getHeight(), 0, 0, sm, 
-        		new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), 
-                		false, false, Transparency.OPAQUE, DataBuffer.TYPE_FLOAT));
-
-        for (int yt = 0; yt < numYTiles; yt++) {
-            for (int xt = 0; xt < numXTiles; xt++) {
-                Raster srcTile = image.getTile(xt, yt);
-                WritableRaster destTile = destImage.getWritableTile(xt, yt);
-
-                int[] data = new int[srcTile.getDataBuffer().getSize()];
-                srcTile.getDataElements(srcTile.getMinX(), srcTile.getMinY(),
-                        srcTile.getWidth(), srcTile.getHeight(), data);
-                
-                Rectangle bounds = destTile.getBounds();
-                
-                int k = 0;
-                for (int dy = bounds.y, drow = 0; drow < bounds.height; dy++, drow++) {
-                    for (int dx = bounds.x, dcol = 0; dcol < bounds.width; dx++, dcol++, k++) {
-                        destTile.setSample(dx, dy, 0, Float.intBitsToFloat(data[k]));
-                    }
-                }
-
-                destImage.releaseWritableTile(xt, yt);
-            }
-        }
-
-        image = destImage;
-    }
-
-    private void drawGeometry(Geometries geomType, Geometry geometry) throws TransformException {
+    private void drawGeometry(Geometries geomType, Geometry geometry, Number value)
+            throws TransformException {
         Geometry workingGeometry;
         if (transformFeatures) {
             try {
@@ -621,35 +568,26 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
             workingGeometry = geometry;
         }
         
-        Coordinate[] coords = geometry.getCoordinates();
-
-        // enlarge if needed
-        if (coords.length > coordGridX.length) {
-            int n = coords.length / COORD_GRID_CHUNK_SIZE + 1;
-            coordGridX = new int[n * COORD_GRID_CHUNK_SIZE];
-            coordGridY = new int[n * COORD_GRID_CHUNK_SIZE];
-        }
-
-        // Go through coordinate array in order received
-        DirectPosition2D worldPos = new DirectPosition2D();
-        for (int n = 0; n < coords.length; n++) {
-            worldPos.setLocation(coords[n].x, coords[n].y);
-            GridCoordinates2D gridPos = gridGeom.worldToGrid(worldPos);
-            coordGridX[n] = gridPos.x;
-            coordGridY[n] = gridPos.y;
-        }
-
         switch (geomType) {
             case POLYGON:
-                graphics.fillPolygon(coordGridX, coordGridY, coords.length);
+                Polygon polygon = (Polygon) workingGeometry;
+                List<double[][]> rings = new ArrayList<double[][]>();
+                rings.add(toGrid(polygon.getExteriorRing().getCoordinateSequence(), false));
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    rings.add(toGrid(polygon.getInteriorRingN(i).getCoordinateSequence(), false));
+                }
+                rasterizer.addPolygon(rings, value);
                 break;
                 
             case LINESTRING:  // includes LinearRing
-                graphics.drawPolyline(coordGridX, coordGridY, coords.length);
+                double[][] line = toGrid(((LineString) workingGeometry).getCoordinateSequence(),
+                        !allTouched);
+                rasterizer.addLine(line[0], line[1], value);
                 break;
                 
             case POINT:
-                graphics.fillRect(coordGridX[0], coordGridY[0], 1, 1);
+                double[][] point = toGrid(((Point) workingGeometry).getCoordinateSequence(), true);
+                rasterizer.addPoint(point[0][0], point[1][0], value);
                 break;
                 
             default:
@@ -659,19 +597,36 @@ public class VectorToRasterProcess extends AbstractFeatureCollectionProcess {
     }
 
     /**
-     * Encode a value as a Color. The value will be Integer or Float.
-     * @param value the value to enclode
-     * @return the resulting sRGB Color
+     * Transforms the coordinates into raster space. When snapping, the coordinates lying on the
+     * right and bottom edges of the output extent are moved inside it, as done by
+     * {@link GridGeometry2D#worldToGrid(org.opengis.geometry.DirectPosition)}
      */
-    private Color valueToColor(Number value) {
-        int intBits;
-        if (transferType == TransferType.FLOAT) {
-            intBits = Float.floatToIntBits(value.floatValue());
-        } else {
-            intBits = value.intValue();
+    private double[][] toGrid(CoordinateSequence cs, boolean snapEdges)
+            throws TransformException {
+        final int size = cs.size();
+        double[] coords = new double[size * 2];
+        for (int i = 0; i < size; i++) {
+            double x = cs.getX(i);
+            double y = cs.getY(i);
+            if (snapEdges) {
+                if (Math.abs(x - extent.getMaxX()) <= EDGE_TOL) {
+                    x -= EDGE_TOL;
+                }
+                if (Math.abs(y - extent.getMinY()) <= EDGE_TOL) {
+                    y += EDGE_TOL;
+                }
+            }
+            coords[i * 2] = x;
+            coords[i * 2 + 1] = y;
         }
+        worldToGrid.transform(coords, 0, coords, 0, size);
 
-        return new Color(intBits, true);
+        double[][] result = new double[2][size];
+        for (int i = 0; i < size; i++) {
+            result[0][i] = coords[i * 2];
+            result[1][i] = coords[i * 2 + 1];
+        }
+        return result;
     }
 
 }
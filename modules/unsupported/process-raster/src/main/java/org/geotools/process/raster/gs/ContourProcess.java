@@ -18,41 +18,41 @@
 package org.geotools.process.raster.gs;
 
 import java.awt.geom.AffineTransform;
-import java.awt.image.RenderedImage;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-import javax.media.jai.JAI;
-import javax.media.jai.ParameterBlockJAI;
-import javax.media.jai.RenderedOp;
-
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.util.AffineTransformation;
 
-import org.jaitools.media.jai.contour.ContourDescriptor;
-import org.jaitools.media.jai.contour.ContourRIF;
+import org.jaitools.jts.LineSmoother;
 import org.jaitools.numeric.Range;
 
 import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
-import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.collection.AbstractFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.image.jai.Registry;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.ProcessException;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
 import org.geotools.process.factory.DescribeResult;
 import org.geotools.process.gs.GSProcess;
 import org.geotools.process.raster.CoverageUtilities;
+import org.geotools.process.raster.gs.ContourTracer.Contour;
 import org.geotools.resources.i18n.Vocabulary;
 import org.geotools.resources.i18n.VocabularyKeys;
 import org.geotools.util.NumberRange;
 
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.util.InternationalString;
@@ -61,9 +61,8 @@ import org.opengis.util.ProgressListener;
 
 /**
  * A process to extract contours based on values in a specified band of the 
- * input {@linkplain GridCoverage2D}. This is a geo-spatial wrapper around the JAITools
- * "Contour" operation (see {@linkplain ContourDescriptor} for details of the underlying
- * algorithm).
+ * input {@linkplain GridCoverage2D}. The contours are traced with a marching squares algorithm
+ * running on the image tiles in parallel.
  * <p>
  * You can specify the specific values for which contours will be generated, or alternatively
  * the interval between contour values.
@@ -84,11 +83,6 @@ public class ContourProcess implements GSProcess {
     private static final InternationalString NO_DATA = Vocabulary
             .formatInternational(VocabularyKeys.NODATA);
 
-    static {
-        Registry.registerRIF(JAI.getDefaultInstance(), new ContourDescriptor(), new ContourRIF(),
-                Registry.JAI_TOOLS_PRODUCT);
-    }
-
     /**
      * Perform the contouring on the input {@linkplain GridCoverage2D} and returns
      * the results as a feature collection. You can control which contours are generated
@@ -193,76 +187,127 @@ public class ContourProcess implements GSProcess {
             }
         }
 
-        // get the rendered image
-        final RenderedImage raster = gc2d.getRenderedImage();
-
-        // perform jai operation
-        ParameterBlockJAI pb = new ParameterBlockJAI("Contour");
-        pb.setSource("source0", raster);
-
-        if (roi != null) {
-            pb.setParameter("roi", CoverageUtilities.prepareROI(roi, mt2D));
-        }
-        
-        if (band != null) {
-            pb.setParameter("band", band);
-        }
-        
-        if (levels != null && levels.length > 0) {
-            final ArrayList<Double> elements = new ArrayList<Double>(levels.length);
-            for (double level : levels)
-                elements.add(level);
-            pb.setParameter("levels", elements);
+        // trace the contours, tile by tile
+        final ContourTracer tracer = new ContourTracer(gc2d.getRenderedImage(),
+                band != null ? band : 0);
+        if (hasValues) {
+            tracer.setLevels(levels);
         } else {
-            pb.setParameter("interval", interval);
+            tracer.setInterval(interval);
         }
-        
-        if (simplify != null) {
-            pb.setParameter("simplify", simplify);
+        if (roi != null) {
+            tracer.setROI(CoverageUtilities.prepareROI(roi, mt2D));
         }
-        
-        if (smooth != null) {
-            pb.setParameter("smooth", smooth);
+        if (simplify != null) {
+            tracer.setSimplify(simplify);
         }
-        
         if (!noDataList.isEmpty()) {
-            pb.setParameter("nodata", noDataList);
+            tracer.setNoData(noDataList);
+        }
+        final List<Contour> contours;
+        try {
+            contours = tracer.trace();
+        } catch (IllegalArgumentException e) {
+            throw new ProcessException(e);
         }
 
-        final RenderedOp dest = JAI.create("Contour", pb);
-        @SuppressWarnings("unchecked")
-        final Collection<LineString> prop = (Collection<LineString>) dest
-                .getProperty(ContourDescriptor.CONTOUR_PROPERTY_NAME);
-
-        // wrap as a feature collection and return
+        // wrap as a feature collection building the lines on demand
         final SimpleFeatureType schema = CoverageUtilities
                 .createFeatureType(gc2d, LineString.class);
-        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
-        int i = 0;
-        final ListFeatureCollection featureCollection = new ListFeatureCollection(schema);
-        final AffineTransformation jtsTransformation = new AffineTransformation(mt2D.getScaleX(),
-                mt2D.getShearX(), mt2D.getTranslateX(), mt2D.getShearY(), mt2D.getScaleY(),
-                mt2D.getTranslateY());
-        for (LineString line : prop) {
-
-            // get value
-            Double value = (Double) line.getUserData();
-            line.setUserData(null);
-            // filter coordinates in place
-            line.apply(jtsTransformation);
-
-            // create feature and add to list
-            builder.set("the_geom", line);
-            builder.set("value", value);
-
-            featureCollection.add(builder.buildFeature(String.valueOf(i++)));
+        return new ContourFeatureCollection(schema, contours, mt2D, smooth != null && smooth);
+    }
+
+    /**
+     * A feature collection building the contour features as they are read
+     */
+    private static final class ContourFeatureCollection extends AbstractFeatureCollection {
+
+        /**
+         * Tightness of the Bezier smoothing, 0 is the loosest fit
+         */
+        static final double SMOOTHING_ALPHA = 0.0;
+
+        final List<Contour> contours;
+
+        final AffineTransform mt2D;
 
+        final boolean smooth;
+
+        ReferencedEnvelope bounds;
+
+        ContourFeatureCollection(SimpleFeatureType schema, List<Contour> contours,
+                AffineTransform mt2D, boolean smooth) {
+            super(schema);
+            this.contours = contours;
+            this.mt2D = mt2D;
+            this.smooth = smooth;
+        }
+
+        @Override
+        protected Iterator<SimpleFeature> openIterator() {
+            final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(getSchema());
+            final GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(null);
+            final LineSmoother smoother = smooth ? new LineSmoother(gf) : null;
+            final AffineTransformation jtsTransformation = new AffineTransformation(
+                    mt2D.getScaleX(), mt2D.getShearX(), mt2D.getTranslateX(), mt2D.getShearY(),
+                    mt2D.getScaleY(), mt2D.getTranslateY());
+            return new Iterator<SimpleFeature>() {
+                int i = 0;
+
+                public boolean hasNext() {
+                    return i < contours.size();
+                }
+
+                public SimpleFeature next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final Contour contour = contours.get(i);
+                    final Coordinate[] coords = new Coordinate[contour.xy.length / 2];
+                    for (int j = 0; j < coords.length; j++) {
+                        coords[j] = new Coordinate(contour.xy[2 * j], contour.xy[2 * j + 1]);
+                    }
+                    LineString line = gf.createLineString(coords);
+                    if (smoother != null) {
+                        line = smoother.smooth(line, SMOOTHING_ALPHA);
+                    }
+                    line.apply(jtsTransformation);
+
+                    builder.set("the_geom", line);
+                    builder.set("value", contour.level);
+                    return builder.buildFeature(String.valueOf(i++));
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
 
-        // return value
+        @Override
+        protected void closeIterator(Iterator<SimpleFeature> close) {
+            // nothing to release
+        }
 
-        return featureCollection;
+        @Override
+        public int size() {
+            return contours.size();
+        }
 
+        @Override
+        public synchronized ReferencedEnvelope getBounds() {
+            if (bounds == null) {
+                bounds = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+                final double[] pt = new double[2];
+                for (Contour contour : contours) {
+                    for (int j = 0; j < contour.xy.length; j += 2) {
+                        mt2D.transform(contour.xy, j, pt, 0, 1);
+                        bounds.expandToInclude(pt[0], pt[1]);
+                    }
+                }
+            }
+            return new ReferencedEnvelope(bounds);
+        }
     }
 
 }
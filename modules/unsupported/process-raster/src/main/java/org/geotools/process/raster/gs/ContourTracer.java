@@ -0,0 +1,701 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster.gs;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.jai.ROI;
+
+import org.geotools.util.ComputationExecutor;
+import org.jaitools.numeric.Range;
+
+/**
+ * Extracts contour lines from a band of an image with a marching squares algorithm.
+ * <p>
+ * The cells of the marching squares have the pixel centers as corners. The cells are split
+ * among the image tiles, which are traced in parallel: within a tile the segments of each cell
+ * are chained together as they are found, and the chains ending on the tile borders are then
+ * stitched with the ones of the neighbouring tiles. Chains are joined by the cell edge they
+ * cross, the crossing point being computed the same way by the two cells sharing the edge.
+ * <p>
+ * Cells having a nodata corner, or a corner outside of the region of interest, produce no
+ * segment. Ambiguous saddle cells are resolved with the average of the four corners.
+ *
+ * @source $URL$
+ */
+class ContourTracer {
+
+    /** Relative tolerance used to detect co-linear vertices */
+    static final double COLINEAR_EPS = 1e-9;
+
+    RenderedImage image;
+
+    int band;
+
+    double[] levels;
+
+    double interval;
+
+    double[] noData = new double[0];
+
+    List<Range<Double>> noDataRanges = new ArrayList<Range<Double>>();
+
+    ROI roi;
+
+    boolean simplify = true;
+
+    int threads = ComputationExecutor.getThreadCount();
+
+    /**
+     * Builds a tracer for the specified image band
+     */
+    public ContourTracer(RenderedImage image, int band) {
+        if (band < 0 || band >= image.getSampleModel().getNumBands()) {
+            throw new IllegalArgumentException("Invalid band " + band);
+        }
+        this.image = image;
+        this.band = band;
+    }
+
+    /**
+     * Sets the values at which contours are traced
+     */
+    public void setLevels(double[] levels) {
+        double[] sorted = levels.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (!Double.isNaN(sorted[i]) && (count == 0 || sorted[i] != sorted[count - 1])) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        this.levels = Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Traces contours at all the multiples of the specified interval within the range of the
+     * data. Ignored if explicit levels have been set.
+     */
+    public void setInterval(double interval) {
+        if (!(interval > 0)) {
+            throw new IllegalArgumentException("The interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Sets the nodata values, as a list of {@link Number} and {@link Range}
+     */
+    @SuppressWarnings("unchecked")
+    public void setNoData(List<Object> noDataList) {
+        List<Double> values = new ArrayList<Double>();
+        noDataRanges = new ArrayList<Range<Double>>();
+        for (Object nd : noDataList) {
+            if (nd instanceof Number) {
+                values.add(((Number) nd).doubleValue());
+            } else if (nd instanceof Range) {
+                noDataRanges.add((Range<Double>) nd);
+            }
+        }
+        noData = new double[values.size()];
+        for (int i = 0; i < noData.length; i++) {
+            noData[i] = values.get(i);
+        }
+    }
+
+    /**
+     * Sets the region of interest, in raster space
+     */
+    public void setROI(ROI roi) {
+        this.roi = roi;
+    }
+
+    /**
+     * When true, the co-linear vertices are removed from the contours
+     */
+    public void setSimplify(boolean simplify) {
+        this.simplify = simplify;
+    }
+
+    /**
+     * Sets the number of threads used to trace the tiles, by default the number of threads of the
+     * shared {@link ComputationExecutor}
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Traces the contours
+     *
+     * @return the contours, sorted by level, with their coordinates in raster space
+     */
+    public List<Contour> trace() {
+        final int minTileX = image.getMinTileX();
+        final int minTileY = image.getMinTileY();
+        final int numXTiles = image.getNumXTiles();
+        final int tileCount = numXTiles * image.getNumYTiles();
+        if (levels == null) {
+            levels = computeLevels(minTileX, minTileY, numXTiles, tileCount);
+        }
+        if (levels.length == 0 || image.getWidth() < 2 || image.getHeight() < 2) {
+            return Collections.emptyList();
+        }
+
+        // trace each tile
+        final ChainJoiner[][] tileChains = new ChainJoiner[tileCount][];
+        run(tileCount, new Task() {
+            public void run(int tile) {
+                tileChains[tile] = traceTile(minTileX + tile % numXTiles, minTileY + tile
+                        / numXTiles);
+            }
+        });
+
+        // stitch each level across the tiles
+        final List<List<Contour>> contours = new ArrayList<List<Contour>>();
+        for (int i = 0; i < levels.length; i++) {
+            contours.add(null);
+        }
+        run(levels.length, new Task() {
+            public void run(int level) {
+                ChainJoiner joiner = new ChainJoiner();
+                for (ChainJoiner[] tile : tileChains) {
+                    if (tile != null && tile[level] != null) {
+                        joiner.closed.addAll(tile[level].closed);
+                        for (Chain chain : tile[level].getOpenChains()) {
+                            joiner.add(chain);
+                        }
+                    }
+                }
+                contours.set(level, toContours(levels[level], joiner));
+            }
+        });
+
+        List<Contour> result = new ArrayList<Contour>();
+        for (List<Contour> levelContours : contours) {
+            result.addAll(levelContours);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the multiples of the interval within the valid data range
+     */
+    double[] computeLevels(final int minTileX, final int minTileY, final int numXTiles,
+            int tileCount) {
+        if (interval <= 0) {
+            throw new IllegalStateException("Neither levels nor interval have been set");
+        }
+        final double[][] ranges = new double[tileCount][];
+        run(tileCount, new Task() {
+            public void run(int tile) {
+                int tx = minTileX + tile % numXTiles;
+                int ty = minTileY + tile / numXTiles;
+                Rectangle bounds = new Rectangle(image.getTileGridXOffset() + tx
+                        * image.getTileWidth(), image.getTileGridYOffset() + ty
+                        * image.getTileHeight(), image.getTileWidth(), image.getTileHeight())
+                        .intersection(new Rectangle(image.getMinX(), image.getMinY(),
+                                image.getWidth(), image.getHeight()));
+                if (bounds.isEmpty() || (roi != null && !roi.intersects(bounds))) {
+                    return;
+                }
+                double[] values = image.getTile(tx, ty).getSamples(bounds.x, bounds.y,
+                        bounds.width, bounds.height, band, (double[]) null);
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (double v : values) {
+                    if (!isNoData(v)) {
+                        if (v < min) {
+                            min = v;
+                        }
+                        if (v > max) {
+                            max = v;
+                        }
+                    }
+                }
+                if (min <= max) {
+                    ranges[tile] = new double[] { min, max };
+                }
+            }
+        });
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] range : ranges) {
+            if (range != null) {
+                min = Math.min(min, range[0]);
+                max = Math.max(max, range[1]);
+            }
+        }
+        if (min > max || Double.isInfinite(min) || Double.isInfinite(max)) {
+            return new double[0];
+        }
+        long first = (long) Math.ceil(min / interval);
+        long last = (long) Math.floor(max / interval);
+        if (last - first >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The interval " + interval
+                    + " is too small for the data range [" + min + "," + max + "]");
+        }
+        double[] result = new double[(int) Math.max(0, last - first + 1)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (first + i) * interval;
+        }
+        return result;
+    }
+
+    boolean isNoData(double v) {
+        if (Double.isNaN(v)) {
+            return true;
+        }
+        for (double nd : noData) {
+            if (v == nd) {
+                return true;
+            }
+        }
+        for (Range<Double> range : noDataRanges) {
+            if (range.contains(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Traces the cells whose upper left corner falls in the specified tile
+     *
+     * @return the chains found in the tile, by level, or null if none
+     */
+    ChainJoiner[] traceTile(int tx, int ty) {
+        final int minX = image.getMinX();
+        final int minY = image.getMinY();
+        final int width = image.getWidth();
+        Rectangle cells = new Rectangle(image.getTileGridXOffset() + tx * image.getTileWidth(),
+                image.getTileGridYOffset() + ty * image.getTileHeight(), image.getTileWidth(),
+                image.getTileHeight()).intersection(new Rectangle(minX, minY, width - 1, image
+                .getHeight() - 1));
+        if (cells.isEmpty()) {
+            return null;
+        }
+        Rectangle pixels = new Rectangle(cells.x, cells.y, cells.width + 1, cells.height + 1);
+        if (roi != null && !roi.intersects(pixels)) {
+            return null;
+        }
+        final boolean checkRoi = roi != null && !roi.contains(pixels);
+
+        // grab the pixels, turning the invalid ones into NaN
+        Raster data = image.getData(pixels);
+        double[] values = data.getSamples(pixels.x, pixels.y, pixels.width, pixels.height, band,
+                (double[]) null);
+        double tileMin = Double.POSITIVE_INFINITY;
+        double tileMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < values.length; i++) {
+            double v = values[i];
+            if (isNoData(v)
+                    || (checkRoi && !roi.contains(pixels.x + i % pixels.width, pixels.y + i
+                            / pixels.width))) {
+                values[i] = Double.NaN;
+            } else {
+                tileMin = Math.min(tileMin, v);
+                tileMax = Math.max(tileMax, v);
+            }
+        }
+        if (!(tileMin < tileMax) || levels[levels.length - 1] <= tileMin
+                || levels[0] > tileMax) {
+            return null;
+        }
+
+        ChainJoiner[] joiners = new ChainJoiner[levels.length];
+        final int scan = pixels.width;
+        for (int row = 0; row < cells.height; row++) {
+            final int y = cells.y + row;
+            int offset = row * scan;
+            for (int col = 0; col < cells.width; col++, offset++) {
+                final double tl = values[offset];
+                final double tr = values[offset + 1];
+                final double bl = values[offset + scan];
+                final double br = values[offset + scan + 1];
+                // NaN comparisons are false, so any NaN corner is skipped here
+                if (!(tl == tl && tr == tr && bl == bl && br == br)) {
+                    continue;
+                }
+                final double min = Math.min(Math.min(tl, tr), Math.min(bl, br));
+                final double max = Math.max(Math.max(tl, tr), Math.max(bl, br));
+                // the cell is crossed by the levels in (min, max]
+                int l = firstAbove(min);
+                if (l >= levels.length || levels[l] > max) {
+                    continue;
+                }
+                final int x = cells.x + col;
+                final long topKey = ((long) (y - minY) * width + (x - minX)) << 1;
+                final long bottomKey = topKey + ((long) width << 1);
+                final long leftKey = topKey | 1;
+                final long rightKey = leftKey + 2;
+                for (; l < levels.length && levels[l] <= max; l++) {
+                    final double level = levels[l];
+                    int index = (tl >= level ? 8 : 0) | (tr >= level ? 4 : 0)
+                            | (br >= level ? 2 : 0) | (bl >= level ? 1 : 0);
+                    ChainJoiner joiner = joiners[l];
+                    if (joiner == null) {
+                        joiner = joiners[l] = new ChainJoiner();
+                    }
+                    switch (index) {
+                    case 1:
+                    case 14:
+                        // left - bottom
+                        joiner.add(new Chain(leftKey, x, y + cross(tl, bl, level), bottomKey, x
+                                + cross(bl, br, level), y + 1));
+                        break;
+                    case 2:
+                    case 13:
+                        // bottom - right
+                        joiner.add(new Chain(bottomKey, x + cross(bl, br, level), y + 1,
+                                rightKey, x + 1, y + cross(tr, br, level)));
+                        break;
+                    case 3:
+                    case 12:
+                        // left - right
+                        joiner.add(new Chain(leftKey, x, y + cross(tl, bl, level), rightKey,
+                                x + 1, y + cross(tr, br, level)));
+                        break;
+                    case 4:
+                    case 11:
+                        // top - right
+                        joiner.add(new Chain(topKey, x + cross(tl, tr, level), y, rightKey,
+                                x + 1, y + cross(tr, br, level)));
+                        break;
+                    case 6:
+                    case 9:
+                        // top - bottom
+                        joiner.add(new Chain(topKey, x + cross(tl, tr, level), y, bottomKey, x
+                                + cross(bl, br, level), y + 1));
+                        break;
+                    case 7:
+                    case 8:
+                        // left - top
+                        joiner.add(new Chain(leftKey, x, y + cross(tl, bl, level), topKey, x
+                                + cross(tl, tr, level), y));
+                        break;
+                    case 5:
+                    case 10:
+                        // saddle, the center decides which corners are connected
+                        boolean centerAbove = (tl + tr + bl + br) / 4 >= level;
+                        if (centerAbove == (index == 5)) {
+                            // the top left and bottom right corners are cut off
+                            joiner.add(new Chain(leftKey, x, y + cross(tl, bl, level), topKey, x
+                                    + cross(tl, tr, level), y));
+                            joiner.add(new Chain(bottomKey, x + cross(bl, br, level), y + 1,
+                                    rightKey, x + 1, y + cross(tr, br, level)));
+                        } else {
+                            // the top right and bottom left corners are cut off
+                            joiner.add(new Chain(topKey, x + cross(tl, tr, level), y, rightKey,
+                                    x + 1, y + cross(tr, br, level)));
+                            joiner.add(new Chain(leftKey, x, y + cross(tl, bl, level),
+                                    bottomKey, x + cross(bl, br, level), y + 1));
+                        }
+                        break;
+                    default:
+                        // 0 and 15 are not crossed
+                    }
+                }
+            }
+        }
+        return joiners;
+    }
+
+    /**
+     * Returns the index of the first level greater than the value
+     */
+    int firstAbove(double value) {
+        int low = 0;
+        int high = levels.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (levels[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the level crossing along the edge going from v0 to v1, as a
+     * fraction of the edge length. Always called with the edge values in the same order, so
+     * that the two cells sharing the edge compute the same point.
+     */
+    static double cross(double v0, double v1, double level) {
+        return (level - v0) / (v1 - v0);
+    }
+
+    List<Contour> toContours(double level, ChainJoiner joiner) {
+        List<Contour> result = new ArrayList<Contour>();
+        List<Chain> chains = new ArrayList<Chain>(joiner.closed);
+        chains.addAll(joiner.getOpenChains());
+        for (Chain chain : chains) {
+            double[] xy = chain.toArray();
+            xy = removeDuplicates(xy);
+            if (simplify) {
+                xy = removeColinear(xy);
+            }
+            if (xy.length >= 4) {
+                result.add(new Contour(level, xy));
+            }
+        }
+        return result;
+    }
+
+    static double[] removeDuplicates(double[] xy) {
+        int count = 2;
+        for (int i = 2; i < xy.length; i += 2) {
+            if (xy[i] != xy[count - 2] || xy[i + 1] != xy[count - 1]) {
+                xy[count++] = xy[i];
+                xy[count++] = xy[i + 1];
+            }
+        }
+        return count == xy.length ? xy : Arrays.copyOf(xy, count);
+    }
+
+    static double[] removeColinear(double[] xy) {
+        if (xy.length <= 4) {
+            return xy;
+        }
+        int count = 2;
+        for (int i = 2; i < xy.length - 2; i += 2) {
+            double dx1 = xy[i] - xy[count - 2];
+            double dy1 = xy[i + 1] - xy[count - 1];
+            double dx2 = xy[i + 2] - xy[i];
+            double dy2 = xy[i + 3] - xy[i + 1];
+            double cross = dx1 * dy2 - dy1 * dx2;
+            double dot = dx1 * dx2 + dy1 * dy2;
+            double scale = Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2));
+            if (dot > 0 && Math.abs(cross) <= COLINEAR_EPS * scale) {
+                // the vertex lies on the way from the previous one to the next one
+                continue;
+            }
+            xy[count++] = xy[i];
+            xy[count++] = xy[i + 1];
+        }
+        xy[count++] = xy[xy.length - 2];
+        xy[count++] = xy[xy.length - 1];
+        return count == xy.length ? xy : Arrays.copyOf(xy, count);
+    }
+
+    /**
+     * Runs the task for all the items, on the shared thread pool if there is more than one item
+     */
+    void run(final int items, final Task task) {
+        final AtomicInteger next = new AtomicInteger();
+        Callable<Object> worker = new Callable<Object>() {
+            public Object call() {
+                int item;
+                while ((item = next.getAndIncrement()) < items) {
+                    task.run(item);
+                }
+                return null;
+            }
+        };
+        try {
+            int workers = Math.min(threads, items);
+            if (workers <= 1) {
+                worker.call();
+            } else {
+                // the calling thread is one of the workers
+                ComputationExecutor.invokeAll(Collections.nCopies(workers, worker));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while tracing contours", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    interface Task {
+        void run(int item);
+    }
+
+    /**
+     * A contour line, with its coordinates in raster space
+     */
+    static class Contour {
+        final double level;
+
+        final double[] xy;
+
+        Contour(double level, double[] xy) {
+            this.level = level;
+            this.xy = xy;
+        }
+    }
+
+    /**
+     * Joins chains sharing an end, that is, crossing the same cell edge
+     */
+    static class ChainJoiner {
+        /** The open chains, by end key. Each open chain is registered under both its ends */
+        Map<Long, Chain> open = new LinkedHashMap<Long, Chain>();
+
+        List<Chain> closed = new ArrayList<Chain>();
+
+        void add(Chain chain) {
+            while (true) {
+                if (chain.startKey == chain.endKey) {
+                    closed.add(chain);
+                    return;
+                }
+                Chain other = open.remove(chain.startKey);
+                if (other != null) {
+                    open.remove(other.otherEnd(chain.startKey));
+                    chain = chain.join(other, chain.startKey);
+                    continue;
+                }
+                other = open.remove(chain.endKey);
+                if (other != null) {
+                    open.remove(other.otherEnd(chain.endKey));
+                    chain = chain.join(other, chain.endKey);
+                    continue;
+                }
+                open.put(chain.startKey, chain);
+                open.put(chain.endKey, chain);
+                return;
+            }
+        }
+
+        List<Chain> getOpenChains() {
+            List<Chain> result = new ArrayList<Chain>(open.size() / 2);
+            for (Map.Entry<Long, Chain> entry : open.entrySet()) {
+                if (entry.getKey() == entry.getValue().startKey) {
+                    result.add(entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A polyline that can grow on both ends, along with the keys of the cell edges its ends lie
+     * on
+     */
+    static class Chain {
+        double[] xy;
+
+        /** Index of the first coordinate */
+        int head;
+
+        /** Index past the last coordinate */
+        int tail;
+
+        long startKey;
+
+        long endKey;
+
+        Chain(long startKey, double x0, double y0, long endKey, double x1, double y1) {
+            xy = new double[12];
+            head = 4;
+            tail = 8;
+            xy[4] = x0;
+            xy[5] = y0;
+            xy[6] = x1;
+            xy[7] = y1;
+            this.startKey = startKey;
+            this.endKey = endKey;
+        }
+
+        int size() {
+            return (tail - head) >> 1;
+        }
+
+        long otherEnd(long key) {
+            return key == startKey ? endKey : startKey;
+        }
+
+        void addFirst(double x, double y) {
+            if (head == 0) {
+                grow();
+            }
+            xy[--head] = y;
+            xy[--head] = x;
+        }
+
+        void addLast(double x, double y) {
+            if (tail == xy.length) {
+                grow();
+            }
+            xy[tail++] = x;
+            xy[tail++] = y;
+        }
+
+        void grow() {
+            int length = tail - head;
+            double[] grown = new double[Math.max(12, length * 2 + 8)];
+            int newHead = ((grown.length - length) / 2) & ~1;
+            System.arraycopy(xy, head, grown, newHead, length);
+            xy = grown;
+            head = newHead;
+            tail = newHead + length;
+        }
+
+        /**
+         * Joins the two chains at the specified common end, appending the shorter to the longer
+         *
+         * @return the joined chain
+         */
+        Chain join(Chain other, long key) {
+            if (other.size() > size()) {
+                return other.join(this, key);
+            }
+            // the shared point is in both chains, skip its copy
+            final boolean otherForward = other.startKey == key;
+            final int n = other.size();
+            if (endKey == key) {
+                for (int i = 1; i < n; i++) {
+                    int p = other.head + 2 * (otherForward ? i : n - 1 - i);
+                    addLast(other.xy[p], other.xy[p + 1]);
+                }
+                endKey = other.otherEnd(key);
+            } else {
+                for (int i = 1; i < n; i++) {
+                    int p = other.head + 2 * (otherForward ? i : n - 1 - i);
+                    addFirst(other.xy[p], other.xy[p + 1]);
+                }
+                startKey = other.otherEnd(key);
+            }
+            return this;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOfRange(xy, head, tail);
+        }
+    }
+}
@@ -17,17 +17,13 @@
  */
 package org.geotools.process.raster.gs;
 
-import java.awt.geom.AffineTransform;
-import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
-import javax.media.jai.JAI;
-import javax.media.jai.ROI;
-
 import org.geotools.process.ProcessException;
 import org.geotools.process.factory.DescribeParameter;
 import org.geotools.process.factory.DescribeProcess;
@@ -36,47 +32,24 @@ import org.geotools.process.gs.GSProcess;
 import org.geotools.process.gs.WrappingIterator;
 import org.geotools.process.raster.GridCoverage2DRIA;
 
-import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridGeometry2D;
-import org.geotools.coverage.processing.CoverageProcessor;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.geometry.jts.JTS;
-import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.image.jai.Registry;
 import org.geotools.referencing.CRS;
-import org.geotools.referencing.operation.transform.ProjectiveTransform;
-import org.geotools.util.NumberRange;
-import org.jaitools.imageutils.ROIGeometry;
-import org.jaitools.media.jai.zonalstats.ZonalStats;
-import org.jaitools.media.jai.zonalstats.ZonalStatsDescriptor;
-import org.jaitools.media.jai.zonalstats.ZonalStatsOpImage;
-import org.jaitools.media.jai.zonalstats.ZonalStatsRIF;
-import org.jaitools.numeric.Range;
-import org.jaitools.numeric.Statistic;
-import org.opengis.coverage.processing.Operation;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
-import org.opengis.filter.FilterFactory2;
-import org.opengis.metadata.spatial.PixelOrientation;
-import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.jaitools.numeric.Range;
 import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.TransformException;
 
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.util.AffineTransformation;
-import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
 
 /**
  * A process computing zonal statistics based on a raster data set and a set of polygonal zones of
@@ -89,31 +62,41 @@ import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
 @DescribeProcess(title = "Raster Zonal Statistics", description = "Computes statistics for the distribution of a certain quantity in a set of polygonal zones.")
 public class RasterZonalStatistics implements GSProcess {
 
-    private final static CoverageProcessor PROCESSOR = CoverageProcessor.getInstance();
-
-    private final static Operation CROPOPERATION = PROCESSOR.getOperation("CoverageCrop");
-    
-    static {
-        try{
-            Registry.registerRIF(JAI.getDefaultInstance(), new ZonalStatsDescriptor(), new ZonalStatsRIF(), Registry.JAI_TOOLS_PRODUCT);
-        } catch (Throwable e) {
-            // swallow exception in case the op has already been registered.
-        }
-    }
-
-    @DescribeResult(name = "statistics", description = "A feature collection with the attributes of the zone layer (prefixed by 'z_') and the statistics fields count,min,max,sum,avg,stddev")
+    @DescribeResult(name = "statistics", description = "A feature collection with the attributes of the zone layer (prefixed by 'z_') and the statistics fields count,min,max,sum,avg,stddev, plus histogram if requested")
     public SimpleFeatureCollection execute(
             @DescribeParameter(name = "data", description = "Input raster to compute statistics for") GridCoverage2D coverage,
             @DescribeParameter(name = "band", description = "Source band used to compute statistics (default is 0)", min = 0) Integer band,
             @DescribeParameter(name = "zones", description = "Zone polygon features for which to compute statistics") SimpleFeatureCollection zones,
             @DescribeParameter(name = "classification", description = "Raster whose values will be used as classes for the statistical analysis. Each zone reports statistics partitioned by classes according to the values of the raster. Must be a single band raster with integer values.", 
-            min = 0) GridCoverage2D classification) {
+            min = 0) GridCoverage2D classification,
+            @DescribeParameter(name = "histogramBins", description = "Number of bins of the histogram computed for each zone (and class), reported as comma separated counts. No histogram is computed if missing or zero", min = 0) Integer histogramBins,
+            @DescribeParameter(name = "histogramRange", description = "The range covered by the histogram bins, defaults to the range of the band sample dimension", min = 0) Range histogramRange) {
         int iband = 0;
         if (band != null) {
             iband = band;
         }
 
-        return new RasterZonalStatisticsCollection(coverage, iband, zones, classification);
+        RasterZonalStatisticsCollection result = new RasterZonalStatisticsCollection(coverage,
+                iband, zones, classification, histogramBins != null && histogramBins > 0);
+        if (result.histogram) {
+            double min, max;
+            if (histogramRange != null) {
+                min = histogramRange.getMin().doubleValue();
+                max = histogramRange.getMax().doubleValue();
+            } else {
+                GridSampleDimension sd = coverage.getSampleDimension(iband);
+                min = sd.getMinimumValue();
+                max = sd.getMaximumValue();
+            }
+            if (Double.isInfinite(min) || Double.isInfinite(max) || !(min < max)) {
+                throw new ProcessException("Invalid histogram range [" + min + ", " + max
+                        + "], please specify a finite one");
+            }
+            result.histogramMin = min;
+            result.histogramMax = max;
+            result.histogramBins = histogramBins;
+        }
+        return result;
     }
 
     /**
@@ -130,12 +113,21 @@ public class RasterZonalStatistics implements GSProcess {
 
         GridCoverage2D classification;
 
+        boolean histogram;
+
+        int histogramBins;
+
+        double histogramMin;
+
+        double histogramMax;
+
         public RasterZonalStatisticsCollection(GridCoverage2D coverage, int band,
-                SimpleFeatureCollection zones, GridCoverage2D classification) {
+                SimpleFeatureCollection zones, GridCoverage2D classification, boolean histogram) {
             super(zones);
             this.coverage = coverage;
             this.band = band;
             this.classification = classification;
+            this.histogram = histogram;
 
             SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
             for (AttributeDescriptor att : zones.getSchema().getAttributeDescriptors()) {
@@ -157,6 +149,9 @@ public class RasterZonalStatistics implements GSProcess {
             tb.add("sum", Double.class);
             tb.add("avg", Double.class);
             tb.add("stddev", Double.class);
+            if (histogram) {
+                tb.add("histogram", String.class);
+            }
             tb.setName(zones.getSchema().getName());
             targetSchema = tb.buildFeatureType();
         }
@@ -168,8 +163,14 @@ public class RasterZonalStatistics implements GSProcess {
 
         @Override
         public SimpleFeatureIterator features() {
-            return new RasterZonalStatisticsIterator(delegate.features(), coverage, band,
-                    targetSchema, classification);
+            RasterZonalStatisticsIterator it = new RasterZonalStatisticsIterator(
+                    delegate.features(), coverage, band, targetSchema, classification);
+            if (histogram) {
+                it.histogramBins = histogramBins;
+                it.histogramMin = histogramMin;
+                it.histogramMax = histogramMax;
+            }
+            return it;
         }
 
         @Override
@@ -186,10 +187,11 @@ public class RasterZonalStatistics implements GSProcess {
     }
 
     /**
-     * An iterator computing statistics as we go
+     * An iterator computing the statistics of all zones in a single pass over the data coverage
+     * (see {@link ZonalStatisticsEngine}) the first time it's accessed, and then returning them
+     * zone by zone
      */
     static class RasterZonalStatisticsIterator implements SimpleFeatureIterator {
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
 
         SimpleFeatureIterator zones;
 
@@ -200,7 +202,21 @@ public class RasterZonalStatistics implements GSProcess {
         int band;
 
         RenderedImage classificationRaster;
-        
+
+        List<SimpleFeature> zoneFeatures;
+
+        ZonalStatisticsEngine.Statistics stats;
+
+        Map<Integer, List<Integer>> slotsByZone;
+
+        int currentZone;
+
+        int histogramBins;
+
+        double histogramMin;
+
+        double histogramMax;
+
         List<SimpleFeature> features = new ArrayList<SimpleFeature>();
 
         public RasterZonalStatisticsIterator(SimpleFeatureIterator zones, GridCoverage2D coverage,
@@ -228,180 +244,106 @@ public class RasterZonalStatistics implements GSProcess {
         }
 
         public boolean hasNext() {
-            return features.size() > 0 || zones.hasNext();
+            computeStatistics();
+            return features.size() > 0 || currentZone < zoneFeatures.size();
         }
 
         public SimpleFeature next() throws NoSuchElementException {
+            computeStatistics();
             // build the next set of features if necessary
-            if(features.size() == 0) {
+            if (features.size() == 0) {
+                if (currentZone >= zoneFeatures.size()) {
+                    throw new NoSuchElementException();
+                }
                 // grab the current zone
-                SimpleFeature zone = zones.next();
-    
-                try {
-                    // grab the geometry and eventually reproject it to the
-                    Geometry zoneGeom = (Geometry) zone.getDefaultGeometry();
-                    CoordinateReferenceSystem dataCrs = dataCoverage.getCoordinateReferenceSystem();
-                    CoordinateReferenceSystem zonesCrs = builder.getFeatureType()
-                            .getGeometryDescriptor().getCoordinateReferenceSystem();
-                    if (!CRS.equalsIgnoreMetadata(zonesCrs, dataCrs)) {
-                        zoneGeom = JTS.transform(zoneGeom, CRS.findMathTransform(zonesCrs, dataCrs,
-                                true));
-                    }
-    
-                    // gather the statistics
-                    ZonalStats stats = processStatistics(zoneGeom);
-    
-                    // build the resulting feature
-                    if (stats != null) {
-                        if(classificationRaster != null) {
-                            // if zonal stats we're going to build
-                            for (Integer classZoneId : stats.getZones()) {
-                                builder.addAll(zone.getAttributes());
-                                builder.add(classZoneId);
-                                addStatsToFeature(stats.zone(classZoneId));
-                                features.add(builder.buildFeature(zone.getID()));
-                            }
-                        } else {
-                            builder.addAll(zone.getAttributes());
-                            addStatsToFeature(stats);
-                            features.add(builder.buildFeature(zone.getID()));
-                        }
-                    } else {
+                SimpleFeature zone = zoneFeatures.get(currentZone);
+                List<Integer> slots = slotsByZone.get(currentZone);
+                if (slots == null || slots.isEmpty()) {
+                    // no stats
+                    builder.addAll(zone.getAttributes());
+                    features.add(builder.buildFeature(zone.getID()));
+                } else {
+                    for (Integer slot : slots) {
                         builder.addAll(zone.getAttributes());
+                        if (classificationRaster != null) {
+                            builder.add(stats.getClass(slot));
+                        }
+                        addStatsToFeature(slot);
                         features.add(builder.buildFeature(zone.getID()));
                     }
-                } catch (Exception e) {
-                    throw new ProcessException("Failed to compute statistics on feature " + zone, e);
                 }
-            } 
+                // release the zone, we won't need it anymore
+                zoneFeatures.set(currentZone, null);
+                currentZone++;
+            }
             // return the first feature in the current buffer
             SimpleFeature f = features.remove(0);
             return f;
         }
 
         /**
-         * Add the statistics to the feature builder
-         * @param stats
+         * Reads all the zones and computes their statistics, if not done already
          */
-        void addStatsToFeature(ZonalStats stats) {
-            double sum = stats.statistic(Statistic.SUM).results().get(0).getValue();
-            double avg = stats.statistic(Statistic.MEAN).results().get(0).getValue();
-            builder.add(Math.round(sum / avg)); // count
-            builder.add(stats.statistic(Statistic.MIN).results().get(0).getValue());
-            builder.add(stats.statistic(Statistic.MAX).results().get(0).getValue());
-            builder.add(sum);
-            builder.add(avg);
-            builder.add(stats.statistic(Statistic.SDEV).results().get(0).getValue());
-        }
-
-        private ZonalStats processStatistics(Geometry geometry) throws TransformException {
-            // double checked with the tasmania simple test data, this transformation
-            // actually lines up the polygons where they are supposed to be in raster space
-            final AffineTransform dataG2WCorrected = new AffineTransform(
-                    (AffineTransform) ((GridGeometry2D) dataCoverage.getGridGeometry())
-                            .getGridToCRS2D(PixelOrientation.UPPER_LEFT));
-            final MathTransform w2gTransform;
-            try {
-                w2gTransform = ProjectiveTransform.create(dataG2WCorrected.createInverse());
-            } catch (NoninvertibleTransformException e) {
-                throw new IllegalArgumentException(e.getLocalizedMessage());
+        void computeStatistics() {
+            if (zoneFeatures != null) {
+                return;
             }
 
-            GridCoverage2D cropped = null;
+            zoneFeatures = new ArrayList<SimpleFeature>();
+            List<Geometry> geometries = new ArrayList<Geometry>();
             try {
-                // first off, cut the geometry around the coverage bounds if necessary
-                ReferencedEnvelope coverageEnvelope = new ReferencedEnvelope(dataCoverage
-                        .getEnvelope2D());
-                ReferencedEnvelope geometryEnvelope = new ReferencedEnvelope(geometry
-                        .getEnvelopeInternal(), dataCoverage.getCoordinateReferenceSystem());
-                if (!coverageEnvelope.intersects((Envelope) geometryEnvelope)) {
-                    // no intersection, no stats
-                    return null;
-                } else if (!coverageEnvelope.contains((Envelope) geometryEnvelope)) {
-                    // the geometry goes outside of the coverage envelope, that makes
-                    // the stats fail for some reason
-                    geometry = JTS.toGeometry((Envelope) coverageEnvelope).intersection(geometry);
-                    geometryEnvelope = new ReferencedEnvelope(geometry.getEnvelopeInternal(),
-                            dataCoverage.getCoordinateReferenceSystem());
+                CoordinateReferenceSystem dataCrs = dataCoverage.getCoordinateReferenceSystem();
+                CoordinateReferenceSystem zonesCrs = builder.getFeatureType()
+                        .getGeometryDescriptor().getCoordinateReferenceSystem();
+                MathTransform tx = null;
+                if (zonesCrs != null && !CRS.equalsIgnoreMetadata(zonesCrs, dataCrs)) {
+                    tx = CRS.findMathTransform(zonesCrs, dataCrs, true);
                 }
 
-                // check if the novalue is != from NaN
-                GridSampleDimension sampleDimension = dataCoverage.getSampleDimension(0);
-                List<Category> categories = sampleDimension.getCategories();
-                List<Range<Double>> novalueRangeList = null;
-                if (categories != null) {
-                    for (Category category : categories) {
-                        String catName = category.getName().toString();
-                        if (catName.equalsIgnoreCase("no data")) {
-                            NumberRange range = category.getRange();
-                            double min = range.getMinimum();
-                            double max = category.getRange().getMaximum();
-                            if (!Double.isNaN(min) && !Double.isNaN(max)) {
-                                // we have to filter those out
-                            	if (min == max) min = Double.NEGATIVE_INFINITY;
-                                Range<Double> novalueRange = new Range<Double>(min, true, max, true);
-                                novalueRangeList = new ArrayList<Range<Double>>();
-                                novalueRangeList.add(novalueRange);
-                            }
-                            break;
-                        }
+                while (zones.hasNext()) {
+                    SimpleFeature zone = zones.next();
+                    // grab the geometry and eventually reproject it to the data crs
+                    Geometry zoneGeom = (Geometry) zone.getDefaultGeometry();
+                    if (zoneGeom != null && tx != null) {
+                        zoneGeom = JTS.transform(zoneGeom, tx);
                     }
+                    zoneFeatures.add(zone);
+                    geometries.add(zoneGeom);
                 }
-                
-                /*
-                 * crop on region of interest
-                 */
-                ParameterValueGroup param = CROPOPERATION.getParameters();
-                param.parameter("Source").setValue(dataCoverage);
-                param.parameter("Envelope").setValue(new GeneralEnvelope(geometryEnvelope));
-                cropped = (GridCoverage2D) PROCESSOR.doOperation(param);
-                
-                // transform the geometry to raster space so that we can use it as a ROI source
-                Geometry rasterSpaceGeometry= JTS.transform(geometry, w2gTransform);
-                // System.out.println(rasterSpaceGeometry);
-                // System.out.println(rasterSpaceGeometry.getEnvelopeInternal());
-                
-                // simplify the geometry so that it's as precise as the coverage, excess coordinates
-                // just make it slower to determine the point in polygon relationship
-                Geometry simplifiedGeometry = DouglasPeuckerSimplifier.simplify(
-                        rasterSpaceGeometry, 1);
-                //System.out.println(simplifiedGeometry.getEnvelopeInternal());
-                
-                // compensate for the jaitools range lookup poking the corner of the cells instead 
-                // of their center, this makes for odd results if the polygon is just slightly 
-                // misaligned with the coverage
-                AffineTransformation at = new AffineTransformation();
-                
-                at.setToTranslation(-0.5, -0.5);
-                simplifiedGeometry.apply(at);
-                
-                // build a shape using a fast point in polygon wrapper
-                ROI roi = new ROIGeometry(simplifiedGeometry, false);
-
-                // run the stats via JAI
-                Statistic[] reqStatsArr = new Statistic[] { Statistic.MAX, Statistic.MIN,
-                        Statistic.RANGE, Statistic.MEAN, Statistic.SDEV, Statistic.SUM };
-                final ZonalStatsOpImage zsOp = new ZonalStatsOpImage(
-                        cropped.getRenderedImage(),
-                        classificationRaster, 
-                        null, 
-                        null, 
-                        reqStatsArr, 
-                        new Integer[] { band }, 
-                        roi, 
-                        null,
-                        null,
-                        null,
-                        false,
-                        novalueRangeList);
-                return (ZonalStats) zsOp.getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
-            } finally {
-                // dispose coverages
-                if (cropped != null) {
-                    cropped.dispose(true);
-                }
+
+                // gather the statistics
+                ZonalStatisticsEngine engine = new ZonalStatisticsEngine(dataCoverage, band,
+                        classificationRaster);
+                engine.setHistogram(histogramMin, histogramMax, histogramBins);
+                stats = engine.compute(geometries);
+                slotsByZone = stats.getSlotsByZone();
+            } catch (Exception e) {
+                throw new ProcessException("Failed to compute zonal statistics", e);
             }
+        }
 
+        /**
+         * Add the statistics to the feature builder
+         * @param slot
+         */
+        void addStatsToFeature(int slot) {
+            builder.add(stats.getCount(slot));
+            builder.add(stats.getMin(slot));
+            builder.add(stats.getMax(slot));
+            builder.add(stats.getSum(slot));
+            builder.add(stats.getAverage(slot));
+            builder.add(stats.getStandardDeviation(slot));
+            long[] histogram = stats.getHistogram(slot);
+            if (histogram != null) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < histogram.length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(histogram[i]);
+                }
+                builder.add(sb.toString());
+            }
         }
     }
 }
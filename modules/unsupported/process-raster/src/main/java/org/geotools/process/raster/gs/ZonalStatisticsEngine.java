@@ -0,0 +1,561 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster.gs;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.coverage.Category;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.process.raster.EdgeTable;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.geotools.util.ComputationExecutor;
+import org.geotools.util.NumberRange;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Computes the zonal statistics of all zones in a single pass over the data coverage.
+ * <p>
+ * The zones are turned into {@link EdgeTable}s in raster space and indexed. Then the tiles of the
+ * coverage are processed in parallel, on the {@link ComputationExecutor}: for each tile the
+ * intersecting zones are scanline filled, considering the pixels whose center falls inside the
+ * zone, and the pixel values are accumulated into per zone (and per class, if a classification raster is provided) statistics kept in
+ * primitive arrays, optionally along with a fixed bins histogram. Each worker has its own
+ * statistics, which are merged at the end. Each pixel is read once per zone containing it, and no
+ * coverage is cropped or copied.
+ *
+ * @source $URL$
+ */
+class ZonalStatisticsEngine {
+
+    RenderedImage data;
+
+    int band;
+
+    RenderedImage classification;
+
+    /** The no data range, if any */
+    double noDataMin = Double.NaN;
+
+    double noDataMax = Double.NaN;
+
+    MathTransform worldToGrid;
+
+    int threads = ComputationExecutor.getThreadCount();
+
+    /** The histogram bins, zero if no histogram is computed */
+    int bins;
+
+    double histogramMin;
+
+    double histogramMax;
+
+    /**
+     * Builds a new engine
+     *
+     * @param coverage the data coverage
+     * @param band the band to compute statistics on
+     * @param classification the classification raster, already aligned with the data coverage
+     *        image, or null
+     */
+    public ZonalStatisticsEngine(GridCoverage2D coverage, int band, RenderedImage classification) {
+        this.data = coverage.getRenderedImage();
+        this.band = band;
+        this.classification = classification;
+
+        // pixel (i,j) covers [i,i+1)x[j,j+1) in raster space
+        final AffineTransform g2w = new AffineTransform(
+                (AffineTransform) ((GridGeometry2D) coverage.getGridGeometry())
+                        .getGridToCRS2D(PixelOrientation.UPPER_LEFT));
+        try {
+            worldToGrid = ProjectiveTransform.create(g2w.createInverse());
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException(e.getLocalizedMessage());
+        }
+
+        // check if the novalue is != from NaN
+        GridSampleDimension sampleDimension = coverage.getSampleDimension(0);
+        List<Category> categories = sampleDimension.getCategories();
+        if (categories != null) {
+            for (Category category : categories) {
+                String catName = category.getName().toString();
+                if (catName.equalsIgnoreCase("no data")) {
+                    NumberRange range = category.getRange();
+                    double min = range.getMinimum();
+                    double max = range.getMaximum();
+                    if (!Double.isNaN(min) && !Double.isNaN(max)) {
+                        // we have to filter those out
+                        if (min == max) {
+                            min = Double.NEGATIVE_INFINITY;
+                        }
+                        noDataMin = min;
+                        noDataMax = max;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads used to process the tiles
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Enables the computation of a histogram per zone (and class), made of bins of equal width
+     * covering the [min, max] range. Values outside of the range are not counted in the histogram,
+     * but still contribute to the other statistics.
+     *
+     * @param min the lower bound of the first bin
+     * @param max the upper bound of the last bin, included in it
+     * @param bins the number of bins, zero to disable the histogram
+     */
+    public void setHistogram(double min, double max, int bins) {
+        if (bins < 0) {
+            throw new IllegalArgumentException("The number of bins cannot be negative");
+        }
+        if (bins > 0 && !(min < max)) {
+            throw new IllegalArgumentException("Invalid histogram range [" + min + ", " + max
+                    + "]");
+        }
+        this.histogramMin = min;
+        this.histogramMax = max;
+        this.bins = bins;
+    }
+
+    /**
+     * Computes the statistics for the specified zones
+     *
+     * @param zones the zone geometries, in the data coverage CRS. Null or non polygonal geometries
+     *        are allowed, and will have no statistics
+     * @return the statistics, with zones identified by their position in the list
+     * @throws TransformException
+     */
+    public Statistics compute(List<Geometry> zones) throws TransformException {
+        // build the zone edge tables and index them
+        final Rectangle bounds = new Rectangle(data.getMinX(), data.getMinY(), data.getWidth(),
+                data.getHeight());
+        final STRtree index = new STRtree();
+        boolean empty = true;
+        for (int i = 0; i < zones.size(); i++) {
+            Geometry geometry = zones.get(i);
+            if (geometry == null || geometry.isEmpty()) {
+                continue;
+            }
+            Zone zone = new Zone(i, JTS.transform(geometry, worldToGrid));
+            if (zone.table.getEdgeCount() > 0 && zone.intersects(bounds)) {
+                index.insert(zone.envelope, zone);
+                empty = false;
+            }
+        }
+        if (empty) {
+            return newStatistics(zones.size());
+        }
+        // force the build, the tree is not thread safe before that
+        index.build();
+
+        // process the tiles in parallel, each worker with its own statistics
+        final int tileCount = data.getNumXTiles() * data.getNumYTiles();
+        final AtomicInteger nextTile = new AtomicInteger();
+        List<Callable<Statistics>> workers = new ArrayList<Callable<Statistics>>();
+        for (int i = 0; i < Math.min(threads, tileCount); i++) {
+            workers.add(new TileWorker(index, nextTile, tileCount, zones.size()));
+        }
+        Statistics result = null;
+        try {
+            for (Statistics stats : ComputationExecutor.invokeAll(workers)) {
+                if (result == null) {
+                    result = stats;
+                } else {
+                    result.merge(stats);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while computing the statistics", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof TransformException) {
+                throw (TransformException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        return result;
+    }
+
+    Statistics newStatistics(int zoneCount) {
+        Statistics stats = new Statistics(zoneCount, classification != null, bins);
+        stats.histogramMin = histogramMin;
+        stats.histogramMax = histogramMax;
+        return stats;
+    }
+
+    /**
+     * Processes tiles until there are no more left
+     */
+    class TileWorker implements Callable<Statistics>, EdgeTable.SpanHandler {
+        STRtree index;
+
+        AtomicInteger nextTile;
+
+        int tileCount;
+
+        Statistics stats;
+
+        double[] values = new double[0];
+
+        int[] classes = new int[0];
+
+        EdgeTable.Scanner scanner = new EdgeTable.Scanner();
+
+        /** The zone and tile being accumulated */
+        int zone;
+
+        Raster tileData;
+
+        Raster tileClasses;
+
+        public TileWorker(STRtree index, AtomicInteger nextTile, int tileCount, int zoneCount) {
+            this.index = index;
+            this.nextTile = nextTile;
+            this.tileCount = tileCount;
+            this.stats = newStatistics(zoneCount);
+        }
+
+        public Statistics call() throws Exception {
+            final int numXTiles = data.getNumXTiles();
+            int tile;
+            while ((tile = nextTile.getAndIncrement()) < tileCount) {
+                int tx = data.getMinTileX() + tile % numXTiles;
+                int ty = data.getMinTileY() + tile / numXTiles;
+                Rectangle tileBounds = new Rectangle(data.getTileGridXOffset() + tx
+                        * data.getTileWidth(), data.getTileGridYOffset() + ty
+                        * data.getTileHeight(), data.getTileWidth(), data.getTileHeight());
+                tileBounds = tileBounds.intersection(new Rectangle(data.getMinX(), data
+                        .getMinY(), data.getWidth(), data.getHeight()));
+                if (tileBounds.isEmpty()) {
+                    continue;
+                }
+
+                // only read the tile if some zone is touching it
+                List<?> zones = index.query(new Envelope(tileBounds.getMinX(), tileBounds
+                        .getMaxX(), tileBounds.getMinY(), tileBounds.getMaxY()));
+                if (zones.isEmpty()) {
+                    continue;
+                }
+                Raster tileData = data.getTile(tx, ty);
+                Raster tileClasses = classification != null ? classification.getData(tileBounds)
+                        : null;
+                for (Object zone : zones) {
+                    accumulate((Zone) zone, tileBounds, tileData, tileClasses);
+                }
+            }
+            return stats;
+        }
+
+        /**
+         * Scanline fills the zone over the tile, and accumulates the pixels whose center is inside
+         * the zone
+         */
+        void accumulate(Zone zone, Rectangle tile, Raster tileData, Raster tileClasses) {
+            this.zone = zone.id;
+            this.tileData = tileData;
+            this.tileClasses = tileClasses;
+            scanner.scan(zone.table, tile.x, tile.y, tile.x + tile.width - 1, tile.y
+                    + tile.height - 1, this);
+        }
+
+        public void span(int y, int x0, int x1) {
+            accumulateSpan(zone, x0, x1 - x0 + 1, y, tileData, tileClasses);
+        }
+
+        void accumulateSpan(int zone, int x, int width, int y, Raster tileData,
+                Raster tileClasses) {
+            if (values.length < width) {
+                values = new double[width];
+                classes = new int[width];
+            }
+            tileData.getSamples(x, y, width, 1, band, values);
+            if (tileClasses != null) {
+                tileClasses.getSamples(x, y, width, 1, 0, classes);
+            }
+            int slot = tileClasses == null ? zone : -1;
+            int lastClass = 0;
+            for (int i = 0; i < width; i++) {
+                double value = values[i];
+                if (Double.isNaN(value) || (value >= noDataMin && value <= noDataMax)) {
+                    continue;
+                }
+                if (tileClasses != null && (slot < 0 || classes[i] != lastClass)) {
+                    lastClass = classes[i];
+                    slot = stats.getSlot(zone, lastClass);
+                }
+                stats.add(slot, value);
+            }
+        }
+    }
+
+    /**
+     * A zone, as an edge table in raster space
+     */
+    static class Zone {
+        int id;
+
+        Envelope envelope;
+
+        EdgeTable table;
+
+        Zone(int id, Geometry rasterGeometry) {
+            this.id = id;
+            this.envelope = rasterGeometry.getEnvelopeInternal();
+            this.table = new EdgeTable(rasterGeometry);
+        }
+
+        boolean intersects(Rectangle bounds) {
+            return envelope.getMaxX() >= bounds.getMinX() && envelope.getMinX() <= bounds.getMaxX()
+                    && envelope.getMaxY() >= bounds.getMinY()
+                    && envelope.getMinY() <= bounds.getMaxY();
+        }
+    }
+
+    /**
+     * Mergeable statistics, stored in primitive arrays indexed by slot. Without classification
+     * the slot is the zone id, otherwise each zone/class pair gets its own slot. The histograms,
+     * if any, are stored in a single array, each slot owning a run of consecutive bins.
+     */
+    static class Statistics {
+        boolean classified;
+
+        int size;
+
+        int[] zones;
+
+        int[] classes;
+
+        long[] counts;
+
+        double[] mins;
+
+        double[] maxs;
+
+        double[] sums;
+
+        double[] sumsqs;
+
+        int bins;
+
+        double histogramMin;
+
+        double histogramMax;
+
+        long[] histograms;
+
+        /** The zone/class pair to slot mapping, used only with classification */
+        Map<Long, Integer> slots;
+
+        Statistics(int zoneCount, boolean classified, int bins) {
+            this.classified = classified;
+            this.bins = bins;
+            int capacity = classified ? 16 : Math.max(zoneCount, 1);
+            histograms = new long[capacity * bins];
+            zones = new int[capacity];
+            classes = new int[capacity];
+            counts = new long[capacity];
+            mins = new double[capacity];
+            maxs = new double[capacity];
+            sums = new double[capacity];
+            sumsqs = new double[capacity];
+            if (classified) {
+                slots = new HashMap<Long, Integer>();
+            } else {
+                for (int i = 0; i < zoneCount; i++) {
+                    init(i, i, 0);
+                }
+                size = zoneCount;
+            }
+        }
+
+        private void init(int slot, int zone, int clazz) {
+            zones[slot] = zone;
+            classes[slot] = clazz;
+            mins[slot] = Double.POSITIVE_INFINITY;
+            maxs[slot] = Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * Returns the slot for the specified zone and class, creating it if necessary
+         */
+        int getSlot(int zone, int clazz) {
+            if (!classified) {
+                return zone;
+            }
+            Long key = (((long) zone) << 32) | (clazz & 0xFFFFFFFFL);
+            Integer slot = slots.get(key);
+            if (slot == null) {
+                if (size == counts.length) {
+                    int capacity = size * 2;
+                    zones = Arrays.copyOf(zones, capacity);
+                    classes = Arrays.copyOf(classes, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                    mins = Arrays.copyOf(mins, capacity);
+                    maxs = Arrays.copyOf(maxs, capacity);
+                    sums = Arrays.copyOf(sums, capacity);
+                    sumsqs = Arrays.copyOf(sumsqs, capacity);
+                    histograms = Arrays.copyOf(histograms, capacity * bins);
+                }
+                slot = size++;
+                init(slot, zone, clazz);
+                slots.put(key, slot);
+            }
+            return slot;
+        }
+
+        void add(int slot, double value) {
+            counts[slot]++;
+            if (value < mins[slot]) {
+                mins[slot] = value;
+            }
+            if (value > maxs[slot]) {
+                maxs[slot] = value;
+            }
+            sums[slot] += value;
+            sumsqs[slot] += value * value;
+            if (bins > 0 && value >= histogramMin && value <= histogramMax) {
+                int bin = (int) ((value - histogramMin) / (histogramMax - histogramMin) * bins);
+                histograms[slot * bins + Math.min(bin, bins - 1)]++;
+            }
+        }
+
+        void merge(Statistics other) {
+            for (int i = 0; i < other.size; i++) {
+                if (other.counts[i] == 0) {
+                    continue;
+                }
+                int slot = getSlot(other.zones[i], other.classes[i]);
+                counts[slot] += other.counts[i];
+                mins[slot] = Math.min(mins[slot], other.mins[i]);
+                maxs[slot] = Math.max(maxs[slot], other.maxs[i]);
+                sums[slot] += other.sums[i];
+                sumsqs[slot] += other.sumsqs[i];
+                for (int b = 0; b < bins; b++) {
+                    histograms[slot * bins + b] += other.histograms[i * bins + b];
+                }
+            }
+        }
+
+        /**
+         * Groups the slots by zone, sorted by class. Slots without values are skipped
+         */
+        Map<Integer, List<Integer>> getSlotsByZone() {
+            Map<Integer, List<Integer>> result = new HashMap<Integer, List<Integer>>();
+            for (int i = 0; i < size; i++) {
+                if (counts[i] > 0) {
+                    List<Integer> zoneSlots = result.get(zones[i]);
+                    if (zoneSlots == null) {
+                        zoneSlots = new ArrayList<Integer>();
+                        result.put(zones[i], zoneSlots);
+                    }
+                    zoneSlots.add(i);
+                }
+            }
+            Comparator<Integer> byClass = new Comparator<Integer>() {
+
+                public int compare(Integer s1, Integer s2) {
+                    int c1 = classes[s1];
+                    int c2 = classes[s2];
+                    return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+                }
+            };
+            for (List<Integer> zoneSlots : result.values()) {
+                Collections.sort(zoneSlots, byClass);
+            }
+            return result;
+        }
+
+        int getClass(int slot) {
+            return classes[slot];
+        }
+
+        long getCount(int slot) {
+            return counts[slot];
+        }
+
+        double getMin(int slot) {
+            return counts[slot] > 0 ? mins[slot] : Double.NaN;
+        }
+
+        double getMax(int slot) {
+            return counts[slot] > 0 ? maxs[slot] : Double.NaN;
+        }
+
+        double getSum(int slot) {
+            return sums[slot];
+        }
+
+        double getAverage(int slot) {
+            return counts[slot] > 0 ? sums[slot] / counts[slot] : Double.NaN;
+        }
+
+        /**
+         * The counts of the histogram bins, or null if no histogram was computed
+         */
+        long[] getHistogram(int slot) {
+            if (bins == 0) {
+                return null;
+            }
+            return Arrays.copyOfRange(histograms, slot * bins, (slot + 1) * bins);
+        }
+
+        /**
+         * The sample standard deviation
+         */
+        double getStandardDeviation(int slot) {
+            long n = counts[slot];
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double variance = (sumsqs[slot] - sums[slot] * sums[slot] / n) / (n - 1);
+            return Math.sqrt(Math.max(0, variance));
+        }
+    }
+}
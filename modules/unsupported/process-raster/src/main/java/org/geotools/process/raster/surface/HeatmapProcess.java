@@ -195,11 +195,8 @@ public class HeatmapProcess implements GSProcess {
          * --------------- Do the processing ------------------------------
          */
         // Stopwatch sw = new Stopwatch();
-        // compute the heatmap at the specified resolution
-        float[][] heatMapGrid = heatMap.computeSurface();
-
-        // flip now, since grid size may be smaller
-        heatMapGrid = flipXY(heatMapGrid);
+        // compute the heatmap at the specified resolution, already in image orientation
+        float[][] heatMapGrid = heatMap.computeImageSurface();
 
         // upsample to output resolution if necessary
         float[][] outGrid = heatMapGrid;
@@ -237,29 +234,6 @@ public class HeatmapProcess implements GSProcess {
                 + dstUnit);
     }
 
-    /**
-     * Flips an XY matrix along the X=Y axis, and inverts the Y axis. Used to convert from
-     * "map orientation" into the "image orientation" used by GridCoverageFactory. The surface
-     * interpolation is done on an XY grid, with Y=0 being the bottom of the space. GridCoverages
-     * are stored in an image format, in a YX grid with Y=0 being the top.
-     * 
-     * @param grid the grid to flip
-     * @return the flipped grid
-     */
-    private float[][] flipXY(float[][] grid) {
-        int xsize = grid.length;
-        int ysize = grid[0].length;
-
-        float[][] grid2 = new float[ysize][xsize];
-        for (int ix = 0; ix < xsize; ix++) {
-            for (int iy = 0; iy < ysize; iy++) {
-                int iy2 = ysize - iy - 1;
-                grid2[iy2][ix] = grid[ix][iy];
-            }
-        }
-        return grid2;
-    }
-
     private float[][] upsample(float[][] grid, float noDataValue, int width, int height) {
         BilinearInterpolator bi = new BilinearInterpolator(grid, noDataValue);
         float[][] outGrid = bi.interpolate(width, height, false);
@@ -17,6 +17,13 @@
  */
 package org.geotools.process.raster.surface;
 
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotools.util.ComputationExecutor;
+
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
@@ -29,6 +36,11 @@ import com.vividsolutions.jts.geom.Envelope;
  * "edge effects" from distorting the surface within the requested envelope.
  * <p>
  * The values in the output surface are normalized to lie in the range [0, 1].
+ * <p>
+ * The grid is kept in a single flat array, and the box blurs are computed in place, strip by
+ * strip, using only small per strip scratch buffers. The strips are processed in parallel using
+ * the number of threads set with {@link #setThreads(int)}, by default the number of threads of the
+ * shared {@link ComputationExecutor}.
  * 
  * @author Martin Davis, OpenGeo
  * 
@@ -39,6 +51,11 @@ public class HeatmapSurface {
      */
     private static final int GAUSSIAN_APPROX_ITER = 4;
 
+    /**
+     * Number of rows or columns blurred by a single parallel task
+     */
+    private static final int STRIP_SIZE = 64;
+
     private Envelope srcEnv;
 
     private int xSize;
@@ -47,10 +64,19 @@ public class HeatmapSurface {
 
     private GridTransform gridTrans;
 
-    private float[][] grid;
+    /**
+     * The expanded grid, stored row by row, with row 0 being the one at Y=0
+     */
+    private float[] grid;
+
+    private int width;
+
+    private int height;
 
     private int kernelRadiusGrid;
 
+    private int threads = ComputationExecutor.getThreadCount();
+
     /**
      * Creates a new heatmap surface.
      * 
@@ -80,10 +106,19 @@ public class HeatmapSurface {
          */
         gridTrans.setClamp(false);
 
-        int xSizeExp = xSize + 2 * kernelRadiusGrid;
-        int ySizeExp = ySize + 2 * kernelRadiusGrid;
+        width = xSize + 2 * kernelRadiusGrid;
+        height = ySize + 2 * kernelRadiusGrid;
+
+        grid = new float[width * height];
+    }
 
-        grid = new float[xSizeExp][ySizeExp];
+    /**
+     * Sets the number of threads used to compute the surface
+     * 
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
     }
 
     /**
@@ -102,11 +137,10 @@ public class HeatmapSurface {
         int gj = gridTrans.j(y) + kernelRadiusGrid;
 
         // check if point falls outside grid - skip it if so
-        if (gi < 0 || gi > grid.length || gj < 0 || gj > grid[0].length)
+        if (gi < 0 || gi >= width || gj < 0 || gj >= height)
             return;
         
-        grid[gi][gj] += value;
-        // System.out.println("data[" + gi + ", " + gj + "] <- " + value);
+        grid[gj * width + gi] += value;
     }
 
     /**
@@ -116,56 +150,81 @@ public class HeatmapSurface {
      * @return a grid representing the surface
      */
     public float[][] computeSurface() {
+        float normFactor = computeHeatmap(kernelRadiusGrid);
 
-        computeHeatmap(grid, kernelRadiusGrid);
-
-        float[][] gridOut = extractGrid(grid, kernelRadiusGrid, kernelRadiusGrid, xSize, ySize);
-
+        float[][] gridOut = new float[xSize][ySize];
+        for (int j = 0; j < ySize; j++) {
+            int base = (j + kernelRadiusGrid) * width + kernelRadiusGrid;
+            for (int i = 0; i < xSize; i++) {
+                gridOut[i][j] = grid[base + i] * normFactor;
+            }
+        }
         return gridOut;
     }
 
-    private float[][] extractGrid(float[][] grid, int xBase, int yBase, int xSize, int ySize) {
-        float[][] gridExtract = new float[xSize][ySize];
-        for (int i = 0; i < xSize; i++) {
-            for (int j = 0; j < ySize; j++) {
-                gridExtract[i][j] = grid[xBase + i][yBase + j];
+    /**
+     * Computes a grid representing the heatmap surface in image orientation, that is, as a YX
+     * matrix with (0,0) being the top left corner of the data space, as expected by
+     * GridCoverageFactory. This avoids flipping the result of {@link #computeSurface()}
+     * 
+     * @return a grid representing the surface
+     */
+    public float[][] computeImageSurface() {
+        float normFactor = computeHeatmap(kernelRadiusGrid);
+
+        float[][] gridOut = new float[ySize][];
+        for (int j = 0; j < ySize; j++) {
+            float[] row = new float[xSize];
+            int base = (j + kernelRadiusGrid) * width + kernelRadiusGrid;
+            for (int i = 0; i < xSize; i++) {
+                row[i] = grid[base + i] * normFactor;
             }
+            gridOut[ySize - j - 1] = row;
         }
-        return gridExtract;
+        return gridOut;
     }
 
-    private float[][] computeHeatmap(float[][] grid, int kernelRadius) {
-        int xSize = grid.length;
-        int ySize = grid[0].length;
-
+    /**
+     * Blurs the grid in place, returns the factor normalizing its values to the range [0,1]
+     */
+    private float computeHeatmap(int kernelRadius) {
         int baseBoxKernelRadius = kernelRadius / GAUSSIAN_APPROX_ITER;
         int radiusIncBreak = kernelRadius - baseBoxKernelRadius * GAUSSIAN_APPROX_ITER;
 
         /**
          * Since Box Blur is linearly separable, can implement it by doing 2 1-D box blurs in
-         * different directions. Using a flipped buffer grid allows the same code to compute each
-         * direction, as well as preserving input grid values.
+         * different directions.
          */
-        // holds flipped copy of first box blur pass
-        float[][] grid2 = new float[ySize][xSize];
         for (int count = 0; count < GAUSSIAN_APPROX_ITER; count++) {
-            int boxKernelRadius = baseBoxKernelRadius;
+            final int boxKernelRadius;
             /**
              * If required, increment radius to ensure sum of radii equals total kernel radius
              */
             if (count < radiusIncBreak)
-                boxKernelRadius++;
-            // System.out.println(boxKernelRadius);
-
-            boxBlur(boxKernelRadius, grid, grid2);
-            boxBlur(boxKernelRadius, grid2, grid);
+                boxKernelRadius = baseBoxKernelRadius + 1;
+            else
+                boxKernelRadius = baseBoxKernelRadius;
+
+            runStrips(height, new StripTask() {
+                public void run(int start, int end) {
+                    boxBlurRows(boxKernelRadius, start, end);
+                }
+            });
+            runStrips(width, new StripTask() {
+                public void run(int start, int end) {
+                    boxBlurColumns(boxKernelRadius, start, end);
+                }
+            });
         }
 
-        // testNormalizeFactor(baseBoxKernelRadius, radiusIncBreak);
-        normalize(grid);
-        return grid;
+        // normalize to range [0,1]
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < grid.length; i++) {
+            if (grid[i] > max)
+                max = grid[i];
+        }
+        return 1.0f / max;
     }
-
     /**
      * DON'T USE This method is too simplistic to determine normalization factor. Would need to use
      * a full 2D grid and smooth it to get correct value
@@ -202,72 +261,150 @@ public class HeatmapSurface {
         System.out.println("norm factor = " + val);
     }
 
-    /**
-     * Normalizes grid values to range [0,1]
-     * 
-     * @param grid
-     */
-    private void normalize(float[][] grid) {
-        float max = Float.NEGATIVE_INFINITY;
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                if (grid[i][j] > max)
-                    max = grid[i][j];
-            }
-        }
-
-        float normFactor = 1.0f / max;
-
-        for (int i = 0; i < grid.length; i++) {
-            for (int j = 0; j < grid[0].length; j++) {
-                grid[i][j] *= normFactor;
-            }
-        }
-    }
-
     private float kernelVal(int kernelRadius) {
         // This kernel function has been confirmed to integrate to 1 over the full radius
         float val = (float) (1.0f / (2 * kernelRadius + 1));
         return val;
     }
 
-    private void boxBlur(int kernelRadius, float[][] input, float[][] output) {
-        int width = input.length;
-        int height = input[0].length;
-
-        // init moving average total
+    /**
+     * Blurs the rows in the range [start, end) along the X axis, in place
+     */
+    private void boxBlurRows(int kernelRadius, int start, int end) {
         float kernelVal = kernelVal(kernelRadius);
-        // System.out.println("boxblur: radius = " + kernelRadius + " kernel val = " + kernelVal);
+        float[] row = new float[width];
 
-        for (int j = 0; j < height; j++) {
+        for (int j = start; j < end; j++) {
+            int base = j * width;
+            System.arraycopy(grid, base, row, 0, width);
 
+            // init moving average total
             double tot = 0.0;
-
-            for (int i = -kernelRadius; i <= kernelRadius; i++) {
-                if (i < 0 || i >= width)
-                    continue;
-                tot += kernelVal * input[i][j];
+            for (int i = 0; i <= kernelRadius && i < width; i++) {
+                tot += row[i];
             }
-
-            // System.out.println(tot);
-
-            output[j][0] = (float) tot;
+            grid[base] = (float) (tot * kernelVal);
 
             for (int i = 1; i < width; i++) {
-
                 // update box running total
                 int iprev = i - 1 - kernelRadius;
                 if (iprev >= 0)
-                    tot -= kernelVal * input[iprev][j];
+                    tot -= row[iprev];
 
                 int inext = i + kernelRadius;
                 if (inext < width)
-                    tot += kernelVal * input[inext][j];
+                    tot += row[inext];
+
+                grid[base + i] = (float) (tot * kernelVal);
+            }
+        }
+    }
+
+    /**
+     * Blurs the columns in the range [start, end) along the Y axis, in place. The original values
+     * of the rows still needed by the running totals are kept in a ring buffer
+     */
+    private void boxBlurColumns(int kernelRadius, int start, int end) {
+        float kernelVal = kernelVal(kernelRadius);
+        int w = end - start;
+        int ringSize = kernelRadius + 1;
+        float[] ring = new float[ringSize * w];
+        double[] tot = new double[w];
+
+        // init moving average totals
+        for (int j = 0; j <= kernelRadius && j < height; j++) {
+            int base = j * width + start;
+            for (int c = 0; c < w; c++) {
+                tot[c] += grid[base + c];
+            }
+        }
+
+        for (int j = 0; j < height; j++) {
+            if (j > 0) {
+                // update box running totals
+                int jprev = j - 1 - kernelRadius;
+                if (jprev >= 0) {
+                    int ringBase = (jprev % ringSize) * w;
+                    for (int c = 0; c < w; c++) {
+                        tot[c] -= ring[ringBase + c];
+                    }
+                }
+                int jnext = j + kernelRadius;
+                if (jnext < height) {
+                    int base = jnext * width + start;
+                    for (int c = 0; c < w; c++) {
+                        tot[c] += grid[base + c];
+                    }
+                }
+            }
 
-                output[j][i] = (float) tot;
-                // if (i==49 && j==147) System.out.println("val[ " + i + ", " + j + "] = " + tot);
+            // save the original row values, then overwrite them
+            int base = j * width + start;
+            int ringBase = (j % ringSize) * w;
+            for (int c = 0; c < w; c++) {
+                ring[ringBase + c] = grid[base + c];
+                grid[base + c] = (float) (tot[c] * kernelVal);
+            }
+        }
+    }
+
+    /**
+     * A task working on a range of rows or columns
+     */
+    private interface StripTask {
+        void run(int start, int end);
+    }
+
+    /**
+     * Runs a task on strips until none is left
+     */
+    private static class StripWorker implements Callable<Object> {
+        StripTask task;
+
+        int count;
+
+        int strips;
+
+        AtomicInteger nextStrip = new AtomicInteger();
+
+        StripWorker(StripTask task, int count, int strips) {
+            this.task = task;
+            this.count = count;
+            this.strips = strips;
+        }
+
+        public Object call() {
+            int strip;
+            while ((strip = nextStrip.getAndIncrement()) < strips) {
+                int start = strip * STRIP_SIZE;
+                task.run(start, Math.min(count, start + STRIP_SIZE));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Splits the range [0, count) in strips and runs the task on them, in parallel if possible
+     */
+    private void runStrips(int count, StripTask task) {
+        int strips = (count + STRIP_SIZE - 1) / STRIP_SIZE;
+        int workers = Math.min(threads, strips);
+        if (workers <= 1) {
+            task.run(0, count);
+            return;
+        }
 
+        // the calling thread is one of the workers
+        StripWorker worker = new StripWorker(task, count, strips);
+        try {
+            ComputationExecutor.invokeAll(Collections.nCopies(workers, worker));
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while computing the heatmap", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new RuntimeException(e.getCause());
         }
     }
 }
@@ -0,0 +1,67 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks the edge table fill against point in polygon tests of the pixel centers
+ *
+ * @source $URL$
+ */
+public class EdgeTableTest {
+
+    @Test
+    public void testScan() throws Exception {
+        final Geometry polygon = new WKTReader().read(ScanlineRasterizerTest.POLYGON);
+        final boolean[][] inside = new boolean[ScanlineRasterizerTest.SIZE][];
+        for (int y = 0; y < inside.length; y++) {
+            inside[y] = new boolean[ScanlineRasterizerTest.SIZE];
+        }
+        EdgeTable table = new EdgeTable(polygon);
+        assertEquals(7, table.getEdgeCount());
+
+        // scan a clipped area, twice with the same scanner
+        EdgeTable.Scanner scanner = new EdgeTable.Scanner();
+        for (int i = 0; i < 2; i++) {
+            scanner.scan(table, 10, 20, 79, 89, new EdgeTable.SpanHandler() {
+                public void span(int y, int x0, int x1) {
+                    for (int x = x0; x <= x1; x++) {
+                        assertFalse(inside[y][x]);
+                        inside[y][x] = true;
+                    }
+                }
+            });
+            GeometryFactory gf = new GeometryFactory();
+            for (int y = 0; y < inside.length; y++) {
+                for (int x = 0; x < inside[y].length; x++) {
+                    boolean expected = x >= 10 && x <= 79 && y >= 20 && y <= 89
+                            && polygon.contains(gf.createPoint(new Coordinate(x + 0.5, y + 0.5)));
+                    assertEquals(x + "," + y, expected, inside[y][x]);
+                    inside[y][x] = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Checks the scanline rasterizer against brute force computations
+ *
+ * @source $URL$
+ */
+public class ScanlineRasterizerTest {
+
+    static final int SIZE = 100;
+
+    static final String POLYGON = "POLYGON((3.3 4.1, 61.7 2.2, 87.2 55.6, 40.1 93.3, 3.3 4.1), "
+            + "(30.2 30.3, 50.1 30.7, 40.6 60.2, 30.2 30.3))";
+
+    TiledImage createImage(int dataType, int tileSize) {
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(dataType, tileSize,
+                tileSize, 1);
+        return new TiledImage(0, 0, SIZE, SIZE, 0, 0, sm, TiledImage.createColorModel(sm));
+    }
+
+    /**
+     * Rasterizes the test polygon, using raster coordinates directly
+     */
+    TiledImage rasterizePolygon(int tileSize, int threads, boolean allTouched) throws Exception {
+        Geometry polygon = new WKTReader().read(POLYGON);
+        TiledImage image = createImage(DataBuffer.TYPE_INT, tileSize);
+        ScanlineRasterizer rasterizer = new ScanlineRasterizer(image);
+        rasterizer.setThreads(threads);
+        rasterizer.setAllTouched(allTouched);
+        List<double[][]> rings = new ArrayList<double[][]>();
+        Polygon p = (Polygon) polygon;
+        rings.add(toArrays(p.getExteriorRing().getCoordinates()));
+        for (int i = 0; i < p.getNumInteriorRing(); i++) {
+            rings.add(toArrays(p.getInteriorRingN(i).getCoordinates()));
+        }
+        rasterizer.addPolygon(rings, 7);
+        rasterizer.dispose();
+        return image;
+    }
+
+    double[][] toArrays(Coordinate[] coordinates) {
+        double[][] result = new double[2][coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            result[0][i] = coordinates[i].x;
+            result[1][i] = coordinates[i].y;
+        }
+        return result;
+    }
+
+    @Test
+    public void testPolygonWithHole() throws Exception {
+        Geometry polygon = new WKTReader().read(POLYGON);
+        GeometryFactory gf = new GeometryFactory();
+        TiledImage image = rasterizePolygon(SIZE, 1, false);
+        int count = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                boolean inside = polygon.contains(gf.createPoint(new Coordinate(x + 0.5, y + 0.5)));
+                assertEquals("Pixel " + x + "," + y, inside ? 7 : 0, image.getSample(x, y, 0));
+                if (inside) {
+                    count++;
+                }
+            }
+        }
+        assertTrue(count > 0);
+        // the hole is not filled
+        assertEquals(0, image.getSample(40, 40, 0));
+    }
+
+    @Test
+    public void testParallelSameAsSerial() throws Exception {
+        TiledImage serial = rasterizePolygon(SIZE, 1, true);
+        // many small tiles, rasterized in parallel
+        TiledImage parallel = rasterizePolygon(16, 4, true);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                assertEquals(serial.getSample(x, y, 0), parallel.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testAllTouchedSuperset() throws Exception {
+        TiledImage centers = rasterizePolygon(32, 2, false);
+        TiledImage touched = rasterizePolygon(32, 2, true);
+        int centerCount = 0;
+        int touchedCount = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (centers.getSample(x, y, 0) != 0) {
+                    centerCount++;
+                    assertEquals(7, touched.getSample(x, y, 0));
+                }
+                if (touched.getSample(x, y, 0) != 0) {
+                    touchedCount++;
+                }
+            }
+        }
+        assertTrue(touchedCount > centerCount);
+        // the pixel holding the right corner of the exterior ring has its center outside
+        assertEquals(0, centers.getSample(87, 55, 0));
+        assertEquals(7, touched.getSample(87, 55, 0));
+    }
+
+    @Test
+    public void testFloatLineAndPoint() throws Exception {
+        TiledImage image = createImage(DataBuffer.TYPE_FLOAT, 32);
+        ScanlineRasterizer rasterizer = new ScanlineRasterizer(image);
+        rasterizer.setThreads(2);
+        // a horizontal line crossing several tiles
+        rasterizer.addLine(new double[] { 5.5, 80.5 }, new double[] { 50.5, 50.5 }, 1.5f);
+        rasterizer.addPoint(10.2, 90.7, 2.25f);
+        // outside of the image, ignored
+        rasterizer.addPoint(-10, 200, 3f);
+        rasterizer.dispose();
+
+        for (int x = 0; x < SIZE; x++) {
+            float expected = x >= 5 && x <= 80 ? 1.5f : 0f;
+            assertEquals(expected, image.getSampleFloat(x, 50, 0), 0f);
+            assertEquals(0f, image.getSampleFloat(x, 49, 0), 0f);
+            assertEquals(0f, image.getSampleFloat(x, 51, 0), 0f);
+        }
+        assertEquals(2.25f, image.getSampleFloat(10, 90, 0), 0f);
+    }
+
+}
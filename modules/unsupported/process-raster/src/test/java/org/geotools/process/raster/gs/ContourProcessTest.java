@@ -17,6 +17,11 @@
 package org.geotools.process.raster.gs;
 
 
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+
+import javax.media.jai.TiledImage;
+
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.LineString;
 
@@ -133,6 +138,84 @@ public class ContourProcessTest {
     }
     
     
+    /**
+     * Traces a peak over a tiled coverage, the contours crossing the tile borders must be
+     * stitched back into single closed rings
+     */
+    @Test
+    public void ringsAcrossTiles() {
+        final int SIZE = 50;
+        final ReferencedEnvelope WORLD = new ReferencedEnvelope(0, SIZE, 0, SIZE, null);
+        float[][] data = new float[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double dx = x - 24.3;
+                double dy = y - 25.1;
+                data[y][x] = (float) (100 - Math.sqrt(dx * dx + dy * dy) * 4);
+            }
+        }
+        GridCoverage2D untiled = covFactory.create("untiled", data, WORLD);
+
+        // same data, on 7x7 tiles
+        TiledImage tiled = new TiledImage(0, 0, SIZE, SIZE, 0, 0, new BandedSampleModel(
+                DataBuffer.TYPE_FLOAT, 7, 7, 1), null);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                tiled.setSample(x, y, 0, data[y][x]);
+            }
+        }
+        GridCoverage2D tiledCoverage = covFactory.create("tiled", tiled, WORLD);
+
+        double[] levels = new double[] { 20, 40, 60, 80 };
+        SimpleFeatureCollection expected = process.execute(untiled, 0, levels, null, null, null,
+                null, null);
+        SimpleFeatureCollection actual = process.execute(tiledCoverage, 0, levels, null, null,
+                null, null, null);
+        
+        // one ring per level
+        assertEquals(levels.length, expected.size());
+        assertEquals(levels.length, actual.size());
+        SimpleFeatureIterator ei = expected.features();
+        SimpleFeatureIterator ai = actual.features();
+        try {
+            while (ei.hasNext()) {
+                SimpleFeature ef = ei.next();
+                SimpleFeature af = ai.next();
+                assertEquals(ef.getAttribute("value"), af.getAttribute("value"));
+                LineString el = (LineString) ef.getDefaultGeometry();
+                LineString al = (LineString) af.getDefaultGeometry();
+                assertTrue(al.isClosed());
+                assertEquals(el.getNumPoints(), al.getNumPoints());
+                assertEquals(el.getLength(), al.getLength(), TOL);
+            }
+        } finally {
+            ei.close();
+            ai.close();
+        }
+    }
+
+    /**
+     * Checks the contour values generated from an interval are multiples of it
+     */
+    @Test
+    public void intervalLevels() {
+        GridCoverage2D cov = createVerticalGradient(10, 4, null, 0, 95);
+        SimpleFeatureCollection fc = process.execute(cov, 0, null, 10d, null, null, null, null);
+        assertEquals(9, fc.size());
+        SimpleFeatureIterator iter = fc.features();
+        try {
+            double expected = 10;
+            while (iter.hasNext()) {
+                SimpleFeature feature = iter.next();
+                assertEquals(expected, (Double) feature.getAttribute("value"), TOL);
+                assertEquals(2, ((LineString) feature.getDefaultGeometry()).getNumPoints());
+                expected += 10;
+            }
+        } finally {
+            iter.close();
+        }
+    }
+    
     private GridCoverage2D createVerticalGradient(
             final int dataRows, final int dataCols, 
             ReferencedEnvelope worldEnv,
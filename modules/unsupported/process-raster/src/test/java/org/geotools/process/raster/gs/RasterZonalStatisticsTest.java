@@ -0,0 +1,238 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster.gs;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
+import org.jaitools.numeric.Range;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Tests the raster zonal statistics against a brute force computation
+ *
+ * @source $URL$
+ */
+public class RasterZonalStatisticsTest {
+
+    static final int SIZE = 100;
+
+    GridCoverageFactory factory = new GridCoverageFactory();
+
+    ReferencedEnvelope envelope;
+
+    GridCoverage2D coverage;
+
+    SimpleFeatureType zoneType;
+
+    @Before
+    public void setUp() {
+        envelope = new ReferencedEnvelope(0, SIZE, 0, SIZE, DefaultEngineeringCRS.GENERIC_2D);
+
+        // a tiled image, so that the tiles get processed in parallel
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_FLOAT,
+                16, 16, 1);
+        TiledImage image = new TiledImage(0, 0, SIZE, SIZE, 0, 0, sm,
+                TiledImage.createColorModel(sm));
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                image.setSample(x, y, 0, value(x, y));
+            }
+        }
+        coverage = factory.create("data", image, envelope);
+
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("zones");
+        tb.add("the_geom", Polygon.class, DefaultEngineeringCRS.GENERIC_2D);
+        tb.add("name", String.class);
+        zoneType = tb.buildFeatureType();
+    }
+
+    float value(int x, int y) {
+        return (x * 7 + y * 13) % 101;
+    }
+
+    SimpleFeatureCollection zones(String... wkts) throws Exception {
+        WKTReader reader = new WKTReader();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(zoneType);
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < wkts.length; i++) {
+            fb.add(reader.read(wkts[i]));
+            fb.add("zone" + i);
+            features.add(fb.buildFeature("zones." + i));
+        }
+        return new ListFeatureCollection(zoneType, features);
+    }
+
+    @Test
+    public void testSquare() throws Exception {
+        SimpleFeatureCollection zones = zones("POLYGON((10 10, 20 10, 20 20, 10 20, 10 10))",
+                "POLYGON((200 200, 210 200, 210 210, 200 210, 200 200))");
+        SimpleFeatureCollection result = new RasterZonalStatistics().execute(coverage, null,
+                zones, null, null, null);
+
+        SimpleFeatureIterator fi = result.features();
+        try {
+            // world y 10..20 is raster row 80..89
+            SimpleFeature f = fi.next();
+            assertEquals("zone0", f.getAttribute("z_name"));
+            double sum = 0;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int y = 80; y < 90; y++) {
+                for (int x = 10; x < 20; x++) {
+                    sum += value(x, y);
+                    min = Math.min(min, value(x, y));
+                    max = Math.max(max, value(x, y));
+                }
+            }
+            assertEquals(100l, f.getAttribute("count"));
+            assertEquals(sum, (Double) f.getAttribute("sum"), 1e-6);
+            assertEquals(sum / 100, (Double) f.getAttribute("avg"), 1e-6);
+            assertEquals(min, (Double) f.getAttribute("min"), 0d);
+            assertEquals(max, (Double) f.getAttribute("max"), 0d);
+
+            // outside of the coverage, no stats
+            f = fi.next();
+            assertEquals("zone1", f.getAttribute("z_name"));
+            assertNull(f.getAttribute("count"));
+            assertFalse(fi.hasNext());
+        } finally {
+            fi.close();
+        }
+    }
+
+    @Test
+    public void testPolygonWithHole() throws Exception {
+        Geometry zone = new WKTReader().read("POLYGON((3.3 4.1, 61.7 2.2, 87.2 55.6, "
+                + "40.1 93.3, 3.3 4.1), (30.2 30.3, 50.1 30.7, 40.6 60.2, 30.2 30.3))");
+
+        // brute force, checking the pixel centers
+        GeometryFactory gf = new GeometryFactory();
+        long count = 0;
+        double sum = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (zone.contains(gf.createPoint(new Coordinate(x + 0.5, SIZE - y - 0.5)))) {
+                    count++;
+                    sum += value(x, y);
+                }
+            }
+        }
+
+        for (int threads = 1; threads <= 4; threads += 3) {
+            ZonalStatisticsEngine engine = new ZonalStatisticsEngine(coverage, 0, null);
+            engine.setThreads(threads);
+            List<Geometry> geometries = new ArrayList<Geometry>();
+            geometries.add(zone);
+            ZonalStatisticsEngine.Statistics stats = engine.compute(geometries);
+            assertEquals(count, stats.getCount(0));
+            assertEquals(sum, stats.getSum(0), 1e-6);
+        }
+    }
+
+    @Test
+    public void testClassification() throws Exception {
+        // two classes, left and right half
+        float[][] classes = new float[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                classes[y][x] = x < 50 ? 1 : 2;
+            }
+        }
+        GridCoverage2D classification = factory.create("classes", classes, envelope);
+
+        SimpleFeatureCollection zones = zones("POLYGON((40 10, 60 10, 60 20, 40 20, 40 10))");
+        SimpleFeatureCollection result = new RasterZonalStatistics().execute(coverage, 0, zones,
+                classification, null, null);
+        SimpleFeatureIterator fi = result.features();
+        try {
+            SimpleFeature f = fi.next();
+            assertEquals(1, f.getAttribute("classification"));
+            assertEquals(100l, f.getAttribute("count"));
+            f = fi.next();
+            assertEquals(2, f.getAttribute("classification"));
+            assertEquals(100l, f.getAttribute("count"));
+            assertFalse(fi.hasNext());
+        } finally {
+            fi.close();
+        }
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        SimpleFeatureCollection zones = zones("POLYGON((10 10, 20 10, 20 20, 10 20, 10 10))");
+        SimpleFeatureCollection result = new RasterZonalStatistics().execute(coverage, null,
+                zones, null, 4, new Range<Double>(0d, true, 100d, true));
+
+        // world y 10..20 is raster row 80..89, values are between 0 and 100
+        long[] expected = new long[4];
+        for (int y = 80; y < 90; y++) {
+            for (int x = 10; x < 20; x++) {
+                expected[Math.min((int) (value(x, y) / 25), 3)]++;
+            }
+        }
+        SimpleFeatureIterator fi = result.features();
+        try {
+            SimpleFeature f = fi.next();
+            assertEquals(100l, f.getAttribute("count"));
+            assertEquals(expected[0] + "," + expected[1] + "," + expected[2] + ","
+                    + expected[3], f.getAttribute("histogram"));
+            assertFalse(fi.hasNext());
+        } finally {
+            fi.close();
+        }
+
+        // the histograms of the workers are merged
+        for (int threads = 1; threads <= 4; threads += 3) {
+            ZonalStatisticsEngine engine = new ZonalStatisticsEngine(coverage, 0, null);
+            engine.setThreads(threads);
+            engine.setHistogram(0, 100, 4);
+            List<Geometry> geometries = new ArrayList<Geometry>();
+            geometries.add(new WKTReader().read("POLYGON((0 0, 100 0, 100 100, 0 100, 0 0))"));
+            ZonalStatisticsEngine.Statistics stats = engine.compute(geometries);
+            long[] histogram = stats.getHistogram(0);
+            assertEquals(4, histogram.length);
+            assertEquals(SIZE * SIZE, histogram[0] + histogram[1] + histogram[2] + histogram[3]);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2012, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.geotools.process.raster.surface;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Checks the in place, parallel heatmap blur against a straightforward implementation
+ *
+ * @source $URL$
+ */
+public class HeatmapSurfaceTest {
+
+    static final int WIDTH = 300;
+
+    static final int HEIGHT = 200;
+
+    static final int RADIUS = 13;
+
+    Envelope envelope = new Envelope(0, WIDTH, 0, HEIGHT);
+
+    HeatmapSurface buildSurface(int threads) {
+        HeatmapSurface surface = new HeatmapSurface(RADIUS, envelope, WIDTH, HEIGHT);
+        surface.setThreads(threads);
+        Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            // include points in the buffer area and outside of it
+            surface.addPoint(random.nextDouble() * (WIDTH + 60) - 30,
+                    random.nextDouble() * (HEIGHT + 60) - 30, random.nextDouble() * 10);
+        }
+        return surface;
+    }
+
+    @Test
+    public void testParallelSameAsSerial() {
+        float[][] serial = buildSurface(1).computeSurface();
+        float[][] parallel = buildSurface(4).computeSurface();
+        for (int i = 0; i < WIDTH; i++) {
+            assertArrayEquals(serial[i], parallel[i], 0f);
+        }
+    }
+
+    @Test
+    public void testImageOrientation() {
+        float[][] xy = buildSurface(2).computeSurface();
+        float[][] image = buildSurface(2).computeImageSurface();
+        assertEquals(HEIGHT, image.length);
+        assertEquals(WIDTH, image[0].length);
+        for (int i = 0; i < WIDTH; i++) {
+            for (int j = 0; j < HEIGHT; j++) {
+                assertEquals(xy[i][j], image[HEIGHT - j - 1][i], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsReference() {
+        float[][] surface = buildSurface(4).computeSurface();
+        float[][] reference = referenceSurface();
+        float max = 0;
+        for (int i = 0; i < WIDTH; i++) {
+            for (int j = 0; j < HEIGHT; j++) {
+                max = Math.max(max, surface[i][j]);
+                assertEquals(reference[i][j], surface[i][j], 1e-5);
+            }
+        }
+        assertTrue(max > 0 && max <= 1);
+    }
+
+    /**
+     * Computes the same surface with separate input and output grids
+     */
+    float[][] referenceSurface() {
+        int w = WIDTH + 2 * RADIUS;
+        int h = HEIGHT + 2 * RADIUS;
+        float[][] grid = new float[w][h];
+        GridTransform gt = new GridTransform(envelope, WIDTH, HEIGHT);
+        gt.setClamp(false);
+        Random random = new Random(0);
+        for (int k = 0; k < 500; k++) {
+            double x = random.nextDouble() * (WIDTH + 60) - 30;
+            double y = random.nextDouble() * (HEIGHT + 60) - 30;
+            double value = random.nextDouble() * 10;
+            int i = gt.i(x) + RADIUS;
+            int j = gt.j(y) + RADIUS;
+            if (i >= 0 && i < w && j >= 0 && j < h) {
+                grid[i][j] += value;
+            }
+        }
+
+        int base = RADIUS / 4;
+        int incBreak = RADIUS - base * 4;
+        for (int count = 0; count < 4; count++) {
+            int r = count < incBreak ? base + 1 : base;
+            grid = blurX(grid, r);
+            grid = blurY(grid, r);
+        }
+
+        float max = Float.NEGATIVE_INFINITY;
+        for (float[] column : grid) {
+            for (float v : column) {
+                max = Math.max(max, v);
+            }
+        }
+        float[][] result = new float[WIDTH][HEIGHT];
+        for (int i = 0; i < WIDTH; i++) {
+            for (int j = 0; j < HEIGHT; j++) {
+                result[i][j] = grid[i + RADIUS][j + RADIUS] / max;
+            }
+        }
+        return result;
+    }
+
+    float[][] blurX(float[][] grid, int r) {
+        int w = grid.length;
+        int h = grid[0].length;
+        float[][] result = new float[w][h];
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                double sum = 0;
+                for (int k = Math.max(0, i - r); k <= Math.min(w - 1, i + r); k++) {
+                    sum += grid[k][j];
+                }
+                result[i][j] = (float) (sum / (2 * r + 1));
+            }
+        }
+        return result;
+    }
+
+    float[][] blurY(float[][] grid, int r) {
+        int w = grid.length;
+        int h = grid[0].length;
+        float[][] result = new float[w][h];
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                double sum = 0;
+                for (int k = Math.max(0, j - r); k <= Math.min(h - 1, j + r); k++) {
+                    sum += grid[i][k];
+                }
+                result[i][j] = (float) (sum / (2 * r + 1));
+            }
+        }
+        return result;
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,6 +46,7 @@ import org.geotools.data.shapefile.ng.files.FileReader;
 import org.geotools.data.shapefile.ng.files.ShpFiles;
 import org.geotools.data.shapefile.ng.index.CloseableIterator;
 import org.geotools.data.shapefile.ng.index.Data;
+import org.geotools.data.shapefile.ng.index.DataDefinition;
 import org.geotools.data.shapefile.ng.index.TreeException;
 import org.geotools.data.shapefile.ng.prj.PrjFileReader;
 import org.geotools.data.shapefile.ng.shp.IndexFile;
@@ -95,6 +97,11 @@ class ShapefileFeatureSource extends ContentFeatureSource {
 
     static final Logger LOGGER = Logging.getLogger(ShapefileFeatureSource.class);
 
+    /**
+     * The minimum number of records read by each reader of a parallel visit
+     */
+    static final int MIN_PARTITION_RECORDS = 1000;
+
     ShpFiles shpFiles;
 
     public ShapefileFeatureSource(ContentEntry entry, ShpFiles shpFiles) {
@@ -215,27 +222,21 @@ class ShapefileFeatureSource extends ContentFeatureSource {
     protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query q)
             throws IOException {
         SimpleFeatureType resultSchema = getResultSchema(q);
-        SimpleFeatureType readSchema = getReadSchema(q);
-        GeometryFactory geometryFactory = getGeometryFactory(q);
 
         // grab the target bbox, if any
-        Envelope bbox = new ReferencedEnvelope();
-        if (q.getFilter() != null) {
-            bbox = (Envelope) q.getFilter().accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, bbox);
-        }
+        Envelope bbox = getTargetBBox(q);
 
         // see if we can use indexing to speedup the data access
         Filter filter = q != null ? q.getFilter() : null;
         IndexManager indexManager = getDataStore().indexManager;
         CloseableIterator<Data> goodRecs = null;
-        if (getDataStore().isFidIndexed() && filter instanceof Id && indexManager.hasFidIndex(false)) {
+        if (isFidIndexUsable(filter)) {
             Id fidFilter = (Id) filter;
             List<Data> records = indexManager.queryFidIndex(fidFilter);
             if (records != null) {
                 goodRecs = new CloseableIteratorWrapper<Data>(records.iterator());
             }
-        } else if (getDataStore().isIndexed() && !bbox.isNull()
-                && !Double.isInfinite(bbox.getWidth()) && !Double.isInfinite(bbox.getHeight())) {
+        } else if (isSpatialIndexUsable(bbox)) {
             try {
                 goodRecs = indexManager.querySpatialIndex(bbox);
             } catch (TreeException e) {
@@ -252,10 +253,70 @@ class ShapefileFeatureSource extends ContentFeatureSource {
         
         // get the .fix file reader, if we have a .fix file
         IndexedFidReader fidReader = null;
-        if (getDataStore().isFidIndexed() && filter instanceof Id && indexManager.hasFidIndex(false)) {
+        if (isFidIndexUsable(filter)) {
             fidReader = new IndexedFidReader(shpFiles);
         }
 
+        return getReader(q, bbox, goodRecs, fidReader);
+    }
+
+    /**
+     * Splits the records in ranges read by separate readers, using the offsets in the .shx file,
+     * unless an index would be used to read the query, or the file has too few records.
+     */
+    @Override
+    protected List<FeatureReader<SimpleFeatureType, SimpleFeature>> getPartitionReadersInternal(
+            Query q, int partitions) throws IOException {
+        Envelope bbox = getTargetBBox(q);
+        if (isFidIndexUsable(q.getFilter()) || isSpatialIndexUsable(bbox)) {
+            return null;
+        }
+        IndexFile shx = getDataStore().shpManager.openIndexFile();
+        if (shx == null) {
+            return null;
+        }
+        int count;
+        try {
+            count = shx.getRecordCount();
+        } finally {
+            shx.close();
+        }
+        partitions = Math.min(partitions, count / MIN_PARTITION_RECORDS);
+        if (partitions < 2) {
+            return null;
+        }
+
+        List<FeatureReader<SimpleFeatureType, SimpleFeature>> readers = 
+            new ArrayList<FeatureReader<SimpleFeatureType, SimpleFeature>>();
+        try {
+            for (int i = 0; i < partitions; i++) {
+                int from = (int) ((long) count * i / partitions);
+                int to = (int) ((long) count * (i + 1) / partitions);
+                readers.add(getReader(q, bbox, new RecordRangeIterator(from, to), null));
+            }
+        } catch (IOException e) {
+            for (FeatureReader<SimpleFeatureType, SimpleFeature> reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ce) {
+                    LOGGER.log(Level.FINE, "Failed to close a partition reader", ce);
+                }
+            }
+            throw e;
+        }
+        return readers;
+    }
+
+    /**
+     * Builds the reader for the query, reading only the specified records if any.
+     */
+    FeatureReader<SimpleFeatureType, SimpleFeature> getReader(Query q, Envelope bbox,
+            CloseableIterator<Data> goodRecs, IndexedFidReader fidReader) throws IOException {
+        SimpleFeatureType resultSchema = getResultSchema(q);
+        SimpleFeatureType readSchema = getReadSchema(q);
+        GeometryFactory geometryFactory = getGeometryFactory(q);
+        Filter filter = q != null ? q.getFilter() : null;
+
         // setup the feature readers
         ShapefileSetManager shpManager = getDataStore().shpManager;
         ShapefileReader shapeReader = shpManager.openShapeReader(geometryFactory, goodRecs != null);
@@ -312,6 +373,24 @@ class ShapefileFeatureSource extends ContentFeatureSource {
         }
     }
 
+    Envelope getTargetBBox(Query q) {
+        Envelope bbox = new ReferencedEnvelope();
+        if (q.getFilter() != null) {
+            bbox = (Envelope) q.getFilter().accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, bbox);
+        }
+        return bbox;
+    }
+
+    boolean isFidIndexUsable(Filter filter) {
+        return getDataStore().isFidIndexed() && filter instanceof Id
+                && getDataStore().indexManager.hasFidIndex(false);
+    }
+
+    boolean isSpatialIndexUsable(Envelope bbox) {
+        return getDataStore().isIndexed() && !bbox.isNull() && !Double.isInfinite(bbox.getWidth())
+                && !Double.isInfinite(bbox.getHeight());
+    }
+
     SimpleFeatureType getResultSchema(Query q) {
         if (q.getPropertyNames() == null) {
             return getSchema();
@@ -496,4 +575,60 @@ class ShapefileFeatureSource extends ContentFeatureSource {
         return super.handleVisitor(query, visitor);
     }
 
+    /**
+     * Iterates over a range of records, returning their numbers and offsets as the indexes do.
+     * Each iterator reads the offsets with its own .shx file reader.
+     */
+    class RecordRangeIterator implements CloseableIterator<Data> {
+        final DataDefinition def;
+
+        IndexFile shx;
+
+        int recno;
+
+        final int end;
+
+        RecordRangeIterator(int start, int end) throws IOException {
+            this.recno = start;
+            this.end = end;
+            this.def = new DataDefinition("US-ASCII");
+            def.addField(Integer.class);
+            def.addField(Long.class);
+            this.shx = getDataStore().shpManager.openIndexFile();
+            if (shx == null) {
+                throw new IOException("The .shx file is not available");
+            }
+        }
+
+        public boolean hasNext() {
+            return recno < end;
+        }
+
+        public Data next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Data data = new Data(def);
+                data.addValue(new Integer(recno + 1));
+                data.addValue(new Long(shx.getOffsetInBytes(recno)));
+                recno++;
+                return data;
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to read the offset of record " + recno, e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            if (shx != null) {
+                shx.close();
+                shx = null;
+            }
+        }
+    }
+
 }